@@ -0,0 +1,102 @@
+package io.inbot.benchmarks;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.object;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+import io.inbot.elasticsearch.client.ElasticSearchIndex;
+import io.inbot.elasticsearch.client.ElasticSearchType;
+import java.util.Random;
+
+/**
+ * Generates documents that look roughly like the contact and company objects we store in production: a few short
+ * strings, some numbers, a tag list, a nested object and a paragraph of text. Generation is seeded so every fork
+ * benchmarks the same data.
+ */
+public class SampleDocuments {
+    public static final ElasticSearchIndex INDEX = ElasticSearchIndex.create("bench", 1, "bench-mapping.json");
+    public static final ElasticSearchType TYPE = ElasticSearchType.create(INDEX, "doc");
+
+    private static final String[] WORDS = { "elasticsearch", "redis", "cache", "cluster", "shard", "replica", "query",
+            "filter", "index", "alias", "mapping", "bulk", "scroll", "version", "conflict", "latency", "throughput",
+            "contact", "company", "meeting", "email", "phone", "berlin", "helsinki", "london", "amsterdam" };
+
+    private final Random random;
+
+    public SampleDocuments(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @param id
+     *            id of the document
+     * @return a document of about one kilobyte when serialized
+     */
+    @SuppressWarnings("unchecked")
+    public JsonObject document(String id) {
+        JsonArray tags = array();
+        for(int i = 0; i < 5; i++) {
+            tags.add(word());
+        }
+        return object(
+                field("id", id),
+                field("name", word() + " " + word()),
+                field("email", word() + "@" + word() + ".com"),
+                field("score", random.nextInt(1000)),
+                field("rating", random.nextDouble()),
+                field("active", random.nextBoolean()),
+                field("created_at", 1450000000000L + random.nextInt(Integer.MAX_VALUE)),
+                field("tags", tags),
+                field("address", object(
+                        field("street", word() + " " + random.nextInt(200)),
+                        field("city", word()),
+                        field("country", word()))),
+                field("description", sentence(60)));
+    }
+
+    /**
+     * @param from
+     *            number of documents skipped; used to fill in from and total
+     * @param hits
+     *            number of hits in the response
+     * @return a search response like elasticsearch returns it
+     */
+    @SuppressWarnings("unchecked")
+    public JsonObject searchResponse(int from, int hits) {
+        JsonArray hitArray = array();
+        for(int i = 0; i < hits; i++) {
+            String id = "" + (from + i);
+            hitArray.add(object(
+                    field("_index", "bench_v1"),
+                    field("_type", "doc"),
+                    field("_id", id),
+                    field("_version", 1 + random.nextInt(5)),
+                    field("_score", 1.0),
+                    field("_source", document(id))));
+        }
+        return object(
+                field("took", 3),
+                field("timed_out", false),
+                field("hits", object(
+                        field("total", from + hits),
+                        field("max_score", 1.0),
+                        field("hits", hitArray))));
+    }
+
+    private String word() {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private String sentence(int words) {
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0; i < words; i++) {
+            if(i > 0) {
+                buf.append(' ');
+            }
+            buf.append(word());
+        }
+        return buf.toString();
+    }
+}
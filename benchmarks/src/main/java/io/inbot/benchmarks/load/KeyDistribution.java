@@ -0,0 +1,73 @@
+package io.inbot.benchmarks.load;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Picks which of the keys in the key space a request is about. Real traffic is rarely uniform; a few popular objects
+ * get most of the reads, which is what makes caching worthwhile. Use {@link #zipf(int, double)} to model that.
+ */
+public interface KeyDistribution {
+    /**
+     * @param random
+     *            source of randomness; callers use a thread local one
+     * @return a key between 0 (inclusive) and the size of the key space (exclusive)
+     */
+    int next(Random random);
+
+    /**
+     * @param keys
+     *            size of the key space
+     * @return every key is equally likely
+     */
+    public static KeyDistribution uniform(int keys) {
+        Validate.isTrue(keys > 0, "keys must be greater than 0");
+        return random -> random.nextInt(keys);
+    }
+
+    /**
+     * Key k is picked with a probability proportional to 1/(k+1)^exponent. With an exponent around 1 the top one percent
+     * of the keys gets roughly half of the requests.
+     *
+     * @param keys
+     *            size of the key space
+     * @param exponent
+     *            skew; 0 is uniform, higher values concentrate requests on fewer keys
+     * @return zipf distribution over the keys
+     */
+    public static KeyDistribution zipf(int keys, double exponent) {
+        Validate.isTrue(keys > 0, "keys must be greater than 0");
+        Validate.isTrue(exponent >= 0, "exponent must not be negative");
+        // cumulative distribution; a binary search over it turns a uniform double into a key
+        double[] cdf = new double[keys];
+        double sum = 0;
+        for(int k = 0; k < keys; k++) {
+            sum += 1.0 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        double total = sum;
+        return random -> {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            return Math.min(index < 0 ? -index - 1 : index, keys - 1);
+        };
+    }
+
+    /**
+     * @param spec
+     *            uniform, zipf (exponent 0.99) or zipf:exponent
+     * @param keys
+     *            size of the key space
+     * @return the distribution
+     */
+    public static KeyDistribution parse(String spec, int keys) {
+        if("uniform".equals(spec)) {
+            return uniform(keys);
+        } else if("zipf".equals(spec)) {
+            return zipf(keys, 0.99);
+        } else if(spec.startsWith("zipf:")) {
+            return zipf(keys, Double.parseDouble(spec.substring("zipf:".length())));
+        }
+        throw new IllegalArgumentException("unknown key distribution " + spec);
+    }
+}
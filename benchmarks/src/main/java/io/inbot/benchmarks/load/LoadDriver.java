@@ -0,0 +1,204 @@
+package io.inbot.benchmarks.load;
+
+import com.github.jsonj.JsonObject;
+import io.inbot.benchmarks.SampleDocuments;
+import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
+import io.inbot.elasticsearch.client.QueryBuilder;
+import io.inbot.elasticsearch.crud.CrudOperations;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates load against a {@link CrudOperations}, e.g. one built by
+ * {@link io.inbot.elasticsearch.crud.CrudOpererationsFactory} with the caches you want to evaluate, and reports the
+ * latency percentiles and throughput per operation.
+ *
+ * The objects in the key space have the ids 0 to keys-1; call {@link #populate()} once before the first run. Creates
+ * use new ids so the key space stays the same size.
+ */
+public class LoadDriver {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadDriver.class);
+    private static final String[] TAGS = { "redis", "cache", "shard", "query", "bulk", "alias", "berlin", "london" };
+
+    private final CrudOperations dao;
+    private final LoadProfile profile;
+    private final KeyDistribution keyDistribution;
+    private final AtomicLong createdIds = new AtomicLong();
+
+    public LoadDriver(CrudOperations dao, LoadProfile profile) {
+        this.dao = dao;
+        this.profile = profile;
+        keyDistribution = profile.keyDistribution();
+    }
+
+    /**
+     * Bulk index the objects in the key space.
+     */
+    public void populate() {
+        SampleDocuments sampleDocuments = new SampleDocuments(42);
+        try(BulkIndexingOperations bulkIndexer = dao.bulkIndexer()) {
+            for(int i = 0; i < profile.keys(); i++) {
+                bulkIndexer.index(sampleDocuments.document("" + i));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("could not populate the key space", e);
+        }
+    }
+
+    /**
+     * @param name
+     *            name of the run in the report
+     * @return the report
+     */
+    public LoadReport run(String name) {
+        LOG.info("starting " + name + ": " + profile);
+        long intervalNanos = profile.targetRate() == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / profile.targetRate();
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(profile.warmupSeconds());
+        long end = measureStart + TimeUnit.SECONDS.toNanos(profile.durationSeconds());
+        AtomicLong sequence = new AtomicLong();
+
+        List<Worker> workers = new ArrayList<>();
+        for(int i = 0; i < profile.threads(); i++) {
+            Worker worker = new Worker(i, sequence, intervalNanos, start, measureStart, end);
+            workers.add(worker);
+            worker.thread.start();
+        }
+        LoadReport report = new LoadReport(name, end - measureStart);
+        for(Worker worker : workers) {
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for the load to finish", e);
+            }
+            for(LoadOperation operation : LoadOperation.values()) {
+                report.add(operation, worker.histograms[operation.ordinal()], worker.errors[operation.ordinal()]);
+            }
+        }
+        return report;
+    }
+
+    private class Worker implements Runnable {
+        private final Thread thread;
+        private final SampleDocuments sampleDocuments;
+        private final AtomicLong sequence;
+        private final long intervalNanos;
+        private final long start;
+        private final long measureStart;
+        private final long end;
+        private final Histogram[] histograms = new Histogram[LoadOperation.values().length];
+        private final long[] errors = new long[LoadOperation.values().length];
+        private long lastErrorLogged = 0;
+
+        Worker(int number, AtomicLong sequence, long intervalNanos, long start, long measureStart, long end) {
+            this.sequence = sequence;
+            this.intervalNanos = intervalNanos;
+            this.start = start;
+            this.measureStart = measureStart;
+            this.end = end;
+            sampleDocuments = new SampleDocuments(number);
+            for(int i = 0; i < histograms.length; i++) {
+                histograms[i] = LoadReport.newHistogram();
+            }
+            thread = new Thread(this, "load-" + number);
+        }
+
+        @Override
+        public void run() {
+            LoadProfile.OperationPicker picker = profile.picker();
+            Random random = ThreadLocalRandom.current();
+            while(true) {
+                long intended;
+                if(intervalNanos > 0) {
+                    // requests are scheduled on a fixed timeline shared by all workers; a slow request delays the
+                    // next ones and that delay counts as latency
+                    intended = start + sequence.getAndIncrement() * intervalNanos;
+                    if(intended >= end) {
+                        return;
+                    }
+                    long wait = intended - System.nanoTime();
+                    if(wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    intended = System.nanoTime();
+                    if(intended >= end) {
+                        return;
+                    }
+                }
+                LoadOperation operation = picker.next(random);
+                boolean failed = false;
+                try {
+                    execute(operation, random);
+                } catch (RuntimeException e) {
+                    failed = true;
+                    if(intended - lastErrorLogged > TimeUnit.SECONDS.toNanos(1)) {
+                        lastErrorLogged = intended;
+                        LOG.warn(operation + " failed: " + e.getMessage());
+                    }
+                }
+                if(intended >= measureStart) {
+                    long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended);
+                    histograms[operation.ordinal()].recordValue(Math.min(micros, LoadReport.HIGHEST_TRACKABLE_MICROS));
+                    if(failed) {
+                        errors[operation.ordinal()]++;
+                    }
+                }
+            }
+        }
+
+        private void execute(LoadOperation operation, Random random) {
+            switch(operation) {
+            case CREATE:
+                dao.create(sampleDocuments.document("c" + createdIds.incrementAndGet()), false);
+                break;
+            case GET:
+                dao.get(key(random));
+                break;
+            case MGET:
+                String[] ids = new String[profile.mgetSize()];
+                for(int i = 0; i < ids.length; i++) {
+                    ids[i] = key(random);
+                }
+                dao.mget(true, ids);
+                break;
+            case UPDATE:
+                int score = random.nextInt(1000);
+                dao.update(key(random), true, o -> {
+                    o.put("score", score);
+                    return o;
+                });
+                break;
+            case SEARCH:
+                JsonObject query = QueryBuilder.query(QueryBuilder.term("tags", TAGS[random.nextInt(TAGS.length)]));
+                dao.pagedSearch(query, profile.searchSize(), 0).size();
+                break;
+            case BULK:
+                try(BulkIndexingOperations bulkIndexer = dao.bulkIndexer()) {
+                    for(int i = 0; i < profile.bulkSize(); i++) {
+                        bulkIndexer.index(sampleDocuments.document(key(random)));
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                break;
+            default:
+                throw new IllegalStateException("unsupported operation " + operation);
+            }
+        }
+
+        private String key(Random random) {
+            return "" + keyDistribution.next(random);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package io.inbot.benchmarks.load;
+
+import com.github.jsonj.tools.JsonParser;
+import io.inbot.elasticsearch.client.ElasticSearchIndex;
+import io.inbot.elasticsearch.client.ElasticSearchType;
+import io.inbot.elasticsearch.client.HttpEsAPIClient;
+import io.inbot.elasticsearch.crud.CrudOpererationsFactory;
+import io.inbot.elasticsearch.crud.CrudOpererationsFactory.CrudOperationsBuilder;
+import io.inbot.elasticsearch.fake.FakeEsServer;
+import io.inbot.elasticsearch.jsonclient.JsonJRestClient;
+import io.inbot.redis.FakeJedisPool;
+import io.inbot.redis.RedisSortedSetModifiedTracker;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Command line entry point for the {@link LoadDriver}. Runs the same load against one or more cache configurations
+ * and prints a report for each followed by a summary. Without es and redis arguments everything runs in process
+ * against the {@link FakeEsServer} and the in memory redis, so cache configurations can be compared offline.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar io.inbot.benchmarks.load.LoadDriverMain caches=none,guava,redis,tiered threads=16 rate=2000
+ * </pre>
+ *
+ * Arguments are name=value pairs:
+ * <ul>
+ * <li>caches: comma separated configurations; each is none, guava, redis, tiered or offheap optionally followed by
+ * +coalesce and/or +search, e.g. redis+coalesce. Default none,guava,redis,tiered</li>
+ * <li>mix: operation:weight pairs, e.g. get:70,mget:10,update:10,create:5,search:4,bulk:1</li>
+ * <li>keys, distribution (uniform, zipf, zipf:exponent), threads, rate (operations per second, 0 is unbounded), warmup
+ * and duration (seconds), mget, bulk and search (batch sizes)</li>
+ * <li>es: url of a real elasticsearch node; esLatency: min-max milliseconds added by the fake server</li>
+ * <li>redis: host:port of a real redis</li>
+ * </ul>
+ */
+public class LoadDriverMain {
+    public static void main(String[] args) {
+        Map<String, String> arguments = new LinkedHashMap<>();
+        for(String arg : args) {
+            int eq = arg.indexOf('=');
+            if(eq < 1) {
+                throw new IllegalArgumentException("expected name=value but was " + arg);
+            }
+            arguments.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        LoadProfile profile = profile(arguments);
+
+        FakeEsServer fakeEs = null;
+        String esUrl = arguments.get("es");
+        if(esUrl == null) {
+            fakeEs = FakeEsServer.start();
+            esUrl = fakeEs.url();
+            String latency = arguments.get("esLatency");
+            if(latency != null) {
+                String[] minMax = latency.split("-");
+                fakeEs.setLatency(Long.parseLong(minMax[0]), Long.parseLong(minMax[minMax.length - 1]));
+            }
+        }
+        String redis = arguments.get("redis");
+        JedisPool jedisPool;
+        if(redis == null) {
+            jedisPool = new FakeJedisPool();
+        } else {
+            String[] hostPort = redis.split(":");
+            jedisPool = new JedisPool(hostPort[0], hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : 6379);
+        }
+
+        try {
+            JsonParser parser = new JsonParser();
+            HttpEsAPIClient client = new HttpEsAPIClient(JsonJRestClient.simpleClient(esUrl), parser, 10000);
+            CrudOpererationsFactory factory = new CrudOpererationsFactory(client, parser, jedisPool,
+                    new RedisSortedSetModifiedTracker(jedisPool, 1000, 600));
+
+            List<LoadReport> reports = new ArrayList<>();
+            int run = 0;
+            for(String caches : arguments.getOrDefault("caches", "none,guava,redis,tiered").split(",")) {
+                run++;
+                // every configuration gets its own index and redis keys so runs don't see each other's data
+                ElasticSearchIndex index = ElasticSearchIndex.create("loadtest" + run, 1, "bench-mapping.json");
+                client.migrateIndex(index);
+                CrudOperationsBuilder builder = factory.builder(ElasticSearchType.create(index, "doc"));
+                configureCaches(builder, caches, "lt" + run, profile.keys());
+
+                LoadDriver driver = new LoadDriver(builder.dao(), profile);
+                driver.populate();
+                client.refresh();
+                LoadReport report = driver.run(caches);
+                System.out.println(report);
+                reports.add(report);
+            }
+            System.out.println(profile);
+            System.out.println(String.format(Locale.ROOT, "%-24s %10s %9s %9s", "caches", "ops/s", "p50 ms", "p99 ms"));
+            for(LoadReport report : reports) {
+                System.out.println(String.format(Locale.ROOT, "%-24s %10.1f %9.2f %9.2f", report.name(), report.throughput(),
+                        report.latencies().getValueAtPercentile(50) / 1000.0, report.latencies().getValueAtPercentile(99) / 1000.0));
+            }
+        } finally {
+            jedisPool.close();
+            if(fakeEs != null) {
+                fakeEs.close();
+            }
+        }
+    }
+
+    private static LoadProfile profile(Map<String, String> arguments) {
+        LoadProfile profile = new LoadProfile();
+        if(arguments.containsKey("mix")) {
+            profile.mix(arguments.get("mix"));
+        }
+        if(arguments.containsKey("keys")) {
+            profile.keys(Integer.parseInt(arguments.get("keys")));
+        }
+        if(arguments.containsKey("distribution")) {
+            profile.keyDistribution(arguments.get("distribution"));
+        }
+        if(arguments.containsKey("threads")) {
+            profile.threads(Integer.parseInt(arguments.get("threads")));
+        }
+        if(arguments.containsKey("rate")) {
+            profile.targetRate(Integer.parseInt(arguments.get("rate")));
+        }
+        profile.duration(Integer.parseInt(arguments.getOrDefault("warmup", "" + profile.warmupSeconds())),
+                Integer.parseInt(arguments.getOrDefault("duration", "" + profile.durationSeconds())));
+        profile.batchSizes(Integer.parseInt(arguments.getOrDefault("mget", "" + profile.mgetSize())),
+                Integer.parseInt(arguments.getOrDefault("bulk", "" + profile.bulkSize())),
+                Integer.parseInt(arguments.getOrDefault("search", "" + profile.searchSize())));
+        return profile;
+    }
+
+    private static void configureCaches(CrudOperationsBuilder builder, String caches, String redisPrefix, int keys) {
+        for(String cache : caches.split("\\+")) {
+            switch(cache) {
+            case "none":
+                break;
+            case "guava":
+                builder.enableInMemoryCache(keys, 600);
+                break;
+            case "redis":
+                builder.enableRedisCache(true, 600, redisPrefix);
+                break;
+            case "tiered":
+                builder.enableInMemoryCache(keys, 600).enableRedisCache(true, 600, redisPrefix);
+                break;
+            case "offheap":
+                builder.enableOffHeapCache(256 * 1024 * 1024, 600, false);
+                break;
+            case "coalesce":
+                builder.enableGetCoalescing(50, 2);
+                break;
+            case "search":
+                builder.enableSearchCache(1000, 10);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown cache configuration " + cache);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package io.inbot.benchmarks.load;
+
+/**
+ * The kinds of requests the {@link LoadDriver} sends to a {@link io.inbot.elasticsearch.crud.CrudOperations}.
+ */
+public enum LoadOperation {
+    /**
+     * Create a new object with an id outside the key space.
+     */
+    CREATE,
+    /**
+     * Get a single object from the key space.
+     */
+    GET,
+    /**
+     * Get several objects from the key space in one call.
+     */
+    MGET,
+    /**
+     * Read, modify and write back an object from the key space.
+     */
+    UPDATE,
+    /**
+     * Term query on one of the tags.
+     */
+    SEARCH,
+    /**
+     * Reindex a batch of objects from the key space with the bulk indexer.
+     */
+    BULK
+}
@@ -0,0 +1,203 @@
+package io.inbot.benchmarks.load;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * What load the {@link LoadDriver} generates. The defaults are a read heavy mix with zipf distributed keys, eight
+ * threads going as fast as they can, ten seconds of warmup and thirty seconds of measurement.
+ */
+public class LoadProfile {
+    private final Map<LoadOperation, Integer> mix = new EnumMap<>(LoadOperation.class);
+    private int keys = 10000;
+    private String keyDistribution = "zipf";
+    private int threads = 8;
+    private int targetRate = 0;
+    private int warmupSeconds = 10;
+    private int durationSeconds = 30;
+    private int mgetSize = 10;
+    private int bulkSize = 100;
+    private int searchSize = 10;
+
+    public LoadProfile() {
+        mix.put(LoadOperation.GET, 70);
+        mix.put(LoadOperation.MGET, 10);
+        mix.put(LoadOperation.UPDATE, 10);
+        mix.put(LoadOperation.CREATE, 5);
+        mix.put(LoadOperation.SEARCH, 4);
+        mix.put(LoadOperation.BULK, 1);
+    }
+
+    /**
+     * @param operation
+     *            operation
+     * @param weight
+     *            relative weight of the operation in the mix; 0 leaves it out
+     * @return profile
+     */
+    public LoadProfile weight(LoadOperation operation, int weight) {
+        Validate.isTrue(weight >= 0, "weight must not be negative");
+        mix.put(operation, weight);
+        return this;
+    }
+
+    /**
+     * @param spec
+     *            comma separated operation:weight pairs, e.g. get:80,update:20; operations that are not listed are left
+     *            out
+     * @return profile
+     */
+    public LoadProfile mix(String spec) {
+        mix.clear();
+        for(String pair : spec.split(",")) {
+            String[] parts = pair.split(":");
+            Validate.isTrue(parts.length == 2, "expected operation:weight but was %s", pair);
+            weight(LoadOperation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+        }
+        return this;
+    }
+
+    /**
+     * @param keys
+     *            number of objects that are created before the run and that get, mget, update and bulk pick from
+     * @return profile
+     */
+    public LoadProfile keys(int keys) {
+        Validate.isTrue(keys > 0, "keys must be greater than 0");
+        this.keys = keys;
+        return this;
+    }
+
+    /**
+     * @param spec
+     *            uniform, zipf or zipf:exponent; see {@link KeyDistribution#parse(String, int)}
+     * @return profile
+     */
+    public LoadProfile keyDistribution(String spec) {
+        // fail early rather than after populating the key space
+        KeyDistribution.parse(spec, 1);
+        keyDistribution = spec;
+        return this;
+    }
+
+    /**
+     * @param threads
+     *            number of concurrent callers
+     * @return profile
+     */
+    public LoadProfile threads(int threads) {
+        Validate.isTrue(threads > 0, "threads must be greater than 0");
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param operationsPerSecond
+     *            total rate over all threads; 0 means as fast as possible. With a target rate, latencies are measured
+     *            from when a request should have started so that stalls are not hidden by requests that were never sent.
+     * @return profile
+     */
+    public LoadProfile targetRate(int operationsPerSecond) {
+        Validate.isTrue(operationsPerSecond >= 0, "target rate must not be negative");
+        targetRate = operationsPerSecond;
+        return this;
+    }
+
+    /**
+     * @param warmupSeconds
+     *            time spent generating load before latencies are recorded
+     * @param durationSeconds
+     *            time during which latencies are recorded
+     * @return profile
+     */
+    public LoadProfile duration(int warmupSeconds, int durationSeconds) {
+        Validate.isTrue(warmupSeconds >= 0, "warmup must not be negative");
+        Validate.isTrue(durationSeconds > 0, "duration must be greater than 0");
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        return this;
+    }
+
+    /**
+     * @param mgetSize
+     *            ids per mget
+     * @param bulkSize
+     *            objects per bulk request
+     * @param searchSize
+     *            page size of the searches
+     * @return profile
+     */
+    public LoadProfile batchSizes(int mgetSize, int bulkSize, int searchSize) {
+        Validate.isTrue(mgetSize > 0 && bulkSize > 0 && searchSize > 0, "batch sizes must be greater than 0");
+        this.mgetSize = mgetSize;
+        this.bulkSize = bulkSize;
+        this.searchSize = searchSize;
+        return this;
+    }
+
+    public int keys() {
+        return keys;
+    }
+
+    public KeyDistribution keyDistribution() {
+        return KeyDistribution.parse(keyDistribution, keys);
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    public int targetRate() {
+        return targetRate;
+    }
+
+    public int warmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public int durationSeconds() {
+        return durationSeconds;
+    }
+
+    public int mgetSize() {
+        return mgetSize;
+    }
+
+    public int bulkSize() {
+        return bulkSize;
+    }
+
+    public int searchSize() {
+        return searchSize;
+    }
+
+    /**
+     * @return picks operations according to the weights of the mix
+     */
+    OperationPicker picker() {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        Validate.isTrue(total > 0, "the mix must contain at least one operation with a weight greater than 0");
+        LoadOperation[] slots = new LoadOperation[total];
+        int i = 0;
+        for(Entry<LoadOperation, Integer> entry : mix.entrySet()) {
+            for(int j = 0; j < entry.getValue(); j++) {
+                slots[i++] = entry.getKey();
+            }
+        }
+        return random -> slots[random.nextInt(slots.length)];
+    }
+
+    @FunctionalInterface
+    interface OperationPicker {
+        LoadOperation next(Random random);
+    }
+
+    @Override
+    public String toString() {
+        return "mix=" + mix + " keys=" + keys + " distribution=" + keyDistribution + " threads=" + threads + " rate="
+                + (targetRate == 0 ? "max" : targetRate + "/s") + " warmup=" + warmupSeconds + "s duration=" + durationSeconds + "s";
+    }
+}
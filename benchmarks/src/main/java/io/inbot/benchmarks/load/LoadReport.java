@@ -0,0 +1,97 @@
+package io.inbot.benchmarks.load;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latencies and throughput of a load run, per operation and in total. Latencies are recorded in microseconds and
+ * reported in milliseconds.
+ */
+public class LoadReport {
+    // one hour is more than enough for anything we'd call a successful request
+    static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final String name;
+    private final long durationNanos;
+    private final Map<LoadOperation, Histogram> histograms = new EnumMap<>(LoadOperation.class);
+    private final Map<LoadOperation, Long> errors = new EnumMap<>(LoadOperation.class);
+    private final Histogram total = newHistogram();
+
+    LoadReport(String name, long durationNanos) {
+        this.name = name;
+        this.durationNanos = durationNanos;
+    }
+
+    static Histogram newHistogram() {
+        return new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    }
+
+    void add(LoadOperation operation, Histogram histogram, long errorCount) {
+        if(histogram.getTotalCount() == 0) {
+            // not part of the mix
+            return;
+        }
+        histograms.computeIfAbsent(operation, o -> newHistogram()).add(histogram);
+        errors.merge(operation, errorCount, Long::sum);
+        total.add(histogram);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @param operation
+     *            operation
+     * @return latencies in microseconds of the operation; empty if it was not part of the mix
+     */
+    public Histogram latencies(LoadOperation operation) {
+        Histogram histogram = histograms.get(operation);
+        return histogram == null ? newHistogram() : histogram;
+    }
+
+    /**
+     * @return latencies in microseconds of all operations together
+     */
+    public Histogram latencies() {
+        return total;
+    }
+
+    public long errors(LoadOperation operation) {
+        return errors.getOrDefault(operation, 0L);
+    }
+
+    /**
+     * @return successful and failed operations per second during the measured part of the run
+     */
+    public double throughput() {
+        return total.getTotalCount() * 1e9 / durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append(name).append(String.format(Locale.ROOT, ": %.1f ops/s%n", throughput()));
+        buf.append(String.format(Locale.ROOT, "%-8s %10s %8s %9s %9s %9s %9s %9s %9s%n", "op", "count", "errors", "ops/s", "p50 ms", "p90 ms",
+                "p99 ms", "p99.9 ms", "max ms"));
+        for(Entry<LoadOperation, Histogram> entry : histograms.entrySet()) {
+            line(buf, entry.getKey().name().toLowerCase(Locale.ROOT), entry.getValue(), errors(entry.getKey()));
+        }
+        line(buf, "total", total, errors.values().stream().mapToLong(Long::longValue).sum());
+        return buf.toString();
+    }
+
+    private void line(StringBuilder buf, String label, Histogram histogram, long errorCount) {
+        buf.append(String.format(Locale.ROOT, "%-8s %10d %8d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", label, histogram.getTotalCount(), errorCount,
+                histogram.getTotalCount() * 1e9 / durationNanos, millis(histogram, 50), millis(histogram, 90), millis(histogram, 99),
+                millis(histogram, 99.9), histogram.getMaxValue() / 1000.0));
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
@@ -0,0 +1,89 @@
+package io.inbot.elasticsearch.bulkindexing;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.object;
+
+import com.github.jsonj.JsonObject;
+import io.inbot.benchmarks.SampleDocuments;
+import io.inbot.elasticsearch.client.EsAPIClient;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building bulk request bodies: queueing operations with {@link BulkIndexer#index(JsonObject)} and turning
+ * them into the newline separated body on flush. The client is a stub that only records the body size, so no http or
+ * response parsing is involved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkIndexerBenchmark {
+    @Param({ "100", "1000" })
+    public int batchSize;
+
+    private final AtomicLong bytes = new AtomicLong();
+    private JsonObject[] documents;
+    private BulkIndexer bulkIndexer;
+    private EsBulkOperation operation;
+
+    @Setup
+    public void setup() {
+        SampleDocuments sampleDocuments = new SampleDocuments(42);
+        documents = new JsonObject[batchSize];
+        for(int i = 0; i < batchSize; i++) {
+            documents[i] = sampleDocuments.document("" + i);
+        }
+        // a large batch size so that only the explicit flush calls in the benchmark send anything
+        bulkIndexer = new BulkIndexer(recordingClient(bytes), "bench_v1", "doc", Integer.MAX_VALUE / 2, 1, false);
+        operation = new EsBulkOperation(object(field("index", object(field("_index", "bench_v1"), field("_type", "doc"), field("_id", "1")))),
+                documents[0], null);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        bulkIndexer.close();
+    }
+
+    @Benchmark
+    public long indexAndFlush() {
+        for(JsonObject document : documents) {
+            bulkIndexer.index(document);
+        }
+        bulkIndexer.flush();
+        return bytes.get();
+    }
+
+    @Benchmark
+    public String serializeOperation() {
+        return operation.toString();
+    }
+
+    private static EsAPIClient recordingClient(AtomicLong bytes) {
+        JsonObject response = object(field("took", 1), field("errors", false), field("items", array()));
+        return (EsAPIClient) Proxy.newProxyInstance(EsAPIClient.class.getClassLoader(), new Class<?>[] { EsAPIClient.class }, (proxy, method, args) -> {
+            if("bulkIndex".equals(method.getName())) {
+                bytes.addAndGet(((String) args[2]).length());
+                return response;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+}
@@ -0,0 +1,64 @@
+package io.inbot.elasticsearch.client;
+
+import com.github.jsonj.JsonObject;
+import io.inbot.benchmarks.SampleDocuments;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures walking the hits of a search response. A fresh {@link EsSearchResponse} projects the raw hits on first use;
+ * after that iterating clones every hit while the read only view hands out the projected objects as is.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EsSearchResponseBenchmark {
+    @Param({ "10", "100" })
+    public int hits;
+
+    private JsonObject rawResponse;
+    private EsSearchResponse projected;
+
+    @Setup
+    public void setup() {
+        rawResponse = new SampleDocuments(42).searchResponse(0, hits);
+        projected = new EsSearchResponse(rawResponse, hits, 0);
+        projected.readOnlyView();
+    }
+
+    @Benchmark
+    public void projectAndIterate(Blackhole blackhole) {
+        // projection is idempotent, so reusing the raw response is fine
+        for(JsonObject hit : new EsSearchResponse(rawResponse, hits, 0).readOnlyView()) {
+            blackhole.consume(hit);
+        }
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        for(JsonObject hit : projected) {
+            blackhole.consume(hit);
+        }
+    }
+
+    @Benchmark
+    public void iterateReadOnlyView(Blackhole blackhole) {
+        for(JsonObject hit : projected.readOnlyView()) {
+            blackhole.consume(hit);
+        }
+    }
+}
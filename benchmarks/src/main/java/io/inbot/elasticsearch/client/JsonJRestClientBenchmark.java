@@ -0,0 +1,83 @@
+package io.inbot.elasticsearch.client;
+
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.object;
+
+import com.github.jsonj.JsonObject;
+import io.inbot.benchmarks.SampleDocuments;
+import io.inbot.elasticsearch.fake.FakeEsServer;
+import io.inbot.elasticsearch.jsonclient.JsonJRestClient;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the client side of a round trip: request serialization, the pooled http connection and response parsing.
+ * Requests go to an in process {@link FakeEsServer} so results are not dominated by what a real cluster does with them;
+ * compare with a run against a real node to see how much of the latency is ours.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class JsonJRestClientBenchmark {
+    private static final int DOCUMENTS = 1000;
+
+    private FakeEsServer server;
+    private JsonJRestClient client;
+    private JsonObject document;
+    private JsonObject query;
+
+    @Setup
+    public void setup() {
+        server = FakeEsServer.start();
+        client = JsonJRestClient.simpleClient(server.url());
+        SampleDocuments sampleDocuments = new SampleDocuments(42);
+        for(int i = 0; i < DOCUMENTS; i++) {
+            client.put("/bench_v1/doc/" + i, sampleDocuments.document("" + i));
+        }
+        client.post("/bench_v1/_refresh");
+        document = sampleDocuments.document("new");
+        query = object(field("query", object(field("term", object(field("tags", "redis"))))), field("size", 10));
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public Optional<JsonObject> get() {
+        return client.get("/bench_v1/doc/" + ThreadLocalRandom.current().nextInt(DOCUMENTS));
+    }
+
+    @Benchmark
+    public Optional<JsonObject> getMissing() {
+        return client.get("/bench_v1/doc/missing");
+    }
+
+    @Benchmark
+    public Optional<JsonObject> index() {
+        return client.put("/bench_v1/doc/" + ThreadLocalRandom.current().nextInt(DOCUMENTS), document);
+    }
+
+    @Benchmark
+    public Optional<JsonObject> search() {
+        return client.post("/bench_v1/doc/_search", query);
+    }
+}
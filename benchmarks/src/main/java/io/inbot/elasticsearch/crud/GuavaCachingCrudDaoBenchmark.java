@@ -0,0 +1,92 @@
+package io.inbot.elasticsearch.crud;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+import io.inbot.benchmarks.SampleDocuments;
+import io.inbot.elasticsearch.client.HttpEsAPIClient;
+import io.inbot.elasticsearch.fake.FakeEsServer;
+import io.inbot.elasticsearch.jsonclient.JsonJRestClient;
+import io.inbot.redis.FakeJedisPool;
+import io.inbot.redis.RedisSortedSetModifiedTracker;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures cache hits of the {@link GuavaCachingCrudDao} for each of the storage options. All documents fit in the cache
+ * and are loaded during setup, so get and mget never reach the {@link FakeEsServer} behind it; getUncached does and is
+ * there for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class GuavaCachingCrudDaoBenchmark {
+    private static final int DOCUMENTS = 1000;
+    private static final int MGET_SIZE = 10;
+
+    @Param({ "OBJECTS", "SERIALIZED", "COMPRESSED" })
+    public InMemoryCacheStorage storage;
+
+    private FakeEsServer server;
+    private CrudOperations dao;
+
+    @Setup
+    public void setup() {
+        server = FakeEsServer.start();
+        JsonParser parser = new JsonParser();
+        HttpEsAPIClient client = new HttpEsAPIClient(JsonJRestClient.simpleClient(server.url()), parser, 10000);
+        client.migrateIndex(SampleDocuments.INDEX);
+        FakeJedisPool jedisPool = new FakeJedisPool();
+        CrudOpererationsFactory factory = new CrudOpererationsFactory(client, parser, jedisPool, new RedisSortedSetModifiedTracker(jedisPool, 100, 60));
+        dao = factory.builder(SampleDocuments.TYPE).enableInMemoryCache(DOCUMENTS * 2, 3600).inMemoryCacheStorage(storage).dao();
+        SampleDocuments sampleDocuments = new SampleDocuments(42);
+        for(int i = 0; i < DOCUMENTS; i++) {
+            dao.create(sampleDocuments.document("" + i), true);
+        }
+        for(int i = 0; i < DOCUMENTS; i++) {
+            dao.get("" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public JsonObject get() {
+        return dao.get("" + ThreadLocalRandom.current().nextInt(DOCUMENTS));
+    }
+
+    @Benchmark
+    public JsonArray mget() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String[] ids = new String[MGET_SIZE];
+        for(int i = 0; i < MGET_SIZE; i++) {
+            ids[i] = "" + random.nextInt(DOCUMENTS);
+        }
+        return dao.mget(true, ids);
+    }
+
+    @Benchmark
+    public JsonObject getUncached() {
+        return dao.get(false, "" + ThreadLocalRandom.current().nextInt(DOCUMENTS));
+    }
+}
@@ -0,0 +1,67 @@
+package io.inbot.redis;
+
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+import io.inbot.benchmarks.SampleDocuments;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures turning cached objects into redis values and back with the codecs {@link RedisCache} supports, and a full
+ * put and get through the cache against the in memory redis.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisCodecBenchmark {
+    @Param({ "gzip", "smile" })
+    public String codecName;
+
+    private RedisValueCodec codec;
+    private JsonObject document;
+    private byte[] encoded;
+    private RedisCache cache;
+
+    @Setup
+    public void setup() {
+        JsonParser parser = new JsonParser();
+        codec = "smile".equals(codecName) ? new SmileCodec() : new CompressedJsonCodec(parser);
+        document = new SampleDocuments(42).document("1");
+        encoded = codec.encode(document);
+        cache = new RedisCache(new FakeJedisPool(), codec, "b/d/v", 1, 600);
+        cache.put(document);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(document);
+    }
+
+    @Benchmark
+    public JsonObject decode() {
+        return codec.decode(encoded);
+    }
+
+    @Benchmark
+    public void put() {
+        cache.put(document);
+    }
+
+    @Benchmark
+    public CachedValue lookup() {
+        return cache.lookup("1");
+    }
+}
@@ -6,6 +6,7 @@ import static com.github.jsonj.tools.JsonBuilder.object;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
 import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonElement;
 import com.github.jsonj.JsonObject;
 import com.github.jsonj.exceptions.JsonTypeMismatchException;
 import io.inbot.datemath.DateMath;
@@ -13,6 +14,7 @@ import io.inbot.elasticsearch.client.EsAPIClient;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -82,6 +84,7 @@ public class BulkIndexer implements BulkIndexingOperations {
     };
 
     private boolean refresh;
+    private boolean externalVersions;
 
     /**
      * @param esAPIClient
@@ -148,6 +151,15 @@ public class BulkIndexer implements BulkIndexingOperations {
         this.refresh = refresh;
     }
 
+    /**
+     * @param externalVersions
+     *            if true, objects indexed with a version use version_type=external so elasticsearch keeps the highest
+     *            version rather than rejecting versions that differ from the current one. Used to copy indices.
+     */
+    public void setExternalVersions(boolean externalVersions) {
+        this.externalVersions = externalVersions;
+    }
+
     @Override
     public void setBulkIndexerStatusHandler(BulkIndexerStatusHandler statusHandler) {
         this.statusHandler = statusHandler;
@@ -201,6 +213,9 @@ public class BulkIndexer implements BulkIndexingOperations {
             JsonObject metadata = object(field("index", attributes));
             if(version != null) {
                 metadata.getOrCreateObject("index").add(field("_version", version));
+                if(externalVersions) {
+                    metadata.getOrCreateObject("index").add(field("_version_type", "external"));
+                }
             }
             EsBulkOperation requestobject = new EsBulkOperation(metadata, object, null);
 
@@ -305,7 +320,8 @@ public class BulkIndexer implements BulkIndexingOperations {
                         long start = System.currentTimeMillis();
                         try {
                             long duration = System.currentTimeMillis() - start;
-                            JsonObject responseBody = esAPIClient.bulkIndex(index, type, finalBody);
+                            JsonObject responseBody = esAPIClient.write(index, target -> bulkIndex(target, finalBody),
+                                    (response, newIndex) -> copy(currentRequestObjects, response, newIndex));
                             JsonArray items = responseBody.getArray("items");
                             int size = items.size();
                             int errors = 0;
@@ -386,6 +402,50 @@ public class BulkIndexer implements BulkIndexingOperations {
 
     }
 
+    private JsonObject bulkIndex(String target, String body) {
+        try {
+            return esAPIClient.bulkIndex(target, type, body);
+        } catch (IOException e) {
+            throw new IllegalStateException("bulk request to " + target + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Repeats the operations that succeeded on the new index while the index is migrated, with the resulting versions
+     * as external versions. Version conflicts mean the new index already has the same or a later version.
+     */
+    private void copy(List<EsBulkOperation> operations, JsonObject response, String newIndex) {
+        JsonArray items = response.getOrCreateArray("items");
+        StringBuilder body = new StringBuilder();
+        for(int i = 0; i < operations.size() && i < items.size(); i++) {
+            EsBulkOperation operation = operations.get(i);
+            String action = operation.metadata.keySet().iterator().next();
+            JsonObject attributes = operation.metadata.getObject(action);
+            JsonObject result = items.get(i).asObject().getObject(action);
+            if(result != null && result.get("error") == null && index.equals(attributes.getString("_index"))) {
+                JsonObject copied = attributes.deepClone();
+                copied.put("_index", newIndex);
+                copied.put("_id", result.getString("_id"));
+                copied.put("_version", result.getString("_version"));
+                copied.put("_version_type", "external");
+                body.append(new EsBulkOperation(object(field(action, copied)), operation.object, null));
+            }
+        }
+        if(body.length() > 0) {
+            for(JsonObject item : bulkIndex(newIndex, body.toString()).getOrCreateArray("items").objects()) {
+                for(JsonElement result : item.values()) {
+                    JsonObject error = result.asObject().getObject("error");
+                    if(error != null && !"version_conflict_engine_exception".equals(error.getString("type"))) {
+                        errorMeter.mark();
+                        LOG.warn(item.toString());
+                        totalErrors.incrementAndGet();
+                        statusHandler.error("copy_problem", item);
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public void close() throws IOException {
         flush();
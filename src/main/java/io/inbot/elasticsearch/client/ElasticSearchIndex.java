@@ -6,6 +6,21 @@ public interface ElasticSearchIndex {
         return new SimpleIndex(alias,version,mappingResource);
     }
 
+    /**
+     * Like {@link #create(String, int, String)} but writes go through a separate alias, alias_write. This allows
+     * {@link EsAPIClient#migrateIndex(ElasticSearchIndex)} to keep writing to the old and new index while it copies
+     * one into the other, so objects updated during the migration are not lost. All processes that write to the index
+     * need to use this before you migrate.
+     *
+     * @param alias alias used for reads
+     * @param version version of the index
+     * @param mappingResource mapping
+     * @return the index
+     */
+    public static ElasticSearchIndex createWithWriteAlias(String alias, int version, String mappingResource) {
+        return new SimpleIndex(alias, alias + "_write", version, mappingResource);
+    }
+
     String mappingResource();
 
     String indexName();
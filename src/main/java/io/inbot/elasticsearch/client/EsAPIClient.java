@@ -4,6 +4,8 @@ import com.github.jsonj.JsonArray;
 import com.github.jsonj.JsonObject;
 import io.inbot.elasticsearch.bulkindexing.BulkIndexer;
 import java.io.IOException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import org.apache.http.client.ClientProtocolException;
 
 public interface EsAPIClient {
@@ -43,14 +45,47 @@ public interface EsAPIClient {
     JsonObject deleteObject(String index, String type, String id, String version);
 
     JsonObject deleteObject(String index, String type, String id, String version, String parentId);
+
+    /**
+     * Delete with version_type=external. Elasticsearch keeps the version of the deleted object around for a while
+     * (index.gc_deletes, one minute by default) so that older writes that arrive later are rejected.
+     *
+     * @param index index
+     * @param type type
+     * @param id id of the object
+     * @param parentId parent id or null
+     * @param version version of the delete; must be greater than the current version
+     * @return the delete response
+     * @throws io.inbot.elasticsearch.exceptions.EsVersionConflictException if the index already has this or a later version
+     */
+    JsonObject deleteObjectWithExternalVersion(String index, String type, String id, String parentId, long version);
     JsonObject deletePercolator(String index, String id);
     JsonObject getMapping(String index, String type);
 
     JsonObject getObject(String index, String type, String id);
     JsonObject getObject(String index, String type, String id, String parentId);
 
+    /**
+     * @param index index
+     * @param type type
+     * @param id id of the object
+     * @param parentId parent id or null
+     * @param sourceFilter limits the parts of the _source that are returned; may be null
+     * @return the get response
+     */
+    JsonObject getObject(String index, String type, String id, String parentId, SourceFilter sourceFilter);
+
     JsonObject getObjects(String index, String type, String...ids);
 
+    /**
+     * @param index index
+     * @param type type
+     * @param sourceFilter limits the parts of the _source that are returned; may be null
+     * @param ids ids of the objects
+     * @return the mget response
+     */
+    JsonObject getObjects(String index, String type, SourceFilter sourceFilter, String...ids);
+
     JsonObject getPercolator(String index, String id);
 
     boolean indexExists(String indexName);
@@ -61,12 +96,16 @@ public interface EsAPIClient {
 
     IterableSearchResponse iterableSearch(String index, String type, JsonObject q, int pageSize, int ttlMinutes, boolean rawResults);
 
+    IterableSearchResponse iterableSearch(String index, String type, JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter);
+
     PagedSearchResponse pagedSearch(ElasticSearchType type, JsonObject q, int size, int from);
 
     PagedSearchResponse pagedSearch(String index, String type, JsonObject q, int size, int from);
 
     PagedSearchResponse pagedSearch(String index, String type, JsonObject q, int size, int from, String...fields);
 
+    PagedSearchResponse pagedSearch(String index, String type, JsonObject q, int size, int from, SourceFilter sourceFilter);
+
     JsonObject percolate(String index, String type, JsonObject doc);
 
     JsonObject refresh();
@@ -91,8 +130,37 @@ public interface EsAPIClient {
 
     JsonObject updateObject(String index, String type, String id, String parentId, String version, JsonObject object);
 
+    /**
+     * Index with version_type=external, which makes elasticsearch keep the object with the highest version regardless of
+     * the order in which the writes arrive. Used to keep a copy of an index up to date with the original.
+     *
+     * @param index index
+     * @param type type
+     * @param id id of the object
+     * @param parentId parent id or null
+     * @param version version of the object; must be greater than the current version
+     * @param object the object
+     * @return the index response
+     * @throws io.inbot.elasticsearch.exceptions.EsVersionConflictException if the index already has this or a later version
+     */
+    JsonObject indexObjectWithExternalVersion(String index, String type, String id, String parentId, long version, JsonObject object);
+
     void verbose(boolean on);
 
+    /**
+     * Writes to an index or write alias. While {@link #migrateIndex(ElasticSearchIndex)} copies the index behind a
+     * separate write alias, the write goes to the old index by name and is then repeated on the new index, using the
+     * version of the first write as an external version. The migration waits for writes that are in progress before
+     * it starts copying and before it switches the aliases, so a write never ends up in only one of the indices.
+     *
+     * @param index index or write alias
+     * @param write writes to the index it is given and returns the response
+     * @param copy repeats the write with the given response on the new index it is given
+     * @param <T> response type
+     * @return the response of the write
+     */
+    <T> T write(String index, Function<String, T> write, BiConsumer<T, String> copy);
+
     void restore(ElasticSearchIndex index, String file);
 
     void backup(ElasticSearchIndex index, String file);
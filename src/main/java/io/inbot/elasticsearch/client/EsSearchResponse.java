@@ -1,18 +1,20 @@
 package io.inbot.elasticsearch.client;
 
-import static com.github.jsonj.tools.JsonBuilder.array;
-
 import com.github.jsonj.JsonArray;
 import com.github.jsonj.JsonObject;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
-import java.util.stream.StreamSupport;
 
 public class EsSearchResponse implements PagedSearchResponse {
     private final JsonObject elasticSearchResponse;
     private final int from;
     private final int pageSize;
+    private volatile List<JsonObject> hits;
 
     public EsSearchResponse(JsonObject elasticSearchResponse, int pageSize, int from) {
         this.elasticSearchResponse = elasticSearchResponse;
@@ -25,33 +27,66 @@ public class EsSearchResponse implements PagedSearchResponse {
         return ProcessingSearchResponse.map(this, f);
     }
 
+    @Override
+    public ProcessingSearchResponse parallelMap(Function<JsonObject, JsonObject> f) {
+        return ProcessingSearchResponse.parallelMap(this, f);
+    }
+
+    @Override
+    public ProcessingSearchResponse parallelMap(Function<JsonObject, JsonObject> f, Executor executor, int lookahead) {
+        return ProcessingSearchResponse.parallelMap(this, f, executor, lookahead);
+    }
+
+    /**
+     * Turns the raw hits into the objects we return. This happens only once and in place: the _version is copied into
+     * the _source of each hit so that the _source objects can be handed out as is by {@link #readOnlyView()} and
+     * iterated over repeatedly without any allocations.
+     *
+     * @return the projected hits
+     */
+    private List<JsonObject> hits() {
+        List<JsonObject> result = hits;
+        if(result == null) {
+            synchronized(this) {
+                result = hits;
+                if(result == null) {
+                    JsonArray rawHits = elasticSearchResponse.getArray("hits","hits");
+                    if(rawHits == null) {
+                        result = Collections.emptyList();
+                    } else {
+                        List<JsonObject> projected = new ArrayList<>(rawHits.size());
+                        for(JsonObject hit: rawHits.objects()) {
+                            JsonObject object = hit.getObject("_source");
+                            if(object==null) {
+                                object=hit;
+                            }
+                            object.put("_version", hit.getString("_version"));
+                            projected.add(object);
+                        }
+                        result = Collections.unmodifiableList(projected);
+                    }
+                    hits = result;
+                }
+            }
+        }
+        return result;
+    }
+
     @Override
     public Iterator<JsonObject> iterator() {
         if(elasticSearchResponse == null) {
             throw new NoSuchElementException();
         }
-        JsonArray hits = elasticSearchResponse.getArray("hits","hits");
-        if(hits == null) {
-            return array().objects().iterator();
+        // ensure we can iterate multiple times by cloning, callers may modify what they get
+        return hits().stream().map(hit -> hit.deepClone()).iterator();
+    }
+
+    @Override
+    public Iterable<JsonObject> readOnlyView() {
+        if(elasticSearchResponse == null) {
+            throw new NoSuchElementException();
         }
-        return StreamSupport.stream(hits.objects().spliterator(), false).map(input -> {
-            // ensure we can iterate multiple times by cloning, essential for e.g. etags
-            JsonObject clone = input.deepClone();
-            JsonObject hit = clone.asObject();
-            JsonObject object = hit.getObject("_source");
-            if(object==null) {
-                object=hit;
-            }
-            object.put("_version", hit.getString("_version"));
-            // when sorting es does not return a score. So assign 1 as default
-//            try {
-//                object.put("es_search_score", hit.get("_score", 1.0));
-//            } catch (JsonTypeMismatchException e) {
-//                // es returns null score sometimes instead of omitting it
-//            }
-            return object;
-
-        }).iterator();
+        return hits();
     }
 
     @Override
@@ -59,11 +94,7 @@ public class EsSearchResponse implements PagedSearchResponse {
         if(elasticSearchResponse == null) {
             throw new NoSuchElementException();
         }
-        JsonArray hits = elasticSearchResponse.getArray("hits","hits");
-        JsonObject hit = hits.get(index).asObject();
-        JsonObject object = hit.getObject("_source");
-        object.put("_version", hit.getString("_version"));
-        return object;
+        return hits().get(index).deepClone();
     }
 
     @Override
@@ -83,7 +114,7 @@ public class EsSearchResponse implements PagedSearchResponse {
     	bfr.append("[");
     	int current = 0;
     	if(size() >0) {
-            for (JsonObject hit : this) {
+            for (JsonObject hit : readOnlyView()) {
             	bfr.append(hit);
             	if (current < (size()-1)){
                 	bfr.append(",");
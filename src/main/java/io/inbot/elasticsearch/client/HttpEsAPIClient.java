@@ -27,6 +27,12 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -40,6 +46,7 @@ public class HttpEsAPIClient implements EsAPIClient {
     private final JsonParser parser;
     private final JsonJRestClient jsonJRestClient;
     private final int maxPageSize;
+    private final ConcurrentMap<String, DualWrites> dualWrites = new ConcurrentHashMap<>();
 
     public HttpEsAPIClient(JsonJRestClient jsonJRestClient, JsonParser parser, int maxPageSize) {
         this.jsonJRestClient = jsonJRestClient;
@@ -85,7 +92,12 @@ public class HttpEsAPIClient implements EsAPIClient {
      */
     @Override
     public void migrateIndex(ElasticSearchIndex index, int replicas) {
-        // NOTE this does not tolerate concurrent updates to the index, you may lose data
+        if(!index.readAlias().equals(index.writeAlias())) {
+            migrateIndexWithDualWrites(index, replicas);
+            return;
+        }
+        // NOTE this does not tolerate concurrent updates to the index, you may lose data; use an index with a separate
+        // write alias to avoid that
         String alias = index.aliasPrefix(); // the index name without the version or read/write aliases
         String mappingResource = index.mappingResource();
 
@@ -111,7 +123,7 @@ public class HttpEsAPIClient implements EsAPIClient {
 
                         // we need to reindex the old index into the new one in two steps
                         String oldIndex = currentIndices.get(0).asString();
-                        boolean reindexSuccessfull = reindex(index, oldIndex, matchAll());
+                        boolean reindexSuccessfull = reindex(index, oldIndex, matchAll(), false);
                         // now we can switch over the alias
                         JsonArray actions = array();
 
@@ -127,7 +139,7 @@ public class HttpEsAPIClient implements EsAPIClient {
                         // IMPORTANT any updates may end up overwriting each other: https://blog.codecentric.de/en/2014/09/elasticsearch-zero-downtime-reindexing-problems-solutions/
                         // You may want to avoid doing this on a live server
                         JsonObject modifiedQuery = QueryBuilder.rangeQuery("updated_at", DateMath.formatIsoDate(startTime - 5000), true, null, true);
-                        reindexSuccessfull = reindexSuccessfull && reindex(index, oldIndex, modifiedQuery);
+                        reindexSuccessfull = reindexSuccessfull && reindex(index, oldIndex, modifiedQuery, false);
 
                         // remove the old index
                         if(reindexSuccessfull) {
@@ -161,11 +173,164 @@ public class HttpEsAPIClient implements EsAPIClient {
         }
     }
 
-    private boolean reindex(ElasticSearchIndex index, String oldIndex, JsonObject q) {
+    /**
+     * Zero downtime migration for indices with separate read and write aliases. The old and the new index are
+     * resolved once when the migration starts. Until it completes, every write that goes through
+     * {@link #write(String, Function, BiConsumer)} for the write alias, which includes the daos and their bulk
+     * indexers, is sent to the old index by name and then repeated on the new index with the resulting version as an
+     * external version. The write alias keeps pointing to the old index only, which remains the source of truth. The
+     * copy uses external versions as well, so the new index ends up with the latest version of every object no matter
+     * whether the copy or the write arrives first. Once the copy is done, reads and writes switch to the new index in
+     * one atomic alias update, which waits for the writes that are in progress.
+     *
+     * If the copy fails, the new index is removed and the aliases are left pointing to the old index, so the migration
+     * can be retried; this throws an IllegalStateException in that case.
+     *
+     * Only writes through this client are repeated on the new index; other processes should not write to the index
+     * while it is migrated.
+     */
+    private void migrateIndexWithDualWrites(ElasticSearchIndex index, int replicas) {
+        String readAlias = index.readAlias();
+        String writeAlias = index.writeAlias();
+        String newIndex = index.indexName();
+
+        if(!isIndexMigrationNeeded(index)) {
+            if(!aliasExists(writeAlias)) {
+                // otherwise the first write would create an index with the name of the alias
+                LOG.info("adding write alias " + writeAlias + " to " + newIndex);
+                updateAliases(array(aliasAction("add", newIndex, writeAlias)));
+            } else {
+                LOG.info("no migration needed for " + readAlias + " version " + index.version());
+            }
+            return;
+        }
+        if(!aliasExists(readAlias)) {
+            if(indexExists(readAlias) || indexExists(writeAlias)) {
+                throw new IllegalStateException("an index already exists with the alias name " + readAlias + " or " + writeAlias);
+            }
+            LOG.info("alias does not exist " + readAlias + " create new index with aliases");
+            if(!indexExists(newIndex)) {
+                createIndexMappingFromResource(newIndex, index.mappingResource(), replicas);
+            }
+            updateAliases(array(aliasAction("add", newIndex, readAlias), aliasAction("add", newIndex, writeAlias)));
+            return;
+        }
+        JsonArray currentIndices = indicesFor(readAlias);
+        if(currentIndices.size() != 1) {
+            throw new IllegalArgumentException("cannot migrate alias " + readAlias + " because it does not point to exactly one index: " + currentIndices);
+        }
+        String oldIndex = currentIndices.first().asString();
+        if(!indexExists(newIndex)) {
+            createIndexMappingFromResource(newIndex, index.mappingResource(), replicas);
+        }
+        if(!aliasExists(writeAlias)) {
+            updateAliases(array(aliasAction("add", oldIndex, writeAlias)));
+        }
+        DualWrites writes = dualWrites(writeAlias);
+        // from now on every write goes to both indices; the old index remains the source of truth until the switch
+        writes.start(oldIndex, newIndex);
+        boolean copied = false;
+        try {
+            // objects written before the dual writes started must be visible to the copy
+            refresh(oldIndex);
+            LOG.info("copying " + oldIndex + " to " + newIndex + " while writing to both");
+            copied = reindex(index, oldIndex, matchAll(), true);
+        } finally {
+            if(!copied) {
+                // writes stop going to the new index, so it would miss updates if it were kept around for a retry
+                writes.stop(() -> deleteIndex(newIndex));
+            }
+        }
+        if(!copied) {
+            throw new IllegalStateException("there was an issue copying " + oldIndex + " to " + newIndex + ". Aliases " + readAlias
+                    + " and " + writeAlias + " still point to " + oldIndex + " and you should check it.");
+        }
+        writes.stop(() -> updateAliases(array(
+                aliasAction("remove", oldIndex, readAlias),
+                aliasAction("add", newIndex, readAlias),
+                aliasAction("remove", oldIndex, writeAlias),
+                aliasAction("add", newIndex, writeAlias))));
+        LOG.info("remove old index " + oldIndex);
+        deleteIndex(oldIndex);
+    }
+
+    private DualWrites dualWrites(String index) {
+        return dualWrites.computeIfAbsent(index, name -> new DualWrites());
+    }
+
+    @Override
+    public <T> T write(String index, Function<String, T> write, BiConsumer<T, String> copy) {
+        DualWrites writes = dualWrites(index);
+        writes.lock.readLock().lock();
+        try {
+            if(writes.newIndex == null) {
+                return write.apply(index);
+            }
+            T response = write.apply(writes.oldIndex);
+            copy.accept(response, writes.newIndex);
+            return response;
+        } finally {
+            writes.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The indices that writes to an index or write alias go to while it is migrated. Writes share the lock; starting
+     * and stopping a migration takes it exclusively so that it never happens halfway through a write.
+     */
+    private static class DualWrites {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // guarded by lock
+        private String oldIndex;
+        private String newIndex;
+
+        void start(String oldIndex, String newIndex) {
+            lock.writeLock().lock();
+            try {
+                this.oldIndex = oldIndex;
+                this.newIndex = newIndex;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void stop(Runnable beforeUnlock) {
+            lock.writeLock().lock();
+            try {
+                oldIndex = null;
+                newIndex = null;
+                beforeUnlock.run();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private JsonObject aliasAction(String action, String index, String alias) {
+        return object(field(action, object(field("index", index), field("alias", alias))));
+    }
+
+    private void updateAliases(JsonArray actions) {
+        jsonJRestClient.post(UrlBuilder.url("/").append("_aliases").build(), object(field("actions", actions)))
+                .orElseThrow(() -> new EsNotFoundException());
+    }
+
+    private boolean reindex(ElasticSearchIndex index, String oldIndex, JsonObject q, boolean externalVersions) {
         JsonObject query = queryWithVersion(q);
         // uses multiple threads to minimize downtime
         try(BulkIndexer bulkIndexer = bulkIndexer(index.indexName(), null, 1000, 9)) {
-            LoggingStatusHandler statusHandler = new LoggingStatusHandler(LOG);
+            LoggingStatusHandler statusHandler;
+            if(externalVersions) {
+                bulkIndexer.setExternalVersions(true);
+                statusHandler = new LoggingStatusHandler(LOG) {
+                    @Override
+                    public void handleVersionConflict(String id, Function<JsonObject, JsonObject> updateFunction) {
+                        // written during the copy, the new index already has the same or a later version
+                    }
+                };
+            } else {
+                statusHandler = new LoggingStatusHandler(LOG);
+            }
             bulkIndexer.setBulkIndexerStatusHandler(statusHandler);
             query.put("fields", array("_source","_parent","_id","_type"));
             for(JsonObject o: Iterables.concat(
@@ -175,11 +340,16 @@ public class HttpEsAPIClient implements EsAPIClient {
                 String parent = o.getString("fields","_parent");
                 JsonObject object = o.getObject("_source");
                 String type = o.getString("_type");
-                object.put("_type", type);
-                if(StringUtils.isNotEmpty(parent)) {
-                    bulkIndexer.index(object,parent);
+                if(externalVersions) {
+                    // keep the version so writes that happen during the copy are not overwritten with older data
+                    bulkIndexer.index(o.getString("_id"), type, parent, o.getString("_version"), object);
                 } else {
-                    bulkIndexer.index(object);
+                    object.put("_type", type);
+                    if(StringUtils.isNotEmpty(parent)) {
+                        bulkIndexer.index(object,parent);
+                    } else {
+                        bulkIndexer.index(object);
+                    }
                 }
             }
             if(!statusHandler.status().get("reindex_success", false)) {
@@ -328,6 +498,20 @@ public class HttpEsAPIClient implements EsAPIClient {
         return jsonJRestClient.delete(url).orElseThrow(notFoundSupplier());
     }
 
+    @Override
+    public JsonObject deleteObjectWithExternalVersion(String index, String type, String id, String parentId, long version) {
+        Validate.isTrue(StringUtils.isNotBlank(index));
+        Validate.isTrue(StringUtils.isNotBlank(type));
+        Validate.isTrue(StringUtils.isNotBlank(id));
+
+        UrlBuilder urlBuilder = UrlBuilder.url("/").append(index, type, id).queryParam("version", "" + version).queryParam("version_type", "external");
+        if (StringUtils.isNotEmpty(parentId)) {
+            urlBuilder.queryParam("parent", parentId);
+        }
+        // a 404 means the object was never copied; the delete still records the version
+        return jsonJRestClient.delete(urlBuilder.build()).orElse(object(field("found", false), field("_version", version)));
+    }
+
     @Override
     public JsonObject deletePercolator(String index, String id) {
         Validate.isTrue(StringUtils.isNotBlank(index));
@@ -351,25 +535,40 @@ public class HttpEsAPIClient implements EsAPIClient {
 
     @Override
     public JsonObject getObject(String index, String type, String id, String parentId) {
+        return getObject(index, type, id, parentId, null);
+    }
+
+    @Override
+    public JsonObject getObject(String index, String type, String id, String parentId, SourceFilter sourceFilter) {
         Validate.isTrue(StringUtils.isNotBlank(index));
         Validate.isTrue(StringUtils.isNotBlank(type));
         Validate.isTrue(StringUtils.isNotBlank(id));
-        String url;
+        UrlBuilder urlBuilder = UrlBuilder.url("/").append(index, type, id);
         if (StringUtils.isNotEmpty(parentId)) {
-            url = UrlBuilder.url("/").append(index, type, id).queryParam("parent", parentId).build();
-        } else {
-            url = UrlBuilder.url("/").append(index, type, id).build();
+            urlBuilder.queryParam("parent", parentId);
         }
-        return jsonJRestClient.get(url).orElseThrow(notFoundSupplier());
+        if (sourceFilter != null) {
+            sourceFilter.apply(urlBuilder);
+        }
+        return jsonJRestClient.get(urlBuilder.build()).orElseThrow(notFoundSupplier());
     }
 
     @Override
     public JsonObject getObjects(String index, String type, String... ids) {
+        return getObjects(index, type, null, ids);
+    }
+
+    @Override
+    public JsonObject getObjects(String index, String type, SourceFilter sourceFilter, String... ids) {
         Validate.isTrue(StringUtils.isNotBlank(index));
         Validate.isTrue(StringUtils.isNotBlank(type));
         Validate.isTrue(ids.length > 0);
         JsonObject idsQuery = object(field("ids", array(ids)));
-        return jsonJRestClient.get(UrlBuilder.url("/").append(index, type, "_mget").build(), idsQuery).orElseThrow(notFoundSupplier());
+        UrlBuilder urlBuilder = UrlBuilder.url("/").append(index, type, "_mget");
+        if (sourceFilter != null) {
+            sourceFilter.apply(urlBuilder);
+        }
+        return jsonJRestClient.get(urlBuilder.build(), idsQuery).orElseThrow(notFoundSupplier());
     }
 
     @Override
@@ -405,6 +604,15 @@ public class HttpEsAPIClient implements EsAPIClient {
         return iterableSearch(type.readAlias(), type.type(), q, pageSize, ttlMinutes, rawResults);
     }
 
+    @Override
+    public IterableSearchResponse iterableSearch(String index, String type, JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        if(sourceFilter != null) {
+            // don't leak the filter into the caller's query
+            return iterableSearch(index, type, sourceFilter.apply(q.deepClone()), pageSize, ttlMinutes, rawResults);
+        }
+        return iterableSearch(index, type, q, pageSize, ttlMinutes, rawResults);
+    }
+
     @Override
     public IterableSearchResponse iterableSearch(final String index, final String type, final JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
         Validate.isTrue(pageSize < maxPageSize, "pageSize should be less than " + maxPageSize);
@@ -529,6 +737,15 @@ public class HttpEsAPIClient implements EsAPIClient {
         return pagedSearch(index, type, q,pageSize, from);
     }
 
+    @Override
+    public PagedSearchResponse pagedSearch(String index, String type, JsonObject q, int pageSize, int from, SourceFilter sourceFilter) {
+        if(sourceFilter != null) {
+            // don't leak the filter into the caller's query
+            return pagedSearch(index, type, sourceFilter.apply(q.deepClone()), pageSize, from);
+        }
+        return pagedSearch(index, type, q, pageSize, from);
+    }
+
     @Override
     public JsonObject percolate(String index, String type, JsonObject doc) {
         Validate.isTrue(StringUtils.isNotBlank(index));
@@ -644,6 +861,19 @@ public class HttpEsAPIClient implements EsAPIClient {
         return jsonJRestClient.put(url, object).orElseThrow(notFoundSupplier());
     }
 
+    @Override
+    public JsonObject indexObjectWithExternalVersion(String index, String type, String id, String parentId, long version, JsonObject object) {
+        Validate.isTrue(StringUtils.isNotBlank(index));
+        Validate.isTrue(StringUtils.isNotBlank(type));
+        Validate.isTrue(StringUtils.isNotBlank(id));
+        Validate.notNull(object);
+        UrlBuilder urlBuilder = UrlBuilder.url("/").append(index, type, id).queryParam("version", "" + version).queryParam("version_type", "external");
+        if (StringUtils.isNotEmpty(parentId)) {
+            urlBuilder.queryParam("parent", parentId);
+        }
+        return jsonJRestClient.put(urlBuilder.build(), object).orElseThrow(notFoundSupplier());
+    }
+
     @Override
     public void verbose(boolean on) {
         jsonJRestClient.setVerbose(on);
@@ -2,6 +2,7 @@ package io.inbot.elasticsearch.client;
 
 import com.github.jsonj.JsonObject;
 import java.util.Iterator;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 public class IterableSearchResponse implements SearchResponse {
@@ -23,6 +24,16 @@ public class IterableSearchResponse implements SearchResponse {
         return ProcessingSearchResponse.map(this, f);
     }
 
+    @Override
+    public ProcessingSearchResponse parallelMap(Function<JsonObject, JsonObject> f) {
+        return ProcessingSearchResponse.parallelMap(this, f);
+    }
+
+    @Override
+    public ProcessingSearchResponse parallelMap(Function<JsonObject, JsonObject> f, Executor executor, int lookahead) {
+        return ProcessingSearchResponse.parallelMap(this, f, executor, lookahead);
+    }
+
     @Override
     public int size() {
         return size;
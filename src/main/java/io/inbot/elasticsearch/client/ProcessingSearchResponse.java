@@ -1,34 +1,92 @@
 package io.inbot.elasticsearch.client;
 
 import com.github.jsonj.JsonObject;
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.stream.StreamSupport;
+import org.apache.commons.lang3.Validate;
 
 /**
  * Wraps another search response and allows you to process the individual results as they are iterated through.
+ *
+ * With parallelMap, the processor runs on an executor for up to lookahead results ahead of the result that is being
+ * iterated. Results are still returned in the original order and results that are mapped to null are left out.
  */
 public class ProcessingSearchResponse implements SearchResponse {
+    public static final int DEFAULT_LOOKAHEAD = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+
     private final SearchResponse response;
     private final Function<JsonObject, JsonObject> processor;
+    private final Executor executor;
+    private final int lookahead;
 
-    private ProcessingSearchResponse(SearchResponse response, Function<JsonObject, JsonObject> processor) {
+    private ProcessingSearchResponse(SearchResponse response, Function<JsonObject, JsonObject> processor, Executor executor, int lookahead) {
         this.response = response;
         this.processor = processor;
+        this.executor = executor;
+        this.lookahead = lookahead;
     }
 
     public static ProcessingSearchResponse map(SearchResponse response, Function<JsonObject, JsonObject> f) {
-        return new ProcessingSearchResponse(response, f);
+        return new ProcessingSearchResponse(response, f, null, 0);
+    }
+
+    /**
+     * @param response
+     *            response to process
+     * @param f
+     *            processor; must be thread safe
+     * @return response that processes results on the common fork join pool
+     */
+    public static ProcessingSearchResponse parallelMap(SearchResponse response, Function<JsonObject, JsonObject> f) {
+        return parallelMap(response, f, ForkJoinPool.commonPool(), DEFAULT_LOOKAHEAD);
+    }
+
+    /**
+     * @param response
+     *            response to process
+     * @param f
+     *            processor; must be thread safe
+     * @param executor
+     *            executor that runs the processor
+     * @param lookahead
+     *            maximum number of results that are processed ahead of the iterator
+     * @return response that processes results on the executor
+     */
+    public static ProcessingSearchResponse parallelMap(SearchResponse response, Function<JsonObject, JsonObject> f, Executor executor, int lookahead) {
+        Validate.notNull(executor);
+        Validate.isTrue(lookahead > 0, "lookahead must be greater than 0");
+        return new ProcessingSearchResponse(response, f, executor, lookahead);
     }
 
     @Override
     public ProcessingSearchResponse map(Function<JsonObject, JsonObject> f) {
-        return new ProcessingSearchResponse(this, f);
+        return new ProcessingSearchResponse(this, f, null, 0);
+    }
+
+    @Override
+    public ProcessingSearchResponse parallelMap(Function<JsonObject, JsonObject> f) {
+        return ProcessingSearchResponse.parallelMap(this, f);
+    }
+
+    @Override
+    public ProcessingSearchResponse parallelMap(Function<JsonObject, JsonObject> f, Executor executor, int lookahead) {
+        return ProcessingSearchResponse.parallelMap(this, f, executor, lookahead);
     }
 
     @Override
     public Iterator<JsonObject> iterator() {
-        return StreamSupport.stream(response.spliterator(), false).map(processor).filter(e -> e!=null).iterator();
+        if(executor == null) {
+            return StreamSupport.stream(response.spliterator(), false).map(processor).filter(e -> e!=null).iterator();
+        } else {
+            return new ParallelMappingIterator(response.iterator(), processor, executor, lookahead);
+        }
     }
 
     @Override
@@ -45,4 +103,64 @@ public class ProcessingSearchResponse implements SearchResponse {
     public PagedSearchResponse getAsPagedResponse() {
         return response.getAsPagedResponse();
     }
+
+    private static class ParallelMappingIterator implements Iterator<JsonObject> {
+        private final Iterator<JsonObject> source;
+        private final Function<JsonObject, JsonObject> processor;
+        private final Executor executor;
+        private final int lookahead;
+        private final ArrayDeque<CompletableFuture<JsonObject>> inFlight;
+        private JsonObject next;
+
+        ParallelMappingIterator(Iterator<JsonObject> source, Function<JsonObject, JsonObject> processor, Executor executor, int lookahead) {
+            this.source = source;
+            this.processor = processor;
+            this.executor = executor;
+            this.lookahead = lookahead;
+            inFlight = new ArrayDeque<>(lookahead);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while(next == null) {
+                fill();
+                CompletableFuture<JsonObject> head = inFlight.poll();
+                if(head == null) {
+                    return false;
+                }
+                next = await(head);
+            }
+            return true;
+        }
+
+        @Override
+        public JsonObject next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            JsonObject result = next;
+            next = null;
+            return result;
+        }
+
+        private void fill() {
+            // the source iterator is only ever used from the iterating thread
+            while(inFlight.size() < lookahead && source.hasNext()) {
+                JsonObject hit = source.next();
+                inFlight.add(CompletableFuture.supplyAsync(() -> processor.apply(hit), executor));
+            }
+        }
+
+        private JsonObject await(CompletableFuture<JsonObject> future) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException("unexpected error processing search result", cause);
+            }
+        }
+    }
 }
@@ -6,6 +6,7 @@ import com.github.jsonj.JsonArray;
 import com.github.jsonj.JsonElement;
 import com.github.jsonj.JsonObject;
 import java.util.Collection;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -17,6 +18,17 @@ public interface SearchResponse extends Iterable<JsonObject> {
 
     PagedSearchResponse getAsPagedResponse();
 
+    /**
+     * Iterating over a search response normally gives you objects that you are free to modify. If all you do is read
+     * them (e.g. to calculate an etag or to render them), use this instead; implementations may avoid copying the
+     * results.
+     *
+     * @return iterable over the results; you must not modify the returned objects.
+     */
+    default Iterable<JsonObject> readOnlyView() {
+        return this;
+    }
+
     default Stream<JsonObject> stream() {
         return StreamSupport.stream(this.spliterator(), false);
     }
@@ -33,6 +45,26 @@ public interface SearchResponse extends Iterable<JsonObject> {
         return ProcessingSearchResponse.map(this, f);
     }
 
+    /**
+     * Like map but runs f on the common fork join pool. Results keep their order.
+     * @param f processor; must be thread safe
+     * @return processing search response
+     */
+    default SearchResponse parallelMap(Function<JsonObject, JsonObject> f) {
+        return ProcessingSearchResponse.parallelMap(this, f);
+    }
+
+    /**
+     * Like map but runs f on the executor for up to lookahead results ahead of the iterator. Results keep their order.
+     * @param f processor; must be thread safe
+     * @param executor executor
+     * @param lookahead maximum number of results processed ahead of the iterator
+     * @return processing search response
+     */
+    default SearchResponse parallelMap(Function<JsonObject, JsonObject> f, Executor executor, int lookahead) {
+        return ProcessingSearchResponse.parallelMap(this, f, executor, lookahead);
+    }
+
 //    default String etag(String ifNoneMatch) {
 //        String etag=null;
 //        if(page()) {
@@ -63,7 +95,7 @@ public interface SearchResponse extends Iterable<JsonObject> {
     default String prettyPrint() {
         if(page()) {
             JsonArray results = array();
-            for(JsonObject o: this) {
+            for(JsonObject o: readOnlyView()) {
                 results.add(o);
             }
             return results.prettyPrint();
@@ -2,18 +2,30 @@ package io.inbot.elasticsearch.client;
 
 public final class SimpleIndex implements ElasticSearchIndex {
     private final String alias;
+    private final String writeAlias;
     private final int version;
     private final String mappingResource;
 
     public SimpleIndex(String alias, int version, String mappingResource) {
+        this(alias, alias, version, mappingResource);
+    }
+
+    /**
+     * @param alias alias used for reads
+     * @param writeAlias alias used for writes
+     * @param version version of the index
+     * @param mappingResource mapping
+     */
+    public SimpleIndex(String alias, String writeAlias, int version, String mappingResource) {
         this.alias = alias;
+        this.writeAlias = writeAlias;
         this.version = version;
         this.mappingResource = mappingResource;
     }
 
     @Override
     public String writeAlias() {
-        return alias;
+        return writeAlias;
     }
 
     @Override
@@ -0,0 +1,169 @@
+package io.inbot.elasticsearch.client;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+
+import com.github.jillesvangurp.urlbuilder.UrlBuilder;
+import com.github.jsonj.JsonElement;
+import com.github.jsonj.JsonObject;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Limits which parts of the _source elasticsearch returns. Use this when you only need a few attributes of large
+ * documents so that less data is transferred and parsed. Field names may contain wildcards, e.g. "user.*".
+ *
+ * Note. objects fetched with a source filter are partial and are never cached.
+ */
+public final class SourceFilter {
+    private static final String[] NONE = new String[0];
+
+    private final String[] includes;
+    private final String[] excludes;
+    private final Pattern[] includePatterns;
+    private final Pattern[] excludePatterns;
+
+    private SourceFilter(String[] includes, String[] excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+        includePatterns = patterns(includes);
+        excludePatterns = patterns(excludes);
+    }
+
+    /**
+     * @param fields
+     *            fields to return
+     * @return filter that only returns the specified fields
+     */
+    public static SourceFilter include(String... fields) {
+        return new SourceFilter(fields, NONE);
+    }
+
+    /**
+     * @param fields
+     *            fields to leave out
+     * @return filter that returns everything except the specified fields
+     */
+    public static SourceFilter exclude(String... fields) {
+        return new SourceFilter(NONE, fields);
+    }
+
+    /**
+     * @param fields
+     *            fields to leave out
+     * @return a new filter with the additional excludes
+     */
+    public SourceFilter andExclude(String... fields) {
+        String[] combined = new String[excludes.length + fields.length];
+        System.arraycopy(excludes, 0, combined, 0, excludes.length);
+        System.arraycopy(fields, 0, combined, excludes.length, fields.length);
+        return new SourceFilter(includes, combined);
+    }
+
+    /**
+     * Adds the filter to a search query. Overwrites whatever _source filtering you set in the query yourself.
+     *
+     * @param query
+     *            the search query
+     * @return the same query
+     */
+    public JsonObject apply(JsonObject query) {
+        JsonObject source = new JsonObject();
+        if(includes.length > 0) {
+            source.put("include", array(includes));
+        }
+        if(excludes.length > 0) {
+            source.put("exclude", array(excludes));
+        }
+        query.put("_source", source);
+        return query;
+    }
+
+    /**
+     * Adds the filter to a url for the get and mget APIs.
+     *
+     * @param builder
+     *            url builder
+     * @return the same builder
+     */
+    public UrlBuilder apply(UrlBuilder builder) {
+        if(includes.length > 0) {
+            builder.queryParam("_source_include", StringUtils.join(includes, ','));
+        }
+        if(excludes.length > 0) {
+            builder.queryParam("_source_exclude", StringUtils.join(excludes, ','));
+        }
+        return builder;
+    }
+
+    /**
+     * Filters a whole object the way elasticsearch filters the _source. Used when the parts can't be fetched on their
+     * own. The id and _version attributes are always kept.
+     *
+     * @param object
+     *            the whole object
+     * @return a filtered copy of the object
+     */
+    public JsonObject filter(JsonObject object) {
+        JsonObject filtered = filter(object, "", includes.length == 0);
+        for(String attribute : new String[] {"id", "_version"}) {
+            if(object.containsKey(attribute)) {
+                filtered.put(attribute, object.get(attribute).deepClone());
+            }
+        }
+        return filtered;
+    }
+
+    private JsonObject filter(JsonObject object, String prefix, boolean included) {
+        JsonObject filtered = new JsonObject();
+        for(Entry<String, JsonElement> entry : object.entrySet()) {
+            String path = prefix + entry.getKey();
+            if(matches(excludePatterns, path)) {
+                continue;
+            }
+            boolean includedPath = included || matches(includePatterns, path);
+            JsonElement value = entry.getValue();
+            if(value.isObject()) {
+                // includes may match fields further down
+                JsonObject child = filter(value.asObject(), path + '.', includedPath);
+                if(includedPath || !child.isEmpty()) {
+                    filtered.put(entry.getKey(), child);
+                }
+            } else if(includedPath) {
+                filtered.put(entry.getKey(), value.deepClone());
+            }
+        }
+        return filtered;
+    }
+
+    private static boolean matches(Pattern[] patterns, String path) {
+        for(Pattern pattern : patterns) {
+            if(pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Pattern[] patterns(String[] fields) {
+        Pattern[] patterns = new Pattern[fields.length];
+        for(int i = 0; i < fields.length; i++) {
+            // * is the only wildcard, like in elasticsearch
+            String[] parts = StringUtils.splitPreserveAllTokens(fields[i], '*');
+            StringBuilder regex = new StringBuilder();
+            for(int j = 0; j < parts.length; j++) {
+                if(j > 0) {
+                    regex.append(".*");
+                }
+                regex.append(Pattern.quote(parts[j]));
+            }
+            patterns[i] = Pattern.compile(regex.toString());
+        }
+        return patterns;
+    }
+
+    @Override
+    public String toString() {
+        return "include:" + StringUtils.join(includes, ',') + " exclude:" + StringUtils.join(excludes, ',');
+    }
+}
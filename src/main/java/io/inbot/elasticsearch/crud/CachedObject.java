@@ -0,0 +1,89 @@
+package io.inbot.elasticsearch.crud;
+
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+import io.inbot.utils.CompressionUtils;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An object (or the fact that it does not exist) as kept by the in memory caches.
+ */
+abstract class CachedObject {
+    private static final int OVERHEAD = 16;
+
+    static final CachedObject ABSENT = new CachedObject() {
+        @Override
+        boolean isPresent() {
+            return false;
+        }
+
+        @Override
+        JsonObject object() {
+            return null;
+        }
+
+        @Override
+        int weight() {
+            return OVERHEAD;
+        }
+    };
+
+    abstract boolean isPresent();
+
+    /**
+     * @return a copy of the cached object that the caller is free to modify or null if the object does not exist
+     */
+    abstract JsonObject object();
+
+    /**
+     * @return estimated number of bytes used by this entry
+     */
+    abstract int weight();
+
+    /**
+     * @param object
+     *            object that nobody else has a reference to
+     * @return cached object that keeps the object as is
+     */
+    static CachedObject live(JsonObject object) {
+        int weight = (int) Math.min(Integer.MAX_VALUE, OVERHEAD + JsonSizeEstimator.estimate(object));
+        return new CachedObject() {
+            @Override
+            boolean isPresent() {
+                return true;
+            }
+
+            @Override
+            JsonObject object() {
+                return object.deepClone();
+            }
+
+            @Override
+            int weight() {
+                return weight;
+            }
+        };
+    }
+
+    static CachedObject serialized(JsonObject object, boolean compress, JsonParser parser) {
+        byte[] json = object.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = compress ? CompressionUtils.compress(json) : json;
+        return new CachedObject() {
+            @Override
+            boolean isPresent() {
+                return true;
+            }
+
+            @Override
+            JsonObject object() {
+                byte[] decoded = compress ? CompressionUtils.decompress(bytes) : bytes;
+                return parser.parseObject(new String(decoded, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            int weight() {
+                return OVERHEAD + bytes.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,270 @@
+package io.inbot.elasticsearch.crud;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.SlidingTimeWindowReservoir;
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
+import io.inbot.elasticsearch.client.IterableSearchResponse;
+import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Coalesces concurrent get calls into a single mget. When no other fetch is in progress, a get is sent right away.
+ * Otherwise the first thread that asks for an object waits up to windowMillis for other threads to ask for other
+ * objects (or until maxBatchSize ids are pending) and then fetches all of them in one request. Concurrent gets for the
+ * same id share a single fetch.
+ *
+ * Use this directly on top of an {@link EsCrudDao}, i.e. below any caching daos, so that only cache misses end up being
+ * batched.
+ */
+public class CoalescingCrudDao implements CrudOperations {
+
+    private final CrudOperations crudDao;
+    private final String metricsPrefix;
+    private final int maxBatchSize;
+    private final long windowNanos;
+
+    private final Object lock = new Object();
+    private Map<String, CompletableFuture<JsonObject>> pending = new LinkedHashMap<>();
+    private int fetching = 0; // guarded by lock
+
+    private final Meter batchMeter = new Meter();
+    private final Meter coalescedMeter = new Meter();
+    private final Histogram batchSizeHistogram = new Histogram(new SlidingTimeWindowReservoir(5, TimeUnit.MINUTES));
+
+    /**
+     * @param crudDao
+     *            the dao that does the actual fetching
+     * @param metricsPrefix
+     *            prefix for the metrics of this dao
+     * @param maxBatchSize
+     *            a batch is fetched right away when this many ids are pending
+     * @param windowMillis
+     *            maximum time the first get in a batch waits for other gets to join the batch while other fetches are
+     *            in progress
+     */
+    public CoalescingCrudDao(CrudOperations crudDao, String metricsPrefix, int maxBatchSize, int windowMillis) {
+        Validate.isTrue(maxBatchSize > 0, "maxBatchSize must be greater than 0");
+        Validate.isTrue(windowMillis >= 0, "windowMillis must not be negative");
+        this.crudDao = crudDao;
+        this.metricsPrefix = metricsPrefix;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<>();
+        metrics.putAll(crudDao.getMetrics());
+        metrics.put(metricsPrefix + ".batches", batchMeter);
+        metrics.put(metricsPrefix + ".batchsize", batchSizeHistogram);
+        metrics.put(metricsPrefix + ".coalesced", coalescedMeter);
+        return metrics;
+    }
+
+    @Override
+    public JsonObject get(String id) {
+        CompletableFuture<JsonObject> future;
+        Map<String, CompletableFuture<JsonObject>> batch = null;
+        Map<String, CompletableFuture<JsonObject>> leaderOf = null;
+        synchronized(lock) {
+            future = pending.get(id);
+            if(future == null) {
+                future = new CompletableFuture<>();
+                pending.put(id, future);
+                if(pending.size() >= maxBatchSize || pending.size() == 1 && fetching == 0) {
+                    // batch is full or nobody else is fetching, send it right away from this thread
+                    batch = pending;
+                    pending = new LinkedHashMap<>();
+                    fetching++;
+                    lock.notifyAll();
+                } else if(pending.size() == 1) {
+                    // first one in, wait for others to join
+                    leaderOf = pending;
+                }
+            } else {
+                coalescedMeter.mark();
+            }
+        }
+        if(leaderOf != null) {
+            batch = awaitBatch(leaderOf);
+        }
+        if(batch != null) {
+            fetch(batch);
+        }
+        try {
+            JsonObject object = future.join();
+            // the fetched object is shared by all callers for the id and never handed out; each gets a copy it can modify
+            return object == null ? null : object.deepClone();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("unexpected error fetching " + id, cause);
+        }
+    }
+
+    private Map<String, CompletableFuture<JsonObject>> awaitBatch(Map<String, CompletableFuture<JsonObject>> batch) {
+        synchronized(lock) {
+            long deadline = System.nanoTime() + windowNanos;
+            long remaining = windowNanos;
+            try {
+                while(pending == batch && remaining > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    remaining = deadline - System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                // stop waiting and fetch what we have
+                Thread.currentThread().interrupt();
+            }
+            if(pending == batch) {
+                pending = new LinkedHashMap<>();
+                fetching++;
+                return batch;
+            } else {
+                // some other thread filled up the batch and is already fetching it
+                return null;
+            }
+        }
+    }
+
+    private void fetch(Map<String, CompletableFuture<JsonObject>> batch) {
+        batchMeter.mark();
+        batchSizeHistogram.update(batch.size());
+        try {
+            if(batch.size() == 1) {
+                Entry<String, CompletableFuture<JsonObject>> entry = batch.entrySet().iterator().next();
+                entry.getValue().complete(crudDao.get(entry.getKey()));
+            } else {
+                String[] ids = batch.keySet().toArray(new String[batch.size()]);
+                JsonArray objects = crudDao.mget(false, ids);
+                for(JsonObject object: objects.objects()) {
+                    CompletableFuture<JsonObject> future = batch.get(object.getString("id"));
+                    if(future != null) {
+                        future.complete(object);
+                    }
+                }
+                // anything not in the response does not exist
+                for(CompletableFuture<JsonObject> future: batch.values()) {
+                    future.complete(null);
+                }
+            }
+        } catch (Throwable e) {
+            // the fetching thread gets the error too, through the future of its own id
+            for(CompletableFuture<JsonObject> future: batch.values()) {
+                future.completeExceptionally(e);
+            }
+        } finally {
+            synchronized(lock) {
+                fetching--;
+            }
+        }
+    }
+
+    @Override
+    public JsonObject get(boolean cached, String id) {
+        return get(id);
+    }
+
+    @Override
+    public JsonArray mget(boolean cached, String... ids) {
+        return crudDao.mget(cached, ids);
+    }
+
+    @Override
+    public JsonObject get(String id, SourceFilter sourceFilter) {
+        return crudDao.get(id, sourceFilter);
+    }
+
+    @Override
+    public JsonArray mget(SourceFilter sourceFilter, String... ids) {
+        return crudDao.mget(sourceFilter, ids);
+    }
+
+    @Override
+    public JsonObject create(JsonObject object, boolean replace) {
+        return crudDao.create(object, replace);
+    }
+
+    @Override
+    public Set<String> recentlyModifiedIds() {
+        return crudDao.recentlyModifiedIds();
+    }
+
+    @Override
+    public Set<String> recentlyModifiedIds(long sinceMillis) {
+        return crudDao.recentlyModifiedIds(sinceMillis);
+    }
+
+    @Override
+    public JsonObject update(String id, boolean modifyUpdatedAt, Function<JsonObject, JsonObject> f) {
+        return crudDao.update(id, modifyUpdatedAt, f);
+    }
+
+    @Override
+    public void delete(String id) {
+        crudDao.delete(id);
+    }
+
+    @Override
+    public void deleteByQuery(JsonObject query) {
+        crudDao.deleteByQuery(query);
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from) {
+        return crudDao.pagedSearch(q, size, from);
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, String... fields) {
+        return crudDao.pagedSearch(q, size, from, fields);
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        return crudDao.pagedSearch(q, size, from, sourceFilter);
+    }
+
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
+        return crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults);
+    }
+
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        return crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults, sourceFilter);
+    }
+
+    @Override
+    public JsonObject searchUnique(JsonObject q) {
+        return crudDao.searchUnique(q);
+    }
+
+    @Override
+    public BulkIndexingOperations bulkIndexer() {
+        return crudDao.bulkIndexer();
+    }
+
+    @Override
+    public JsonObject mapping() {
+        return crudDao.mapping();
+    }
+}
@@ -3,9 +3,11 @@ package io.inbot.elasticsearch.crud;
 import com.codahale.metrics.MetricSet;
 import com.github.jsonj.JsonArray;
 import com.github.jsonj.JsonObject;
+import com.github.jsonj.JsonjCollectors;
 import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
 import io.inbot.elasticsearch.client.IterableSearchResponse;
 import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
 import java.util.Set;
 import java.util.function.Function;
 
@@ -15,6 +17,16 @@ public interface CrudOperations extends MetricSet {
 
     Set<String> recentlyModifiedIds();
 
+    /**
+     * @param sinceMillis
+     *            epoch millis
+     * @return ids of the objects modified at or after sinceMillis, latest first; all recently modified ids if the
+     *         tracker does not keep track of modification times, which is what the default implementation returns.
+     */
+    default Set<String> recentlyModifiedIds(long sinceMillis) {
+        return recentlyModifiedIds();
+    }
+
     JsonObject update(String id, boolean modifyUpdatedAt, Function<JsonObject, JsonObject> f);
 
     JsonObject get(String id);
@@ -23,6 +35,29 @@ public interface CrudOperations extends MetricSet {
 
     JsonArray mget(boolean cached, String...ids);
 
+    /**
+     * Fetch only part of an object. The daos in this package fetch just that part from elasticsearch and bypass any
+     * caches; the default implementation gets the whole object and filters it.
+     * @param id id of the object
+     * @param sourceFilter the parts of the object you need
+     * @return the partial object with its id and _version or null if it does not exist
+     */
+    default JsonObject get(String id, SourceFilter sourceFilter) {
+        JsonObject object = get(id);
+        return object == null ? null : sourceFilter.filter(object);
+    }
+
+    /**
+     * Fetch only part of several objects. The daos in this package fetch just those parts from elasticsearch and
+     * bypass any caches; the default implementation gets the whole objects and filters them.
+     * @param sourceFilter the parts of the objects you need
+     * @param ids ids of the objects
+     * @return the partial objects that were found
+     */
+    default JsonArray mget(SourceFilter sourceFilter, String...ids) {
+        return mget(true, ids).streamObjects().map(sourceFilter::filter).collect(JsonjCollectors.array());
+    }
+
     void delete(String id);
 
     void deleteByQuery(JsonObject query);
@@ -31,8 +66,16 @@ public interface CrudOperations extends MetricSet {
 
     PagedSearchResponse pagedSearch(JsonObject q, int size, int from, String...fields);
 
+    default PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        return pagedSearch(sourceFilter.apply(q.deepClone()), size, from);
+    }
+
     IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults);
 
+    default IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        return iterableSearch(sourceFilter.apply(q.deepClone()), pageSize, ttlMinutes, rawResults);
+    }
+
     JsonObject searchUnique(JsonObject q);
 
     /**
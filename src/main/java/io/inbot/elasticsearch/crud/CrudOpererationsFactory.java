@@ -3,25 +3,44 @@ package io.inbot.elasticsearch.crud;
 import com.github.jsonj.tools.JsonParser;
 import io.inbot.elasticsearch.client.ElasticSearchType;
 import io.inbot.elasticsearch.client.EsAPIClient;
-import io.inbot.redis.RedisBackedCircularStack;
+import io.inbot.redis.CompressedJsonCodec;
+import io.inbot.redis.ModifiedIdsTracker;
 import io.inbot.redis.RedisCache;
+import io.inbot.redis.RedisValueCodec;
+import io.inbot.redis.ShardedJedisPools;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import redis.clients.jedis.JedisPool;
 
 public class CrudOpererationsFactory {
     private final EsAPIClient esApiClient;
     private final JsonParser parser;
-    private final JedisPool jedisPool;
-    private final RedisBackedCircularStack redisBackedCircularStack;
+    private final ShardedJedisPools redisShards;
+    private final ModifiedIdsTracker modifiedIdsTracker;
 
-    public CrudOpererationsFactory(EsAPIClient esApiClient, JsonParser parser, JedisPool jedisPool, RedisBackedCircularStack redisBackedCircularStack) {
+    public CrudOpererationsFactory(EsAPIClient esApiClient, JsonParser parser, JedisPool jedisPool, ModifiedIdsTracker modifiedIdsTracker) {
+        this(esApiClient, parser, ShardedJedisPools.single(jedisPool), modifiedIdsTracker);
+    }
+
+    /**
+     * @param esApiClient
+     *            client
+     * @param parser
+     *            parser
+     * @param redisShards
+     *            redis servers that the redis caches spread their keys over
+     * @param modifiedIdsTracker
+     *            keeps track of recently modified ids, e.g. a {@link io.inbot.redis.RedisSortedSetModifiedTracker}
+     */
+    public CrudOpererationsFactory(EsAPIClient esApiClient, JsonParser parser, ShardedJedisPools redisShards, ModifiedIdsTracker modifiedIdsTracker) {
         this.esApiClient = esApiClient;
         this.parser = parser;
-        this.jedisPool = jedisPool;
-        this.redisBackedCircularStack = redisBackedCircularStack;
+        this.redisShards = redisShards;
+        this.modifiedIdsTracker = modifiedIdsTracker;
     }
 
     public CrudOperationsBuilder builder(ElasticSearchType type) {
-        return new CrudOperationsBuilder(esApiClient, parser, jedisPool, redisBackedCircularStack, type);
+        return new CrudOperationsBuilder(esApiClient, parser, redisShards, modifiedIdsTracker, type);
     }
 
     public static class CrudOperationsBuilder {
@@ -29,22 +48,34 @@ public class CrudOpererationsFactory {
         private final EsAPIClient esApiClient;
 
         private final JsonParser parser;
-        private final JedisPool jedisPool;
-        private final RedisBackedCircularStack redisBackedCircularStack;
+        private final ShardedJedisPools redisShards;
+        private final ModifiedIdsTracker modifiedIdsTracker;
         private int retryUpdates = 5;
         private boolean redis = false;
         private int redisExpireAfterWriteInSeconds = 10;
         private String redisPrefix = "none";
+        private RedisValueCodec redisCodec;
+        private int redisAbsentExpireAfterWriteInSeconds = 0;
         private boolean inMemoryCache = false;
-        private int maxInMemoryItems;
-        private int inMemoryExpireAfterWriteSeconds;
+        private final InMemoryCacheSettings inMemoryCacheSettings = new InMemoryCacheSettings();
+        private boolean offHeapCache = false;
+        private long offHeapCacheMaxBytes;
+        private int offHeapCacheExpireAfterWriteSeconds;
+        private boolean offHeapCacheCompress;
+        private int offHeapCacheConcurrencyLevel = 16;
+        private boolean coalesceGets = false;
+        private int coalesceMaxBatchSize;
+        private int coalesceWindowMillis;
+        private boolean searchCache = false;
+        private int searchCacheMaxEntries;
+        private int searchCacheExpireAfterWriteSeconds;
 
-        private CrudOperationsBuilder(EsAPIClient esApiClient, JsonParser parser, JedisPool jedisPool, RedisBackedCircularStack redisBackedCircularStack,
+        private CrudOperationsBuilder(EsAPIClient esApiClient, JsonParser parser, ShardedJedisPools redisShards, ModifiedIdsTracker modifiedIdsTracker,
                 ElasticSearchType indexType) {
             this.esApiClient = esApiClient;
             this.parser = parser;
-            this.jedisPool = jedisPool;
-            this.redisBackedCircularStack = redisBackedCircularStack;
+            this.redisShards = redisShards;
+            this.modifiedIdsTracker = modifiedIdsTracker;
             this.indexType = indexType;
         }
 
@@ -79,7 +110,31 @@ public class CrudOpererationsFactory {
         }
 
         /**
-         * Add guava cache.
+         * @param codec
+         *            encoding of the objects in the redis cache; defaults to {@link CompressedJsonCodec}. The codec
+         *            name is part of the keys, so switching codecs starts out with an empty cache.
+         * @return builder
+         */
+        public CrudOperationsBuilder redisCacheCodec(RedisValueCodec codec) {
+            this.redisCodec = codec;
+            return this;
+        }
+
+        /**
+         * Remember in redis which ids were not found, so that repeated lookups of missing objects don't reach
+         * elasticsearch.
+         *
+         * @param absentExpireAfterWriteInSeconds
+         *            ttl of the markers for missing objects; keep this shorter than the redis ttl
+         * @return builder
+         */
+        public CrudOperationsBuilder enableRedisNegativeCache(int absentExpireAfterWriteInSeconds) {
+            this.redisAbsentExpireAfterWriteInSeconds = absentExpireAfterWriteInSeconds;
+            return this;
+        }
+
+        /**
+         * Add guava cache. Combined with a redis cache, this results in a {@link TieredCachingCrudDao}.
          * 
          * @param maxItems
          *            maximum number of items to keep in memory.
@@ -88,12 +143,133 @@ public class CrudOpererationsFactory {
          * @return builder
          */
         public CrudOperationsBuilder enableInMemoryCache(int maxItems, int expireAfterWriteSeconds) {
-            this.maxInMemoryItems = maxItems;
-            this.inMemoryExpireAfterWriteSeconds = expireAfterWriteSeconds;
+            inMemoryCacheSettings.maxItems(maxItems).expireAfterWriteSeconds(expireAfterWriteSeconds);
             inMemoryCache = true;
             return this;
         }
 
+        /**
+         * Reload objects in the in memory cache in the background once they are older than refreshAfterWriteSeconds and
+         * are requested again. The cached object is served until the reload completes. Uses the common fork join pool
+         * for the reloads.
+         *
+         * @param refreshAfterWriteSeconds
+         *            should be less than the expireAfterWriteSeconds of the in memory cache
+         * @return builder
+         */
+        public CrudOperationsBuilder enableInMemoryCacheRefresh(int refreshAfterWriteSeconds) {
+            return enableInMemoryCacheRefresh(refreshAfterWriteSeconds, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * Reload objects in the in memory cache in the background once they are older than refreshAfterWriteSeconds and
+         * are requested again. The cached object is served until the reload completes.
+         *
+         * @param refreshAfterWriteSeconds
+         *            should be less than the expireAfterWriteSeconds of the in memory cache
+         * @param executor
+         *            executor for the reloads
+         * @return builder
+         */
+        public CrudOperationsBuilder enableInMemoryCacheRefresh(int refreshAfterWriteSeconds, Executor executor) {
+            inMemoryCacheSettings.refreshAfterWrite(refreshAfterWriteSeconds, executor);
+            return this;
+        }
+
+        /**
+         * Bound the in memory cache by the estimated size of the objects rather than their number. This also turns off
+         * soft references, so the cache is no longer cleared by the garbage collector under memory pressure.
+         *
+         * @param maxWeightBytes
+         *            memory budget for the in memory cache
+         * @return builder
+         */
+        public CrudOperationsBuilder inMemoryCacheMaxWeight(long maxWeightBytes) {
+            inMemoryCacheSettings.maxWeightBytes(maxWeightBytes);
+            return this;
+        }
+
+        /**
+         * @param storage
+         *            keep objects in the in memory cache as parsed objects (the default) or as (compressed) json. The
+         *            latter allows many more objects in the same amount of memory at the price of parsing them on every
+         *            cache hit.
+         * @return builder
+         */
+        public CrudOperationsBuilder inMemoryCacheStorage(InMemoryCacheStorage storage) {
+            inMemoryCacheSettings.storage(storage, parser);
+            return this;
+        }
+
+        /**
+         * Cache objects outside of the java heap instead of in a guava cache. Takes the place of the in memory cache
+         * and can be combined with a redis cache. Not used for child daos.
+         *
+         * @param maxBytes
+         *            off heap memory that the cache may use
+         * @param expireAfterWriteSeconds
+         *            ttl of the cached objects
+         * @param compress
+         *            compress the cached objects
+         * @return builder
+         */
+        public CrudOperationsBuilder enableOffHeapCache(long maxBytes, int expireAfterWriteSeconds, boolean compress) {
+            this.offHeapCacheMaxBytes = maxBytes;
+            this.offHeapCacheExpireAfterWriteSeconds = expireAfterWriteSeconds;
+            this.offHeapCacheCompress = compress;
+            offHeapCache = true;
+            return this;
+        }
+
+        /**
+         * @param concurrencyLevel
+         *            number of independently locked segments of the off heap cache, default 16; each gets an equal
+         *            part of maxBytes
+         * @return builder
+         */
+        public CrudOperationsBuilder offHeapCacheConcurrencyLevel(int concurrencyLevel) {
+            this.offHeapCacheConcurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * Coalesce concurrent gets that miss the caches into mget requests.
+         *
+         * @param maxBatchSize
+         *            maximum number of ids fetched in one mget
+         * @param windowMillis
+         *            how long a get waits for other gets to join its batch
+         * @return builder
+         */
+        public CrudOperationsBuilder enableGetCoalescing(int maxBatchSize, int windowMillis) {
+            this.coalesceMaxBatchSize = maxBatchSize;
+            this.coalesceWindowMillis = windowMillis;
+            coalesceGets = true;
+            return this;
+        }
+
+        /**
+         * Cache the results of pagedSearch. Any write through the dao invalidates all cached results.
+         *
+         * @param maxEntries
+         *            maximum number of search results to keep in memory
+         * @param expireAfterWriteSeconds
+         *            ttl of the cached search results; this is how long writes by others may go unnoticed
+         * @return builder
+         */
+        public CrudOperationsBuilder enableSearchCache(int maxEntries, int expireAfterWriteSeconds) {
+            this.searchCacheMaxEntries = maxEntries;
+            this.searchCacheExpireAfterWriteSeconds = expireAfterWriteSeconds;
+            searchCache = true;
+            return this;
+        }
+
+        private RedisCache redisCache() {
+            RedisValueCodec codec = redisCodec != null ? redisCodec : new CompressedJsonCodec(parser);
+            return new RedisCache(redisShards, codec, redisPrefix, indexType.version(), redisExpireAfterWriteInSeconds,
+                    redisAbsentExpireAfterWriteInSeconds);
+        }
+
         /**
          * @return CrudOperations for objects without a parent.
          */
@@ -101,12 +277,28 @@ public class CrudOpererationsFactory {
             if(indexType.parentChild()) {
                 throw new IllegalStateException("type " + indexType + " specifies parent child relations");
             }
-            CrudOperations dao = new EsCrudDao(indexType, esApiClient, redisBackedCircularStack, retryUpdates);
-            if(redis) {
-                dao = new RedisCachingCrudDao(dao, new RedisCache(jedisPool, parser, redisPrefix, indexType.version(), redisExpireAfterWriteInSeconds));
+            CrudOperations dao = new EsCrudDao(indexType, esApiClient, modifiedIdsTracker, retryUpdates);
+            if(coalesceGets) {
+                dao = new CoalescingCrudDao(dao, "dao." + indexType.aliasPrefix() + "." + indexType.type() + ".coalesce", coalesceMaxBatchSize,
+                        coalesceWindowMillis);
             }
-            if(inMemoryCache) {
-                dao = new GuavaCachingCrudDao(dao, maxInMemoryItems, inMemoryExpireAfterWriteSeconds);
+            if(offHeapCache) {
+                if(redis) {
+                    dao = new RedisCachingCrudDao(dao, redisCache());
+                }
+                dao = new OffHeapCachingCrudDao(dao, parser, "dao." + indexType.aliasPrefix() + "." + indexType.type() + ".offheap", offHeapCacheMaxBytes,
+                        offHeapCacheExpireAfterWriteSeconds, offHeapCacheCompress, offHeapCacheConcurrencyLevel);
+            } else if(redis && inMemoryCache) {
+                dao = new TieredCachingCrudDao(dao, redisCache(),
+                        "dao." + indexType.aliasPrefix() + "." + indexType.type() + ".tiered", inMemoryCacheSettings);
+            } else if(redis) {
+                dao = new RedisCachingCrudDao(dao, redisCache());
+            } else if(inMemoryCache) {
+                dao = new GuavaCachingCrudDao(dao, "dao." + indexType.aliasPrefix() + "." + indexType.type() + ".guava", inMemoryCacheSettings);
+            }
+            if(searchCache) {
+                dao = new SearchCachingCrudDao(dao, indexType, "dao." + indexType.aliasPrefix() + "." + indexType.type() + ".searchcache",
+                        searchCacheMaxEntries, searchCacheExpireAfterWriteSeconds);
             }
 
             return dao;
@@ -120,13 +312,12 @@ public class CrudOpererationsFactory {
                 throw new IllegalStateException("type " + indexType + " does not specify parent child relations");
             }
 
-            ParentChildCrudOperations dao = new EsParentChildCrudDao(indexType, esApiClient, redisBackedCircularStack, retryUpdates);
+            ParentChildCrudOperations dao = new EsParentChildCrudDao(indexType, esApiClient, modifiedIdsTracker, retryUpdates);
             if(redis) {
-                dao = new RedisCachingParentChildCrudDao(dao, new RedisCache(jedisPool, parser, redisPrefix, indexType.version(),
-                        redisExpireAfterWriteInSeconds));
+                dao = new RedisCachingParentChildCrudDao(dao, redisCache());
             }
             if(inMemoryCache) {
-                dao = new GuavaCachingChildCrudDao(dao, maxInMemoryItems, inMemoryExpireAfterWriteSeconds);
+                dao = new GuavaCachingChildCrudDao(dao, "dao." + indexType.aliasPrefix() + "." + indexType.type() + ".guava", inMemoryCacheSettings);
             }
 
             return dao;
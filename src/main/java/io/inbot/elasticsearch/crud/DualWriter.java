@@ -0,0 +1,67 @@
+package io.inbot.elasticsearch.crud;
+
+import com.github.jsonj.JsonObject;
+import io.inbot.elasticsearch.client.ElasticSearchIndex;
+import io.inbot.elasticsearch.client.EsAPIClient;
+import io.inbot.elasticsearch.exceptions.EsVersionConflictException;
+import java.util.function.Function;
+
+/**
+ * Writes single objects through the write alias of an index. While
+ * {@link EsAPIClient#migrateIndex(ElasticSearchIndex)} copies an index with a separate write alias, the client sends
+ * the write to the old index, which is the source of truth until the migration completes, and this repeats it on the
+ * new index with the resulting version as an external version.
+ *
+ * If the repeated write is rejected because the new index has the same or a later version, the copy or a later write
+ * already got there. Version checks happen on the old index, so that is never a lost update.
+ */
+final class DualWriter {
+    private final EsAPIClient client;
+    private final ElasticSearchIndex index;
+    private final String type;
+
+    DualWriter(EsAPIClient client, ElasticSearchIndex index, String type) {
+        this.client = client;
+        this.index = index;
+        this.type = type;
+    }
+
+    /**
+     * @param parentId
+     *            parent id or null
+     * @param object
+     *            the object that is written
+     * @param write
+     *            writes the object to the index or alias it is given and returns the elasticsearch response
+     * @return the response of the write
+     */
+    JsonObject index(String parentId, JsonObject object, Function<String, JsonObject> write) {
+        return client.write(index.writeAlias(), write, (response, newIndex) -> {
+            try {
+                client.indexObjectWithExternalVersion(newIndex, type, response.getString("_id"), parentId, response.getLong("_version"), object);
+            } catch (EsVersionConflictException e) {
+                // the new index already has this or a later version
+            }
+        });
+    }
+
+    /**
+     * @param id
+     *            id of the object
+     * @param parentId
+     *            parent id or null
+     * @param delete
+     *            deletes the object from the index or alias it is given and returns the elasticsearch response
+     * @return the response of the delete
+     */
+    JsonObject delete(String id, String parentId, Function<String, JsonObject> delete) {
+        return client.write(index.writeAlias(), delete, (response, newIndex) -> {
+            try {
+                // also records the delete if the copy has not reached the object yet, so the copy can't bring it back
+                client.deleteObjectWithExternalVersion(newIndex, type, id, parentId, response.getLong("_version"));
+            } catch (EsVersionConflictException e) {
+                // the new index already has this or a later version
+            }
+        });
+    }
+}
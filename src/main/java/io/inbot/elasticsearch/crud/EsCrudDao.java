@@ -18,9 +18,10 @@ import io.inbot.elasticsearch.client.ElasticSearchType;
 import io.inbot.elasticsearch.client.EsAPIClient;
 import io.inbot.elasticsearch.client.IterableSearchResponse;
 import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
 import io.inbot.elasticsearch.exceptions.EsNotFoundException;
 import io.inbot.elasticsearch.exceptions.EsVersionConflictException;
-import io.inbot.redis.RedisBackedCircularStack;
+import io.inbot.redis.ModifiedIdsTracker;
 import io.inbot.utils.HashUtils;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -46,17 +47,19 @@ public class EsCrudDao implements CrudOperations {
     private final Timer updateTimer;
     private final Timer deleteTimer;
     private final Timer queryTimer;
-    private final RedisBackedCircularStack circularStack;
+    private final ModifiedIdsTracker circularStack;
     private final int updateRetries;
 
     private final Timer getTimer;
+    private final DualWriter writer;
 
-    public EsCrudDao(ElasticSearchType type, EsAPIClient client, RedisBackedCircularStack circularStack, int updateRetries) {
+    public EsCrudDao(ElasticSearchType type, EsAPIClient client, ModifiedIdsTracker circularStack, int updateRetries) {
         this.circularStack = circularStack;
         this.updateRetries = updateRetries;
         this.index = type.index();
         this.type = type.type();
         this.client = client;
+        writer = new DualWriter(client, index, this.type);
 
         getTimer = new Timer();
         createTimer = new Timer();
@@ -97,7 +100,7 @@ public class EsCrudDao implements CrudOperations {
             object.put("updated_at",now);
             object.remove("_version");
             object.removeEmpty();
-            JsonObject esResponse = client.createObject(index.writeAlias(), type,object.getString("id"), null, object, replace);
+            JsonObject esResponse = writer.index(null, object, alias -> client.createObject(alias, type, object.getString("id"), null, object, replace));
             JsonObject response = object.deepClone();
             response.put("_version", esResponse.getString("_version"));
             response.put("id", esResponse.getString("_id"));
@@ -112,6 +115,11 @@ public class EsCrudDao implements CrudOperations {
         return result;
     }
 
+    @Override
+    public Set<String> recentlyModifiedIds(long sinceMillis) {
+        return new LinkedHashSet<>(circularStack.listSince(redisKey(), sinceMillis));
+    }
+
     private String redisKey() {
         return "dao-"+index+"-"+type;
     }
@@ -151,7 +159,7 @@ public class EsCrudDao implements CrudOperations {
                     }
                     String previousVersion = version.asString();
                     response.remove("_type");
-                    JsonObject esResponse = client.updateObject(index.writeAlias(), type, objectId, previousVersion, response);
+                    JsonObject esResponse = writer.index(null, response, alias -> client.updateObject(alias, type, objectId, previousVersion, response));
                     if(circularStack!=null) {
                         circularStack.add(redisKey(), id);
                     }
@@ -187,7 +195,12 @@ public class EsCrudDao implements CrudOperations {
 
     @Override
     public JsonArray mget(boolean cached, String...ids) {
-        JsonObject esResponse = client.getObjects(index.readAlias(), type, ids);
+        return mget(null, ids);
+    }
+
+    @Override
+    public JsonArray mget(SourceFilter sourceFilter, String...ids) {
+        JsonObject esResponse = client.getObjects(index.readAlias(), type, sourceFilter, ids);
         return esResponse.getOrCreateArray("docs").mapObjects(doc -> {
             if(doc.get("found", false)) {
                 JsonObject object = doc.getObject("_source");
@@ -202,8 +215,13 @@ public class EsCrudDao implements CrudOperations {
 
     @Override
     public JsonObject get(String id) {
+        return get(id, (SourceFilter) null);
+    }
+
+    @Override
+    public JsonObject get(String id, SourceFilter sourceFilter) {
         try(Context time = getTimer.time()) {
-            JsonObject esResponse = client.getObject(index.readAlias(), type, id);
+            JsonObject esResponse = client.getObject(index.readAlias(), type, id, null, sourceFilter);
             JsonObject object = esResponse.getObject("_source");
             object.put("_version", esResponse.getString("_version"));
             object.put("id", esResponse.getString("_id"));
@@ -219,7 +237,7 @@ public class EsCrudDao implements CrudOperations {
             // FIXME add support for consistency check on version
             JsonObject object = get(id);
             if(object != null) {
-                client.deleteObject(index.writeAlias(), type,object.getString("id"));
+                writer.delete(id, null, alias -> client.deleteObject(alias, type, object.getString("id")));
             } else {
                 throw new EsNotFoundException(index.writeAlias()+'/'+type +"/"+id);
             }
@@ -246,6 +264,13 @@ public class EsCrudDao implements CrudOperations {
         }
     }
 
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        try(Context time = queryTimer.time()) {
+            return client.pagedSearch(index.readAlias(), type, q, size, from, sourceFilter);
+        }
+    }
+
     @Override
     public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
         try(Context time = queryTimer.time()) {
@@ -253,6 +278,13 @@ public class EsCrudDao implements CrudOperations {
         }
     }
 
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        try(Context time = queryTimer.time()) {
+            return client.iterableSearch(index.readAlias(), type, q, pageSize, ttlMinutes, rawResults, sourceFilter);
+        }
+    }
+
     @Override
     public JsonObject searchUnique(JsonObject q) {
         try(Context time = queryTimer.time()) {
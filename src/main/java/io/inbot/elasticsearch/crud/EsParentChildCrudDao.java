@@ -11,9 +11,10 @@ import io.inbot.elasticsearch.client.ElasticSearchType;
 import io.inbot.elasticsearch.client.EsAPIClient;
 import io.inbot.elasticsearch.client.IterableSearchResponse;
 import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
 import io.inbot.elasticsearch.exceptions.EsNotFoundException;
 import io.inbot.elasticsearch.exceptions.EsVersionConflictException;
-import io.inbot.redis.RedisBackedCircularStack;
+import io.inbot.redis.ModifiedIdsTracker;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -34,16 +35,18 @@ public final class EsParentChildCrudDao implements ParentChildCrudOperations {
     private final Timer updateTimer;
     private final Timer deleteTimer;
     private final Timer queryTimer;
-    private final RedisBackedCircularStack recentlyModifiedIdsStack;
+    private final ModifiedIdsTracker recentlyModifiedIdsStack;
     private final int maxUpdateRetries;
     private final Timer getTimer;
+    private final DualWriter writer;
 
-    public EsParentChildCrudDao(ElasticSearchType type, EsAPIClient client, RedisBackedCircularStack recentlyModifiedIdsStack, int maxUpdateRetries) {
+    public EsParentChildCrudDao(ElasticSearchType type, EsAPIClient client, ModifiedIdsTracker recentlyModifiedIdsStack, int maxUpdateRetries) {
         this.recentlyModifiedIdsStack = recentlyModifiedIdsStack;
         this.maxUpdateRetries = maxUpdateRetries;
         this.index = type.index();
         this.type = type.type();
         this.client = client;
+        writer = new DualWriter(client, index, this.type);
 
         createTimer = new Timer();
         getTimer = new Timer();
@@ -89,7 +92,7 @@ public final class EsParentChildCrudDao implements ParentChildCrudOperations {
         String id = object.getString("id");
 
         try(Context time = createTimer.time()) {
-            JsonObject esResponse = client.createObject(index.writeAlias(), type,id, parentId, object, replace);
+            JsonObject esResponse = writer.index(parentId, object, alias -> client.createObject(alias, type, id, parentId, object, replace));
             JsonObject response = object.deepClone();
             response.put("_version", esResponse.getString("_version"));
             response.put("id", esResponse.getString("_id"));
@@ -128,7 +131,7 @@ public final class EsParentChildCrudDao implements ParentChildCrudOperations {
                     JsonObject response = changedObject.deepClone();
                     String previousVersion = response.remove("_version").asString();
                     response.remove("_type");
-                    JsonObject esResponse = client.updateObject(index.writeAlias(), type, objectId1, parentId, previousVersion, response);
+                    JsonObject esResponse = writer.index(parentId, response, alias -> client.updateObject(alias, type, objectId1, parentId, previousVersion, response));
                     markModifiedInRedis(objectId1, parentId);
                     response.put("_version", esResponse.getString("_version"));
                     response.put("id", esResponse.getString("_id"));
@@ -161,8 +164,13 @@ public final class EsParentChildCrudDao implements ParentChildCrudOperations {
 
     @Override
     public JsonObject get(String id, String parentId) {
+        return get(id, parentId, null);
+    }
+
+    @Override
+    public JsonObject get(String id, String parentId, SourceFilter sourceFilter) {
         try(Context time = getTimer.time()) {
-            JsonObject esResponse = client.getObject(index.readAlias(), type, id, parentId);
+            JsonObject esResponse = client.getObject(index.readAlias(), type, id, parentId, sourceFilter);
             JsonObject object = esResponse.getObject("_source");
             object.put("_version", esResponse.getString("_version"));
             object.put("id", esResponse.getString("_id"));
@@ -177,7 +185,7 @@ public final class EsParentChildCrudDao implements ParentChildCrudOperations {
         try(Context time = deleteTimer.time()) {
             JsonObject object = get(objectId, parentId);
             if(object != null) {
-                client.deleteObject(index.writeAlias(), type,object.getString("id"), null, parentId);
+                writer.delete(objectId, parentId, alias -> client.deleteObject(alias, type, object.getString("id"), null, parentId));
                 markModifiedInRedis(objectId, parentId);
             } else {
                 throw new IllegalStateException("object does not exist "+index.writeAlias()+'/'+type +"/"+objectId);
@@ -192,6 +200,11 @@ public final class EsParentChildCrudDao implements ParentChildCrudOperations {
         return result;
     }
 
+    @Override
+    public Set<String> recentlyModifiedIds(String parentId, long sinceMillis) {
+        return new LinkedHashSet<>(recentlyModifiedIdsStack.listSince(redisKey(parentId), sinceMillis));
+    }
+
     @Override
     public PagedSearchResponse pagedSearch(JsonObject q, int size, int from) {
         try(Context time = queryTimer.time()) {
@@ -199,6 +212,13 @@ public final class EsParentChildCrudDao implements ParentChildCrudOperations {
         }
     }
 
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        try(Context time = queryTimer.time()) {
+            return client.pagedSearch(index.readAlias(), type, q, size, from, sourceFilter);
+        }
+    }
+
     @Override
     public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
         try(Context time = queryTimer.time()) {
@@ -206,6 +226,13 @@ public final class EsParentChildCrudDao implements ParentChildCrudOperations {
         }
     }
 
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        try(Context time = queryTimer.time()) {
+            return client.iterableSearch(index.readAlias(), type, q, pageSize, ttlMinutes, rawResults, sourceFilter);
+        }
+    }
+
     @Override
     public JsonObject searchUnique(JsonObject q) {
         try(Context time = queryTimer.time()) {
@@ -0,0 +1,102 @@
+package io.inbot.elasticsearch.crud;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Metrics for a guava cache: hit ratio, load times, removals by cause, size and estimated weight.
+ *
+ * Register this as the removal listener and turn on recordStats when building the cache, then pass the cache to
+ * {@link #monitor(Cache)}. Wrap loads in {@link #loadTimer()} since guava only keeps track of the total load time.
+ * Hits and misses are reported by the dao because a getIfPresent followed by a get would count as two misses in the
+ * guava stats.
+ */
+class GuavaCacheMetrics<K, V> implements MetricSet, RemovalListener<K, V> {
+    private final String prefix;
+    private final ToLongFunction<V> weigher;
+    private final Timer loadTimer = new Timer();
+    private final Meter hitMeter = new Meter();
+    private final Meter missMeter = new Meter();
+    private final Map<RemovalCause, Counter> removals = new EnumMap<>(RemovalCause.class);
+    private Cache<K, V> cache;
+
+    /**
+     * @param prefix
+     *            metrics prefix
+     * @param weigher
+     *            estimates the size of a cached value in bytes
+     */
+    GuavaCacheMetrics(String prefix, ToLongFunction<V> weigher) {
+        this.prefix = prefix;
+        this.weigher = weigher;
+        for(RemovalCause cause: RemovalCause.values()) {
+            removals.put(cause, new Counter());
+        }
+    }
+
+    void monitor(Cache<K, V> cache) {
+        this.cache = cache;
+    }
+
+    void hit() {
+        hitMeter.mark();
+    }
+
+    void miss() {
+        missMeter.mark();
+    }
+
+    Timer loadTimer() {
+        return loadTimer;
+    }
+
+    @Override
+    public void onRemoval(RemovalNotification<K, V> notification) {
+        removals.get(notification.getCause()).inc();
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<>();
+        metrics.put(prefix + ".hitratio", (Gauge<Double>) () -> {
+            double hits = hitMeter.getCount();
+            double requests = hits + missMeter.getCount();
+            return requests == 0 ? 1.0 : hits / requests;
+        });
+        metrics.put(prefix + ".hit", hitMeter);
+        metrics.put(prefix + ".miss", missMeter);
+        metrics.put(prefix + ".loadfailures", (Gauge<Long>) () -> cache.stats().loadExceptionCount());
+        metrics.put(prefix + ".load", loadTimer);
+        metrics.put(prefix + ".size", (Gauge<Long>) () -> cache.size());
+        // walking the whole cache is not free, so only do this once a minute
+        metrics.put(prefix + ".weight", new CachedGauge<Long>(1, TimeUnit.MINUTES) {
+            @Override
+            protected Long loadValue() {
+                long weight = 0;
+                for(V value: cache.asMap().values()) {
+                    weight += weigher.applyAsLong(value);
+                }
+                return weight;
+            }
+        });
+        for(Map.Entry<RemovalCause, Counter> entry: removals.entrySet()) {
+            metrics.put(prefix + ".removed." + entry.getKey().name().toLowerCase(Locale.ENGLISH), entry.getValue());
+        }
+        return metrics;
+    }
+}
@@ -3,27 +3,29 @@ package io.inbot.elasticsearch.crud;
 
 
 import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer.Context;
 import com.github.jsonj.JsonObject;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import io.inbot.elasticsearch.bulkindexing.BulkIndexerStatusHandler;
 import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
 import io.inbot.elasticsearch.client.IterableSearchResponse;
 import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 public class GuavaCachingChildCrudDao implements ParentChildCrudOperations {
 
     private final ParentChildCrudOperations crudDao;
-    private LoadingCache<ParentChild,Optional<JsonObject>> cache;
+    private final LoadingCache<ParentChild, CachedObject> cache;
+    private final InMemoryCacheSettings settings;
+    private final GuavaCacheMetrics<ParentChild, CachedObject> cacheMetrics;
+    private final String metricsPrefix;
 
     private static class ParentChild {
         public final String parent;
@@ -37,38 +39,67 @@ public class GuavaCachingChildCrudDao implements ParentChildCrudOperations {
         public static ParentChild from(String parent, String child) {
             return new ParentChild(parent, child);
         }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(parent, child);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!(obj instanceof ParentChild)) {
+                return false;
+            }
+            ParentChild other = (ParentChild) obj;
+            return Objects.equals(parent, other.parent) && Objects.equals(child, other.child);
+        }
     }
 
     public GuavaCachingChildCrudDao(ParentChildCrudOperations crudDao, int maxItems, int expireAfterWriteSeconds) {
+        this(crudDao, null, maxItems, expireAfterWriteSeconds);
+    }
+
+    public GuavaCachingChildCrudDao(ParentChildCrudOperations crudDao, String metricsPrefix, int maxItems, int expireAfterWriteSeconds) {
+        this(crudDao, metricsPrefix, new InMemoryCacheSettings().maxItems(maxItems).expireAfterWriteSeconds(expireAfterWriteSeconds));
+    }
+
+    /**
+     * @param crudDao
+     *            dao that is used on cache misses
+     * @param metricsPrefix
+     *            prefix for the metrics of this dao; if null, only the metrics of the wrapped dao are reported
+     * @param settings
+     *            size, ttl, refresh and storage settings of the cache
+     */
+    public GuavaCachingChildCrudDao(ParentChildCrudOperations crudDao, String metricsPrefix, InMemoryCacheSettings settings) {
         this.crudDao = crudDao;
-        cache = CacheBuilder.newBuilder()
-                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
-                .maximumSize(maxItems)
-                .softValues().build(new CacheLoader<ParentChild, Optional<JsonObject>>() {
-
-                    @Override
-                    public Optional<JsonObject> load(ParentChild key) throws Exception {
-                        JsonObject object = crudDao.get(false, key.child, key.parent);
-                        if(object == null) {
-                            return Optional.empty();
-                        } else {
-                            return Optional.of(object);
-                        }
-                    }
-                });
+        this.metricsPrefix = metricsPrefix;
+        this.settings = settings;
+        cacheMetrics = new GuavaCacheMetrics<>(metricsPrefix + ".cache", CachedObject::weight);
+        cache = settings.build(new RefreshAheadCacheLoader<ParentChild, CachedObject>(key -> {
+            try(Context context = cacheMetrics.loadTimer().time()) {
+                return settings.adopt(crudDao.get(false, key.child, key.parent));
+            }
+        }, settings.refreshExecutor()), cacheMetrics);
     }
 
     @Override
     public Map<String, Metric> getMetrics() {
         Map<String, Metric> metrics = new HashMap<>();
         metrics.putAll(crudDao.getMetrics());
+        if(metricsPrefix != null) {
+            metrics.putAll(cacheMetrics.getMetrics());
+        }
         return metrics;
     }
 
     @Override
     public JsonObject create(JsonObject object, String parentId, boolean replace) {
         JsonObject created = crudDao.create(object, parentId, false);
-        cache.put(ParentChild.from(parentId, created.getString("id")), Optional.of(object));
+        cache.put(ParentChild.from(parentId, created.getString("id")), settings.wrap(object));
         return created;
     }
 
@@ -77,22 +108,30 @@ public class GuavaCachingChildCrudDao implements ParentChildCrudOperations {
         return crudDao.recentlyModifiedIds(parentId);
     }
 
+    @Override
+    public Set<String> recentlyModifiedIds(String parentId, long sinceMillis) {
+        return crudDao.recentlyModifiedIds(parentId, sinceMillis);
+    }
+
     @Override
     public JsonObject update(String id, boolean modifyUpdatedAt, Function<JsonObject, JsonObject> f, String parentId) {
         JsonObject updated = crudDao.update(id, true, f, parentId);
-        cache.put(ParentChild.from(parentId, id), Optional.of(updated));
+        cache.put(ParentChild.from(parentId, id), settings.wrap(updated));
         return updated;
     }
 
     @Override
     public JsonObject get(String id, String parentId) {
         try {
-            Optional<JsonObject> maybeValue = cache.get(ParentChild.from(parentId, id));
-            if(maybeValue.isPresent()) {
-                return maybeValue.get().deepClone();
+            ParentChild key = ParentChild.from(parentId, id);
+            CachedObject cached = cache.getIfPresent(key);
+            if(cached != null) {
+                cacheMetrics.hit();
             } else {
-                return null;
+                cacheMetrics.miss();
+                cached = cache.get(key);
             }
+            return cached.object();
         } catch (ExecutionException e) {
             throw new IllegalStateException("unexpected error fetching value from cache", e);
         }
@@ -107,6 +146,12 @@ public class GuavaCachingChildCrudDao implements ParentChildCrudOperations {
         }
     }
 
+    @Override
+    public JsonObject get(String id, String parentId, SourceFilter sourceFilter) {
+        // partial objects are not cached
+        return crudDao.get(id, parentId, sourceFilter);
+    }
+
     @Override
     public void delete(String id, String parentId) {
         crudDao.delete(id, parentId);
@@ -119,12 +164,24 @@ public class GuavaCachingChildCrudDao implements ParentChildCrudOperations {
         return results;
     }
 
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        PagedSearchResponse results = crudDao.pagedSearch(q, size, from, sourceFilter);
+        return results;
+    }
+
     @Override
     public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
         IterableSearchResponse results = crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults);
         return results;
     }
 
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        IterableSearchResponse results = crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults, sourceFilter);
+        return results;
+    }
+
     @Override
     public JsonObject searchUnique(JsonObject q) {
         JsonObject result = crudDao.searchUnique(q);
@@ -145,7 +202,7 @@ public class GuavaCachingChildCrudDao implements ParentChildCrudOperations {
             @Override
             public void update(String id, String version, String parentId, JsonObject object, Function<JsonObject, JsonObject> transformFunction) {
                 bulkIndexer.update(id, version, parentId, object, transformFunction);
-                cache.put(ParentChild.from(parentId, id), Optional.of(object));
+                cache.put(ParentChild.from(parentId, id), settings.wrap(object));
             }
 
             @Override
@@ -156,13 +213,13 @@ public class GuavaCachingChildCrudDao implements ParentChildCrudOperations {
             @Override
             public void index(String id, String type, String parentId, String version, JsonObject object) {
                 bulkIndexer.index(id, type, parentId, version, object);
-                cache.put(ParentChild.from(parentId, id), Optional.of(object));
+                cache.put(ParentChild.from(parentId, id), settings.wrap(object));
             }
 
             @Override
             public void index(JsonObject o, String parentId) {
                 bulkIndexer.index(o, parentId);
-                cache.put(ParentChild.from(parentId, o.getString("id")), Optional.of(o));
+                cache.put(ParentChild.from(parentId, o.getString("id")), settings.wrap(o));
             }
 
             @Override
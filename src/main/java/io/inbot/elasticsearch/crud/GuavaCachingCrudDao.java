@@ -4,62 +4,84 @@ package io.inbot.elasticsearch.crud;
 import static com.github.jsonj.tools.JsonBuilder.array;
 
 import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer.Context;
 import com.github.jsonj.JsonArray;
 import com.github.jsonj.JsonElement;
 import com.github.jsonj.JsonObject;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import io.inbot.elasticsearch.bulkindexing.BulkIndexerStatusHandler;
 import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
 import io.inbot.elasticsearch.client.IterableSearchResponse;
 import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
+import io.inbot.redis.SingleFlight;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 public class GuavaCachingCrudDao implements CrudOperations {
 
     private final CrudOperations crudDao;
-    private LoadingCache<String,Optional<JsonObject>> cache;
+    private final LoadingCache<String, CachedObject> cache;
+    private final InMemoryCacheSettings settings;
+    private final RefreshAheadCacheLoader<String, CachedObject> loader;
+    private final GuavaCacheMetrics<String, CachedObject> cacheMetrics;
+    // values are copied on the way out anyway so waiting callers can share the cached entry
+    private final SingleFlight<String, CachedObject> loads = new SingleFlight<>(UnaryOperator.identity());
+    private final String metricsPrefix;
 
     public GuavaCachingCrudDao(CrudOperations crudDao, int maxItems, int expireAfterWriteSeconds) {
+        this(crudDao, null, maxItems, expireAfterWriteSeconds);
+    }
+
+    public GuavaCachingCrudDao(CrudOperations crudDao, String metricsPrefix, int maxItems, int expireAfterWriteSeconds) {
+        this(crudDao, metricsPrefix, new InMemoryCacheSettings().maxItems(maxItems).expireAfterWriteSeconds(expireAfterWriteSeconds));
+    }
+
+    /**
+     * @param crudDao
+     *            dao that is used on cache misses
+     * @param metricsPrefix
+     *            prefix for the metrics of this dao; if null, only the metrics of the wrapped dao are reported
+     * @param settings
+     *            size, ttl, refresh and storage settings of the cache
+     */
+    public GuavaCachingCrudDao(CrudOperations crudDao, String metricsPrefix, InMemoryCacheSettings settings) {
         this.crudDao = crudDao;
-        cache = CacheBuilder.newBuilder()
-                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
-                .maximumSize(maxItems)
-                .softValues().build(new CacheLoader<String, Optional<JsonObject>>() {
-
-                    @Override
-                    public Optional<JsonObject> load(String key) throws Exception {
-                        JsonObject o = crudDao.get(key);
-                        if(o==null) {
-                            return Optional.empty();
-                        } else {
-                            return Optional.of(o);
-                        }
-                    }
-                });
+        this.metricsPrefix = metricsPrefix;
+        this.settings = settings;
+        cacheMetrics = new GuavaCacheMetrics<>(metricsPrefix + ".cache", CachedObject::weight);
+        loader = new RefreshAheadCacheLoader<>(key -> {
+            try(Context context = cacheMetrics.loadTimer().time()) {
+                return settings.adopt(crudDao.get(key));
+            }
+        }, settings.refreshExecutor());
+        cache = settings.build(loader, cacheMetrics);
     }
 
     @Override
     public Map<String, Metric> getMetrics() {
         Map<String, Metric> metrics = new HashMap<>();
         metrics.putAll(crudDao.getMetrics());
+        if(metricsPrefix != null) {
+            metrics.put(metricsPrefix + ".collapsed", loads.collapsedMeter());
+            metrics.put(metricsPrefix + ".refreshes", loader.refreshMeter());
+            metrics.put(metricsPrefix + ".stale", loader.staleMeter());
+            metrics.putAll(cacheMetrics.getMetrics());
+        }
         return metrics;
     }
 
     @Override
     public JsonObject create(JsonObject object, boolean replace) {
         JsonObject created = crudDao.create(object, replace);
-        cache.put(object.getString("id"), Optional.of(created));
+        cache.put(object.getString("id"), settings.wrap(created));
         return created;
     }
 
@@ -68,10 +90,15 @@ public class GuavaCachingCrudDao implements CrudOperations {
         return crudDao.recentlyModifiedIds();
     }
 
+    @Override
+    public Set<String> recentlyModifiedIds(long sinceMillis) {
+        return crudDao.recentlyModifiedIds(sinceMillis);
+    }
+
     @Override
     public JsonObject update(String id, boolean modifyUpdatedAt, Function<JsonObject, JsonObject> f) {
         JsonObject updated = crudDao.update(id, true, f);
-        cache.put(updated.getString("id"), Optional.of(updated));
+        cache.put(updated.getString("id"), settings.wrap(updated));
         return updated;
     }
 
@@ -82,16 +109,26 @@ public class GuavaCachingCrudDao implements CrudOperations {
 
     @Override
     public JsonObject get(String id) {
-        try {
-            Optional<JsonObject> maybeValue = cache.get(id);
-            if(maybeValue.isPresent()) {
-                return maybeValue.get().deepClone();
-            } else {
-                return null;
-            }
-        } catch (ExecutionException e) {
-            throw new IllegalStateException("unexpected error fetching value from cache", e);
+        return lookup(id).object();
+    }
+
+    private CachedObject lookup(String id) {
+        CachedObject cached = cache.getIfPresent(id);
+        if(cached != null) {
+            cacheMetrics.hit();
+            loader.served(id);
+        } else {
+            cacheMetrics.miss();
+            // guava already makes concurrent loads for the same key wait for each other; this allows us to measure that
+            cached = loads.execute(id, () -> {
+                try {
+                    return cache.get(id);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("unexpected error fetching value from cache", e);
+                }
+            });
         }
+        return cached;
     }
 
     @Override
@@ -99,13 +136,9 @@ public class GuavaCachingCrudDao implements CrudOperations {
         if(cached) {
             JsonArray cachedObjects=array();
             for(String id:ids) {
-                try {
-                    Optional<JsonObject> maybeObject = cache.get(id);
-                    if(maybeObject.isPresent()) {
-                        cachedObjects.add(maybeObject.get());
-                    }
-                } catch (ExecutionException e) {
-                    throw new IllegalStateException("unexpected error fetching value from cache", e);
+                CachedObject cachedObject = lookup(id);
+                if(cachedObject.isPresent()) {
+                    cachedObjects.add(cachedObject.object());
                 }
             }
             if(cachedObjects.size() == ids.length) {
@@ -113,7 +146,7 @@ public class GuavaCachingCrudDao implements CrudOperations {
             } else if(cachedObjects.size()==0) {
                 JsonArray results = crudDao.mget(cached, ids);
                 for(JsonObject result:results.objects()) {
-                    cache.put(result.getString("id"), Optional.of(result));
+                    cache.put(result.getString("id"), settings.wrap(result));
                 }
                 return results;
             } else {
@@ -127,7 +160,7 @@ public class GuavaCachingCrudDao implements CrudOperations {
                 }
                 for(JsonObject o: nonCachedObjects.objects()) {
                     idMap.put(o.getString("id"), o);
-                    cache.put(o.getString("id"), Optional.of(o));
+                    cache.put(o.getString("id"), settings.wrap(o));
                 }
                 JsonArray allObjects=array();
                 for(String id:ids) {
@@ -174,12 +207,35 @@ public class GuavaCachingCrudDao implements CrudOperations {
         return results;
     }
 
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        PagedSearchResponse results = crudDao.pagedSearch(q, size, from, sourceFilter);
+        return results;
+    }
+
     @Override
     public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
         IterableSearchResponse results = crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults);
         return results;
     }
 
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        IterableSearchResponse results = crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults, sourceFilter);
+        return results;
+    }
+
+    @Override
+    public JsonObject get(String id, SourceFilter sourceFilter) {
+        // partial objects are not cached
+        return crudDao.get(id, sourceFilter);
+    }
+
+    @Override
+    public JsonArray mget(SourceFilter sourceFilter, String... ids) {
+        return crudDao.mget(sourceFilter, ids);
+    }
+
     @Override
     public JsonObject searchUnique(JsonObject q) {
         JsonObject result = crudDao.searchUnique(q);
@@ -200,7 +256,7 @@ public class GuavaCachingCrudDao implements CrudOperations {
             @Override
             public void update(String id, String version, String parentId, JsonObject object, Function<JsonObject, JsonObject> transformFunction) {
                 bulkIndexer.update(id, version, parentId, object, transformFunction);
-                cache.put(id, Optional.of(object));
+                cache.put(id, settings.wrap(object));
             }
 
             @Override
@@ -211,19 +267,19 @@ public class GuavaCachingCrudDao implements CrudOperations {
             @Override
             public void index(String id, String type, String parentId, String version, JsonObject object) {
                 bulkIndexer.index(id, type, parentId, version, object);
-                cache.put(id, Optional.of(object));
+                cache.put(id, settings.wrap(object));
             }
 
             @Override
             public void index(JsonObject o, String parentId) {
                 bulkIndexer.index(o, parentId);
-                cache.put(o.getString("id"), Optional.of(o));
+                cache.put(o.getString("id"), settings.wrap(o));
             }
 
             @Override
             public void index(JsonObject o) {
                 bulkIndexer.index(o);
-                cache.put(o.getString("id"), Optional.of(o));
+                cache.put(o.getString("id"), settings.wrap(o));
             }
 
             @Override
@@ -0,0 +1,144 @@
+package io.inbot.elasticsearch.crud;
+
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Settings for the in memory caches used by {@link GuavaCachingCrudDao}, {@link GuavaCachingChildCrudDao} and
+ * {@link TieredCachingCrudDao}.
+ *
+ * By default the cache is bounded by the number of objects and uses soft references. If you set a maximum weight, the
+ * cache is bounded by the estimated number of bytes instead and soft references are not used, so memory use is
+ * predictable and the cache does not get cleared out by the garbage collector under memory pressure.
+ */
+public class InMemoryCacheSettings {
+    private int maxItems = 10000;
+    private long maxWeightBytes = 0;
+    private int expireAfterWriteSeconds = 60;
+    private int refreshAfterWriteSeconds = 0;
+    private Executor refreshExecutor;
+    private InMemoryCacheStorage storage = InMemoryCacheStorage.OBJECTS;
+    private JsonParser parser;
+
+    /**
+     * @param maxItems
+     *            maximum number of objects; ignored if a maximum weight is set
+     * @return settings
+     */
+    public InMemoryCacheSettings maxItems(int maxItems) {
+        this.maxItems = maxItems;
+        return this;
+    }
+
+    /**
+     * @param maxWeightBytes
+     *            maximum estimated size of all the cached objects together
+     * @return settings
+     */
+    public InMemoryCacheSettings maxWeightBytes(long maxWeightBytes) {
+        this.maxWeightBytes = maxWeightBytes;
+        return this;
+    }
+
+    /**
+     * @param expireAfterWriteSeconds
+     *            ttl of the cached objects
+     * @return settings
+     */
+    public InMemoryCacheSettings expireAfterWriteSeconds(int expireAfterWriteSeconds) {
+        this.expireAfterWriteSeconds = expireAfterWriteSeconds;
+        return this;
+    }
+
+    /**
+     * @param refreshAfterWriteSeconds
+     *            if greater than 0, objects that are requested after this many seconds are reloaded on the executor
+     *            while the cached object is still served; must be less than expireAfterWriteSeconds
+     * @param executor
+     *            executor for the reloads
+     * @return settings
+     */
+    public InMemoryCacheSettings refreshAfterWrite(int refreshAfterWriteSeconds, Executor executor) {
+        this.refreshAfterWriteSeconds = refreshAfterWriteSeconds;
+        this.refreshExecutor = executor;
+        return this;
+    }
+
+    /**
+     * @param storage
+     *            how to keep the objects
+     * @param parser
+     *            needed to parse serialized objects; may be null for {@link InMemoryCacheStorage#OBJECTS}
+     * @return settings
+     */
+    public InMemoryCacheSettings storage(InMemoryCacheStorage storage, JsonParser parser) {
+        this.storage = storage;
+        this.parser = parser;
+        return this;
+    }
+
+    <K> LoadingCache<K, CachedObject> build(CacheLoader<K, CachedObject> loader, GuavaCacheMetrics<K, CachedObject> cacheMetrics) {
+        Validate.isTrue(storage == InMemoryCacheStorage.OBJECTS || parser != null, "a parser is required for " + storage + " storage");
+        CacheBuilder<K, CachedObject> builder = CacheBuilder.newBuilder()
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .removalListener(cacheMetrics);
+        if(maxWeightBytes > 0) {
+            builder.maximumWeight(maxWeightBytes).weigher((K key, CachedObject value) -> value.weight());
+        } else {
+            builder.maximumSize(maxItems).softValues();
+        }
+        if(refreshAfterWriteSeconds > 0) {
+            Validate.isTrue(refreshAfterWriteSeconds < expireAfterWriteSeconds, "refreshAfterWriteSeconds should be less than expireAfterWriteSeconds");
+            Validate.notNull(refreshExecutor, "refreshExecutor is required");
+            builder.refreshAfterWrite(refreshAfterWriteSeconds, TimeUnit.SECONDS);
+        }
+        LoadingCache<K, CachedObject> cache = builder.build(loader);
+        cacheMetrics.monitor(cache);
+        return cache;
+    }
+
+    Executor refreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * @param object
+     *            object or null; the object is copied if needed so the caller may continue to modify it
+     * @return cache entry
+     */
+    CachedObject wrap(JsonObject object) {
+        if(object == null) {
+            return CachedObject.ABSENT;
+        }
+        if(storage == InMemoryCacheStorage.OBJECTS) {
+            return CachedObject.live(object.deepClone());
+        }
+        return adopt(object);
+    }
+
+    /**
+     * @param object
+     *            object or null that nobody else references
+     * @return cache entry
+     */
+    CachedObject adopt(JsonObject object) {
+        if(object == null) {
+            return CachedObject.ABSENT;
+        }
+        switch(storage) {
+        case SERIALIZED:
+            return CachedObject.serialized(object, false, parser);
+        case COMPRESSED:
+            return CachedObject.serialized(object, true, parser);
+        default:
+            return CachedObject.live(object);
+        }
+    }
+}
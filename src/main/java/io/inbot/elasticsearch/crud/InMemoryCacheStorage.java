@@ -0,0 +1,19 @@
+package io.inbot.elasticsearch.crud;
+
+/**
+ * How the in memory caches keep objects.
+ */
+public enum InMemoryCacheStorage {
+    /**
+     * Keep the parsed objects. Fastest, but a json object tree uses several times the memory of its serialized form.
+     */
+    OBJECTS,
+    /**
+     * Keep the objects as utf-8 json and parse them on every cache hit.
+     */
+    SERIALIZED,
+    /**
+     * Like SERIALIZED but also compressed. Trades even more cpu for memory.
+     */
+    COMPRESSED
+}
@@ -0,0 +1,40 @@
+package io.inbot.elasticsearch.crud;
+
+import com.github.jsonj.JsonElement;
+import java.util.Map.Entry;
+
+/**
+ * Rough estimate of the heap used by a json object. Walks the object instead of serializing it so it is cheap enough
+ * to use for cache weights and size gauges. Don't expect more than the right order of magnitude.
+ */
+final class JsonSizeEstimator {
+    private static final int OBJECT_OVERHEAD = 48;
+    private static final int ENTRY_OVERHEAD = 32;
+    private static final int STRING_OVERHEAD = 40;
+    private static final int PRIMITIVE_OVERHEAD = 16;
+
+    private JsonSizeEstimator() {
+    }
+
+    static long estimate(JsonElement element) {
+        if(element == null || element.isNull()) {
+            return 0;
+        } else if(element.isObject()) {
+            long size = OBJECT_OVERHEAD;
+            for(Entry<String, JsonElement> entry: element.asObject().entrySet()) {
+                size += ENTRY_OVERHEAD + STRING_OVERHEAD + 2 * entry.getKey().length() + estimate(entry.getValue());
+            }
+            return size;
+        } else if(element.isArray()) {
+            long size = OBJECT_OVERHEAD;
+            for(JsonElement e: element.asArray()) {
+                size += 8 + estimate(e);
+            }
+            return size;
+        } else if(element.isString()) {
+            return STRING_OVERHEAD + 2 * element.asString().length();
+        } else {
+            return PRIMITIVE_OVERHEAD;
+        }
+    }
+}
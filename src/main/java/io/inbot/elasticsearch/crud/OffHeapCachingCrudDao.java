@@ -0,0 +1,440 @@
+package io.inbot.elasticsearch.crud;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Timer.Context;
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+import io.inbot.elasticsearch.bulkindexing.BulkIndexerStatusHandler;
+import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
+import io.inbot.elasticsearch.client.IterableSearchResponse;
+import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
+import io.inbot.redis.SingleFlight;
+import io.inbot.utils.CompressionUtils;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Caches objects as (compressed) json outside of the java heap in an {@link OffHeapObjectStore}. Use this instead of
+ * {@link GuavaCachingCrudDao} if you want to cache more objects than you can afford to keep on the heap: cached
+ * objects don't add to garbage collection cost but are parsed on every cache hit.
+ */
+public class OffHeapCachingCrudDao implements CrudOperations {
+    private static final byte ABSENT = 0;
+    private static final byte JSON = 1;
+    private static final byte COMPRESSED_JSON = 2;
+    private static final byte[] ABSENT_VALUE = new byte[] { ABSENT };
+    private static final int STRIPES = 64;
+
+    private final CrudOperations crudDao;
+    private final OffHeapObjectStore store;
+    private final JsonParser parser;
+    private final String metricsPrefix;
+    private final long ttlMillis;
+    private final boolean compress;
+    private final Meter hits = new Meter();
+    private final Meter misses = new Meter();
+    private final Timer loadTimer = new Timer();
+    // every caller parses its own copy so the loaded bytes can be shared
+    private final SingleFlight<String, byte[]> loads = new SingleFlight<>(UnaryOperator.identity());
+    // writes bump the generation of the stripe of their id, so loads that started before a write don't cache what they loaded
+    private final Object[] locks = new Object[STRIPES];
+    private final long[] generations = new long[STRIPES]; // guarded by the lock of the stripe
+
+    /**
+     * @param crudDao
+     *            dao that is used on cache misses
+     * @param parser
+     *            parser for the cached json
+     * @param metricsPrefix
+     *            prefix for the metrics of this dao
+     * @param maxBytes
+     *            off heap memory that the cache may use
+     * @param expireAfterWriteSeconds
+     *            ttl of the cached objects
+     * @param compress
+     *            compress the cached json; trades cpu for room for more objects
+     */
+    public OffHeapCachingCrudDao(CrudOperations crudDao, JsonParser parser, String metricsPrefix, long maxBytes, int expireAfterWriteSeconds,
+            boolean compress) {
+        this(crudDao, parser, metricsPrefix, maxBytes, expireAfterWriteSeconds, compress, 16);
+    }
+
+    /**
+     * @param crudDao
+     *            dao that is used on cache misses
+     * @param parser
+     *            parser for the cached json
+     * @param metricsPrefix
+     *            prefix for the metrics of this dao
+     * @param maxBytes
+     *            off heap memory that the cache may use
+     * @param expireAfterWriteSeconds
+     *            ttl of the cached objects
+     * @param compress
+     *            compress the cached json; trades cpu for room for more objects
+     * @param concurrencyLevel
+     *            number of independently locked segments, rounded up to a power of two; each gets an equal part of
+     *            maxBytes so fewer segments waste less memory on partly filled slabs
+     */
+    public OffHeapCachingCrudDao(CrudOperations crudDao, JsonParser parser, String metricsPrefix, long maxBytes, int expireAfterWriteSeconds,
+            boolean compress, int concurrencyLevel) {
+        this.crudDao = crudDao;
+        this.parser = parser;
+        this.metricsPrefix = metricsPrefix;
+        this.compress = compress;
+        ttlMillis = TimeUnit.SECONDS.toMillis(expireAfterWriteSeconds);
+        store = new OffHeapObjectStore(maxBytes, concurrencyLevel);
+        for(int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<>();
+        metrics.putAll(crudDao.getMetrics());
+        metrics.put(metricsPrefix + ".hit", hits);
+        metrics.put(metricsPrefix + ".miss", misses);
+        metrics.put(metricsPrefix + ".load", loadTimer);
+        metrics.put(metricsPrefix + ".collapsed", loads.collapsedMeter());
+        metrics.put(metricsPrefix + ".size", (Gauge<Long>) store::size);
+        metrics.put(metricsPrefix + ".usedbytes", (Gauge<Long>) store::usedBytes);
+        metrics.put(metricsPrefix + ".allocatedbytes", (Gauge<Long>) store::allocatedBytes);
+        metrics.put(metricsPrefix + ".evictions", (Gauge<Long>) store::evictions);
+        metrics.put(metricsPrefix + ".rejections", (Gauge<Long>) store::rejections);
+        metrics.put(metricsPrefix + ".slabmoves", (Gauge<Long>) store::slabMoves);
+        return metrics;
+    }
+
+    /**
+     * Drop all cached objects.
+     */
+    public void clear() {
+        store.clear();
+    }
+
+    @Override
+    public JsonObject get(String id) {
+        byte[] value = store.get(id);
+        if(value != null) {
+            hits.mark();
+        } else {
+            misses.mark();
+            value = loads.execute(id, () -> {
+                try(Context context = loadTimer.time()) {
+                    long generation = generation(id);
+                    byte[] loaded = encode(crudDao.get(id));
+                    cache(id, loaded, generation);
+                    return loaded;
+                }
+            });
+        }
+        return decode(value);
+    }
+
+    @Override
+    public JsonObject get(boolean cached, String id) {
+        if(cached) {
+            return get(id);
+        } else {
+            return crudDao.get(cached, id);
+        }
+    }
+
+    @Override
+    public JsonArray mget(boolean cached, String... ids) {
+        if(!cached) {
+            return crudDao.mget(cached, ids);
+        }
+        Map<String, JsonObject> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for(String id: ids) {
+            byte[] value = store.get(id);
+            if(value == null) {
+                misses.mark();
+                missing.add(id);
+            } else {
+                hits.mark();
+                JsonObject o = decode(value);
+                if(o != null) {
+                    found.put(id, o);
+                }
+            }
+        }
+        if(!missing.isEmpty()) {
+            Map<String, Long> generations = new HashMap<>();
+            for(String id: missing) {
+                generations.put(id, generation(id));
+            }
+            for(JsonObject o: crudDao.mget(cached, missing.toArray(new String[missing.size()])).objects()) {
+                String id = o.getString("id");
+                found.put(id, o);
+                Long generation = generations.get(id);
+                if(generation != null) {
+                    cache(id, encode(o), generation);
+                }
+            }
+        }
+        JsonArray results = array();
+        for(String id: ids) {
+            JsonObject o = found.get(id);
+            if(o != null) {
+                results.add(o);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public JsonObject create(JsonObject object, boolean replace) {
+        JsonObject created = crudDao.create(object, replace);
+        written(created.getString("id"), encode(created));
+        return created;
+    }
+
+    @Override
+    public JsonObject update(String id, boolean modifyUpdatedAt, Function<JsonObject, JsonObject> f) {
+        JsonObject updated = crudDao.update(id, modifyUpdatedAt, f);
+        written(id, encode(updated));
+        return updated;
+    }
+
+    @Override
+    public void delete(String id) {
+        crudDao.delete(id);
+        written(id, null);
+    }
+
+    @Override
+    public void deleteByQuery(JsonObject query) {
+        crudDao.deleteByQuery(query);
+    }
+
+    @Override
+    public Set<String> recentlyModifiedIds() {
+        return crudDao.recentlyModifiedIds();
+    }
+
+    @Override
+    public Set<String> recentlyModifiedIds(long sinceMillis) {
+        return crudDao.recentlyModifiedIds(sinceMillis);
+    }
+
+    @Override
+    public JsonObject get(String id, SourceFilter sourceFilter) {
+        // partial objects are not cached
+        return crudDao.get(id, sourceFilter);
+    }
+
+    @Override
+    public JsonArray mget(SourceFilter sourceFilter, String... ids) {
+        return crudDao.mget(sourceFilter, ids);
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from) {
+        return crudDao.pagedSearch(q, size, from);
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, String... fields) {
+        return crudDao.pagedSearch(q, size, from, fields);
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        return crudDao.pagedSearch(q, size, from, sourceFilter);
+    }
+
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
+        return crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults);
+    }
+
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        return crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults, sourceFilter);
+    }
+
+    @Override
+    public JsonObject searchUnique(JsonObject q) {
+        return crudDao.searchUnique(q);
+    }
+
+    @Override
+    public JsonObject mapping() {
+        return crudDao.mapping();
+    }
+
+    private long generation(String id) {
+        int stripe = stripe(id);
+        synchronized(locks[stripe]) {
+            return generations[stripe];
+        }
+    }
+
+    /**
+     * Caches a loaded value unless the id was written since the load started.
+     */
+    private void cache(String id, byte[] value, long generation) {
+        int stripe = stripe(id);
+        synchronized(locks[stripe]) {
+            if(generations[stripe] == generation) {
+                store.put(id, value, ttlMillis);
+            }
+        }
+    }
+
+    /**
+     * @param value
+     *            the value that was written or null to remove the id from the cache
+     */
+    private void written(String id, byte[] value) {
+        if(id == null) {
+            return;
+        }
+        int stripe = stripe(id);
+        synchronized(locks[stripe]) {
+            generations[stripe]++;
+            if(value == null) {
+                store.remove(id);
+            } else {
+                store.put(id, value, ttlMillis);
+            }
+        }
+    }
+
+    private static int stripe(String id) {
+        return (id.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    private byte[] encode(JsonObject object) {
+        if(object == null) {
+            return ABSENT_VALUE;
+        }
+        byte[] json = object.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = compress ? CompressionUtils.compress(json) : json;
+        byte[] value = new byte[bytes.length + 1];
+        value[0] = compress ? COMPRESSED_JSON : JSON;
+        System.arraycopy(bytes, 0, value, 1, bytes.length);
+        return value;
+    }
+
+    private JsonObject decode(byte[] value) {
+        if(value[0] == ABSENT) {
+            return null;
+        }
+        byte[] bytes = Arrays.copyOfRange(value, 1, value.length);
+        if(value[0] == COMPRESSED_JSON) {
+            bytes = CompressionUtils.decompress(bytes);
+        }
+        return parser.parseObject(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public BulkIndexingOperations bulkIndexer() {
+        BulkIndexingOperations bulkIndexer = crudDao.bulkIndexer();
+        // written ids are removed again once they are sent, so what was loaded while they were queued does not stick
+        Set<String> pending = new HashSet<>();
+
+        return new BulkIndexingOperations() {
+
+            private void queued(String id) {
+                if(id != null) {
+                    written(id, null);
+                    synchronized(pending) {
+                        pending.add(id);
+                    }
+                }
+            }
+
+            private void sent() {
+                List<String> ids;
+                synchronized(pending) {
+                    ids = new ArrayList<>(pending);
+                    pending.clear();
+                }
+                ids.forEach(id -> written(id, null));
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    bulkIndexer.close();
+                } finally {
+                    sent();
+                }
+            }
+
+            @Override
+            public void update(String id, String version, String parentId, JsonObject object, Function<JsonObject, JsonObject> transformFunction) {
+                bulkIndexer.update(id, version, parentId, object, transformFunction);
+                // the transform function is applied later on so we don't know what ends up in es
+                queued(id);
+            }
+
+            @Override
+            public void setBulkIndexerStatusHandler(BulkIndexerStatusHandler statusHandler) {
+                bulkIndexer.setBulkIndexerStatusHandler(statusHandler);
+            }
+
+            @Override
+            public void index(String id, String type, String parentId, String version, JsonObject object) {
+                bulkIndexer.index(id, type, parentId, version, object);
+                queued(id);
+            }
+
+            @Override
+            public void index(JsonObject o, String parentId) {
+                bulkIndexer.index(o, parentId);
+                queued(o.getString("id"));
+            }
+
+            @Override
+            public void index(JsonObject o) {
+                bulkIndexer.index(o);
+                queued(o.getString("id"));
+            }
+
+            @Override
+            public void delete(String id) {
+                bulkIndexer.delete(id);
+                queued(id);
+            }
+
+            @Override
+            public void delete(String id, String parentId) {
+                bulkIndexer.delete(id, parentId);
+                queued(id);
+            }
+
+            @Override
+            public void flush() {
+                bulkIndexer.flush();
+                sent();
+            }
+
+            @Override
+            public void setRefresh(boolean b) {
+                bulkIndexer.setRefresh(b);
+            }
+        };
+    }
+}
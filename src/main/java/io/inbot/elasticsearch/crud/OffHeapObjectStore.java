@@ -0,0 +1,528 @@
+package io.inbot.elasticsearch.crud;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Byte array store that keeps its data outside of the java heap so that it does not add to garbage collection cost.
+ *
+ * The store is split into segments that each have their own lock, memory budget and index. Memory is allocated in
+ * direct byte buffer slabs that are divided into fixed size slots; each slot size (a power of two starting at 64
+ * bytes) has its own slabs. Entries are found through an open addressing index with linear probing that lives on the
+ * heap but only consists of two int arrays. When a segment has used up its budget, entries of the needed slot size are
+ * evicted with the CLOCK algorithm (an approximation of LRU): entries that were read since the clock hand last passed
+ * them get a second chance.
+ *
+ * Once a segment has used up its budget, slabs move to the slot sizes that need them: a slot size without slabs, or one
+ * that has evicted a slab's worth of entries, takes the last slab of the slot size with the fewest recent evictions and
+ * evicts whatever was in it. Entries larger than a slab are never stored.
+ */
+final class OffHeapObjectStore {
+    private static final int MIN_SLOT_SIZE = 64;
+    private static final int MAX_SLAB_SIZE = 1 << 20;
+    // key length, value length, expiration time
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    /**
+     * @param maxBytes
+     *            total amount of off heap memory the store may allocate
+     * @param concurrencyLevel
+     *            the store is split up in the next power of two segments
+     */
+    OffHeapObjectStore(long maxBytes, int concurrencyLevel) {
+        Validate.isTrue(concurrencyLevel > 0 && concurrencyLevel <= 256, "concurrencyLevel should be between 1 and 256");
+        int segmentCount = Integer.highestOneBit(concurrencyLevel);
+        if(segmentCount < concurrencyLevel) {
+            segmentCount <<= 1;
+        }
+        long segmentBudget = maxBytes / segmentCount;
+        Validate.isTrue(segmentBudget >= 4096, "maxBytes is too small for this concurrencyLevel");
+        segments = new Segment[segmentCount];
+        for(int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentBudget);
+        }
+        segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    /**
+     * @param key
+     *            key
+     * @return a copy of the value or null if the key is not in the store or has expired
+     */
+    byte[] get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyBytes);
+        return segment(hash).get(keyBytes, hash, System.currentTimeMillis());
+    }
+
+    /**
+     * @param key
+     *            key
+     * @param value
+     *            value; copied into the store
+     * @param ttlMillis
+     *            time to live
+     * @return true if the value was stored; false if it is too large or there is no room for it
+     */
+    boolean put(String key, byte[] value, long ttlMillis) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyBytes);
+        return segment(hash).put(keyBytes, hash, value, System.currentTimeMillis() + ttlMillis);
+    }
+
+    void remove(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyBytes);
+        segment(hash).remove(keyBytes, hash);
+    }
+
+    void clear() {
+        for(Segment segment: segments) {
+            segment.clear();
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for(Segment segment: segments) {
+            size += segment.count();
+        }
+        return size;
+    }
+
+    /**
+     * @return bytes used by the stored entries
+     */
+    long usedBytes() {
+        long used = 0;
+        for(Segment segment: segments) {
+            used += segment.usedBytes();
+        }
+        return used;
+    }
+
+    /**
+     * @return bytes allocated for slabs
+     */
+    long allocatedBytes() {
+        long allocated = 0;
+        for(Segment segment: segments) {
+            allocated += segment.allocatedBytes();
+        }
+        return allocated;
+    }
+
+    long evictions() {
+        long evictions = 0;
+        for(Segment segment: segments) {
+            evictions += segment.evictions();
+        }
+        return evictions;
+    }
+
+    long rejections() {
+        long rejections = 0;
+        for(Segment segment: segments) {
+            rejections += segment.rejections();
+        }
+        return rejections;
+    }
+
+    /**
+     * @return number of times a slab was moved to another slot size
+     */
+    long slabMoves() {
+        long moves = 0;
+        for(Segment segment: segments) {
+            moves += segment.slabMoves();
+        }
+        return moves;
+    }
+
+    private Segment segment(int hash) {
+        // the index uses the low bits, so use the high bits to pick the segment
+        return segmentShift == 32 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    private static int hash(byte[] key) {
+        int h = Arrays.hashCode(key);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static final class SizeClass {
+        private final int slotSize;
+        private final int slotsPerSlab;
+        private final List<ByteBuffer> slabs = new ArrayList<>();
+        private final BitSet used = new BitSet();
+        private final BitSet referenced = new BitSet();
+        private int[] free = new int[16];
+        private int freeCount = 0;
+        private int totalSlots = 0;
+        private int hand = 0;
+        // evictions since this size class last got a slab, decays when slabs move
+        private int pressure = 0;
+
+        SizeClass(int slotSize, int slabSize) {
+            this.slotSize = slotSize;
+            slotsPerSlab = slabSize / slotSize;
+        }
+
+        ByteBuffer slab(int slot) {
+            return slabs.get(slot / slotsPerSlab);
+        }
+
+        int offset(int slot) {
+            return (slot % slotsPerSlab) * slotSize;
+        }
+
+        void addSlab(ByteBuffer slab) {
+            slabs.add(slab);
+            for(int i = totalSlots + slotsPerSlab - 1; i >= totalSlots; i--) {
+                release(i);
+            }
+            totalSlots += slotsPerSlab;
+        }
+
+        /**
+         * Remove the last slab. Its slots must not be in use.
+         */
+        ByteBuffer removeLastSlab() {
+            ByteBuffer slab = slabs.remove(slabs.size() - 1);
+            totalSlots -= slotsPerSlab;
+            int kept = 0;
+            for(int i = 0; i < freeCount; i++) {
+                if(free[i] < totalSlots) {
+                    free[kept++] = free[i];
+                }
+            }
+            freeCount = kept;
+            referenced.clear(totalSlots, totalSlots + slotsPerSlab);
+            if(hand >= totalSlots) {
+                hand = 0;
+            }
+            return slab;
+        }
+
+        int take() {
+            int slot = free[--freeCount];
+            used.set(slot);
+            return slot;
+        }
+
+        void release(int slot) {
+            used.clear(slot);
+            referenced.clear(slot);
+            if(freeCount == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount++] = slot;
+        }
+    }
+
+    private static final class Segment {
+        private final long budget;
+        private final int slabSize;
+        private final SizeClass[] sizeClasses;
+        private long allocated = 0;
+        private long usedBytes = 0;
+        private long evictions = 0;
+        private long rejections = 0;
+        private long slabMoves = 0;
+
+        private int[] hashes = new int[1024];
+        // slot references plus one so that 0 means empty
+        private int[] refs = new int[1024];
+        private int count = 0;
+
+        Segment(long budget) {
+            this.budget = budget;
+            slabSize = (int) Math.min(MAX_SLAB_SIZE, Long.highestOneBit(budget));
+            int classCount = Integer.numberOfTrailingZeros(slabSize) - Integer.numberOfTrailingZeros(MIN_SLOT_SIZE) + 1;
+            sizeClasses = new SizeClass[classCount];
+            for(int i = 0; i < classCount; i++) {
+                sizeClasses[i] = new SizeClass(MIN_SLOT_SIZE << i, slabSize);
+            }
+        }
+
+        synchronized byte[] get(byte[] key, int hash, long now) {
+            int i = find(key, hash);
+            if(i < 0) {
+                return null;
+            }
+            int ref = refs[i] - 1;
+            SizeClass sizeClass = sizeClasses[ref >>> 27];
+            int slot = ref & 0x7ffffff;
+            ByteBuffer slab = sizeClass.slab(slot);
+            int offset = sizeClass.offset(slot);
+            if(slab.getLong(offset + 8) < now) {
+                deleteAt(i);
+                free(sizeClass, slot);
+                return null;
+            }
+            sizeClass.referenced.set(slot);
+            int keyLength = slab.getInt(offset);
+            byte[] value = new byte[slab.getInt(offset + 4)];
+            slab.position(offset + HEADER_SIZE + keyLength);
+            slab.get(value);
+            return value;
+        }
+
+        synchronized boolean put(byte[] key, int hash, byte[] value, long expiresAt) {
+            int i = find(key, hash);
+            if(i >= 0) {
+                int ref = refs[i] - 1;
+                deleteAt(i);
+                free(sizeClasses[ref >>> 27], ref & 0x7ffffff);
+            }
+            int size = HEADER_SIZE + key.length + value.length;
+            if(size > slabSize) {
+                rejections++;
+                return false;
+            }
+            int classIndex = Math.max(0, 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SLOT_SIZE));
+            SizeClass sizeClass = sizeClasses[classIndex];
+            int slot = allocate(sizeClass);
+            if(slot < 0) {
+                rejections++;
+                return false;
+            }
+            ByteBuffer slab = sizeClass.slab(slot);
+            int offset = sizeClass.offset(slot);
+            slab.putInt(offset, key.length);
+            slab.putInt(offset + 4, value.length);
+            slab.putLong(offset + 8, expiresAt);
+            slab.position(offset + HEADER_SIZE);
+            slab.put(key);
+            slab.put(value);
+            usedBytes += size;
+            insert(hash, (classIndex << 27 | slot) + 1);
+            return true;
+        }
+
+        synchronized void remove(byte[] key, int hash) {
+            int i = find(key, hash);
+            if(i >= 0) {
+                int ref = refs[i] - 1;
+                deleteAt(i);
+                free(sizeClasses[ref >>> 27], ref & 0x7ffffff);
+            }
+        }
+
+        synchronized void clear() {
+            for(int i = 0; i < sizeClasses.length; i++) {
+                // drop the slabs; their memory is released once they are garbage collected
+                sizeClasses[i] = new SizeClass(sizeClasses[i].slotSize, slabSize);
+            }
+            hashes = new int[1024];
+            refs = new int[1024];
+            count = 0;
+            allocated = 0;
+            usedBytes = 0;
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized long usedBytes() {
+            return usedBytes;
+        }
+
+        synchronized long allocatedBytes() {
+            return allocated;
+        }
+
+        synchronized long evictions() {
+            return evictions;
+        }
+
+        synchronized long rejections() {
+            return rejections;
+        }
+
+        synchronized long slabMoves() {
+            return slabMoves;
+        }
+
+        private int allocate(SizeClass sizeClass) {
+            if(sizeClass.freeCount > 0) {
+                return sizeClass.take();
+            }
+            if(allocated + slabSize <= budget) {
+                sizeClass.addSlab(ByteBuffer.allocateDirect(slabSize));
+                allocated += slabSize;
+                return sizeClass.take();
+            }
+            if(sizeClass.totalSlots == 0 || ++sizeClass.pressure >= sizeClass.slotsPerSlab) {
+                if(moveSlab(sizeClass)) {
+                    return sizeClass.take();
+                }
+                if(sizeClass.totalSlots == 0) {
+                    return -1;
+                }
+            }
+            // CLOCK: evict the first slot that was not read since the last time the hand passed it
+            for(int n = 0; n < 2 * sizeClass.totalSlots; n++) {
+                int slot = sizeClass.hand;
+                sizeClass.hand = (sizeClass.hand + 1) % sizeClass.totalSlots;
+                if(sizeClass.referenced.get(slot)) {
+                    sizeClass.referenced.clear(slot);
+                } else if(sizeClass.used.get(slot)) {
+                    evict(sizeClass, slot);
+                    return sizeClass.take();
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Give the size class the last slab of the size class that evicted the least since it last got a slab.
+         *
+         * @return true if a slab was moved
+         */
+        private boolean moveSlab(SizeClass sizeClass) {
+            SizeClass victim = null;
+            for(SizeClass candidate: sizeClasses) {
+                if(candidate != sizeClass && candidate.totalSlots > 0 && (victim == null || candidate.pressure < victim.pressure)) {
+                    victim = candidate;
+                }
+            }
+            if(victim == null || sizeClass.totalSlots > 0 && victim.pressure >= sizeClass.pressure) {
+                // no point in taking memory from a size class that needs it at least as much
+                sizeClass.pressure = 0;
+                return false;
+            }
+            for(int slot = victim.totalSlots - victim.slotsPerSlab; slot < victim.totalSlots; slot++) {
+                if(victim.used.get(slot)) {
+                    evict(victim, slot);
+                }
+            }
+            sizeClass.addSlab(victim.removeLastSlab());
+            for(SizeClass other: sizeClasses) {
+                other.pressure /= 2;
+            }
+            sizeClass.pressure = 0;
+            slabMoves++;
+            return true;
+        }
+
+        private void evict(SizeClass sizeClass, int slot) {
+            ByteBuffer slab = sizeClass.slab(slot);
+            int offset = sizeClass.offset(slot);
+            byte[] key = new byte[slab.getInt(offset)];
+            slab.position(offset + HEADER_SIZE);
+            slab.get(key);
+            int i = find(key, hash(key));
+            if(i >= 0) {
+                deleteAt(i);
+            }
+            free(sizeClass, slot);
+            evictions++;
+        }
+
+        private void free(SizeClass sizeClass, int slot) {
+            ByteBuffer slab = sizeClass.slab(slot);
+            int offset = sizeClass.offset(slot);
+            usedBytes -= HEADER_SIZE + slab.getInt(offset) + slab.getInt(offset + 4);
+            sizeClass.release(slot);
+        }
+
+        private int find(byte[] key, int hash) {
+            int mask = refs.length - 1;
+            int i = hash & mask;
+            while(refs[i] != 0) {
+                if(hashes[i] == hash && keyEquals(refs[i] - 1, key)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private boolean keyEquals(int ref, byte[] key) {
+            SizeClass sizeClass = sizeClasses[ref >>> 27];
+            int slot = ref & 0x7ffffff;
+            ByteBuffer slab = sizeClass.slab(slot);
+            int offset = sizeClass.offset(slot);
+            if(slab.getInt(offset) != key.length) {
+                return false;
+            }
+            for(int i = 0; i < key.length; i++) {
+                if(slab.get(offset + HEADER_SIZE + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void insert(int hash, int ref) {
+            if((count + 1) * 4 > refs.length * 3) {
+                resize();
+            }
+            int mask = refs.length - 1;
+            int i = hash & mask;
+            while(refs[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            hashes[i] = hash;
+            refs[i] = ref;
+            count++;
+        }
+
+        private void resize() {
+            int[] oldHashes = hashes;
+            int[] oldRefs = refs;
+            hashes = new int[oldRefs.length * 2];
+            refs = new int[oldRefs.length * 2];
+            int mask = refs.length - 1;
+            for(int j = 0; j < oldRefs.length; j++) {
+                if(oldRefs[j] != 0) {
+                    int i = oldHashes[j] & mask;
+                    while(refs[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    hashes[i] = oldHashes[j];
+                    refs[i] = oldRefs[j];
+                }
+            }
+        }
+
+        /**
+         * Linear probing deletion without tombstones: move later entries of the probe sequence back into the gap.
+         */
+        private void deleteAt(int i) {
+            int mask = refs.length - 1;
+            int gap = i;
+            int k = i;
+            while(true) {
+                refs[gap] = 0;
+                while(true) {
+                    k = (k + 1) & mask;
+                    if(refs[k] == 0) {
+                        count--;
+                        return;
+                    }
+                    int ideal = hashes[k] & mask;
+                    boolean staysPut = gap <= k ? gap < ideal && ideal <= k : gap < ideal || ideal <= k;
+                    if(!staysPut) {
+                        break;
+                    }
+                }
+                hashes[gap] = hashes[k];
+                refs[gap] = refs[k];
+                gap = k;
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.github.jsonj.JsonObject;
 import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
 import io.inbot.elasticsearch.client.IterableSearchResponse;
 import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
 import java.util.Set;
 import java.util.function.Function;
 
@@ -20,14 +21,47 @@ public interface ParentChildCrudOperations extends MetricSet {
 
     Set<String> recentlyModifiedIds(String parentId);
 
+    /**
+     * @param parentId
+     *            parent id
+     * @param sinceMillis
+     *            epoch millis
+     * @return ids of the children modified at or after sinceMillis, latest first; the default implementation returns
+     *         all recently modified ids.
+     */
+    default Set<String> recentlyModifiedIds(String parentId, long sinceMillis) {
+        return recentlyModifiedIds(parentId);
+    }
+
     PagedSearchResponse pagedSearch(JsonObject q, int size, int from);
 
+    default PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        return pagedSearch(sourceFilter.apply(q.deepClone()), size, from);
+    }
+
     IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults);
 
+    default IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        return iterableSearch(sourceFilter.apply(q.deepClone()), pageSize, ttlMinutes, rawResults);
+    }
+
     JsonObject searchUnique(JsonObject q);
 
     JsonObject get(boolean cached, String id, String parentId);
 
+    /**
+     * Fetch only part of an object. The daos in this package fetch just that part from elasticsearch and bypass any
+     * caches; the default implementation gets the whole object and filters it.
+     * @param id id of the object
+     * @param parentId id of the parent
+     * @param sourceFilter the parts of the object you need
+     * @return the partial object with its id and _version or null if it does not exist
+     */
+    default JsonObject get(String id, String parentId, SourceFilter sourceFilter) {
+        JsonObject object = get(id, parentId);
+        return object == null ? null : sourceFilter.filter(object);
+    }
+
     /**
      * Use this to efficiently bulk index many objects in one go.
      * @return a bulkIndexer.
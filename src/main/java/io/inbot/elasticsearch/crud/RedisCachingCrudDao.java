@@ -4,14 +4,16 @@ import static com.github.jsonj.tools.JsonBuilder.array;
 
 import com.codahale.metrics.Metric;
 import com.github.jsonj.JsonArray;
-import com.github.jsonj.JsonElement;
 import com.github.jsonj.JsonObject;
 import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
 import io.inbot.elasticsearch.client.IterableSearchResponse;
 import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
+import io.inbot.redis.CachedValue;
 import io.inbot.redis.RedisCache;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -19,7 +21,8 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
- * Simple redis cache that you can use to wrap an existing CrudOperations instance. Handles cache invalidation for single updates/deletes but not bulk operations
+ * Simple redis cache that you can use to wrap an existing CrudOperations instance. Handles cache invalidation for single updates/deletes and,
+ * batched per flush, for bulk operations.
  */
 public class RedisCachingCrudDao implements CrudOperations {
 
@@ -42,6 +45,8 @@ public class RedisCachingCrudDao implements CrudOperations {
     @Override
     public JsonObject create(JsonObject object, boolean replace) {
         JsonObject created = crudDao.create(object, replace);
+        // replaces any marker that says the object does not exist
+        redisCache.put(created);
         return created;
     }
 
@@ -50,6 +55,11 @@ public class RedisCachingCrudDao implements CrudOperations {
         return crudDao.recentlyModifiedIds();
     }
 
+    @Override
+    public Set<String> recentlyModifiedIds(long sinceMillis) {
+        return crudDao.recentlyModifiedIds(sinceMillis);
+    }
+
     @Override
     public JsonObject update(String id, boolean modifyUpdatedAt, Function<JsonObject, JsonObject> f) {
         JsonObject updated = crudDao.update(id, true, f);
@@ -86,41 +96,34 @@ public class RedisCachingCrudDao implements CrudOperations {
 
     @Override
     public JsonArray mget(boolean cached, String... ids) {
-        if(cached) {
-            JsonArray cachedObjects = redisCache.mget(ids);
-            if(cachedObjects.size() == ids.length) {
-                return cachedObjects;
-            } else if(cachedObjects.size()==0) {
-                JsonArray results = crudDao.mget(cached, ids);
-                for(JsonObject result:results.objects()) {
-                    redisCache.put(result);
-                }
-                return results;
-            } else {
-                // some objects were cached, fetch the rest and re-assemble the results
-                Set<String> alreadyFetched = cachedObjects.streamObjects().map(o -> o.getString("id")).collect(Collectors.toSet());
-                String[] filteredIds = Arrays.stream(ids).filter(id -> !alreadyFetched.contains(id)).toArray(size -> new String[size]);
-                JsonArray nonCachedObjects = crudDao.mget(cached, filteredIds);
-                JsonObject idMap=new JsonObject();
-                for(JsonObject o: cachedObjects.objects()) {
-                    idMap.put(o.getString("id"), o);
-                }
-                for(JsonObject o: nonCachedObjects.objects()) {
-                    idMap.put(o.getString("id"), o);
-                    redisCache.put(o);
-                }
-                JsonArray allObjects=array();
-                for(String id:ids) {
-                    JsonElement jsonElement = idMap.get(id);
-                    if(jsonElement != null) {
-                        allObjects.add(jsonElement);
-                    }
-                }
-                return allObjects;
-            }
-        } else {
+        if(!cached) {
             return crudDao.mget(cached, ids);
         }
+        List<CachedValue> cachedValues = redisCache.lookupAll(ids);
+        List<String> misses = new ArrayList<>();
+        for(int i = 0; i < ids.length; i++) {
+            if(cachedValues.get(i).isMiss()) {
+                misses.add(ids[i]);
+            }
+        }
+        Map<String, JsonObject> fetched = new HashMap<>();
+        if(!misses.isEmpty()) {
+            JsonArray nonCachedObjects = crudDao.mget(cached, misses.toArray(new String[misses.size()]));
+            for(JsonObject o: nonCachedObjects.objects()) {
+                fetched.put(o.getString("id"), o);
+            }
+            redisCache.putAll(nonCachedObjects.objects());
+            redisCache.putAbsent(misses.stream().filter(id -> !fetched.containsKey(id)).collect(Collectors.toList()));
+        }
+        JsonArray results = array();
+        for(int i = 0; i < ids.length; i++) {
+            CachedValue cachedValue = cachedValues.get(i);
+            JsonObject o = cachedValue.isHit() ? cachedValue.value() : fetched.get(ids[i]);
+            if(o != null) {
+                results.add(o);
+            }
+        }
+        return results;
     }
 
     @Override
@@ -129,9 +132,23 @@ public class RedisCachingCrudDao implements CrudOperations {
         redisCache.delete(id);
     }
 
+    /**
+     * Deletes the matching objects and removes their ids from redis. The ids are collected with a scroll before the
+     * delete, so objects that start matching the query in between may stay cached until they expire.
+     */
     @Override
     public void deleteByQuery(JsonObject query) {
+        List<String> ids = matchingIds(query);
         crudDao.deleteByQuery(query);
+        redisCache.deleteAll(ids);
+    }
+
+    private List<String> matchingIds(JsonObject query) {
+        List<String> ids = new ArrayList<>();
+        for(JsonObject hit : crudDao.iterableSearch(query.deepClone(), 1000, 1, true, SourceFilter.include("id"))) {
+            ids.add(hit.getString("_id"));
+        }
+        return ids;
     }
 
     @Override
@@ -146,12 +163,35 @@ public class RedisCachingCrudDao implements CrudOperations {
         return results;
     }
 
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        PagedSearchResponse results = crudDao.pagedSearch(q, size, from, sourceFilter);
+        return results;
+    }
+
     @Override
     public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
         IterableSearchResponse results = crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults);
         return results;
     }
 
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        IterableSearchResponse results = crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults, sourceFilter);
+        return results;
+    }
+
+    @Override
+    public JsonObject get(String id, SourceFilter sourceFilter) {
+        // partial objects are not cached
+        return crudDao.get(id, sourceFilter);
+    }
+
+    @Override
+    public JsonArray mget(SourceFilter sourceFilter, String... ids) {
+        return crudDao.mget(sourceFilter, ids);
+    }
+
     @Override
     public JsonObject searchUnique(JsonObject q) {
         JsonObject result = crudDao.searchUnique(q);
@@ -160,6 +200,6 @@ public class RedisCachingCrudDao implements CrudOperations {
 
     @Override
     public BulkIndexingOperations bulkIndexer() {
-        return crudDao.bulkIndexer();
+        return new RedisInvalidatingBulkIndexer(crudDao.bulkIndexer(), redisCache, id -> {});
     }
 }
@@ -5,6 +5,7 @@ import com.github.jsonj.JsonObject;
 import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
 import io.inbot.elasticsearch.client.IterableSearchResponse;
 import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
 import io.inbot.redis.RedisCache;
 import java.util.HashMap;
 import java.util.Map;
@@ -36,6 +37,8 @@ public class RedisCachingParentChildCrudDao implements ParentChildCrudOperations
     @Override
     public JsonObject create(JsonObject object, String parentId, boolean replace) {
         JsonObject created = dao.create(object,parentId, false);
+        // replaces any marker that says the object does not exist
+        cache.put(created);
         return created;
     }
 
@@ -63,6 +66,12 @@ public class RedisCachingParentChildCrudDao implements ParentChildCrudOperations
         return optional.orElse(null);
     }
 
+    @Override
+    public JsonObject get(String id, String parentId, SourceFilter sourceFilter) {
+        // partial objects are not cached
+        return dao.get(id, parentId, sourceFilter);
+    }
+
     @Override
     public void delete(String objectId, String parentId) {
         cache.delete(objectId);
@@ -74,16 +83,31 @@ public class RedisCachingParentChildCrudDao implements ParentChildCrudOperations
         return dao.recentlyModifiedIds(parentId);
     }
 
+    @Override
+    public Set<String> recentlyModifiedIds(String parentId, long sinceMillis) {
+        return dao.recentlyModifiedIds(parentId, sinceMillis);
+    }
+
     @Override
     public PagedSearchResponse pagedSearch(JsonObject q, int size, int from) {
         return dao.pagedSearch(q, size, from);
     }
 
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        return dao.pagedSearch(q, size, from, sourceFilter);
+    }
+
     @Override
     public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
         return dao.iterableSearch(q, pageSize, ttlMinutes, rawResults);
     }
 
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        return dao.iterableSearch(q, pageSize, ttlMinutes, rawResults, sourceFilter);
+    }
+
     @Override
     public JsonObject searchUnique(JsonObject q) {
         return dao.searchUnique(q);
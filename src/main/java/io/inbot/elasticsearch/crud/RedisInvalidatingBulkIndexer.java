@@ -0,0 +1,123 @@
+package io.inbot.elasticsearch.crud;
+
+import com.github.jsonj.JsonObject;
+import io.inbot.elasticsearch.bulkindexing.BulkIndexerStatusHandler;
+import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
+import io.inbot.redis.RedisCache;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Bulk indexer that removes the ids it writes from a redis cache. Instead of one DEL per operation, ids are collected
+ * and deleted in batches once the wrapped bulk indexer's flush or close has returned, i.e. after the writes were sent
+ * to elasticsearch. Until then, gets may still load the old objects from redis.
+ */
+class RedisInvalidatingBulkIndexer implements BulkIndexingOperations {
+
+    private final BulkIndexingOperations bulkIndexer;
+    private final RedisCache redisCache;
+    private final Consumer<String> onWrite;
+    private final List<String> pending = new ArrayList<>();
+
+    /**
+     * @param bulkIndexer
+     *            the bulk indexer that does the work
+     * @param redisCache
+     *            cache to remove written ids from
+     * @param onWrite
+     *            called right away for each written id, e.g. to invalidate an in memory cache, and again once the id
+     *            has been removed from redis so that whatever was loaded from redis in between does not stick
+     */
+    RedisInvalidatingBulkIndexer(BulkIndexingOperations bulkIndexer, RedisCache redisCache, Consumer<String> onWrite) {
+        this.bulkIndexer = bulkIndexer;
+        this.redisCache = redisCache;
+        this.onWrite = onWrite;
+    }
+
+    private void written(String id) {
+        if(id == null) {
+            return;
+        }
+        onWrite.accept(id);
+        synchronized(pending) {
+            pending.add(id);
+        }
+    }
+
+    private void invalidatePending() {
+        List<String> batch;
+        synchronized(pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        try {
+            redisCache.deleteAll(batch);
+        } finally {
+            batch.forEach(onWrite);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            bulkIndexer.close();
+        } finally {
+            invalidatePending();
+        }
+    }
+
+    @Override
+    public void update(String id, String version, String parentId, JsonObject object, Function<JsonObject, JsonObject> transformFunction) {
+        bulkIndexer.update(id, version, parentId, object, transformFunction);
+        written(id);
+    }
+
+    @Override
+    public void setBulkIndexerStatusHandler(BulkIndexerStatusHandler statusHandler) {
+        bulkIndexer.setBulkIndexerStatusHandler(statusHandler);
+    }
+
+    @Override
+    public void index(String id, String type, String parentId, String version, JsonObject object) {
+        bulkIndexer.index(id, type, parentId, version, object);
+        written(id);
+    }
+
+    @Override
+    public void index(JsonObject o, String parentId) {
+        bulkIndexer.index(o, parentId);
+        written(o.getString("id"));
+    }
+
+    @Override
+    public void index(JsonObject o) {
+        bulkIndexer.index(o);
+        written(o.getString("id"));
+    }
+
+    @Override
+    public void delete(String id) {
+        bulkIndexer.delete(id);
+        written(id);
+    }
+
+    @Override
+    public void delete(String id, String parentId) {
+        bulkIndexer.delete(id, parentId);
+        written(id);
+    }
+
+    @Override
+    public void flush() {
+        bulkIndexer.flush();
+        invalidatePending();
+    }
+
+    @Override
+    public void setRefresh(boolean b) {
+        bulkIndexer.setRefresh(b);
+    }
+}
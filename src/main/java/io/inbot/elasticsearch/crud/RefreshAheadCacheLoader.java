@@ -0,0 +1,71 @@
+package io.inbot.elasticsearch.crud;
+
+import com.codahale.metrics.Meter;
+import com.google.common.cache.CacheLoader;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Cache loader that reloads entries on an executor when they are due for a refresh (see
+ * CacheBuilder.refreshAfterWrite). Until the reload completes, guava keeps serving the old value instead of blocking
+ * the caller. Keeps track of which keys are being refreshed so we can count how often a stale value is served.
+ */
+class RefreshAheadCacheLoader<K, V> extends CacheLoader<K, V> {
+    private final Function<K, V> loader;
+    private final Executor executor;
+    private final Set<K> refreshing = ConcurrentHashMap.newKeySet();
+    private final Meter refreshMeter = new Meter();
+    private final Meter staleMeter = new Meter();
+
+    RefreshAheadCacheLoader(Function<K, V> loader, Executor executor) {
+        this.loader = loader;
+        this.executor = executor;
+    }
+
+    @Override
+    public V load(K key) throws Exception {
+        return loader.apply(key);
+    }
+
+    @Override
+    public ListenableFuture<V> reload(K key, V oldValue) throws Exception {
+        refreshMeter.mark();
+        refreshing.add(key);
+        ListenableFutureTask<V> task = ListenableFutureTask.create(() -> {
+            try {
+                return loader.apply(key);
+            } finally {
+                refreshing.remove(key);
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            refreshing.remove(key);
+            throw e;
+        }
+        return task;
+    }
+
+    /**
+     * Call this after getting a value from the cache.
+     * @param key the key of the value that was just served
+     */
+    void served(K key) {
+        if(refreshing.contains(key)) {
+            staleMeter.mark();
+        }
+    }
+
+    Meter refreshMeter() {
+        return refreshMeter;
+    }
+
+    Meter staleMeter() {
+        return staleMeter;
+    }
+}
@@ -0,0 +1,395 @@
+package io.inbot.elasticsearch.crud;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonElement;
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.JsonPrimitive;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.inbot.elasticsearch.bulkindexing.BulkIndexerStatusHandler;
+import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
+import io.inbot.elasticsearch.client.ElasticSearchType;
+import io.inbot.elasticsearch.client.IterableSearchResponse;
+import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Caches the results of pagedSearch for a short time. Useful for things like dashboards that run the same queries over
+ * and over again. Queries are normalized before they are used as a key so that the order of the attributes does not
+ * matter.
+ *
+ * Any write through this dao invalidates all cached results for the type since there is no way to tell which queries
+ * are affected. Bulk indexers only invalidate when they are flushed or closed, so writes that a bulk indexer sends on
+ * its own before that, like writes that happen elsewhere (e.g. other servers), become visible once the cached results
+ * expire.
+ * Scrolling searches and searchUnique are never cached.
+ */
+public class SearchCachingCrudDao implements CrudOperations {
+
+    private final CrudOperations crudDao;
+    private final String keyPrefix;
+    private final String metricsPrefix;
+    private final Cache<String, CachedSearchResponse> cache;
+    // incremented on every invalidation so that searches that were started before a write don't cache stale results
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Meter hitMeter = new Meter();
+    private final Meter missMeter = new Meter();
+    private final Meter invalidationMeter = new Meter();
+
+    /**
+     * @param crudDao
+     *            dao that does the actual searching
+     * @param type
+     *            the type, used as part of the cache key
+     * @param metricsPrefix
+     *            prefix for the metrics of this dao
+     * @param maxEntries
+     *            maximum number of search results to keep
+     * @param expireAfterWriteSeconds
+     *            how long search results are cached
+     */
+    public SearchCachingCrudDao(CrudOperations crudDao, ElasticSearchType type, String metricsPrefix, int maxEntries, int expireAfterWriteSeconds) {
+        this.crudDao = crudDao;
+        this.metricsPrefix = metricsPrefix;
+        keyPrefix = type.readAlias() + "/" + type.type();
+        cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<>();
+        metrics.putAll(crudDao.getMetrics());
+        metrics.put(metricsPrefix + ".hits", hitMeter);
+        metrics.put(metricsPrefix + ".misses", missMeter);
+        metrics.put(metricsPrefix + ".invalidations", invalidationMeter);
+        metrics.put(metricsPrefix + ".size", (Gauge<Long>) () -> cache.size());
+        return metrics;
+    }
+
+    /**
+     * Drops all cached search results.
+     */
+    public void invalidateSearches() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+        invalidationMeter.mark();
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from) {
+        return cachedSearch(key(q, size, from, ""), () -> crudDao.pagedSearch(q, size, from));
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, String... fields) {
+        return cachedSearch(key(q, size, from, "fields:" + StringUtils.join(fields, ',')), () -> crudDao.pagedSearch(q, size, from, fields));
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        return cachedSearch(key(q, size, from, "source:" + sourceFilter), () -> crudDao.pagedSearch(q, size, from, sourceFilter));
+    }
+
+    private PagedSearchResponse cachedSearch(String key, Supplier<PagedSearchResponse> search) {
+        CachedSearchResponse cached = cache.getIfPresent(key);
+        if(cached != null) {
+            hitMeter.mark();
+            return cached;
+        }
+        missMeter.mark();
+        long startGeneration = generation.get();
+        CachedSearchResponse response = new CachedSearchResponse(search.get());
+        if(generation.get() == startGeneration) {
+            cache.put(key, response);
+        }
+        return response;
+    }
+
+    private String key(JsonObject q, int size, int from, String extra) {
+        StringBuilder buf = new StringBuilder(keyPrefix);
+        buf.append('|').append(size).append('|').append(from).append('|').append(extra).append('|');
+        canonicalize(q, buf);
+        return buf.toString();
+    }
+
+    /**
+     * Serializes json with the object keys in sorted order so that equivalent queries produce the same key.
+     */
+    static void canonicalize(JsonElement element, StringBuilder buf) {
+        if(element == null) {
+            buf.append("null");
+        } else if(element.isObject()) {
+            TreeMap<String, JsonElement> sorted = new TreeMap<>();
+            for(Entry<String, JsonElement> entry: element.asObject().entrySet()) {
+                sorted.put(entry.getKey(), entry.getValue());
+            }
+            buf.append('{');
+            boolean first = true;
+            for(Entry<String, JsonElement> entry: sorted.entrySet()) {
+                if(!first) {
+                    buf.append(',');
+                }
+                first = false;
+                buf.append(new JsonPrimitive(entry.getKey()).toString()).append(':');
+                canonicalize(entry.getValue(), buf);
+            }
+            buf.append('}');
+        } else if(element.isArray()) {
+            buf.append('[');
+            boolean first = true;
+            for(JsonElement e: element.asArray()) {
+                if(!first) {
+                    buf.append(',');
+                }
+                first = false;
+                canonicalize(e, buf);
+            }
+            buf.append(']');
+        } else {
+            buf.append(element.toString());
+        }
+    }
+
+    @Override
+    public JsonObject create(JsonObject object, boolean replace) {
+        JsonObject created = crudDao.create(object, replace);
+        invalidateSearches();
+        return created;
+    }
+
+    @Override
+    public JsonObject update(String id, boolean modifyUpdatedAt, Function<JsonObject, JsonObject> f) {
+        JsonObject updated = crudDao.update(id, modifyUpdatedAt, f);
+        invalidateSearches();
+        return updated;
+    }
+
+    @Override
+    public void delete(String id) {
+        crudDao.delete(id);
+        invalidateSearches();
+    }
+
+    @Override
+    public void deleteByQuery(JsonObject query) {
+        crudDao.deleteByQuery(query);
+        invalidateSearches();
+    }
+
+    @Override
+    public Set<String> recentlyModifiedIds() {
+        return crudDao.recentlyModifiedIds();
+    }
+
+    @Override
+    public Set<String> recentlyModifiedIds(long sinceMillis) {
+        return crudDao.recentlyModifiedIds(sinceMillis);
+    }
+
+    @Override
+    public JsonObject get(String id) {
+        return crudDao.get(id);
+    }
+
+    @Override
+    public JsonObject get(boolean cached, String id) {
+        return crudDao.get(cached, id);
+    }
+
+    @Override
+    public JsonArray mget(boolean cached, String... ids) {
+        return crudDao.mget(cached, ids);
+    }
+
+    @Override
+    public JsonObject get(String id, SourceFilter sourceFilter) {
+        return crudDao.get(id, sourceFilter);
+    }
+
+    @Override
+    public JsonArray mget(SourceFilter sourceFilter, String... ids) {
+        return crudDao.mget(sourceFilter, ids);
+    }
+
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
+        return crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults);
+    }
+
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        return crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults, sourceFilter);
+    }
+
+    @Override
+    public JsonObject searchUnique(JsonObject q) {
+        return crudDao.searchUnique(q);
+    }
+
+    @Override
+    public JsonObject mapping() {
+        return crudDao.mapping();
+    }
+
+    @Override
+    public BulkIndexingOperations bulkIndexer() {
+        BulkIndexingOperations bulkIndexer = crudDao.bulkIndexer();
+
+        return new BulkIndexingOperations() {
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    bulkIndexer.close();
+                } finally {
+                    // everything has been sent to es now
+                    invalidateSearches();
+                }
+            }
+
+            @Override
+            public void update(String id, String version, String parentId, JsonObject object, Function<JsonObject, JsonObject> transformFunction) {
+                bulkIndexer.update(id, version, parentId, object, transformFunction);
+            }
+
+            @Override
+            public void setBulkIndexerStatusHandler(BulkIndexerStatusHandler statusHandler) {
+                bulkIndexer.setBulkIndexerStatusHandler(statusHandler);
+            }
+
+            @Override
+            public void index(String id, String type, String parentId, String version, JsonObject object) {
+                bulkIndexer.index(id, type, parentId, version, object);
+            }
+
+            @Override
+            public void index(JsonObject o, String parentId) {
+                bulkIndexer.index(o, parentId);
+            }
+
+            @Override
+            public void index(JsonObject o) {
+                bulkIndexer.index(o);
+            }
+
+            @Override
+            public void delete(String id) {
+                bulkIndexer.delete(id);
+            }
+
+            @Override
+            public void delete(String id, String parentId) {
+                bulkIndexer.delete(id, parentId);
+            }
+
+            @Override
+            public void flush() {
+                try {
+                    bulkIndexer.flush();
+                } finally {
+                    invalidateSearches();
+                }
+            }
+
+            @Override
+            public void setRefresh(boolean b) {
+                bulkIndexer.setRefresh(b);
+            }
+        };
+    }
+
+    /**
+     * Immutable copy of a page of search results. Callers get their own copies of the objects.
+     */
+    private static class CachedSearchResponse implements PagedSearchResponse {
+        private final List<JsonObject> hits;
+        private final int size;
+        private final int pageSize;
+        private final int from;
+
+        CachedSearchResponse(PagedSearchResponse response) {
+            List<JsonObject> copy = new ArrayList<>();
+            for(JsonObject hit: response.readOnlyView()) {
+                copy.add(hit.deepClone());
+            }
+            hits = Collections.unmodifiableList(copy);
+            size = response.size();
+            pageSize = response.pageSize();
+            from = response.from();
+        }
+
+        @Override
+        public Iterator<JsonObject> iterator() {
+            return hits.stream().map(hit -> (JsonObject) hit.deepClone()).iterator();
+        }
+
+        @Override
+        public Iterable<JsonObject> readOnlyView() {
+            return hits;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int pageSize() {
+            return pageSize;
+        }
+
+        @Override
+        public int from() {
+            return from;
+        }
+
+        @Override
+        public boolean page() {
+            return true;
+        }
+
+        @Override
+        public PagedSearchResponse getAsPagedResponse() {
+            return this;
+        }
+
+        @Override
+        public JsonObject get(int i) {
+            if(i < 0 || i >= hits.size()) {
+                throw new NoSuchElementException();
+            }
+            return hits.get(i).deepClone();
+        }
+
+        @Override
+        public JsonObject getFirstResult() {
+            if(hits.isEmpty()) {
+                return null;
+            }
+            return get(0);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package io.inbot.elasticsearch.crud;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer.Context;
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+import com.google.common.cache.LoadingCache;
+import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
+import io.inbot.elasticsearch.client.IterableSearchResponse;
+import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.SourceFilter;
+import io.inbot.redis.CachedValue;
+import io.inbot.redis.RedisCache;
+import io.inbot.redis.SingleFlight;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Two level cache: a bounded in memory cache (L1) in front of redis (L2) in front of the wrapped dao. Objects found in
+ * redis are added to the in memory cache, mget resolves each level with a single lookup, and all writes update both
+ * levels here rather than in two separate daos.
+ *
+ * Use this instead of stacking a {@link GuavaCachingCrudDao} on top of a {@link RedisCachingCrudDao}.
+ */
+public class TieredCachingCrudDao implements CrudOperations {
+
+    private final CrudOperations crudDao;
+    private final RedisCache redisCache;
+    private final String metricsPrefix;
+    private final LoadingCache<String, CachedObject> l1;
+    private final InMemoryCacheSettings settings;
+    private final RefreshAheadCacheLoader<String, CachedObject> loader;
+    private final GuavaCacheMetrics<String, CachedObject> cacheMetrics;
+    // values are copied on the way out so waiting callers can share the loaded entry
+    private final SingleFlight<String, CachedObject> loads = new SingleFlight<>(UnaryOperator.identity());
+
+    /**
+     * @param crudDao
+     *            the dao that is used when neither level has the object
+     * @param redisCache
+     *            the L2 cache
+     * @param metricsPrefix
+     *            prefix for the metrics of this dao
+     * @param maxItems
+     *            maximum number of objects kept in memory
+     * @param expireAfterWriteSeconds
+     *            ttl of the objects kept in memory
+     */
+    public TieredCachingCrudDao(CrudOperations crudDao, RedisCache redisCache, String metricsPrefix, int maxItems, int expireAfterWriteSeconds) {
+        this(crudDao, redisCache, metricsPrefix, new InMemoryCacheSettings().maxItems(maxItems).expireAfterWriteSeconds(expireAfterWriteSeconds));
+    }
+
+    /**
+     * @param crudDao
+     *            the dao that is used when neither level has the object
+     * @param redisCache
+     *            the L2 cache
+     * @param metricsPrefix
+     *            prefix for the metrics of this dao
+     * @param settings
+     *            size, ttl, refresh and storage settings of the in memory cache
+     */
+    public TieredCachingCrudDao(CrudOperations crudDao, RedisCache redisCache, String metricsPrefix, InMemoryCacheSettings settings) {
+        this.crudDao = crudDao;
+        this.redisCache = redisCache;
+        this.metricsPrefix = metricsPrefix;
+        this.settings = settings;
+        cacheMetrics = new GuavaCacheMetrics<>(metricsPrefix + ".l1", CachedObject::weight);
+        loader = new RefreshAheadCacheLoader<>(id -> {
+            try(Context context = cacheMetrics.loadTimer().time()) {
+                return settings.adopt(redisCache.get(id, k -> crudDao.get(k)).orElse(null));
+            }
+        }, settings.refreshExecutor());
+        l1 = settings.build(loader, cacheMetrics);
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<>();
+        metrics.putAll(crudDao.getMetrics());
+        metrics.putAll(redisCache.getMetrics());
+        metrics.put(metricsPrefix + ".collapsed", loads.collapsedMeter());
+        metrics.put(metricsPrefix + ".refreshes", loader.refreshMeter());
+        metrics.put(metricsPrefix + ".stale", loader.staleMeter());
+        metrics.putAll(cacheMetrics.getMetrics());
+        return metrics;
+    }
+
+    @Override
+    public JsonObject get(String id) {
+        CachedObject cached = l1.getIfPresent(id);
+        if(cached != null) {
+            cacheMetrics.hit();
+            loader.served(id);
+        } else {
+            cacheMetrics.miss();
+            // guava discards the loaded value if a concurrent write put something else in the cache in the mean time
+            cached = loads.execute(id, () -> {
+                try {
+                    return l1.get(id);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("unexpected error fetching value from cache", e);
+                }
+            });
+        }
+        return cached.object();
+    }
+
+    @Override
+    public JsonObject get(boolean cached, String id) {
+        if(cached) {
+            return get(id);
+        } else {
+            return crudDao.get(cached, id);
+        }
+    }
+
+    @Override
+    public JsonArray mget(boolean cached, String... ids) {
+        if(!cached) {
+            return crudDao.mget(cached, ids);
+        }
+        Map<String, JsonObject> found = new HashMap<>();
+        List<String> l1Misses = new ArrayList<>();
+        for(String id: ids) {
+            CachedObject entry = l1.getIfPresent(id);
+            if(entry == null) {
+                cacheMetrics.miss();
+                l1Misses.add(id);
+            } else {
+                cacheMetrics.hit();
+                loader.served(id);
+                if(entry.isPresent()) {
+                    found.put(id, entry.object());
+                }
+            }
+        }
+        if(!l1Misses.isEmpty()) {
+            String[] l1MissIds = l1Misses.toArray(new String[l1Misses.size()]);
+            List<CachedValue> cachedValues = redisCache.lookupAll(l1MissIds);
+            List<String> l2Misses = new ArrayList<>();
+            for(int i = 0; i < l1MissIds.length; i++) {
+                CachedValue cachedValue = cachedValues.get(i);
+                if(cachedValue.isMiss()) {
+                    l2Misses.add(l1MissIds[i]);
+                } else {
+                    if(cachedValue.isHit()) {
+                        found.put(l1MissIds[i], cachedValue.value());
+                    }
+                    l1.asMap().putIfAbsent(l1MissIds[i], settings.wrap(cachedValue.value()));
+                }
+            }
+            if(!l2Misses.isEmpty()) {
+                JsonArray fetched = crudDao.mget(false, l2Misses.toArray(new String[l2Misses.size()]));
+                for(JsonObject o: fetched.objects()) {
+                    String id = o.getString("id");
+                    found.put(id, o);
+                    l1.asMap().putIfAbsent(id, settings.wrap(o));
+                }
+                redisCache.putAll(fetched.objects());
+                List<String> absent = l2Misses.stream().filter(id -> !found.containsKey(id)).collect(Collectors.toList());
+                redisCache.putAbsent(absent);
+                for(String id: absent) {
+                    l1.asMap().putIfAbsent(id, CachedObject.ABSENT);
+                }
+            }
+        }
+        // everything in found is a copy that we can hand out
+        JsonArray results = array();
+        for(String id: ids) {
+            JsonObject o = found.get(id);
+            if(o != null) {
+                results.add(o);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public JsonObject create(JsonObject object, boolean replace) {
+        JsonObject created = crudDao.create(object, replace);
+        l1.put(created.getString("id"), settings.wrap(created));
+        redisCache.put(created);
+        return created;
+    }
+
+    @Override
+    public JsonObject update(String id, boolean modifyUpdatedAt, Function<JsonObject, JsonObject> f) {
+        JsonObject updated = crudDao.update(id, modifyUpdatedAt, f);
+        l1.put(id, settings.wrap(updated));
+        // other servers may be updating the same object; let the next read get the latest version from es
+        redisCache.delete(id);
+        return updated;
+    }
+
+    @Override
+    public void delete(String id) {
+        crudDao.delete(id);
+        l1.invalidate(id);
+        redisCache.delete(id);
+    }
+
+    /**
+     * Deletes the matching objects and removes their ids from both cache tiers, redis first so that the in memory tier
+     * does not reload deleted objects from it. The ids are collected with a scroll before the delete, so objects that
+     * start matching the query in between may stay cached until they expire.
+     */
+    @Override
+    public void deleteByQuery(JsonObject query) {
+        List<String> ids = matchingIds(query);
+        crudDao.deleteByQuery(query);
+        redisCache.deleteAll(ids);
+        l1.invalidateAll(ids);
+    }
+
+    private List<String> matchingIds(JsonObject query) {
+        List<String> ids = new ArrayList<>();
+        for(JsonObject hit : crudDao.iterableSearch(query.deepClone(), 1000, 1, true, SourceFilter.include("id"))) {
+            ids.add(hit.getString("_id"));
+        }
+        return ids;
+    }
+
+    @Override
+    public Set<String> recentlyModifiedIds() {
+        return crudDao.recentlyModifiedIds();
+    }
+
+    @Override
+    public Set<String> recentlyModifiedIds(long sinceMillis) {
+        return crudDao.recentlyModifiedIds(sinceMillis);
+    }
+
+    @Override
+    public JsonObject get(String id, SourceFilter sourceFilter) {
+        // partial objects are not cached
+        return crudDao.get(id, sourceFilter);
+    }
+
+    @Override
+    public JsonArray mget(SourceFilter sourceFilter, String... ids) {
+        return crudDao.mget(sourceFilter, ids);
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from) {
+        return crudDao.pagedSearch(q, size, from);
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, String... fields) {
+        return crudDao.pagedSearch(q, size, from, fields);
+    }
+
+    @Override
+    public PagedSearchResponse pagedSearch(JsonObject q, int size, int from, SourceFilter sourceFilter) {
+        return crudDao.pagedSearch(q, size, from, sourceFilter);
+    }
+
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
+        return crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults);
+    }
+
+    @Override
+    public IterableSearchResponse iterableSearch(JsonObject q, int pageSize, int ttlMinutes, boolean rawResults, SourceFilter sourceFilter) {
+        return crudDao.iterableSearch(q, pageSize, ttlMinutes, rawResults, sourceFilter);
+    }
+
+    @Override
+    public JsonObject searchUnique(JsonObject q) {
+        return crudDao.searchUnique(q);
+    }
+
+    @Override
+    public JsonObject mapping() {
+        return crudDao.mapping();
+    }
+
+    @Override
+    public BulkIndexingOperations bulkIndexer() {
+        // the transform function of updates is applied later on so we don't know what ends up in es; just invalidate
+        return new RedisInvalidatingBulkIndexer(crudDao.bulkIndexer(), redisCache, l1::invalidate);
+    }
+}
@@ -0,0 +1,761 @@
+package io.inbot.elasticsearch.fake;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.object;
+import static com.github.jsonj.tools.JsonBuilder.primitive;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonElement;
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+import io.inbot.elasticsearch.fake.FakeEsIndex.Doc;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Indices, aliases and scroll contexts of the {@link FakeEsServer} and the operations on them. Writes are visible to
+ * searches right away; refresh does nothing.
+ */
+class FakeEsCluster {
+    private static final int DEFAULT_SIZE = 10;
+
+    private final JsonParser parser;
+    private final Map<String, FakeEsIndex> indices = new ConcurrentHashMap<>();
+    private final Map<String, Scroll> scrolls = new ConcurrentHashMap<>();
+    private final AtomicLong scrollIds = new AtomicLong();
+
+    static final class Reply {
+        final int status;
+        final JsonObject body;
+
+        Reply(int status, JsonObject body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Reply ok(JsonObject body) {
+            return new Reply(200, body);
+        }
+    }
+
+    private static final class Scroll {
+        final List<JsonObject> hits;
+        final int size;
+        final long keepAliveMillis;
+        int position = 0;
+        volatile long expires;
+
+        Scroll(List<JsonObject> hits, int size, long keepAliveMillis) {
+            this.hits = hits;
+            this.size = size;
+            this.keepAliveMillis = keepAliveMillis;
+            expires = System.currentTimeMillis() + keepAliveMillis;
+        }
+    }
+
+    FakeEsCluster(JsonParser parser) {
+        this.parser = parser;
+    }
+
+    synchronized void clear() {
+        indices.clear();
+        scrolls.clear();
+    }
+
+    synchronized Reply createIndex(String name, JsonObject body) {
+        if(name.startsWith("_") || !name.equals(name.toLowerCase())) {
+            throw new FakeEsException(400, "invalid_index_name_exception", "Invalid index name [" + name + "]");
+        }
+        if(indices.containsKey(name) || !aliasIndices(name).isEmpty()) {
+            throw new FakeEsException(400, "index_already_exists_exception", "already exists");
+        }
+        JsonObject settings = body == null ? new JsonObject() : body.getOrCreateObject("settings");
+        JsonObject mappings = body == null ? new JsonObject() : body.getOrCreateObject("mappings");
+        FakeEsIndex index = new FakeEsIndex(name, settings, mappings);
+        if(body != null && body.getObject("aliases") != null) {
+            for(Entry<String, JsonElement> alias: body.getObject("aliases").entrySet()) {
+                index.addAlias(alias.getKey());
+            }
+        }
+        indices.put(name, index);
+        return Reply.ok(acknowledged());
+    }
+
+    synchronized Reply deleteIndex(String names) {
+        for(FakeEsIndex index: resolve(names)) {
+            indices.remove(index.name());
+        }
+        return Reply.ok(acknowledged());
+    }
+
+    Reply indexInfo(String names) {
+        JsonObject result = new JsonObject();
+        for(FakeEsIndex index: resolve(names)) {
+            result.put(index.name(), object(field("aliases", aliasesObject(index)), field("mappings", index.mappings()), field("settings",
+                    settings(index))));
+        }
+        return Reply.ok(result);
+    }
+
+    Reply settings(String names) {
+        JsonObject result = new JsonObject();
+        for(FakeEsIndex index: resolve(names)) {
+            result.put(index.name(), object(field("settings", settings(index))));
+        }
+        return Reply.ok(result);
+    }
+
+    Reply mapping(String names, String type) {
+        JsonObject result = new JsonObject();
+        for(FakeEsIndex index: resolve(names)) {
+            JsonObject mappings = new JsonObject();
+            for(Entry<String, JsonElement> e: index.mappings().entrySet()) {
+                if(type == null || type.equals(e.getKey())) {
+                    mappings.put(e.getKey(), e.getValue());
+                }
+            }
+            if(!mappings.isEmpty()) {
+                result.put(index.name(), object(field("mappings", mappings)));
+            }
+        }
+        return Reply.ok(result);
+    }
+
+    Reply aliases() {
+        JsonObject result = new JsonObject();
+        for(FakeEsIndex index: sorted(indices.values())) {
+            result.put(index.name(), object(field("aliases", aliasesObject(index))));
+        }
+        return Reply.ok(result);
+    }
+
+    Reply alias(String alias) {
+        JsonObject result = new JsonObject();
+        for(FakeEsIndex index: aliasIndices(alias)) {
+            result.put(index.name(), object(field("aliases", object(field(alias, new JsonObject())))));
+        }
+        if(result.isEmpty()) {
+            return new Reply(404, object(field("error", "alias [" + alias + "] missing"), field("status", 404)));
+        }
+        return Reply.ok(result);
+    }
+
+    /**
+     * Applies all add and remove actions or none of them.
+     */
+    synchronized Reply updateAliases(JsonObject body) {
+        List<Runnable> changes = new ArrayList<>();
+        for(JsonObject action: body.getOrCreateArray("actions").objects()) {
+            for(Entry<String, JsonElement> e: action.entrySet()) {
+                JsonObject spec = e.getValue().asObject();
+                List<String> aliases = FakeEsQuery.strings(spec.containsKey("aliases") ? spec.get("aliases") : spec.get("alias"));
+                List<String> names = FakeEsQuery.strings(spec.containsKey("indices") ? spec.get("indices") : spec.get("index"));
+                for(String name: names) {
+                    FakeEsIndex index = indices.get(name);
+                    if(index == null) {
+                        throw FakeEsException.indexNotFound(name);
+                    }
+                    for(String alias: aliases) {
+                        if("add".equals(e.getKey())) {
+                            if(indices.containsKey(alias)) {
+                                throw new FakeEsException(400, "invalid_alias_name_exception", "Invalid alias name [" + alias
+                                        + "], an index exists with the same name as the alias");
+                            }
+                            changes.add(() -> index.addAlias(alias));
+                        } else if("remove".equals(e.getKey())) {
+                            if(!index.aliases().contains(alias)) {
+                                throw new FakeEsException(404, "aliases_not_found_exception", "aliases [" + alias + "] missing");
+                            }
+                            changes.add(() -> index.removeAlias(alias));
+                        } else {
+                            throw FakeEsException.badRequest("unsupported alias action [" + e.getKey() + "]");
+                        }
+                    }
+                }
+            }
+        }
+        changes.forEach(Runnable::run);
+        return Reply.ok(acknowledged());
+    }
+
+    Reply get(String name, String type, String id, Map<String, String> params) {
+        FakeEsIndex index = singleIndex(name, false);
+        Doc doc = index.get(type, id);
+        JsonObject result = docHeader(index, type, id);
+        if(doc == null) {
+            result.put("found", false);
+            return new Reply(404, result);
+        }
+        result.put("_version", doc.version);
+        result.put("found", true);
+        JsonObject source = filterSource(doc.source, urlSourceSpec(params));
+        if(source != null) {
+            result.put("_source", source);
+        }
+        return Reply.ok(result);
+    }
+
+    Reply mget(String name, String type, Map<String, String> params, JsonObject body) {
+        JsonElement sourceSpec = urlSourceSpec(params);
+        JsonArray docs = array();
+        List<JsonObject> requested = new ArrayList<>();
+        if(body.containsKey("ids")) {
+            for(String id: FakeEsQuery.strings(body.get("ids"))) {
+                requested.add(object(field("_id", id)));
+            }
+        } else {
+            for(JsonObject o: body.getOrCreateArray("docs").objects()) {
+                requested.add(o);
+            }
+        }
+        for(JsonObject r: requested) {
+            String docType = r.get("_type", type);
+            FakeEsIndex index = singleIndex(r.get("_index", name), false);
+            Doc doc = index.get(docType, r.getString("_id"));
+            JsonObject result = docHeader(index, docType, r.getString("_id"));
+            if(doc == null) {
+                result.put("found", false);
+            } else {
+                result.put("_version", doc.version);
+                result.put("found", true);
+                JsonObject source = filterSource(doc.source, sourceSpec);
+                if(source != null) {
+                    result.put("_source", source);
+                }
+            }
+            docs.add(result);
+        }
+        return Reply.ok(object(field("docs", docs)));
+    }
+
+    Reply index(String name, String type, String id, Map<String, String> params, JsonObject source, boolean create) {
+        FakeEsIndex index = writeIndex(name);
+        String docId = id != null ? id : UUID.randomUUID().toString().replace("-", "");
+        Doc doc = index.index(type, docId, params.get("parent"), source, create || "create".equals(params.get("op_type")), version(params.get(
+                "version")), params.get("version_type"));
+        JsonObject result = docHeader(index, type, docId);
+        result.put("_version", doc.version);
+        result.put("_shards", shards());
+        result.put("created", doc.created);
+        return new Reply(doc.created ? 201 : 200, result);
+    }
+
+    Reply delete(String name, String type, String id, Map<String, String> params) {
+        FakeEsIndex index = writeIndex(name);
+        Doc tombstone = index.delete(type, id, version(params.get("version")), params.get("version_type"));
+        JsonObject result = docHeader(index, type, id);
+        result.put("found", tombstone != null);
+        result.put("_shards", shards());
+        if(tombstone == null) {
+            return new Reply(404, result);
+        }
+        result.put("_version", tombstone.version);
+        return Reply.ok(result);
+    }
+
+    /**
+     * Supports index, create and delete actions. Like elasticsearch, failed actions are reported per item.
+     */
+    Reply bulk(String name, String type, String body) {
+        long start = System.currentTimeMillis();
+        JsonArray items = array();
+        boolean errors = false;
+        Iterator<String> lines = lines(body).iterator();
+        while(lines.hasNext()) {
+            JsonObject action = parser.parseObject(lines.next());
+            if(action.size() != 1) {
+                throw FakeEsException.badRequest("Malformed action/metadata line, expected a single action");
+            }
+            Entry<String, JsonElement> entry = action.entrySet().iterator().next();
+            String op = entry.getKey();
+            JsonObject meta = entry.getValue().asObject();
+            JsonObject source = null;
+            if("index".equals(op) || "create".equals(op) || "update".equals(op)) {
+                if(!lines.hasNext()) {
+                    throw FakeEsException.badRequest("Validation Failed: 1: no requests added;");
+                }
+                source = parser.parseObject(lines.next());
+            } else if(!"delete".equals(op)) {
+                throw FakeEsException.badRequest("Malformed action/metadata line, expected one of [create, delete, index, update] but found ["
+                        + op + "]");
+            }
+            String itemIndex = meta.get("_index", name);
+            String itemType = meta.get("_type", type);
+            String id = meta.getString("_id");
+            JsonObject item = object(field("_index", itemIndex), field("_type", itemType), field("_id", id));
+            try {
+                if(itemType == null || id == null && "delete".equals(op)) {
+                    throw new FakeEsException(400, "action_request_validation_exception", "Validation Failed: 1: type or id is missing;");
+                }
+                Map<String, String> params = new TreeMap<>();
+                putIfPresent(params, "version", meta, "_version", "version");
+                putIfPresent(params, "version_type", meta, "_version_type", "version_type");
+                putIfPresent(params, "parent", meta, "_parent", "parent");
+                Reply reply;
+                if("update".equals(op)) {
+                    throw new FakeEsException(400, "action_request_validation_exception", "partial updates are not supported by the stub");
+                } else if("delete".equals(op)) {
+                    reply = delete(itemIndex, itemType, id, params);
+                } else {
+                    reply = index(itemIndex, itemType, id, params, source, "create".equals(op));
+                }
+                item = reply.body;
+                item.remove("created");
+                item.put("status", reply.status);
+            } catch (FakeEsException e) {
+                errors = true;
+                item.put("status", e.status());
+                item.put("error", e.error());
+            }
+            items.add(object(field(op, item)));
+        }
+        return Reply.ok(object(field("took", System.currentTimeMillis() - start), field("errors", errors), field("items", items)));
+    }
+
+    Reply count(String names, String types, JsonObject body) {
+        JsonObject query = body == null ? null : body.getObject("query");
+        int count = 0;
+        for(FakeEsIndex index: resolve(names)) {
+            for(Doc doc: index.docs(types(types))) {
+                if(FakeEsQuery.matches(query, index, doc)) {
+                    count++;
+                }
+            }
+        }
+        return Reply.ok(object(field("count", count), field("_shards", shards())));
+    }
+
+    Reply refresh(String names) {
+        resolve(names);
+        return Reply.ok(object(field("_shards", shards())));
+    }
+
+    /**
+     * Search with paging or with search_type=scan and/or scroll. Hits of scrolls are taken when the scroll starts.
+     */
+    Reply search(String names, String types, Map<String, String> params, JsonObject body) {
+        long start = System.currentTimeMillis();
+        if(body == null) {
+            body = new JsonObject();
+        }
+        if(body.containsKey("aggs") || body.containsKey("aggregations")) {
+            throw new FakeEsException(400, "search_parse_exception", "aggregations are not supported by the stub");
+        }
+        JsonObject query = body.getObject("query");
+        JsonObject postFilter = body.containsKey("post_filter") ? body.getObject("post_filter") : body.getObject("filter");
+        List<FakeEsIndex> docIndices = new ArrayList<>();
+        List<Doc> matches = new ArrayList<>();
+        for(FakeEsIndex index: resolve(names)) {
+            for(Doc doc: index.docs(types(types))) {
+                if(FakeEsQuery.matches(query, index, doc) && FakeEsQuery.matches(postFilter, index, doc)) {
+                    docIndices.add(index);
+                    matches.add(doc);
+                }
+            }
+        }
+        List<Integer> order = new ArrayList<>();
+        for(int i = 0; i < matches.size(); i++) {
+            order.add(i);
+        }
+        if(body.containsKey("sort")) {
+            Comparator<Doc> comparator = FakeEsQuery.comparator(body.get("sort"));
+            order.sort((a, b) -> comparator.compare(matches.get(a), matches.get(b)));
+        }
+        int size = params.containsKey("size") ? Integer.parseInt(params.get("size")) : body.get("size", DEFAULT_SIZE);
+        int from = params.containsKey("from") ? Integer.parseInt(params.get("from")) : body.get("from", 0);
+        boolean version = "true".equals(params.get("version")) || body.get("version", false);
+        JsonElement sourceSpec = body.containsKey("_source") ? body.get("_source") : urlSourceSpec(params);
+        List<String> fields = body.containsKey("fields") ? FakeEsQuery.strings(body.get("fields")) : null;
+
+        boolean scan = "scan".equals(params.get("search_type"));
+        String scroll = params.get("scroll");
+        List<JsonObject> hits = new ArrayList<>();
+        int first = scroll == null ? from : 0;
+        for(int i = first; i < order.size() && (scroll != null || hits.size() < size); i++) {
+            int position = order.get(i);
+            hits.add(hit(docIndices.get(position), matches.get(position), version, sourceSpec, fields));
+        }
+        JsonObject result = object(field("took", System.currentTimeMillis() - start), field("timed_out", false), field("_shards", shards()));
+        if(scroll != null) {
+            Scroll context = new Scroll(hits, size, timeValue(scroll));
+            String scrollId = openScroll(context);
+            result.put("_scroll_id", scrollId);
+            // a scan returns its first hits on the first scroll request
+            result.put("hits", hitsObject(matches.size(), scan ? Collections.emptyList() : nextPage(scrollId, context)));
+        } else {
+            result.put("hits", hitsObject(matches.size(), hits));
+        }
+        return Reply.ok(result);
+    }
+
+    /**
+     * @param body
+     *            the scroll id, or a json object with a scroll_id
+     */
+    Reply scroll(Map<String, String> params, String body) {
+        String scrollId = params.get("scroll_id");
+        if(StringUtils.isNotBlank(body)) {
+            String trimmed = body.trim();
+            scrollId = trimmed.startsWith("{") ? parser.parseObject(trimmed).getString("scroll_id") : trimmed;
+        }
+        Scroll context = scrollId == null ? null : scrolls.get(scrollId);
+        if(context == null || context.expires < System.currentTimeMillis()) {
+            scrolls.remove(String.valueOf(scrollId));
+            throw new FakeEsException(404, "search_context_missing_exception", "No search context found for id [" + scrollId + "]");
+        }
+        if(params.containsKey("scroll")) {
+            context.expires = System.currentTimeMillis() + timeValue(params.get("scroll"));
+        } else {
+            context.expires = System.currentTimeMillis() + context.keepAliveMillis;
+        }
+        List<JsonObject> page = nextPage(scrollId, context);
+        return Reply.ok(object(field("_scroll_id", scrollId), field("took", 0), field("timed_out", false), field("_shards", shards()), field(
+                "hits", hitsObject(context.hits.size(), page))));
+    }
+
+    Reply clearScroll(String body) {
+        if(StringUtils.isNotBlank(body)) {
+            String trimmed = body.trim();
+            if(trimmed.startsWith("{")) {
+                for(String id: FakeEsQuery.strings(parser.parseObject(trimmed).get("scroll_id"))) {
+                    scrolls.remove(id);
+                }
+            } else {
+                for(String id: trimmed.split(",")) {
+                    scrolls.remove(id.trim());
+                }
+            }
+        }
+        return Reply.ok(object(field("succeeded", true)));
+    }
+
+    /**
+     * @return number of open scroll contexts; these hold on to their hits until they are read or expire
+     */
+    int openScrolls() {
+        return scrolls.size();
+    }
+
+    private String openScroll(Scroll context) {
+        long now = System.currentTimeMillis();
+        scrolls.values().removeIf(s -> s.expires < now);
+        String scrollId = "fake-scroll-" + scrollIds.incrementAndGet();
+        scrolls.put(scrollId, context);
+        return scrollId;
+    }
+
+    private List<JsonObject> nextPage(String scrollId, Scroll context) {
+        synchronized(context) {
+            int end = Math.min(context.hits.size(), context.position + context.size);
+            List<JsonObject> page = new ArrayList<>(context.hits.subList(context.position, end));
+            context.position = end;
+            if(page.isEmpty()) {
+                scrolls.remove(scrollId);
+            }
+            return page;
+        }
+    }
+
+    private JsonObject hitsObject(int total, List<JsonObject> hits) {
+        JsonArray array = array();
+        for(JsonObject hit: hits) {
+            array.add(hit);
+        }
+        return object(field("total", total), field("max_score", hits.isEmpty() ? 0.0 : 1.0), field("hits", array));
+    }
+
+    private JsonObject hit(FakeEsIndex index, Doc doc, boolean version, JsonElement sourceSpec, List<String> fields) {
+        JsonObject hit = docHeader(index, doc.type, doc.id);
+        if(version) {
+            hit.put("_version", doc.version);
+        }
+        hit.put("_score", 1.0);
+        // like elasticsearch 2.x, asking for fields leaves out the _source unless it is one of the fields
+        if(fields == null || fields.contains("_source")) {
+            JsonObject source = filterSource(doc.source, sourceSpec);
+            if(source != null) {
+                hit.put("_source", source);
+            }
+        }
+        if(fields != null) {
+            JsonObject fieldValues = new JsonObject();
+            for(String f: fields) {
+                if("_parent".equals(f)) {
+                    if(doc.parent != null) {
+                        fieldValues.put("_parent", doc.parent);
+                    }
+                } else if(!f.startsWith("_")) {
+                    List<JsonElement> values = FakeEsQuery.values(doc, f);
+                    if(!values.isEmpty()) {
+                        JsonArray array = array();
+                        values.forEach(array::add);
+                        fieldValues.put(f, array);
+                    }
+                }
+            }
+            if(!fieldValues.isEmpty()) {
+                hit.put("fields", fieldValues);
+            }
+        }
+        return hit;
+    }
+
+    private static JsonObject docHeader(FakeEsIndex index, String type, String id) {
+        return object(field("_index", index.name()), field("_type", type), field("_id", id));
+    }
+
+    private static JsonElement urlSourceSpec(Map<String, String> params) {
+        if("false".equals(params.get("_source"))) {
+            return primitive(false);
+        }
+        JsonObject spec = new JsonObject();
+        String include = params.containsKey("_source_include") ? params.get("_source_include") : params.get("_source");
+        if(StringUtils.isNotBlank(include) && !"true".equals(include)) {
+            spec.put("include", include);
+        }
+        if(StringUtils.isNotBlank(params.get("_source_exclude"))) {
+            spec.put("exclude", params.get("_source_exclude"));
+        }
+        return spec.isEmpty() ? null : spec;
+    }
+
+    /**
+     * @param spec
+     *            the _source of a search request: null, a boolean, one or more field patterns, or an object with
+     *            include and exclude patterns
+     * @return the filtered source or null if the source should be left out
+     */
+    private static JsonObject filterSource(JsonObject source, JsonElement spec) {
+        if(spec == null || spec.isNull()) {
+            return source;
+        }
+        if(spec.isBoolean()) {
+            return spec.asBoolean() ? source : null;
+        }
+        List<Pattern> includes = new ArrayList<>();
+        List<Pattern> excludes = new ArrayList<>();
+        if(spec.isObject()) {
+            JsonObject o = spec.asObject();
+            FakeEsQuery.strings(o.containsKey("includes") ? o.get("includes") : o.get("include")).forEach(s -> includes.add(glob(s)));
+            FakeEsQuery.strings(o.containsKey("excludes") ? o.get("excludes") : o.get("exclude")).forEach(s -> excludes.add(glob(s)));
+        } else {
+            FakeEsQuery.strings(spec).forEach(s -> includes.add(glob(s)));
+        }
+        return filter(source, "", includes, excludes, includes.isEmpty());
+    }
+
+    private static JsonObject filter(JsonObject o, String prefix, List<Pattern> includes, List<Pattern> excludes, boolean included) {
+        JsonObject result = new JsonObject();
+        for(Entry<String, JsonElement> e: o.entrySet()) {
+            String path = prefix + e.getKey();
+            if(matchesAny(excludes, path)) {
+                continue;
+            }
+            boolean pathIncluded = included || matchesAny(includes, path);
+            JsonElement value = e.getValue();
+            if(value.isObject()) {
+                JsonObject filtered = filter(value.asObject(), path + '.', includes, excludes, pathIncluded);
+                if(pathIncluded || !filtered.isEmpty()) {
+                    result.put(e.getKey(), filtered);
+                }
+            } else if(pathIncluded) {
+                result.put(e.getKey(), value);
+            }
+        }
+        return result;
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String path) {
+        for(Pattern p: patterns) {
+            if(p.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Pattern glob(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        String[] parts = pattern.split("\\*", -1);
+        for(int i = 0; i < parts.length; i++) {
+            if(i > 0) {
+                regex.append(".*");
+            }
+            regex.append(Pattern.quote(parts[i]));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private List<FakeEsIndex> resolve(String names) {
+        if(names == null || "_all".equals(names) || "*".equals(names)) {
+            return sorted(indices.values());
+        }
+        Set<FakeEsIndex> result = new HashSet<>();
+        for(String name: names.split(",")) {
+            if(name.contains("*")) {
+                Pattern pattern = glob(name);
+                for(FakeEsIndex index: indices.values()) {
+                    if(pattern.matcher(index.name()).matches() || index.aliases().stream().anyMatch(a -> pattern.matcher(a).matches())) {
+                        result.add(index);
+                    }
+                }
+            } else {
+                FakeEsIndex index = indices.get(name);
+                List<FakeEsIndex> aliased = aliasIndices(name);
+                if(index == null && aliased.isEmpty()) {
+                    throw FakeEsException.indexNotFound(name);
+                }
+                if(index != null) {
+                    result.add(index);
+                }
+                result.addAll(aliased);
+            }
+        }
+        return sorted(result);
+    }
+
+    private List<FakeEsIndex> aliasIndices(String alias) {
+        List<FakeEsIndex> result = new ArrayList<>();
+        for(FakeEsIndex index: indices.values()) {
+            if(index.aliases().contains(alias)) {
+                result.add(index);
+            }
+        }
+        return sorted(result);
+    }
+
+    private FakeEsIndex singleIndex(String name, boolean autoCreate) {
+        FakeEsIndex index = indices.get(name);
+        if(index != null) {
+            return index;
+        }
+        List<FakeEsIndex> aliased = aliasIndices(name);
+        if(aliased.size() > 1) {
+            throw FakeEsException.badRequest("Alias [" + name + "] has more than one indices associated with it [" + aliased.size()
+                    + "], can't execute a single index op");
+        }
+        if(aliased.size() == 1) {
+            return aliased.get(0);
+        }
+        if(autoCreate) {
+            synchronized(this) {
+                if(!indices.containsKey(name)) {
+                    createIndex(name, null);
+                }
+                return indices.get(name);
+            }
+        }
+        throw FakeEsException.indexNotFound(name);
+    }
+
+    private FakeEsIndex writeIndex(String name) {
+        // like elasticsearch with the default action.auto_create_index
+        return singleIndex(name, true);
+    }
+
+    private static List<FakeEsIndex> sorted(Iterable<FakeEsIndex> values) {
+        List<FakeEsIndex> list = new ArrayList<>();
+        values.forEach(list::add);
+        list.sort((a, b) -> a.name().compareTo(b.name()));
+        return list;
+    }
+
+    private static Set<String> types(String types) {
+        if(StringUtils.isBlank(types) || "_all".equals(types)) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(FakeEsQuery.strings(primitive(types)));
+    }
+
+    private static JsonObject aliasesObject(FakeEsIndex index) {
+        JsonObject aliases = new JsonObject();
+        for(String alias: new TreeSet<>(index.aliases())) {
+            aliases.put(alias, new JsonObject());
+        }
+        return aliases;
+    }
+
+    private static JsonObject settings(FakeEsIndex index) {
+        JsonObject settings = index.settings().deepClone();
+        JsonObject indexSettings = settings.getOrCreateObject("index");
+        if(!indexSettings.containsKey("number_of_shards")) {
+            indexSettings.put("number_of_shards", "1");
+        }
+        if(!indexSettings.containsKey("number_of_replicas")) {
+            indexSettings.put("number_of_replicas", "0");
+        }
+        return settings;
+    }
+
+    private static JsonObject acknowledged() {
+        return object(field("acknowledged", true));
+    }
+
+    private static JsonObject shards() {
+        return object(field("total", 1), field("successful", 1), field("failed", 0));
+    }
+
+    private static Long version(String version) {
+        return StringUtils.isBlank(version) ? null : Long.valueOf(version);
+    }
+
+    private static void putIfPresent(Map<String, String> params, String param, JsonObject meta, String... keys) {
+        for(String key: keys) {
+            if(meta.containsKey(key)) {
+                params.put(param, meta.getString(key));
+                return;
+            }
+        }
+    }
+
+    private static List<String> lines(String body) {
+        List<String> lines = new ArrayList<>();
+        for(String line: body.split("\n")) {
+            if(StringUtils.isNotBlank(line)) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @param value
+     *            elasticsearch time value like 30s, 5m, or 1h
+     * @return the value in milliseconds
+     */
+    static long timeValue(String value) {
+        String v = value.trim();
+        if(v.endsWith("ms")) {
+            return Long.parseLong(v.substring(0, v.length() - 2));
+        }
+        long amount = Long.parseLong(v.substring(0, v.length() - 1));
+        switch(v.charAt(v.length() - 1)) {
+        case 's':
+            return TimeUnit.SECONDS.toMillis(amount);
+        case 'm':
+            return TimeUnit.MINUTES.toMillis(amount);
+        case 'h':
+            return TimeUnit.HOURS.toMillis(amount);
+        case 'd':
+            return TimeUnit.DAYS.toMillis(amount);
+        default:
+            return Long.parseLong(v);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.inbot.elasticsearch.fake;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.object;
+
+import com.github.jsonj.JsonObject;
+
+/**
+ * Error response of the {@link FakeEsServer}. Rendered the way elasticsearch 2.x renders errors so that the client
+ * maps it to the same exceptions.
+ */
+class FakeEsException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final String type;
+
+    FakeEsException(int status, String type, String reason) {
+        super(reason);
+        this.status = status;
+        this.type = type;
+    }
+
+    static FakeEsException badRequest(String reason) {
+        return new FakeEsException(400, "illegal_argument_exception", reason);
+    }
+
+    static FakeEsException indexNotFound(String index) {
+        return new FakeEsException(404, "index_not_found_exception", "no such index [" + index + "]");
+    }
+
+    static FakeEsException versionConflict(String type, String id, long current, long provided) {
+        return new FakeEsException(409, "version_conflict_engine_exception", "[" + type + "][" + id + "]: version conflict, current [" + current
+                + "], provided [" + provided + "]");
+    }
+
+    int status() {
+        return status;
+    }
+
+    String type() {
+        return type;
+    }
+
+    /**
+     * @return the error as it appears in bulk response items
+     */
+    JsonObject error() {
+        return object(field("type", type), field("reason", getMessage()));
+    }
+
+    JsonObject body() {
+        JsonObject error = error();
+        error.put("root_cause", array(error()));
+        return object(field("error", error), field("status", status));
+    }
+}
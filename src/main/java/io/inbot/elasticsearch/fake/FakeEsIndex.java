@@ -0,0 +1,196 @@
+package io.inbot.elasticsearch.fake;
+
+import com.github.jsonj.JsonObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Documents of a single index of the {@link FakeEsServer}. Writes are serialized per index; reads don't lock.
+ * Deletes leave a tombstone so that versions keep increasing and external versions of deleted documents are checked,
+ * like elasticsearch does within its gc_deletes window (which never ends here).
+ */
+class FakeEsIndex {
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final String name;
+    private final JsonObject settings;
+    private final JsonObject mappings;
+    private final Map<String, Doc> docs = new ConcurrentHashMap<>();
+    // replaced rather than modified so readers never see a set that is being changed
+    private volatile Set<String> aliases = Collections.emptySet();
+
+    static final class Doc {
+        final String type;
+        final String id;
+        final String parent;
+        final long version;
+        final JsonObject source;
+        final boolean deleted;
+        // true if this version created the document rather than replacing it
+        final boolean created;
+        // creation order; used as the order of documents that have the same score
+        final long seq;
+
+        Doc(String type, String id, String parent, long version, JsonObject source, boolean deleted, boolean created, long seq) {
+            this.type = type;
+            this.id = id;
+            this.parent = parent;
+            this.version = version;
+            this.source = source;
+            this.deleted = deleted;
+            this.created = created;
+            this.seq = seq;
+        }
+    }
+
+    FakeEsIndex(String name, JsonObject settings, JsonObject mappings) {
+        this.name = name;
+        this.settings = settings;
+        this.mappings = mappings;
+    }
+
+    String name() {
+        return name;
+    }
+
+    JsonObject settings() {
+        return settings;
+    }
+
+    JsonObject mappings() {
+        return mappings;
+    }
+
+    Set<String> aliases() {
+        return aliases;
+    }
+
+    synchronized void addAlias(String alias) {
+        Set<String> changed = new HashSet<>(aliases);
+        changed.add(alias);
+        aliases = Collections.unmodifiableSet(changed);
+    }
+
+    synchronized void removeAlias(String alias) {
+        Set<String> changed = new HashSet<>(aliases);
+        changed.remove(alias);
+        aliases = Collections.unmodifiableSet(changed);
+    }
+
+    /**
+     * @param type
+     *            type
+     * @param id
+     *            id
+     * @return the document or null if it does not exist
+     */
+    Doc get(String type, String id) {
+        Doc doc = docs.get(key(type, id));
+        return doc == null || doc.deleted ? null : doc;
+    }
+
+    /**
+     * @param types
+     *            types to include, all types if empty
+     * @return the documents in creation order
+     */
+    List<Doc> docs(Set<String> types) {
+        List<Doc> result = new ArrayList<>();
+        for(Doc doc: docs.values()) {
+            if(!doc.deleted && (types.isEmpty() || types.contains(doc.type))) {
+                result.add(doc);
+            }
+        }
+        result.sort(Comparator.comparingLong(d -> d.seq));
+        return result;
+    }
+
+    /**
+     * @param create
+     *            fail if the document already exists
+     * @param version
+     *            expected version or null
+     * @param versionType
+     *            internal, external, external_gte or force
+     * @return the new document
+     */
+    synchronized Doc index(String type, String id, String parent, JsonObject source, boolean create, Long version, String versionType) {
+        String key = key(type, id);
+        Doc current = docs.get(key);
+        boolean exists = current != null && !current.deleted;
+        if(create && exists) {
+            throw new FakeEsException(409, "document_already_exists_exception", "[" + type + "][" + id + "]: document already exists");
+        }
+        long newVersion = checkVersion(type, id, current, version, versionType);
+        Doc doc = new Doc(type, id, parent, newVersion, source, false, !exists, exists ? current.seq : SEQUENCE.incrementAndGet());
+        docs.put(key, doc);
+        return doc;
+    }
+
+    /**
+     * @return the tombstone of the deleted document or null if there was nothing to delete
+     */
+    synchronized Doc delete(String type, String id, Long version, String versionType) {
+        String key = key(type, id);
+        Doc current = docs.get(key);
+        if(current == null || current.deleted) {
+            if(version != null && versionType != null && !"internal".equals(versionType)) {
+                // remember the external version so that older writes can't resurrect the document
+                long newVersion = checkVersion(type, id, current, version, versionType);
+                docs.put(key, new Doc(type, id, null, newVersion, null, true, false, SEQUENCE.incrementAndGet()));
+            }
+            return null;
+        }
+        long newVersion = checkVersion(type, id, current, version, versionType);
+        Doc tombstone = new Doc(type, id, current.parent, newVersion, null, true, false, current.seq);
+        docs.put(key, tombstone);
+        return tombstone;
+    }
+
+    private static long checkVersion(String type, String id, Doc current, Long version, String versionType) {
+        long currentVersion = current == null ? -1 : current.version;
+        boolean exists = current != null && !current.deleted;
+        switch(versionType == null ? "internal" : versionType) {
+        case "internal":
+            if(version != null && (!exists || version != currentVersion)) {
+                throw FakeEsException.versionConflict(type, id, exists ? currentVersion : -1, version);
+            }
+            return currentVersion < 0 ? 1 : currentVersion + 1;
+        case "external":
+            requireVersion(version);
+            if(current != null && version <= currentVersion) {
+                throw FakeEsException.versionConflict(type, id, currentVersion, version);
+            }
+            return version;
+        case "external_gte":
+            requireVersion(version);
+            if(current != null && version < currentVersion) {
+                throw FakeEsException.versionConflict(type, id, currentVersion, version);
+            }
+            return version;
+        case "force":
+            requireVersion(version);
+            return version;
+        default:
+            throw FakeEsException.badRequest("No version type match [" + versionType + "]");
+        }
+    }
+
+    private static void requireVersion(Long version) {
+        if(version == null || version < 0) {
+            throw new FakeEsException(400, "action_request_validation_exception", "Validation Failed: 1: illegal version value [" + version
+                    + "] for version type [external];");
+        }
+    }
+
+    private static String key(String type, String id) {
+        return type + '/' + id;
+    }
+}
@@ -0,0 +1,508 @@
+package io.inbot.elasticsearch.fake;
+
+import static com.github.jsonj.tools.JsonBuilder.primitive;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonElement;
+import com.github.jsonj.JsonObject;
+import io.inbot.elasticsearch.fake.FakeEsIndex.Doc;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates the part of the elasticsearch query dsl that this client uses. Text matching approximates the standard
+ * analyzer: text is lower cased and split on anything that is not a letter or a digit. There is no relevance; all
+ * matches score the same.
+ */
+final class FakeEsQuery {
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private FakeEsQuery() {
+    }
+
+    /**
+     * @param query
+     *            query or filter; null matches everything
+     * @param index
+     *            index of the document, used for parent child queries
+     * @param doc
+     *            document
+     * @return true if the document matches
+     */
+    static boolean matches(JsonObject query, FakeEsIndex index, Doc doc) {
+        if(query == null) {
+            return true;
+        }
+        for(Entry<String, JsonElement> entry: query.entrySet()) {
+            String name = entry.getKey();
+            if("boost".equals(name) || "_name".equals(name)) {
+                continue;
+            }
+            if(!matches(name, entry.getValue(), index, doc)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String name, JsonElement spec, FakeEsIndex index, Doc doc) {
+        switch(name) {
+        case "match_all":
+            return true;
+        case "term":
+            return matchField(spec, doc, (values, q) -> values.stream().anyMatch(v -> termEquals(v, q)), "value", "term");
+        case "terms":
+            for(Entry<String, JsonElement> e: spec.asObject().entrySet()) {
+                if(e.getValue().isArray()) {
+                    for(JsonElement q: e.getValue().asArray()) {
+                        if(values(doc, e.getKey()).stream().anyMatch(v -> termEquals(v, q))) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        case "ids":
+            JsonObject ids = spec.asObject();
+            if(ids.containsKey("type") && !strings(ids.get("type")).contains(doc.type)) {
+                return false;
+            }
+            return strings(ids.get("values")).contains(doc.id);
+        case "type":
+            return doc.type.equals(spec.asObject().getString("value"));
+        case "range":
+            return matchField(spec, doc, (values, q) -> values.stream().anyMatch(v -> inRange(v, q.asObject())));
+        case "prefix":
+            return matchField(spec, doc, (values, q) -> values.stream().anyMatch(v -> {
+                String prefix = q.asString();
+                return v.asString().startsWith(prefix) || tokens(v).stream().anyMatch(t -> t.startsWith(prefix));
+            }), "value", "prefix");
+        case "exists":
+            return !values(doc, spec.asObject().getString("field")).isEmpty();
+        case "missing":
+            return values(doc, spec.asObject().getString("field")).isEmpty();
+        case "match":
+            return matchField(spec, doc, (values, q) -> matchText(values, q, null, "or"));
+        case "match_phrase":
+            return matchField(spec, doc, (values, q) -> matchText(values, q, "phrase", "or"));
+        case "match_phrase_prefix":
+            return matchField(spec, doc, (values, q) -> matchText(values, q, "phrase_prefix", "or"));
+        case "multi_match":
+            JsonObject multiMatch = spec.asObject();
+            for(String field: strings(multiMatch.get("fields"))) {
+                // strip boosts like title^2
+                int caret = field.indexOf('^');
+                List<JsonElement> values = values(doc, caret < 0 ? field : field.substring(0, caret));
+                if(matchText(values, multiMatch, multiMatch.getString("type"), "or")) {
+                    return true;
+                }
+            }
+            return false;
+        case "bool":
+            return matchBool(spec.asObject(), index, doc);
+        case "filtered":
+            return matches(spec.asObject().getObject("query"), index, doc) && matches(spec.asObject().getObject("filter"), index, doc);
+        case "constant_score":
+            return matches(inner(spec.asObject()), index, doc);
+        case "function_score":
+            return matches(inner(spec.asObject()), index, doc);
+        case "boosting":
+            return matches(spec.asObject().getObject("positive"), index, doc);
+        case "dis_max":
+            return any(spec.asObject().get("queries"), index, doc);
+        case "and":
+            return all(spec.isObject() ? spec.asObject().get("filters") : spec, index, doc);
+        case "or":
+            return any(spec.isObject() ? spec.asObject().get("filters") : spec, index, doc);
+        case "not":
+            JsonObject not = spec.asObject();
+            return !matches(not.containsKey("filter") || not.containsKey("query") ? inner(not) : not, index, doc);
+        case "has_child":
+            return hasChild(spec.asObject(), index, doc);
+        case "has_parent":
+            JsonObject hasParent = spec.asObject();
+            String parentType = hasParent.get("parent_type", hasParent.getString("type"));
+            Doc parent = doc.parent == null ? null : index.get(parentType, doc.parent);
+            return parent != null && matches(inner(hasParent), index, parent);
+        case "nested":
+            // nested documents are not separate here; fields are addressed by their full path
+            return matches(spec.asObject().getObject("query"), index, doc);
+        default:
+            throw new FakeEsException(400, "query_parsing_exception", "No query registered for [" + name + "]");
+        }
+    }
+
+    @FunctionalInterface
+    private interface FieldMatcher {
+        boolean matches(List<JsonElement> values, JsonElement query);
+    }
+
+    /**
+     * Matches queries of the form {field: query}. If valueKeys are given, the query may also be an object with the
+     * value in one of those keys, e.g. {field: {value: x, boost: 2}}.
+     */
+    private static boolean matchField(JsonElement spec, Doc doc, FieldMatcher matcher, String... valueKeys) {
+        for(Entry<String, JsonElement> e: spec.asObject().entrySet()) {
+            String field = e.getKey();
+            if("boost".equals(field) || "_name".equals(field)) {
+                continue;
+            }
+            JsonElement q = e.getValue();
+            if(valueKeys.length > 0 && q.isObject()) {
+                for(String key: valueKeys) {
+                    if(q.asObject().containsKey(key)) {
+                        q = q.asObject().get(key);
+                        break;
+                    }
+                }
+            }
+            if(!matcher.matches(values(doc, field), q)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchBool(JsonObject bool, FakeEsIndex index, Doc doc) {
+        if(!all(bool.get("must"), index, doc) || !all(bool.get("filter"), index, doc)) {
+            return false;
+        }
+        for(JsonObject q: objects(bool.get("must_not"))) {
+            if(matches(q, index, doc)) {
+                return false;
+            }
+        }
+        List<JsonObject> should = objects(bool.get("should"));
+        if(should.isEmpty()) {
+            return true;
+        }
+        int minimum;
+        if(bool.containsKey("minimum_should_match")) {
+            minimum = Integer.parseInt(bool.getString("minimum_should_match"));
+        } else {
+            // should clauses are optional if there are other clauses
+            minimum = bool.containsKey("must") || bool.containsKey("filter") || bool.containsKey("must_not") ? 0 : 1;
+        }
+        int matched = 0;
+        for(JsonObject q: should) {
+            if(matches(q, index, doc)) {
+                matched++;
+            }
+        }
+        return matched >= minimum;
+    }
+
+    private static boolean hasChild(JsonObject hasChild, FakeEsIndex index, Doc doc) {
+        JsonObject q = inner(hasChild);
+        for(Doc child: index.docs(Collections.singleton(hasChild.getString("type")))) {
+            if(doc.id.equals(child.parent) && matches(q, index, child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static JsonObject inner(JsonObject spec) {
+        JsonObject q = spec.getObject("query");
+        return q != null ? q : spec.getObject("filter");
+    }
+
+    private static boolean all(JsonElement clauses, FakeEsIndex index, Doc doc) {
+        for(JsonObject q: objects(clauses)) {
+            if(!matches(q, index, doc)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean any(JsonElement clauses, FakeEsIndex index, Doc doc) {
+        for(JsonObject q: objects(clauses)) {
+            if(matches(q, index, doc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchText(List<JsonElement> values, JsonElement q, String type, String defaultOperator) {
+        String operator = defaultOperator;
+        if(q.isObject()) {
+            JsonObject spec = q.asObject();
+            type = spec.get("type", type == null ? "boolean" : type);
+            operator = spec.get("operator", operator);
+            q = spec.get("query");
+        }
+        if(q == null || values.isEmpty()) {
+            return false;
+        }
+        if(!q.isString()) {
+            JsonElement value = q;
+            return values.stream().anyMatch(v -> termEquals(v, value));
+        }
+        List<String> queryTokens = tokens(q);
+        if(queryTokens.isEmpty()) {
+            return false;
+        }
+        for(JsonElement value: values) {
+            List<String> valueTokens = tokens(value);
+            if("phrase".equals(type) || "phrase_prefix".equals(type)) {
+                if(containsPhrase(valueTokens, queryTokens, "phrase_prefix".equals(type))) {
+                    return true;
+                }
+            } else if("and".equalsIgnoreCase(operator)) {
+                if(valueTokens.containsAll(queryTokens)) {
+                    return true;
+                }
+            } else if(queryTokens.stream().anyMatch(valueTokens::contains)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsPhrase(List<String> tokens, List<String> phrase, boolean prefix) {
+        for(int start = 0; start + phrase.size() <= tokens.size(); start++) {
+            boolean found = true;
+            for(int i = 0; i < phrase.size() && found; i++) {
+                String token = tokens.get(start + i);
+                String expected = phrase.get(i);
+                found = prefix && i == phrase.size() - 1 ? token.startsWith(expected) : token.equals(expected);
+            }
+            if(found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean termEquals(JsonElement value, JsonElement q) {
+        if(value.isNumber()) {
+            Double number = number(q);
+            return number != null && number == value.asDouble();
+        }
+        String term = q.asString();
+        String string = value.asString();
+        // terms are not analyzed but analyzed fields only contain lower case tokens
+        return string.equals(term) || tokens(value).contains(term);
+    }
+
+    private static boolean inRange(JsonElement value, JsonObject range) {
+        JsonElement lower = first(range, "gte", "gt", "from");
+        JsonElement upper = first(range, "lte", "lt", "to");
+        boolean includeLower = !range.containsKey("gt") && range.get("include_lower", true);
+        boolean includeUpper = !range.containsKey("lt") && range.get("include_upper", true);
+        if(lower != null && !lower.isNull()) {
+            int c = compare(value, lower);
+            if(c < 0 || c == 0 && !includeLower) {
+                return false;
+            }
+        }
+        if(upper != null && !upper.isNull()) {
+            int c = compare(value, upper);
+            if(c > 0 || c == 0 && !includeUpper) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static JsonElement first(JsonObject o, String... keys) {
+        for(String key: keys) {
+            if(o.containsKey(key)) {
+                return o.get(key);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Numeric comparison if both sides are numbers, string comparison otherwise. The latter works for iso dates.
+     */
+    static int compare(JsonElement left, JsonElement right) {
+        Double l = number(left);
+        Double r = number(right);
+        if(l != null && r != null) {
+            return Double.compare(l, r);
+        }
+        return left.asString().compareTo(right.asString());
+    }
+
+    private static Double number(JsonElement e) {
+        if(e.isNumber()) {
+            return e.asDouble();
+        }
+        if(e.isString()) {
+            try {
+                return Double.valueOf(e.asString());
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    static List<String> tokens(JsonElement e) {
+        List<String> tokens = new ArrayList<>();
+        for(String token: TOKEN_SEPARATOR.split(e.asString().toLowerCase(Locale.ROOT))) {
+            if(!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @param doc
+     *            document
+     * @param field
+     *            dotted path of a field; arrays along the path are flattened. Sub fields of multi fields such as
+     *            name.raw resolve to their parent field.
+     * @return the non null values of the field
+     */
+    static List<JsonElement> values(Doc doc, String field) {
+        List<JsonElement> values = new ArrayList<>();
+        switch(field) {
+        case "_id":
+            values.add(primitive(doc.id));
+            return values;
+        case "_type":
+            values.add(primitive(doc.type));
+            return values;
+        case "_parent":
+            if(doc.parent != null) {
+                values.add(primitive(doc.parent));
+            }
+            return values;
+        case "_all":
+            leaves(doc.source, values);
+            return values;
+        default:
+            String[] path = field.split("\\.");
+            collect(doc.source, path, 0, path.length, values);
+            if(values.isEmpty() && path.length > 1) {
+                collect(doc.source, path, 0, path.length - 1, values);
+            }
+            return values;
+        }
+    }
+
+    private static void collect(JsonElement e, String[] path, int i, int length, List<JsonElement> values) {
+        if(e == null || e.isNull()) {
+            return;
+        }
+        if(e.isArray()) {
+            for(JsonElement child: e.asArray()) {
+                collect(child, path, i, length, values);
+            }
+        } else if(i == length) {
+            values.add(e);
+        } else if(e.isObject()) {
+            collect(e.asObject().get(path[i]), path, i + 1, length, values);
+        }
+    }
+
+    private static void leaves(JsonElement e, List<JsonElement> values) {
+        if(e == null || e.isNull()) {
+            return;
+        }
+        if(e.isObject()) {
+            for(Entry<String, JsonElement> entry: e.asObject().entrySet()) {
+                leaves(entry.getValue(), values);
+            }
+        } else if(e.isArray()) {
+            for(JsonElement child: e.asArray()) {
+                leaves(child, values);
+            }
+        } else {
+            values.add(e);
+        }
+    }
+
+    /**
+     * @param sort
+     *            the sort of a search request; a field name, an object, or an array of those
+     * @return comparator for the sort; documents that compare equal keep their creation order
+     */
+    static Comparator<Doc> comparator(JsonElement sort) {
+        Comparator<Doc> comparator = (a, b) -> 0;
+        if(sort != null) {
+            for(JsonElement clause: sort.isArray() ? sort.asArray() : Collections.singletonList(sort)) {
+                if(clause.isObject()) {
+                    for(Entry<String, JsonElement> e: clause.asObject().entrySet()) {
+                        String order = e.getValue().isObject() ? e.getValue().asObject().get("order", "asc") : e.getValue().asString();
+                        comparator = comparator.thenComparing(fieldComparator(e.getKey(), "desc".equalsIgnoreCase(order)));
+                    }
+                } else {
+                    comparator = comparator.thenComparing(fieldComparator(clause.asString(), false));
+                }
+            }
+        }
+        return comparator.thenComparingLong(d -> d.seq);
+    }
+
+    private static Comparator<Doc> fieldComparator(String field, boolean descending) {
+        if("_score".equals(field) || "_doc".equals(field)) {
+            // all scores are the same and _doc is creation order
+            return (a, b) -> 0;
+        }
+        return (a, b) -> {
+            JsonElement left = sortValue(a, field, descending);
+            JsonElement right = sortValue(b, field, descending);
+            // missing values go last regardless of the order
+            if(left == null || right == null) {
+                return left == right ? 0 : left == null ? 1 : -1;
+            }
+            int c = compare(left, right);
+            return descending ? -c : c;
+        };
+    }
+
+    private static JsonElement sortValue(Doc doc, String field, boolean descending) {
+        JsonElement result = null;
+        for(JsonElement value: values(doc, field)) {
+            // like elasticsearch, sort multi valued fields on the smallest value ascending and the largest descending
+            if(result == null || (descending ? compare(value, result) > 0 : compare(value, result) < 0)) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    static List<String> strings(JsonElement e) {
+        List<String> strings = new ArrayList<>();
+        if(e == null || e.isNull()) {
+            return strings;
+        }
+        if(e.isArray()) {
+            for(JsonElement s: e.asArray()) {
+                strings.add(s.asString());
+            }
+        } else {
+            for(String s: e.asString().split(",")) {
+                strings.add(s.trim());
+            }
+        }
+        return strings;
+    }
+
+    private static List<JsonObject> objects(JsonElement e) {
+        List<JsonObject> objects = new ArrayList<>();
+        if(e == null || e.isNull()) {
+            return objects;
+        }
+        if(e.isArray()) {
+            for(JsonObject o: ((JsonArray) e).objects()) {
+                objects.add(o);
+            }
+        } else {
+            objects.add(e.asObject());
+        }
+        return objects;
+    }
+}
@@ -0,0 +1,418 @@
+package io.inbot.elasticsearch.fake;
+
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.object;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Timer.Context;
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.exceptions.JsonParseException;
+import com.github.jsonj.tools.JsonParser;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.inbot.elasticsearch.fake.FakeEsCluster.Reply;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In process stand in for elasticsearch that speaks the part of the 2.x REST API that this client uses: index
+ * management, aliases, document CRUD with internal and external versioning, _mget, _bulk, _search (paged and
+ * scan/scroll), _count and _refresh. Documents are kept in memory and are searchable right away. See
+ * {@link FakeEsQuery} for the supported queries; aggregations and percolation are rejected with a 400.
+ *
+ * Latency and failures can be injected at runtime, which makes it useful to benchmark the client and to test how it
+ * behaves when elasticsearch is slow or unavailable without having to run a real node.
+ *
+ * <pre>
+ * try(FakeEsServer es = FakeEsServer.start()) {
+ *     JsonJRestClient client = JsonJRestClient.simpleClient(es.url());
+ *     es.setLatency(1, 5);
+ *     es.failNext(3, 503);
+ * }
+ * </pre>
+ */
+public class FakeEsServer implements Closeable, MetricSet {
+    private static final Logger LOG = LoggerFactory.getLogger(FakeEsServer.class);
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final JsonParser parser = new JsonParser();
+    private final FakeEsCluster cluster = new FakeEsCluster(parser);
+    private final Timer requestTimer = new Timer();
+    private final Meter injectedFailureMeter = new Meter();
+
+    private volatile long minLatencyMillis = 0;
+    private volatile long maxLatencyMillis = 0;
+    private volatile double failureRate = 0;
+    private volatile int failureStatus = 503;
+    private final AtomicInteger failNextCount = new AtomicInteger();
+    private volatile int failNextStatus = 503;
+
+    private FakeEsServer(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return a server on a free port with 16 request threads
+     */
+    public static FakeEsServer start() {
+        return start(0, 16);
+    }
+
+    /**
+     * @param port
+     *            port to listen on, 0 picks a free port
+     * @param threads
+     *            number of threads that handle requests
+     * @return a running server; close it when done
+     */
+    public static FakeEsServer start(int port, int threads) {
+        Validate.isTrue(threads > 0, "threads should be positive");
+        if(System.getProperty(NODELAY_PROPERTY) == null) {
+            // headers and body go out as separate writes; without this, nagle and delayed acks add ~40ms per request
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            AtomicInteger threadCount = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "fake-es-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            return new FakeEsServer(server, executor);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot start fake es on port " + port + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return url to use as the endpoint of the client
+     */
+    public String url() {
+        return "http://localhost:" + port();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Delay every request by a random time between min and max.
+     *
+     * @param minMillis
+     *            minimum delay
+     * @param maxMillis
+     *            maximum delay
+     */
+    public void setLatency(long minMillis, long maxMillis) {
+        Validate.isTrue(minMillis >= 0 && maxMillis >= minMillis, "expected 0 <= minMillis <= maxMillis");
+        minLatencyMillis = minMillis;
+        maxLatencyMillis = maxMillis;
+    }
+
+    /**
+     * Fail a fraction of the requests.
+     *
+     * @param rate
+     *            fraction of requests to fail, between 0 and 1
+     * @param status
+     *            http status of the failures, e.g. 503 or 429; the client treats these as unavailable
+     */
+    public void setFailureRate(double rate, int status) {
+        Validate.isTrue(rate >= 0 && rate <= 1, "rate should be between 0 and 1");
+        failureStatus = status;
+        failureRate = rate;
+    }
+
+    /**
+     * Fail the next requests. Unlike {@link #setFailureRate(double, int)} this is deterministic.
+     *
+     * @param requests
+     *            number of requests to fail
+     * @param status
+     *            http status of the failures
+     */
+    public void failNext(int requests, int status) {
+        failNextStatus = status;
+        failNextCount.set(requests);
+    }
+
+    /**
+     * Drop all indices and aliases and stop injecting latency and failures.
+     */
+    public void reset() {
+        cluster.clear();
+        setLatency(0, 0);
+        setFailureRate(0, 503);
+        failNext(0, 503);
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<>();
+        metrics.put("fakees.requests", requestTimer);
+        metrics.put("fakees.injectedfailures", injectedFailureMeter);
+        metrics.put("fakees.openscrolls", (Gauge<Integer>) cluster::openScrolls);
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try(Context context = requestTimer.time()) {
+            String body = new String(ByteStreams.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8);
+            delay();
+            Reply reply;
+            int injected = injectedFailure();
+            if(injected > 0) {
+                injectedFailureMeter.mark();
+                reply = reply(new FakeEsException(injected, injected == 429 ? "es_rejected_execution_exception" : "unavailable_shards_exception",
+                        "injected failure"));
+            } else {
+                try {
+                    reply = route(exchange.getRequestMethod(), segments(exchange.getRequestURI().getRawPath()), params(exchange.getRequestURI()
+                            .getRawQuery()), body);
+                } catch (FakeEsException e) {
+                    reply = reply(e);
+                } catch (JsonParseException | NumberFormatException e) {
+                    reply = reply(new FakeEsException(400, "parse_exception", "Failed to parse request: " + e.getMessage()));
+                } catch (RuntimeException e) {
+                    LOG.error("fake es failed on " + exchange.getRequestMethod() + " " + exchange.getRequestURI(), e);
+                    reply = reply(new FakeEsException(500, "exception", String.valueOf(e.getMessage())));
+                }
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            reply.body.serialize(bytes);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            if("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(reply.status, -1);
+            } else {
+                exchange.sendResponseHeaders(reply.status, bytes.size());
+                try(OutputStream out = exchange.getResponseBody()) {
+                    bytes.writeTo(out);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Reply route(String method, List<String> path, Map<String, String> params, String body) {
+        boolean read = "GET".equals(method) || "POST".equals(method) || "HEAD".equals(method);
+        boolean write = "PUT".equals(method) || "POST".equals(method);
+        switch(path.size()) {
+        case 0:
+            return Reply.ok(object(field("name", "fake-es"), field("version", object(field("number", "2.1.1"))), field("tagline",
+                    "You Know, for Search")));
+        case 1:
+            switch(path.get(0)) {
+            case "_aliases":
+                return "GET".equals(method) ? cluster.aliases() : cluster.updateAliases(json(body));
+            case "_alias":
+                return cluster.aliases();
+            case "_search":
+                return cluster.search(null, null, params, jsonOrNull(body));
+            case "_count":
+                return cluster.count(null, null, jsonOrNull(body));
+            case "_refresh":
+                return cluster.refresh(null);
+            case "_bulk":
+                return cluster.bulk(null, null, body);
+            case "_mget":
+                return cluster.mget(null, null, params, json(body));
+            default:
+                String index = index(path.get(0));
+                if("PUT".equals(method) || "POST".equals(method)) {
+                    return cluster.createIndex(index, jsonOrNull(body));
+                } else if("DELETE".equals(method)) {
+                    return cluster.deleteIndex(index);
+                }
+                return cluster.indexInfo(index);
+            }
+        case 2:
+            if("_alias".equals(path.get(0))) {
+                return cluster.alias(path.get(1));
+            }
+            if("_search".equals(path.get(0)) && "scroll".equals(path.get(1))) {
+                return "DELETE".equals(method) ? cluster.clearScroll(body) : cluster.scroll(params, body);
+            }
+            String index = index(path.get(0));
+            switch(path.get(1)) {
+            case "_settings":
+                return cluster.settings(index);
+            case "_mapping":
+                return cluster.mapping(index, null);
+            default:
+                if(path.get(1).startsWith("_")) {
+                    return endpoint(method, index, null, path.get(1), params, body);
+                } else if(write) {
+                    // index with a generated id
+                    return cluster.index(index, path.get(1), null, params, json(body), false);
+                }
+                break;
+            }
+            break;
+        case 3:
+            index = index(path.get(0));
+            String type = path.get(1);
+            String id = path.get(2);
+            if(id.startsWith("_")) {
+                return endpoint(method, index, type, id, params, body);
+            }
+            if("DELETE".equals(method)) {
+                return cluster.delete(index, type, id, params);
+            } else if(write) {
+                return cluster.index(index, type, id, params, json(body), false);
+            } else if(read) {
+                return cluster.get(index, type, id, params);
+            }
+            break;
+        case 4:
+            if("_create".equals(path.get(3)) && write) {
+                return cluster.index(index(path.get(0)), path.get(1), path.get(2), params, json(body), true);
+            }
+            break;
+        default:
+            break;
+        }
+        throw FakeEsException.badRequest("unsupported by the stub: " + method + " /" + StringUtils.join(path, '/'));
+    }
+
+    /**
+     * Endpoints like _search that can be called on /index/_search and /index/type/_search.
+     */
+    private Reply endpoint(String method, String index, String type, String endpoint, Map<String, String> params, String body) {
+        switch(endpoint) {
+        case "_search":
+            return cluster.search(index, type, params, jsonOrNull(body));
+        case "_count":
+            return cluster.count(index, type, jsonOrNull(body));
+        case "_mget":
+            return cluster.mget(index, type, params, json(body));
+        case "_bulk":
+            return cluster.bulk(index, type, body);
+        case "_refresh":
+            return cluster.refresh(index);
+        case "_mapping":
+            return cluster.mapping(index, type);
+        default:
+            throw FakeEsException.badRequest("unsupported by the stub: " + method + " " + endpoint);
+        }
+    }
+
+    private static String index(String name) {
+        if(name.startsWith("_")) {
+            throw FakeEsException.badRequest("unsupported by the stub: " + name);
+        }
+        return name;
+    }
+
+    private JsonObject json(String body) {
+        JsonObject object = jsonOrNull(body);
+        if(object == null) {
+            throw FakeEsException.badRequest("request body is required");
+        }
+        return object;
+    }
+
+    private JsonObject jsonOrNull(String body) {
+        return StringUtils.isBlank(body) ? null : parser.parseObject(body);
+    }
+
+    private void delay() {
+        long min = minLatencyMillis;
+        long max = maxLatencyMillis;
+        if(max > 0) {
+            try {
+                Thread.sleep(min == max ? min : ThreadLocalRandom.current().nextLong(min, max + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the status of the injected failure or 0 if the request should be handled
+     */
+    private int injectedFailure() {
+        if(failNextCount.get() > 0 && failNextCount.getAndDecrement() > 0) {
+            return failNextStatus;
+        }
+        double rate = failureRate;
+        if(rate > 0 && ThreadLocalRandom.current().nextDouble() < rate) {
+            return failureStatus;
+        }
+        return 0;
+    }
+
+    private static Reply reply(FakeEsException e) {
+        return new Reply(e.status(), e.body());
+    }
+
+    private static List<String> segments(String rawPath) {
+        List<String> segments = new ArrayList<>();
+        for(String segment: rawPath.split("/")) {
+            if(!segment.isEmpty()) {
+                segments.add(decode(segment));
+            }
+        }
+        return segments;
+    }
+
+    private static Map<String, String> params(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if(rawQuery != null) {
+            for(String param: rawQuery.split("&")) {
+                int eq = param.indexOf('=');
+                if(eq < 0) {
+                    params.put(decode(param), "true");
+                } else {
+                    params.put(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
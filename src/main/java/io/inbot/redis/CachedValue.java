@@ -0,0 +1,51 @@
+package io.inbot.redis;
+
+import com.github.jsonj.JsonObject;
+
+/**
+ * Result of looking up a key in the {@link RedisCache}: the object, a miss, or a cached confirmation that the object
+ * does not exist.
+ */
+public final class CachedValue {
+    public static final CachedValue MISS = new CachedValue(null, false);
+    public static final CachedValue ABSENT = new CachedValue(null, true);
+
+    private final JsonObject value;
+    private final boolean absent;
+
+    private CachedValue(JsonObject value, boolean absent) {
+        this.value = value;
+        this.absent = absent;
+    }
+
+    public static CachedValue hit(JsonObject value) {
+        return new CachedValue(value, false);
+    }
+
+    public boolean isHit() {
+        return value != null;
+    }
+
+    public boolean isMiss() {
+        return value == null && !absent;
+    }
+
+    /**
+     * @return true if redis knows the object does not exist
+     */
+    public boolean isAbsent() {
+        return absent;
+    }
+
+    /**
+     * @return the object or null
+     */
+    public JsonObject value() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return isHit() ? "hit" : absent ? "absent" : "miss";
+    }
+}
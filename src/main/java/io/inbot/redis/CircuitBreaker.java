@@ -0,0 +1,108 @@
+package io.inbot.redis;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker that opens after a number of consecutive failures. While open, requests are rejected right away.
+ * After a while, a single probe request is allowed through (half open); the breaker closes if that succeeds and opens
+ * again if it fails.
+ */
+public class CircuitBreaker implements MetricSet {
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    // when the breaker opened or when the current probe was let through
+    private final AtomicLong since = new AtomicLong();
+    private final Meter rejectedMeter = new Meter();
+    private final Meter openedMeter = new Meter();
+
+    /**
+     * @param name
+     *            used in the log messages and metric names
+     * @param failureThreshold
+     *            number of consecutive failures that opens the breaker
+     * @param openMillis
+     *            how long the breaker stays open before it lets a probe through
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        Validate.isTrue(failureThreshold > 0, "failureThreshold should be positive");
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return true if the request may proceed; the caller must report the outcome with {@link #success()} or
+     *         {@link #failure()}
+     */
+    public boolean allowRequest() {
+        switch(state.get()) {
+        case CLOSED:
+            return true;
+        default:
+            long now = System.currentTimeMillis();
+            long last = since.get();
+            // let one probe through per open period; this also covers probes that never report back
+            if(now - last >= openMillis && since.compareAndSet(last, now)) {
+                state.set(State.HALF_OPEN);
+                return true;
+            }
+            rejectedMeter.mark();
+            return false;
+        }
+    }
+
+    public void success() {
+        // this is called a lot; avoid writes to shared state unless something changes
+        if(consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+        if(state.get() != State.CLOSED && state.getAndSet(State.CLOSED) != State.CLOSED) {
+            LOG.info("circuit breaker " + name + " closed");
+        }
+    }
+
+    public void failure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        State current = state.get();
+        if(current == State.HALF_OPEN || current == State.CLOSED && failures >= failureThreshold) {
+            since.set(System.currentTimeMillis());
+            if(state.compareAndSet(current, State.OPEN)) {
+                openedMeter.mark();
+                LOG.warn("circuit breaker " + name + " opened after " + failures + " consecutive failures");
+            }
+        }
+    }
+
+    public State state() {
+        return state.get();
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<>();
+        metrics.put(name + ".state", (Gauge<Integer>) () -> state.get().ordinal());
+        metrics.put(name + ".rejected", rejectedMeter);
+        metrics.put(name + ".opened", openedMeter);
+        return metrics;
+    }
+}
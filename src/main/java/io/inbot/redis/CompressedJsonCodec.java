@@ -0,0 +1,36 @@
+package io.inbot.redis;
+
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+import io.inbot.utils.CompressionUtils;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compressed json text. This is the default codec and uses the same keys as before codecs were introduced.
+ */
+public class CompressedJsonCodec implements RedisValueCodec {
+    private final JsonParser parser;
+
+    public CompressedJsonCodec(JsonParser parser) {
+        this.parser = parser;
+    }
+
+    @Override
+    public String name() {
+        return "";
+    }
+
+    @Override
+    public byte[] encode(JsonObject value) {
+        return CompressionUtils.compress(value.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public JsonObject decode(byte[] bytes) {
+        try {
+            return parser.parseObject(new String(CompressionUtils.decompress(bytes), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("invalid json returned from redis");
+        }
+    }
+}
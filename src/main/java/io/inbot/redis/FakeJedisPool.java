@@ -1,17 +1,67 @@
 package io.inbot.redis;
 
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 
+/**
+ * Pool of {@link FakeJedis} connections to one in memory redis. Use this for tests and to benchmark code that uses
+ * redis without running a redis server. Every pool has its own data, like a separate redis server would.
+ */
 public class FakeJedisPool extends JedisPool {
-    private final FakeJedis fakeJedis = new FakeJedis();
+
     public FakeJedisPool() {
-        super("localhost");
+        this(defaultConfig());
+    }
 
+    /**
+     * @param config
+     *            pool configuration; the maximum number of connections limits how many threads can use redis at the
+     *            same time
+     */
+    public FakeJedisPool(GenericObjectPoolConfig config) {
+        super(config, "localhost");
+        initPool(config, new FakeJedisFactory(new InMemoryRedis()));
     }
 
-    @Override
-    public Jedis getResource() {
-        return fakeJedis;
+    private static GenericObjectPoolConfig defaultConfig() {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMaxTotal(128);
+        config.setMaxIdle(128);
+        return config;
+    }
+
+    private static class FakeJedisFactory implements PooledObjectFactory<Jedis> {
+        private final InMemoryRedis redis;
+
+        FakeJedisFactory(InMemoryRedis redis) {
+            this.redis = redis;
+        }
+
+        @Override
+        public PooledObject<Jedis> makeObject() throws Exception {
+            return new DefaultPooledObject<>(new FakeJedis(redis));
+        }
+
+        @Override
+        public void destroyObject(PooledObject<Jedis> p) throws Exception {
+            p.getObject().disconnect();
+        }
+
+        @Override
+        public boolean validateObject(PooledObject<Jedis> p) {
+            return true;
+        }
+
+        @Override
+        public void activateObject(PooledObject<Jedis> p) throws Exception {
+        }
+
+        @Override
+        public void passivateObject(PooledObject<Jedis> p) throws Exception {
+        }
     }
 }
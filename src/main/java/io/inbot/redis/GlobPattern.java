@@ -0,0 +1,90 @@
+package io.inbot.redis;
+
+/**
+ * Glob style matching like the KEYS and SCAN MATCH commands of redis do it: *, ?, [abc], [^abc], [a-z] and \ to
+ * escape.
+ */
+final class GlobPattern {
+    private GlobPattern() {
+    }
+
+    static boolean matches(String pattern, String s) {
+        return matches(pattern, 0, s, 0);
+    }
+
+    private static boolean matches(String pattern, int p, String s, int i) {
+        while(p < pattern.length()) {
+            char c = pattern.charAt(p);
+            switch(c) {
+            case '*':
+                while(p + 1 < pattern.length() && pattern.charAt(p + 1) == '*') {
+                    p++;
+                }
+                if(p + 1 == pattern.length()) {
+                    return true;
+                }
+                for(int j = i; j <= s.length(); j++) {
+                    if(matches(pattern, p + 1, s, j)) {
+                        return true;
+                    }
+                }
+                return false;
+            case '?':
+                if(i == s.length()) {
+                    return false;
+                }
+                i++;
+                p++;
+                break;
+            case '[': {
+                if(i == s.length()) {
+                    return false;
+                }
+                int end = p + 1;
+                boolean negate = end < pattern.length() && pattern.charAt(end) == '^';
+                if(negate) {
+                    end++;
+                }
+                boolean match = false;
+                while(end < pattern.length() && pattern.charAt(end) != ']') {
+                    char from = pattern.charAt(end);
+                    if(from == '\\' && end + 1 < pattern.length()) {
+                        from = pattern.charAt(++end);
+                    }
+                    if(end + 2 < pattern.length() && pattern.charAt(end + 1) == '-' && pattern.charAt(end + 2) != ']') {
+                        char to = pattern.charAt(end + 2);
+                        char ch = s.charAt(i);
+                        if(from <= to ? ch >= from && ch <= to : ch >= to && ch <= from) {
+                            match = true;
+                        }
+                        end += 3;
+                    } else {
+                        if(from == s.charAt(i)) {
+                            match = true;
+                        }
+                        end++;
+                    }
+                }
+                if(match == negate) {
+                    return false;
+                }
+                i++;
+                p = end + 1;
+                break;
+            }
+            case '\\':
+                if(p + 1 < pattern.length()) {
+                    c = pattern.charAt(++p);
+                }
+                // fall through to match the escaped char literally
+            default:
+                if(i == s.length() || s.charAt(i) != c) {
+                    return false;
+                }
+                i++;
+                p++;
+            }
+        }
+        return i == s.length();
+    }
+}
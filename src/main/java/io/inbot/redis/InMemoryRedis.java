@@ -0,0 +1,1168 @@
+package io.inbot.redis;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * Redis command engine that keeps everything in memory. Commands are executed one at a time, like in redis, and take
+ * the arguments and return the replies in the same form as the redis protocol: status replies and bulk strings as
+ * byte[], integers as Long, multi bulk replies as List&lt;Object&gt; and errors as a thrown {@link JedisDataException}.
+ *
+ * Supports strings, hashes, lists and sorted sets with expiration, the key space commands that are needed to manage
+ * those, and a subset of EVAL: scripts that consist of redis.call and redis.pcall statements with literal, KEYS and
+ * ARGV arguments. Anything else fails with an unknown command error. There is only one database.
+ */
+class InMemoryRedis {
+    private static final byte[] OK = bytes("OK");
+    private static final byte[] PONG = bytes("PONG");
+    private static final String WRONGTYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+    private static final String NOT_AN_INTEGER = "ERR value is not an integer or out of range";
+
+    private final Map<String, Value> data = new HashMap<>();
+    // keys with a ttl in order of expiration; entries for keys that changed ttl since are skipped when they come up
+    private final PriorityQueue<Expiration> expirations = new PriorityQueue<>();
+    private final Map<String, Script> scripts = new HashMap<>();
+
+    /**
+     * @param command
+     *            command
+     * @param args
+     *            arguments as sent by jedis
+     * @return the reply
+     * @throws JedisDataException
+     *             if redis would reply with an error
+     */
+    synchronized Object execute(Command command, byte[]... args) {
+        expire(System.currentTimeMillis());
+        return dispatch(command, args);
+    }
+
+    /**
+     * Execute the commands of a transaction without other commands running in between.
+     *
+     * @param commands
+     *            queued commands
+     * @return replies; failed commands have a {@link JedisDataException} as their reply
+     */
+    synchronized List<Object> executeAll(List<QueuedCommand> commands) {
+        expire(System.currentTimeMillis());
+        List<Object> replies = new ArrayList<>(commands.size());
+        for(QueuedCommand queued: commands) {
+            try {
+                replies.add(dispatch(queued.command, queued.args));
+            } catch (JedisDataException e) {
+                replies.add(e);
+            }
+        }
+        return replies;
+    }
+
+    static class QueuedCommand {
+        final Command command;
+        final byte[][] args;
+
+        QueuedCommand(Command command, byte[][] args) {
+            this.command = command;
+            this.args = args;
+        }
+    }
+
+    private Object dispatch(Command command, byte[][] args) {
+        switch(command) {
+        // connection and server
+        case PING:
+            return args.length == 0 ? PONG : args[0];
+        case ECHO:
+            arity(command, args, 1);
+            return args[0];
+        case AUTH:
+        case QUIT:
+            return OK;
+        case SELECT:
+            arity(command, args, 1);
+            if(integer(args[0]) != 0) {
+                throw new JedisDataException("ERR only database 0 is supported");
+            }
+            return OK;
+        case FLUSHDB:
+        case FLUSHALL:
+            data.clear();
+            expirations.clear();
+            return OK;
+        case DBSIZE:
+            return (long) data.size();
+        case TIME: {
+            long micros = System.currentTimeMillis() * 1000;
+            return list(bytes(Long.toString(micros / 1000000)), bytes(Long.toString(micros % 1000000)));
+        }
+        // keys
+        case DEL: {
+            long removed = 0;
+            for(byte[] key: args) {
+                if(lookup(key) != null) {
+                    data.remove(key(key));
+                    removed++;
+                }
+            }
+            return removed;
+        }
+        case EXISTS: {
+            long found = 0;
+            for(byte[] key: args) {
+                if(lookup(key) != null) {
+                    found++;
+                }
+            }
+            return found;
+        }
+        case TYPE: {
+            arity(command, args, 1);
+            Value value = lookup(args[0]);
+            return bytes(value == null ? "none" : value.type());
+        }
+        case EXPIRE:
+            arity(command, args, 2);
+            return expireAt(args[0], System.currentTimeMillis() + integer(args[1]) * 1000);
+        case PEXPIRE:
+            arity(command, args, 2);
+            return expireAt(args[0], System.currentTimeMillis() + integer(args[1]));
+        case EXPIREAT:
+            arity(command, args, 2);
+            return expireAt(args[0], integer(args[1]) * 1000);
+        case PEXPIREAT:
+            arity(command, args, 2);
+            return expireAt(args[0], integer(args[1]));
+        case TTL:
+        case PTTL: {
+            arity(command, args, 1);
+            Value value = lookup(args[0]);
+            if(value == null) {
+                return -2L;
+            }
+            if(value.expiresAt == 0) {
+                return -1L;
+            }
+            long millis = value.expiresAt - System.currentTimeMillis();
+            return command == Command.TTL ? (millis + 500) / 1000 : millis;
+        }
+        case PERSIST: {
+            arity(command, args, 1);
+            Value value = lookup(args[0]);
+            if(value == null || value.expiresAt == 0) {
+                return 0L;
+            }
+            value.expiresAt = 0;
+            return 1L;
+        }
+        case KEYS: {
+            arity(command, args, 1);
+            String pattern = key(args[0]);
+            List<Object> keys = new ArrayList<>();
+            for(String key: data.keySet()) {
+                if(GlobPattern.matches(pattern, key)) {
+                    keys.add(key.getBytes(StandardCharsets.ISO_8859_1));
+                }
+            }
+            return keys;
+        }
+        case SCAN:
+            return scan(args);
+        // strings
+        case GET:
+            arity(command, args, 1);
+            return string(args[0]);
+        case SET:
+            return set(args);
+        case SETEX:
+        case PSETEX: {
+            arity(command, args, 3);
+            long ttl = integer(args[1]);
+            if(ttl <= 0) {
+                throw new JedisDataException("ERR invalid expire time in " + command.name().toLowerCase(Locale.ROOT));
+            }
+            put(args[0], args[2], System.currentTimeMillis() + (command == Command.SETEX ? ttl * 1000 : ttl));
+            return OK;
+        }
+        case SETNX:
+            arity(command, args, 2);
+            if(lookup(args[0]) != null) {
+                return 0L;
+            }
+            put(args[0], args[1], 0);
+            return 1L;
+        case GETSET: {
+            arity(command, args, 2);
+            byte[] old = string(args[0]);
+            put(args[0], args[1], 0);
+            return old;
+        }
+        case MGET: {
+            List<Object> values = new ArrayList<>(args.length);
+            for(byte[] key: args) {
+                Value value = lookup(key);
+                values.add(value != null && value.data instanceof byte[] ? value.data : null);
+            }
+            return values;
+        }
+        case MSET:
+        case MSETNX: {
+            if(args.length == 0 || args.length % 2 != 0) {
+                throw wrongArity(command);
+            }
+            if(command == Command.MSETNX) {
+                for(int i = 0; i < args.length; i += 2) {
+                    if(lookup(args[i]) != null) {
+                        return 0L;
+                    }
+                }
+            }
+            for(int i = 0; i < args.length; i += 2) {
+                put(args[i], args[i + 1], 0);
+            }
+            return command == Command.MSET ? OK : 1L;
+        }
+        case INCR:
+            arity(command, args, 1);
+            return incrBy(args[0], 1);
+        case DECR:
+            arity(command, args, 1);
+            return incrBy(args[0], -1);
+        case INCRBY:
+            arity(command, args, 2);
+            return incrBy(args[0], integer(args[1]));
+        case DECRBY:
+            arity(command, args, 2);
+            return incrBy(args[0], -integer(args[1]));
+        case INCRBYFLOAT: {
+            arity(command, args, 2);
+            byte[] current = string(args[0]);
+            double value = (current == null ? 0 : decimal(current, "ERR value is not a valid float")) + decimal(args[1], "ERR value is not a valid float");
+            byte[] result = bytes(formatDouble(value));
+            keepTtlPut(args[0], result);
+            return result;
+        }
+        case APPEND: {
+            arity(command, args, 2);
+            byte[] current = string(args[0]);
+            byte[] result = args[1];
+            if(current != null) {
+                result = new byte[current.length + args[1].length];
+                System.arraycopy(current, 0, result, 0, current.length);
+                System.arraycopy(args[1], 0, result, current.length, args[1].length);
+            }
+            keepTtlPut(args[0], result);
+            return (long) result.length;
+        }
+        case STRLEN: {
+            arity(command, args, 1);
+            byte[] current = string(args[0]);
+            return current == null ? 0L : (long) current.length;
+        }
+        // hashes
+        case HSET:
+        case HSETNX: {
+            arity(command, args, 3);
+            Map<String, byte[]> hash = hash(args[0], true);
+            String field = key(args[1]);
+            if(command == Command.HSETNX && hash.containsKey(field)) {
+                return 0L;
+            }
+            return hash.put(field, args[2]) == null ? 1L : 0L;
+        }
+        case HMSET: {
+            if(args.length < 3 || args.length % 2 != 1) {
+                throw wrongArity(command);
+            }
+            Map<String, byte[]> hash = hash(args[0], true);
+            for(int i = 1; i < args.length; i += 2) {
+                hash.put(key(args[i]), args[i + 1]);
+            }
+            return OK;
+        }
+        case HGET: {
+            arity(command, args, 2);
+            Map<String, byte[]> hash = hash(args[0], false);
+            return hash == null ? null : hash.get(key(args[1]));
+        }
+        case HMGET: {
+            Map<String, byte[]> hash = hash(args[0], false);
+            List<Object> values = new ArrayList<>();
+            for(int i = 1; i < args.length; i++) {
+                values.add(hash == null ? null : hash.get(key(args[i])));
+            }
+            return values;
+        }
+        case HDEL: {
+            Map<String, byte[]> hash = hash(args[0], false);
+            long removed = 0;
+            for(int i = 1; hash != null && i < args.length; i++) {
+                if(hash.remove(key(args[i])) != null) {
+                    removed++;
+                }
+            }
+            removeIfEmpty(args[0], hash);
+            return removed;
+        }
+        case HEXISTS: {
+            arity(command, args, 2);
+            Map<String, byte[]> hash = hash(args[0], false);
+            return hash != null && hash.containsKey(key(args[1])) ? 1L : 0L;
+        }
+        case HLEN: {
+            arity(command, args, 1);
+            Map<String, byte[]> hash = hash(args[0], false);
+            return hash == null ? 0L : (long) hash.size();
+        }
+        case HINCRBY: {
+            arity(command, args, 3);
+            Map<String, byte[]> hash = hash(args[0], true);
+            byte[] current = hash.get(key(args[1]));
+            long value = (current == null ? 0 : integer(current, "ERR hash value is not an integer")) + integer(args[2]);
+            hash.put(key(args[1]), bytes(Long.toString(value)));
+            return value;
+        }
+        case HKEYS:
+        case HVALS:
+        case HGETALL: {
+            arity(command, args, 1);
+            Map<String, byte[]> hash = hash(args[0], false);
+            List<Object> reply = new ArrayList<>();
+            if(hash != null) {
+                for(Entry<String, byte[]> entry: hash.entrySet()) {
+                    if(command != Command.HVALS) {
+                        reply.add(entry.getKey().getBytes(StandardCharsets.ISO_8859_1));
+                    }
+                    if(command != Command.HKEYS) {
+                        reply.add(entry.getValue());
+                    }
+                }
+            }
+            return reply;
+        }
+        // lists
+        case LPUSH:
+        case RPUSH:
+        case LPUSHX:
+        case RPUSHX: {
+            if(args.length < 2) {
+                throw wrongArity(command);
+            }
+            boolean onlyIfExists = command == Command.LPUSHX || command == Command.RPUSHX;
+            List<byte[]> list = list(args[0], !onlyIfExists);
+            if(list == null) {
+                return 0L;
+            }
+            boolean left = command == Command.LPUSH || command == Command.LPUSHX;
+            for(int i = 1; i < args.length; i++) {
+                if(left) {
+                    list.add(0, args[i]);
+                } else {
+                    list.add(args[i]);
+                }
+            }
+            return (long) list.size();
+        }
+        case LPOP:
+        case RPOP: {
+            arity(command, args, 1);
+            List<byte[]> list = list(args[0], false);
+            if(list == null) {
+                return null;
+            }
+            byte[] popped = list.remove(command == Command.LPOP ? 0 : list.size() - 1);
+            removeIfEmpty(args[0], list);
+            return popped;
+        }
+        case LLEN: {
+            arity(command, args, 1);
+            List<byte[]> list = list(args[0], false);
+            return list == null ? 0L : (long) list.size();
+        }
+        case LRANGE: {
+            arity(command, args, 3);
+            List<byte[]> list = list(args[0], false);
+            List<Object> reply = new ArrayList<>();
+            if(list != null) {
+                int[] range = range(list.size(), integer(args[1]), integer(args[2]));
+                for(int i = range[0]; i <= range[1]; i++) {
+                    reply.add(list.get(i));
+                }
+            }
+            return reply;
+        }
+        case LTRIM: {
+            arity(command, args, 3);
+            List<byte[]> list = list(args[0], false);
+            if(list != null) {
+                int[] range = range(list.size(), integer(args[1]), integer(args[2]));
+                if(range[0] > range[1]) {
+                    list.clear();
+                } else {
+                    list.subList(range[1] + 1, list.size()).clear();
+                    list.subList(0, range[0]).clear();
+                }
+                removeIfEmpty(args[0], list);
+            }
+            return OK;
+        }
+        case LINDEX: {
+            arity(command, args, 2);
+            List<byte[]> list = list(args[0], false);
+            if(list == null) {
+                return null;
+            }
+            long index = integer(args[1]);
+            if(index < 0) {
+                index += list.size();
+            }
+            return index < 0 || index >= list.size() ? null : list.get((int) index);
+        }
+        case LSET: {
+            arity(command, args, 3);
+            List<byte[]> list = list(args[0], false);
+            if(list == null) {
+                throw new JedisDataException("ERR no such key");
+            }
+            long index = integer(args[1]);
+            if(index < 0) {
+                index += list.size();
+            }
+            if(index < 0 || index >= list.size()) {
+                throw new JedisDataException("ERR index out of range");
+            }
+            list.set((int) index, args[2]);
+            return OK;
+        }
+        case LREM: {
+            arity(command, args, 3);
+            List<byte[]> list = list(args[0], false);
+            if(list == null) {
+                return 0L;
+            }
+            long count = integer(args[1]);
+            long removed = 0;
+            if(count >= 0) {
+                for(Iterator<byte[]> it = list.iterator(); it.hasNext() && (count == 0 || removed < count);) {
+                    if(Arrays.equals(it.next(), args[2])) {
+                        it.remove();
+                        removed++;
+                    }
+                }
+            } else {
+                for(int i = list.size() - 1; i >= 0 && removed < -count; i--) {
+                    if(Arrays.equals(list.get(i), args[2])) {
+                        list.remove(i);
+                        removed++;
+                    }
+                }
+            }
+            removeIfEmpty(args[0], list);
+            return removed;
+        }
+        // sorted sets
+        case ZADD:
+            return zadd(args);
+        case ZINCRBY: {
+            arity(command, args, 3);
+            SortedSet zset = zset(args[0], true);
+            double score = zset.add(key(args[2]), decimal(args[1], "ERR value is not a valid float"), true);
+            return bytes(formatDouble(score));
+        }
+        case ZREM: {
+            SortedSet zset = zset(args[0], false);
+            long removed = 0;
+            for(int i = 1; zset != null && i < args.length; i++) {
+                if(zset.remove(key(args[i]))) {
+                    removed++;
+                }
+            }
+            removeIfEmpty(args[0], zset);
+            return removed;
+        }
+        case ZCARD: {
+            arity(command, args, 1);
+            SortedSet zset = zset(args[0], false);
+            return zset == null ? 0L : (long) zset.size();
+        }
+        case ZSCORE: {
+            arity(command, args, 2);
+            SortedSet zset = zset(args[0], false);
+            Double score = zset == null ? null : zset.scores.get(key(args[1]));
+            return score == null ? null : bytes(formatDouble(score));
+        }
+        case ZRANK:
+        case ZREVRANK: {
+            arity(command, args, 2);
+            SortedSet zset = zset(args[0], false);
+            if(zset == null || !zset.scores.containsKey(key(args[1]))) {
+                return null;
+            }
+            long rank = zset.rank(key(args[1]));
+            return command == Command.ZRANK ? rank : zset.size() - 1 - rank;
+        }
+        case ZCOUNT: {
+            arity(command, args, 3);
+            SortedSet zset = zset(args[0], false);
+            return zset == null ? 0L : (long) zset.byScore(ScoreBound.parse(args[1]), ScoreBound.parse(args[2])).size();
+        }
+        case ZRANGE:
+        case ZREVRANGE: {
+            if(args.length != 3 && args.length != 4) {
+                throw wrongArity(command);
+            }
+            boolean withScores = args.length == 4 && keyword(args[3], "WITHSCORES");
+            SortedSet zset = zset(args[0], false);
+            if(zset == null) {
+                return new ArrayList<>();
+            }
+            List<Member> members = zset.ordered();
+            if(command == Command.ZREVRANGE) {
+                Collections.reverse(members);
+            }
+            int[] range = range(members.size(), integer(args[1]), integer(args[2]));
+            return reply(members.subList(range[0], range[1] + 1), withScores);
+        }
+        case ZRANGEBYSCORE:
+        case ZREVRANGEBYSCORE: {
+            if(args.length < 3) {
+                throw wrongArity(command);
+            }
+            boolean reverse = command == Command.ZREVRANGEBYSCORE;
+            // the reverse variant takes max before min
+            ScoreBound min = ScoreBound.parse(args[reverse ? 2 : 1]);
+            ScoreBound max = ScoreBound.parse(args[reverse ? 1 : 2]);
+            boolean withScores = false;
+            long offset = 0;
+            long count = -1;
+            for(int i = 3; i < args.length; i++) {
+                if(keyword(args[i], "WITHSCORES")) {
+                    withScores = true;
+                } else if(keyword(args[i], "LIMIT") && i + 2 < args.length) {
+                    offset = integer(args[++i]);
+                    count = integer(args[++i]);
+                } else {
+                    throw new JedisDataException("ERR syntax error");
+                }
+            }
+            SortedSet zset = zset(args[0], false);
+            if(zset == null) {
+                return new ArrayList<>();
+            }
+            List<Member> members = zset.byScore(min, max);
+            if(reverse) {
+                Collections.reverse(members);
+            }
+            if(offset < 0 || offset >= members.size()) {
+                return new ArrayList<>();
+            }
+            long end = count < 0 ? members.size() : Math.min(members.size(), offset + count);
+            return reply(members.subList((int) offset, (int) end), withScores);
+        }
+        case ZREMRANGEBYRANK: {
+            arity(command, args, 3);
+            SortedSet zset = zset(args[0], false);
+            if(zset == null) {
+                return 0L;
+            }
+            List<Member> members = zset.ordered();
+            int[] range = range(members.size(), integer(args[1]), integer(args[2]));
+            return removeAll(args[0], zset, members.subList(range[0], range[1] + 1));
+        }
+        case ZREMRANGEBYSCORE: {
+            arity(command, args, 3);
+            SortedSet zset = zset(args[0], false);
+            if(zset == null) {
+                return 0L;
+            }
+            return removeAll(args[0], zset, zset.byScore(ScoreBound.parse(args[1]), ScoreBound.parse(args[2])));
+        }
+        // scripting
+        case EVAL:
+            if(args.length < 2) {
+                throw wrongArity(command);
+            }
+            return eval(script(new String(args[0], StandardCharsets.UTF_8)), args);
+        case EVALSHA: {
+            if(args.length < 2) {
+                throw wrongArity(command);
+            }
+            Script script = scripts.get(new String(args[0], StandardCharsets.UTF_8).toLowerCase(Locale.ROOT));
+            if(script == null) {
+                throw new JedisDataException("NOSCRIPT No matching script. Please use EVAL.");
+            }
+            return eval(script, args);
+        }
+        case SCRIPT:
+            return scriptCommand(args);
+        default:
+            throw new JedisDataException("ERR unknown command '" + command.name() + "'");
+        }
+    }
+
+    private Object set(byte[][] args) {
+        if(args.length < 2) {
+            throw wrongArity(Command.SET);
+        }
+        long expiresAt = 0;
+        boolean nx = false;
+        boolean xx = false;
+        for(int i = 2; i < args.length; i++) {
+            if(keyword(args[i], "NX")) {
+                nx = true;
+            } else if(keyword(args[i], "XX")) {
+                xx = true;
+            } else if((keyword(args[i], "EX") || keyword(args[i], "PX")) && i + 1 < args.length) {
+                long ttl = integer(args[i + 1]);
+                if(ttl <= 0) {
+                    throw new JedisDataException("ERR invalid expire time in set");
+                }
+                expiresAt = System.currentTimeMillis() + (keyword(args[i], "EX") ? ttl * 1000 : ttl);
+                i++;
+            } else {
+                throw new JedisDataException("ERR syntax error");
+            }
+        }
+        boolean exists = lookup(args[0]) != null;
+        if(nx && exists || xx && !exists) {
+            return null;
+        }
+        put(args[0], args[1], expiresAt);
+        return OK;
+    }
+
+    private Object zadd(byte[][] args) {
+        if(args.length < 3) {
+            throw wrongArity(Command.ZADD);
+        }
+        boolean nx = false;
+        boolean xx = false;
+        boolean ch = false;
+        boolean incr = false;
+        int i = 1;
+        for(; i < args.length; i++) {
+            if(keyword(args[i], "NX")) {
+                nx = true;
+            } else if(keyword(args[i], "XX")) {
+                xx = true;
+            } else if(keyword(args[i], "CH")) {
+                ch = true;
+            } else if(keyword(args[i], "INCR")) {
+                incr = true;
+            } else {
+                break;
+            }
+        }
+        if((args.length - i) % 2 != 0 || i == args.length || incr && args.length - i != 2) {
+            throw new JedisDataException("ERR syntax error");
+        }
+        // validate all scores before changing anything
+        double[] scores = new double[(args.length - i) / 2];
+        for(int j = 0; j < scores.length; j++) {
+            scores[j] = decimal(args[i + 2 * j], "ERR value is not a valid float");
+        }
+        SortedSet zset = zset(args[0], !xx);
+        if(zset == null) {
+            return incr ? null : 0L;
+        }
+        long added = 0;
+        long changed = 0;
+        Double result = null;
+        for(int j = 0; j < scores.length; j++) {
+            String member = key(args[i + 2 * j + 1]);
+            Double current = zset.scores.get(member);
+            if(current == null && xx || current != null && nx) {
+                continue;
+            }
+            result = zset.add(member, scores[j], incr);
+            if(current == null) {
+                added++;
+            } else if(current.doubleValue() != result) {
+                changed++;
+            }
+        }
+        removeIfEmpty(args[0], zset);
+        if(incr) {
+            return result == null ? null : bytes(formatDouble(result));
+        }
+        return ch ? added + changed : added;
+    }
+
+    private Object scan(byte[][] args) {
+        if(args.length < 1) {
+            throw wrongArity(Command.SCAN);
+        }
+        // the cursor is a position on the range of hash codes, so keys that exist during the whole scan are returned
+        // at least once no matter what happens to the other keys
+        long cursor = integer(args[0]);
+        String pattern = null;
+        long count = 10;
+        for(int i = 1; i < args.length; i++) {
+            if(keyword(args[i], "MATCH") && i + 1 < args.length) {
+                pattern = key(args[++i]);
+            } else if(keyword(args[i], "COUNT") && i + 1 < args.length) {
+                count = integer(args[++i]);
+            } else {
+                throw new JedisDataException("ERR syntax error");
+            }
+        }
+        // keep the count smallest positions at or after the cursor
+        PriorityQueue<Long> positions = new PriorityQueue<>(Collections.reverseOrder());
+        for(String key: data.keySet()) {
+            long position = position(key);
+            if(position >= cursor && !positions.contains(position)) {
+                positions.add(position);
+                if(positions.size() > count) {
+                    positions.poll();
+                }
+            }
+        }
+        long last = positions.isEmpty() ? -1 : positions.peek();
+        List<Object> keys = new ArrayList<>();
+        boolean more = false;
+        for(String key: data.keySet()) {
+            long position = position(key);
+            if(position >= cursor && position <= last) {
+                if(pattern == null || GlobPattern.matches(pattern, key)) {
+                    keys.add(key.getBytes(StandardCharsets.ISO_8859_1));
+                }
+            } else if(position > last) {
+                more = true;
+            }
+        }
+        return list(bytes(more ? Long.toString(last + 1) : "0"), keys);
+    }
+
+    private static long position(String key) {
+        // 0 is the start and end of a scan so positions start at 1
+        return (key.hashCode() & 0xffffffffL) + 1;
+    }
+
+    private Object scriptCommand(byte[][] args) {
+        if(args.length < 1) {
+            throw wrongArity(Command.SCRIPT);
+        }
+        if(keyword(args[0], "LOAD") && args.length == 2) {
+            Script script = script(new String(args[1], StandardCharsets.UTF_8));
+            return bytes(script.sha);
+        } else if(keyword(args[0], "EXISTS")) {
+            List<Object> exists = new ArrayList<>();
+            for(int i = 1; i < args.length; i++) {
+                exists.add(scripts.containsKey(new String(args[i], StandardCharsets.UTF_8).toLowerCase(Locale.ROOT)) ? 1L : 0L);
+            }
+            return exists;
+        } else if(keyword(args[0], "FLUSH")) {
+            scripts.clear();
+            return OK;
+        }
+        throw new JedisDataException("ERR unknown SCRIPT subcommand");
+    }
+
+    private Script script(String source) {
+        String sha = Hashing.sha1().hashString(source, StandardCharsets.UTF_8).toString();
+        Script script = scripts.get(sha);
+        if(script == null) {
+            script = Script.parse(sha, source);
+            scripts.put(sha, script);
+        }
+        return script;
+    }
+
+    private Object eval(Script script, byte[][] args) {
+        long numKeys = integer(args[1]);
+        if(numKeys < 0 || numKeys > args.length - 2) {
+            throw new JedisDataException("ERR Number of keys can't be greater than number of args");
+        }
+        byte[][] keys = Arrays.copyOfRange(args, 2, 2 + (int) numKeys);
+        byte[][] argv = Arrays.copyOfRange(args, 2 + (int) numKeys, args.length);
+        Object result = null;
+        for(Script.Call call: script.calls) {
+            byte[][] callArgs = call.args(keys, argv);
+            Object reply;
+            try {
+                reply = dispatch(call.command, callArgs);
+            } catch (JedisDataException e) {
+                if(!call.protectedCall) {
+                    throw new JedisDataException("ERR Error running script (call to f_" + script.sha + "): " + e.getMessage());
+                }
+                reply = e;
+            }
+            if(call.returns) {
+                result = reply;
+                break;
+            }
+        }
+        if(result instanceof JedisDataException) {
+            throw (JedisDataException) result;
+        }
+        return result;
+    }
+
+    private Long expireAt(byte[] key, long expiresAt) {
+        Value value = lookup(key);
+        if(value == null) {
+            return 0L;
+        }
+        if(expiresAt <= System.currentTimeMillis()) {
+            data.remove(key(key));
+        } else {
+            value.expiresAt = expiresAt;
+            expirations.add(new Expiration(key(key), expiresAt));
+        }
+        return 1L;
+    }
+
+    private Long incrBy(byte[] key, long delta) {
+        byte[] current = string(key);
+        long value = current == null ? 0 : integer(current);
+        if(delta > 0 && value > Long.MAX_VALUE - delta || delta < 0 && value < Long.MIN_VALUE - delta) {
+            throw new JedisDataException("ERR increment or decrement would overflow");
+        }
+        keepTtlPut(key, bytes(Long.toString(value + delta)));
+        return value + delta;
+    }
+
+    private void put(byte[] key, Object value, long expiresAt) {
+        data.put(key(key), new Value(value, expiresAt));
+        if(expiresAt != 0) {
+            expirations.add(new Expiration(key(key), expiresAt));
+        }
+    }
+
+    private void keepTtlPut(byte[] key, byte[] value) {
+        Value existing = lookup(key);
+        if(existing != null) {
+            existing.data = value;
+        } else {
+            put(key, value, 0);
+        }
+    }
+
+    private void removeIfEmpty(byte[] key, Object container) {
+        if(container instanceof Map && ((Map<?, ?>) container).isEmpty() || container instanceof List && ((List<?>) container).isEmpty()
+                || container instanceof SortedSet && ((SortedSet) container).size() == 0) {
+            data.remove(key(key));
+        }
+    }
+
+    private long removeAll(byte[] key, SortedSet zset, List<Member> members) {
+        for(Member member: new ArrayList<>(members)) {
+            zset.remove(member.name);
+        }
+        removeIfEmpty(key, zset);
+        return members.size();
+    }
+
+    private Value lookup(byte[] key) {
+        String k = key(key);
+        Value value = data.get(k);
+        if(value != null && value.expiresAt != 0 && value.expiresAt <= System.currentTimeMillis()) {
+            data.remove(k);
+            return null;
+        }
+        return value;
+    }
+
+    private byte[] string(byte[] key) {
+        Value value = lookup(key);
+        if(value == null) {
+            return null;
+        }
+        if(!(value.data instanceof byte[])) {
+            throw new JedisDataException(WRONGTYPE);
+        }
+        return (byte[]) value.data;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, byte[]> hash(byte[] key, boolean create) {
+        return (Map<String, byte[]>) container(key, Map.class, create ? LinkedHashMap::new : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<byte[]> list(byte[] key, boolean create) {
+        return (List<byte[]>) container(key, List.class, create ? ArrayList::new : null);
+    }
+
+    private SortedSet zset(byte[] key, boolean create) {
+        return (SortedSet) container(key, SortedSet.class, create ? SortedSet::new : null);
+    }
+
+    private Object container(byte[] key, Class<?> type, Supplier<Object> factory) {
+        Value value = lookup(key);
+        if(value == null) {
+            if(factory == null) {
+                return null;
+            }
+            Object container = factory.get();
+            put(key, container, 0);
+            return container;
+        }
+        if(!type.isInstance(value.data)) {
+            throw new JedisDataException(WRONGTYPE);
+        }
+        return value.data;
+    }
+
+    private void expire(long now) {
+        Expiration next;
+        while((next = expirations.peek()) != null && next.expiresAt <= now) {
+            expirations.poll();
+            Value value = data.get(next.key);
+            if(value != null && value.expiresAt == next.expiresAt) {
+                data.remove(next.key);
+            }
+        }
+    }
+
+    private static List<Object> reply(List<Member> members, boolean withScores) {
+        List<Object> reply = new ArrayList<>();
+        for(Member member: members) {
+            reply.add(member.name.getBytes(StandardCharsets.ISO_8859_1));
+            if(withScores) {
+                reply.add(bytes(formatDouble(member.score)));
+            }
+        }
+        return reply;
+    }
+
+    /**
+     * @return inclusive start and end index like redis interprets them; start is larger than end if the range is empty
+     */
+    private static int[] range(int size, long start, long stop) {
+        if(start < 0) {
+            start += size;
+        }
+        if(stop < 0) {
+            stop += size;
+        }
+        if(start < 0) {
+            start = 0;
+        }
+        if(stop >= size) {
+            stop = size - 1;
+        }
+        if(start > stop) {
+            return new int[] { 0, -1 };
+        }
+        return new int[] { (int) start, (int) stop };
+    }
+
+    private static void arity(Command command, byte[][] args, int expected) {
+        if(args.length != expected) {
+            throw wrongArity(command);
+        }
+    }
+
+    private static JedisDataException wrongArity(Command command) {
+        return new JedisDataException("ERR wrong number of arguments for '" + command.name().toLowerCase(Locale.ROOT) + "' command");
+    }
+
+    private static boolean keyword(byte[] arg, String keyword) {
+        return keyword.equalsIgnoreCase(new String(arg, StandardCharsets.UTF_8));
+    }
+
+    private static long integer(byte[] arg) {
+        return integer(arg, NOT_AN_INTEGER);
+    }
+
+    private static long integer(byte[] arg, String error) {
+        try {
+            return Long.parseLong(new String(arg, StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            throw new JedisDataException(error);
+        }
+    }
+
+    private static double decimal(byte[] arg, String error) {
+        String value = new String(arg, StandardCharsets.UTF_8);
+        switch(value.toLowerCase(Locale.ROOT)) {
+        case "inf":
+        case "+inf":
+        case "infinity":
+        case "+infinity":
+            return Double.POSITIVE_INFINITY;
+        case "-inf":
+        case "-infinity":
+            return Double.NEGATIVE_INFINITY;
+        default:
+            try {
+                double d = Double.parseDouble(value);
+                if(Double.isNaN(d)) {
+                    throw new JedisDataException(error);
+                }
+                return d;
+            } catch (NumberFormatException e) {
+                throw new JedisDataException(error);
+            }
+        }
+    }
+
+    private static String formatDouble(double value) {
+        if(Double.isInfinite(value)) {
+            return value > 0 ? "inf" : "-inf";
+        }
+        if(value == Math.rint(value) && Math.abs(value) < 1e17) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static List<Object> list(Object... elements) {
+        List<Object> list = new ArrayList<>(elements.length);
+        Collections.addAll(list, elements);
+        return list;
+    }
+
+    /**
+     * Keys, hash fields and sorted set members are kept as strings with one char per byte so they can be used as map
+     * keys and still sort like the bytes do.
+     */
+    private static String key(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Value {
+        Object data;
+        long expiresAt;
+
+        Value(Object data, long expiresAt) {
+            this.data = data;
+            this.expiresAt = expiresAt;
+        }
+
+        String type() {
+            if(data instanceof byte[]) {
+                return "string";
+            } else if(data instanceof Map) {
+                return "hash";
+            } else if(data instanceof List) {
+                return "list";
+            } else {
+                return "zset";
+            }
+        }
+    }
+
+    private static class Expiration implements Comparable<Expiration> {
+        final String key;
+        final long expiresAt;
+
+        Expiration(String key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public int compareTo(Expiration o) {
+            return Long.compare(expiresAt, o.expiresAt);
+        }
+    }
+
+    private static class Member implements Comparable<Member> {
+        final String name;
+        final double score;
+
+        Member(String name, double score) {
+            this.name = name;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Member o) {
+            int cmp = Double.compare(score, o.score);
+            return cmp != 0 ? cmp : name.compareTo(o.name);
+        }
+    }
+
+    private static class ScoreBound {
+        final double value;
+        final boolean exclusive;
+
+        ScoreBound(double value, boolean exclusive) {
+            this.value = value;
+            this.exclusive = exclusive;
+        }
+
+        static ScoreBound parse(byte[] arg) {
+            boolean exclusive = arg.length > 0 && arg[0] == '(';
+            byte[] number = exclusive ? Arrays.copyOfRange(arg, 1, arg.length) : arg;
+            return new ScoreBound(decimal(number, "ERR min or max is not a float"), exclusive);
+        }
+    }
+
+    private static class SortedSet {
+        final Map<String, Double> scores = new HashMap<>();
+        final TreeSet<Member> members = new TreeSet<>();
+
+        double add(String name, double score, boolean increment) {
+            Double current = scores.get(name);
+            if(current != null) {
+                members.remove(new Member(name, current));
+                if(increment) {
+                    score += current;
+                }
+            }
+            if(Double.isNaN(score)) {
+                throw new JedisDataException("ERR resulting score is not a number (NaN)");
+            }
+            scores.put(name, score);
+            members.add(new Member(name, score));
+            return score;
+        }
+
+        boolean remove(String name) {
+            Double score = scores.remove(name);
+            if(score != null) {
+                members.remove(new Member(name, score));
+                return true;
+            }
+            return false;
+        }
+
+        int size() {
+            return scores.size();
+        }
+
+        long rank(String name) {
+            return members.headSet(new Member(name, scores.get(name))).size();
+        }
+
+        List<Member> ordered() {
+            return new ArrayList<>(members);
+        }
+
+        List<Member> byScore(ScoreBound min, ScoreBound max) {
+            List<Member> result = new ArrayList<>();
+            // members with the lowest possible name for the min score come first
+            for(Member member: members.tailSet(new Member("", min.value), true)) {
+                if(member.score > max.value || member.score == max.value && max.exclusive) {
+                    break;
+                }
+                if(member.score == min.value && min.exclusive) {
+                    continue;
+                }
+                result.add(member);
+            }
+            return result;
+        }
+    }
+}
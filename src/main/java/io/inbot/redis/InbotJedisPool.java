@@ -4,95 +4,121 @@ import com.codahale.metrics.Counter;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricSet;
 import com.codahale.metrics.Timer;
-import io.inbot.utils.ArrayFoo;
-import java.lang.reflect.Method;
+import com.codahale.metrics.Timer.Context;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
-import net.sf.cglib.proxy.Enhancer;
-import net.sf.cglib.proxy.MethodInterceptor;
-import net.sf.cglib.proxy.MethodProxy;
+import java.util.Map.Entry;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 
 public class InbotJedisPool extends JedisPool implements MetricSet {
     private static final Logger LOG = LoggerFactory.getLogger(InbotJedisPool.class);
     private final Timer jedisSessionTimer=new Timer();
-    private final Counter poolFailCounter=new Counter();
     private final Counter poolRetryCounter=new Counter();
-
-    private final Set<String> jedisMethods=ArrayFoo.setOf("rpush", "lrange", "zadd","zremrangeByScore", "zscore", "get", "del","lpush","brpoplpush","lrem","llen","setex","set");
-    private final Map<String, Timer> timerMap;
+    private final Counter poolFailCounter=new Counter();
+    private final Timer poolWaitTimer=new Timer();
+    private final CircuitBreaker circuitBreaker;
+    private final Timer pipelineTimer=new Timer();
+    private final Map<Command, Timer> timerMap;
     private final String redisHost;
     private final int redisPort;
-    private final String redisPassword;
     private final int redisDatabase;
 
-    private class MeasuringJedisHandler implements MethodInterceptor {
-        private final Jedis jedis;
-        long start=System.nanoTime();
-
-        public MeasuringJedisHandler(Jedis jedis) {
-            this.jedis = jedis;
-        }
-
-        @Override
-        public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
-            String methodName = method.getName();
-            if("close".equals(methodName)) {
-                jedisSessionTimer.update(System.nanoTime()-start, TimeUnit.NANOSECONDS);
-                return method.invoke(jedis, args);
-            } else if(jedisMethods.contains(methodName)) {
-                long methodStart=System.nanoTime();
-                Object returnValue = method.invoke(jedis, args);
-                timerMap.get(methodName).update(System.nanoTime()-methodStart, TimeUnit.NANOSECONDS);;
-                return returnValue;
-
-            } else {
-                return method.invoke(jedis, args);
-            }
-        }
+    public InbotJedisPool(GenericObjectPoolConfig config, String host, int port, int connectionTimeout, int soTimeout, String password, int database, String clientName) {
+        this(config, host, port, connectionTimeout, soTimeout, password, database, clientName, 5, 5000);
     }
 
-    public InbotJedisPool(GenericObjectPoolConfig config, String host, int port, int connectionTimeout, int soTimeout, String password, int database, String clientName) {
+    /**
+     * @param config
+     *            pool configuration; maxWaitMillis determines how long getResource waits for a connection
+     * @param host
+     *            redis host
+     * @param port
+     *            redis port
+     * @param connectionTimeout
+     *            connection timeout
+     * @param soTimeout
+     *            socket timeout
+     * @param password
+     *            password or null
+     * @param database
+     *            database
+     * @param clientName
+     *            client name or null
+     * @param breakerFailureThreshold
+     *            number of consecutive connection failures after which getResource fails fast
+     * @param breakerOpenMillis
+     *            how long getResource fails fast before it tries to get a connection again
+     */
+    public InbotJedisPool(GenericObjectPoolConfig config, String host, int port, int connectionTimeout, int soTimeout, String password, int database, String clientName,
+            int breakerFailureThreshold, long breakerOpenMillis) {
         super(config, host, port, connectionTimeout, soTimeout, password, database, clientName);
+        circuitBreaker = new CircuitBreaker("breaker", breakerFailureThreshold, breakerOpenMillis);
         this.redisHost = host;
         this.redisPort = port;
-        this.redisPassword = password;
         this.redisDatabase = database;
-        timerMap = new ConcurrentHashMap<>();
-        jedisMethods.forEach(m -> timerMap.put(m, new Timer()));
+        timerMap = new EnumMap<>(Command.class);
+        for(Command command: Command.values()) {
+            timerMap.put(command, new Timer());
+        }
+        // replace the default factory with one that creates connections that time their commands
+        initPool(config, new InstrumentedJedisFactory(host, port, connectionTimeout, soTimeout, password, database, clientName, timerMap, pipelineTimer,
+                jedisSessionTimer));
     }
 
+    /**
+     * Fails fast with a {@link JedisConnectionException} while the circuit breaker is open, e.g. because redis is down or
+     * the pool was exhausted several times in a row. Otherwise a failed attempt to get a connection is retried once
+     * right away so we don't fail on the occasional pool timeout.
+     */
     @Override
     public Jedis getResource() {
-        // add a simplistic retry strategy so we don't fail on the occasional pool timeout
-        Jedis resource = null;
-        try {
-            resource= super.getResource();
-        } catch (RuntimeException e) {
-            try {
-                Thread.sleep(500); // give it half a second to recover
-            } catch (InterruptedException ex) {
-                throw new IllegalStateException(ex);
-            }
+        if(!circuitBreaker.allowRequest()) {
+            throw new JedisConnectionException("circuit breaker is open for redis at " + redisHost + ":" + redisPort);
+        }
+        Jedis resource;
+        try(Context context = poolWaitTimer.time()) {
             try {
-                resource= super.getResource();
+                resource = super.getResource();
+            } catch (RuntimeException e) {
+                resource = super.getResource();
                 poolRetryCounter.inc();
-            } catch (RuntimeException e2) {
-                LOG.error("redis connect failure after retry once. Host: '" + redisHost + "' port: '" + redisPort + "' redis db: '" + redisDatabase + "' redis password: '" + redisPassword +"'");
-                poolFailCounter.inc();
-                // rethrow and let things escalate
-                throw e2;
             }
+        } catch (RuntimeException e) {
+            LOG.error("redis connect failure after retry once. Host: '" + redisHost + "' port: '" + redisPort + "' redis db: '" + redisDatabase + "'");
+            poolFailCounter.inc();
+            circuitBreaker.failure();
+            // rethrow and let things escalate
+            throw e;
+        }
+
+        if(resource instanceof InstrumentedJedis) {
+            ((InstrumentedJedis) resource).borrowed();
         }
+        return resource;
+    }
 
-        return (Jedis) Enhancer.create(Jedis.class, new MeasuringJedisHandler(resource));
+    @Override
+    public void returnResource(Jedis resource) {
+        circuitBreaker.success();
+        super.returnResource(resource);
+    }
+
+    @Override
+    public void returnBrokenResource(Jedis resource) {
+        circuitBreaker.failure();
+        super.returnBrokenResource(resource);
+    }
+
+    public CircuitBreaker.State circuitBreakerState() {
+        return circuitBreaker.state();
     }
 
     @Override
@@ -101,8 +127,25 @@ public class InbotJedisPool extends JedisPool implements MetricSet {
         metrics.put("session_timer", jedisSessionTimer);
         metrics.put("pool_retry_success", poolRetryCounter);
         metrics.put("pool_retry_fail", poolFailCounter);
-        metrics.putAll(timerMap);
+        metrics.put("pool_wait", poolWaitTimer);
+        metrics.putAll(circuitBreaker.getMetrics());
+        metrics.put("pipeline", pipelineTimer);
+        for(Entry<Command, Timer> entry: timerMap.entrySet()) {
+            metrics.put(metricName(entry.getKey()), entry.getValue());
+        }
 
         return metrics;
     };
+
+    /**
+     * @param command
+     *            redis command
+     * @return the lower case command name; zremrangeByScore keeps the name it had before all commands were timed
+     */
+    static String metricName(Command command) {
+        if(command == Command.ZREMRANGEBYSCORE) {
+            return "zremrangeByScore";
+        }
+        return command.name().toLowerCase(Locale.ROOT);
+    }
 }
@@ -0,0 +1,198 @@
+package io.inbot.redis;
+
+import com.codahale.metrics.Timer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Protocol.Command;
+
+/**
+ * Jedis that times every command at the protocol level: from sending the command until its reply has been read. This
+ * covers every command without a proxy or reflection. Pipelines and transactions are timed as a whole.
+ */
+class InstrumentedJedis extends Jedis {
+    private final Timer sessionTimer;
+    private long borrowedAt;
+
+    InstrumentedJedis(String host, int port, int connectionTimeout, int soTimeout, Map<Command, Timer> commandTimers, Timer pipelineTimer,
+            Timer sessionTimer) {
+        super(host, port, connectionTimeout, soTimeout);
+        this.sessionTimer = sessionTimer;
+        client = new TimingClient(host, port, commandTimers, pipelineTimer);
+        client.setConnectionTimeout(connectionTimeout);
+        client.setSoTimeout(soTimeout);
+    }
+
+    void borrowed() {
+        borrowedAt = System.nanoTime();
+    }
+
+    @Override
+    public void close() {
+        if(borrowedAt != 0) {
+            sessionTimer.update(System.nanoTime() - borrowedAt, TimeUnit.NANOSECONDS);
+            borrowedAt = 0;
+        }
+        super.close();
+    }
+
+    private static class TimingClient extends Client {
+        private final Map<Command, Timer> commandTimers;
+        private final Timer pipelineTimer;
+        private Command pending;
+        private long start;
+        private boolean pipelined;
+
+        TimingClient(String host, int port, Map<Command, Timer> commandTimers, Timer pipelineTimer) {
+            super(host, port);
+            this.commandTimers = commandTimers;
+            this.pipelineTimer = pipelineTimer;
+        }
+
+        @Override
+        protected Connection sendCommand(Command cmd, byte[]... args) {
+            if(pending == null) {
+                pending = cmd;
+                start = System.nanoTime();
+            } else {
+                // more commands before a reply was read: this is a pipeline or a transaction
+                pipelined = true;
+            }
+            return super.sendCommand(cmd, args);
+        }
+
+        // called from finally blocks, so error replies (e.g. WRONGTYPE) are recorded too and don't leave pending set
+        private void replied() {
+            if(pending != null && !pipelined) {
+                commandTimers.get(pending).update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                pending = null;
+            }
+        }
+
+        private void repliedToAll() {
+            if(pending != null) {
+                (pipelined ? pipelineTimer : commandTimers.get(pending)).update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                pending = null;
+                pipelined = false;
+            }
+        }
+
+        @Override
+        public String getStatusCodeReply() {
+            try {
+                return super.getStatusCodeReply();
+            } finally {
+                replied();
+            }
+        }
+
+        @Override
+        public String getBulkReply() {
+            try {
+                return super.getBulkReply();
+            } finally {
+                replied();
+            }
+        }
+
+        @Override
+        public byte[] getBinaryBulkReply() {
+            try {
+                return super.getBinaryBulkReply();
+            } finally {
+                replied();
+            }
+        }
+
+        @Override
+        public Long getIntegerReply() {
+            try {
+                return super.getIntegerReply();
+            } finally {
+                replied();
+            }
+        }
+
+        @Override
+        public List<String> getMultiBulkReply() {
+            try {
+                return super.getMultiBulkReply();
+            } finally {
+                replied();
+            }
+        }
+
+        @Override
+        public List<byte[]> getBinaryMultiBulkReply() {
+            try {
+                return super.getBinaryMultiBulkReply();
+            } finally {
+                replied();
+            }
+        }
+
+        @Override
+        public List<Object> getRawObjectMultiBulkReply() {
+            try {
+                return super.getRawObjectMultiBulkReply();
+            } finally {
+                replied();
+            }
+        }
+
+        @Override
+        public List<Object> getObjectMultiBulkReply() {
+            try {
+                return super.getObjectMultiBulkReply();
+            } finally {
+                replied();
+            }
+        }
+
+        @Override
+        public List<Long> getIntegerMultiBulkReply() {
+            try {
+                return super.getIntegerMultiBulkReply();
+            } finally {
+                replied();
+            }
+        }
+
+        @Override
+        public Object getOne() {
+            try {
+                return super.getOne();
+            } finally {
+                replied();
+            }
+        }
+
+        @Override
+        public List<Object> getAll() {
+            try {
+                return super.getAll();
+            } finally {
+                repliedToAll();
+            }
+        }
+
+        @Override
+        public List<Object> getAll(int except) {
+            try {
+                return super.getAll(except);
+            } finally {
+                repliedToAll();
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            pending = null;
+            pipelined = false;
+            super.disconnect();
+        }
+    }
+}
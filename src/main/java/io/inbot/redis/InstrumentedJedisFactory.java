@@ -0,0 +1,99 @@
+package io.inbot.redis;
+
+import com.codahale.metrics.Timer;
+import java.util.Map;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Protocol.Command;
+
+/**
+ * Creates {@link InstrumentedJedis} connections. Does the same as the JedisFactory in jedis, which is not public.
+ */
+class InstrumentedJedisFactory implements PooledObjectFactory<Jedis> {
+    private final String host;
+    private final int port;
+    private final int connectionTimeout;
+    private final int soTimeout;
+    private final String password;
+    private final int database;
+    private final String clientName;
+    private final Map<Command, Timer> commandTimers;
+    private final Timer pipelineTimer;
+    private final Timer sessionTimer;
+
+    InstrumentedJedisFactory(String host, int port, int connectionTimeout, int soTimeout, String password, int database, String clientName,
+            Map<Command, Timer> commandTimers, Timer pipelineTimer, Timer sessionTimer) {
+        this.host = host;
+        this.port = port;
+        this.connectionTimeout = connectionTimeout;
+        this.soTimeout = soTimeout;
+        this.password = password;
+        this.database = database;
+        this.clientName = clientName;
+        this.commandTimers = commandTimers;
+        this.pipelineTimer = pipelineTimer;
+        this.sessionTimer = sessionTimer;
+    }
+
+    @Override
+    public PooledObject<Jedis> makeObject() throws Exception {
+        Jedis jedis = new InstrumentedJedis(host, port, connectionTimeout, soTimeout, commandTimers, pipelineTimer, sessionTimer);
+        try {
+            jedis.connect();
+            if(password != null) {
+                jedis.auth(password);
+            }
+            if(database != 0) {
+                jedis.select(database);
+            }
+            if(clientName != null) {
+                jedis.clientSetname(clientName);
+            }
+        } catch (RuntimeException e) {
+            jedis.close();
+            throw e;
+        }
+        return new DefaultPooledObject<>(jedis);
+    }
+
+    @Override
+    public void destroyObject(PooledObject<Jedis> pooledJedis) throws Exception {
+        Jedis jedis = pooledJedis.getObject();
+        if(jedis.isConnected()) {
+            try {
+                try {
+                    jedis.quit();
+                } catch (RuntimeException e) {
+                    // we are disconnecting anyway
+                }
+                jedis.disconnect();
+            } catch (RuntimeException e) {
+                // nothing to do about this
+            }
+        }
+    }
+
+    @Override
+    public boolean validateObject(PooledObject<Jedis> pooledJedis) {
+        Jedis jedis = pooledJedis.getObject();
+        try {
+            return jedis.isConnected() && "PONG".equals(jedis.ping());
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void activateObject(PooledObject<Jedis> pooledJedis) throws Exception {
+        Jedis jedis = pooledJedis.getObject();
+        if(jedis.getDB() != database) {
+            jedis.select(database);
+        }
+    }
+
+    @Override
+    public void passivateObject(PooledObject<Jedis> pooledJedis) throws Exception {
+    }
+}
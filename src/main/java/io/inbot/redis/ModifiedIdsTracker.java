@@ -0,0 +1,27 @@
+package io.inbot.redis;
+
+import java.util.List;
+
+/**
+ * Keeps track of the ids of recently modified objects per key.
+ */
+public interface ModifiedIdsTracker {
+    void add(String key, String value);
+
+    /**
+     * @param key
+     *            key
+     * @return recently modified ids, latest first
+     */
+    List<String> list(String key);
+
+    /**
+     * @param key
+     *            key
+     * @param sinceMillis
+     *            epoch millis
+     * @return ids modified at or after sinceMillis, latest first. Implementations that don't keep track of the time of
+     *         modification return all recently modified ids.
+     */
+    List<String> listSince(String key, long sinceMillis);
+}
@@ -1,60 +1,216 @@
 package io.inbot.redis;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Timer.Context;
 import com.google.common.collect.Lists;
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Transaction;
 import redis.clients.jedis.exceptions.JedisException;
 
 /**
- * Implement circular stack with fallback to in memory one for tests.
+ * Implement circular stack on top of redis lists. Use a {@link FakeJedisPool} for tests.
+ *
+ * In write behind mode, adds are buffered in memory and written to redis in pipelined batches by a background thread.
+ * Adding the same value to the same stack more than once before a flush results in a single push. Adds are dropped
+ * when the buffer is full or redis is unavailable. Values that are buffered or still being written are included in
+ * {@link #list(String)}, so readers in the same process see them right away.
  */
-public class RedisBackedCircularStack {
-    private final JedisPool jedisPool;
+public class RedisBackedCircularStack implements ModifiedIdsTracker, MetricSet, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(RedisBackedCircularStack.class);
+
+    private final ShardedJedisPools shards;
     private final int capacity;
-    private final boolean fake;
-    private Map<String, ConcurrentLinkedQueue<String>> circularStackMap;
     private final int expireInSeconds;
 
+    private final int maxBuffered;
+    private final ScheduledExecutorService flusher;
+    // values per stack in the order they were added
+    private Map<String, LinkedHashSet<String>> buffer = new HashMap<>();
+    private int buffered = 0;
+    // batches that are being written; list() includes them until they are in redis
+    private final List<Map<String, LinkedHashSet<String>>> inFlight = new ArrayList<>();
+    private final Meter droppedMeter = new Meter();
+    private final Meter coalescedMeter = new Meter();
+    private final Meter writtenMeter = new Meter();
+    private final Timer flushTimer = new Timer();
+
     public RedisBackedCircularStack(JedisPool jedisPool, int capacity, int expireInSeconds) {
-        this.jedisPool = jedisPool;
+        this(ShardedJedisPools.single(jedisPool), capacity, expireInSeconds);
+    }
+
+    /**
+     * @param shards
+     *            redis servers; each stack lives on the server that its key belongs to
+     * @param capacity
+     *            maximum number of elements per stack
+     * @param expireInSeconds
+     *            ttl of the stacks
+     */
+    public RedisBackedCircularStack(ShardedJedisPools shards, int capacity, int expireInSeconds) {
+        this(shards, capacity, expireInSeconds, 0, 0);
+    }
+
+    /**
+     * @param shards
+     *            redis servers; each stack lives on the server that its key belongs to
+     * @param capacity
+     *            maximum number of elements per stack
+     * @param expireInSeconds
+     *            ttl of the stacks
+     * @param maxBuffered
+     *            if greater than 0, adds are written behind; this is the maximum number of buffered values
+     * @param flushIntervalMillis
+     *            how often buffered values are written to redis
+     */
+    public RedisBackedCircularStack(ShardedJedisPools shards, int capacity, int expireInSeconds, int maxBuffered, long flushIntervalMillis) {
+        this.shards = shards;
         this.capacity = capacity;
         this.expireInSeconds = expireInSeconds;
-        fake = jedisPool instanceof FakeJedisPool;
-        if(fake) {
-            circularStackMap = new ConcurrentHashMap<>();
+        this.maxBuffered = maxBuffered;
+        if(maxBuffered > 0) {
+            Validate.isTrue(flushIntervalMillis > 0, "flushIntervalMillis should be positive");
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "circular-stack-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(() -> {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    LOG.error("could not flush circular stack buffer", e);
+                }
+            }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
         } else {
-            circularStackMap = null;
+            flusher = null;
         }
     }
 
-    public void add(String key, String value) {
-        if(fake) {
-            ConcurrentLinkedQueue<String> stack = circularStackMap.get(key);
-            if(stack==null) {
-                synchronized(circularStackMap) {
-                    stack = circularStackMap.get(key);
-                    if(stack==null) {
-                        stack = new ConcurrentLinkedQueue<String>();
-                        circularStackMap.put(key, stack);
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<>();
+        metrics.put("circularstack.buffered", (Gauge<Integer>) () -> {
+            synchronized(this) {
+                return buffered;
+            }
+        });
+        metrics.put("circularstack.dropped", droppedMeter);
+        metrics.put("circularstack.coalesced", coalescedMeter);
+        metrics.put("circularstack.written", writtenMeter);
+        metrics.put("circularstack.flush", flushTimer);
+        return metrics;
+    }
+
+    private void buffer(String key, String value) {
+        synchronized(this) {
+            LinkedHashSet<String> values = buffer.computeIfAbsent(key, k -> new LinkedHashSet<>());
+            // move the value to the end so the order reflects the last add
+            if(values.remove(value)) {
+                values.add(value);
+                coalescedMeter.mark();
+                return;
+            }
+            if(buffered >= maxBuffered) {
+                droppedMeter.mark();
+                return;
+            }
+            values.add(value);
+            buffered++;
+        }
+    }
+
+    /**
+     * Write the buffered values to redis. Called periodically in write behind mode; does nothing otherwise.
+     */
+    public void flush() {
+        Map<String, LinkedHashSet<String>> toWrite;
+        int count;
+        synchronized(this) {
+            if(buffered == 0) {
+                return;
+            }
+            toWrite = buffer;
+            count = buffered;
+            buffer = new HashMap<>();
+            buffered = 0;
+            inFlight.add(toWrite);
+        }
+        List<String> keys = new ArrayList<>(toWrite.keySet());
+        try(Context context = flushTimer.time()) {
+            shards.forEachShard(keys, (pool, positions) -> {
+                int written = 0;
+                try(Jedis jedis = pool.getResource()) {
+                    Pipeline pipeline = jedis.pipelined();
+                    for(int position: positions) {
+                        String key = keys.get(position);
+                        LinkedHashSet<String> values = toWrite.get(key);
+                        // lpush puts the last value on top
+                        pipeline.lpush(key, values.toArray(new String[values.size()]));
+                        pipeline.ltrim(key, 0, capacity - 1);
+                        pipeline.expire(key, expireInSeconds);
+                        written += values.size();
+                    }
+                    pipeline.sync();
+                    writtenMeter.mark(written);
+                } catch (JedisException e) {
+                    LOG.warn("dropping buffered values: " + e.getMessage());
+                    for(int position: positions) {
+                        droppedMeter.mark(toWrite.get(keys.get(position)).size());
                     }
                 }
+            });
+        } finally {
+            synchronized(this) {
+                inFlight.remove(toWrite);
             }
-            stack.add(value);
-            while(stack.size() > capacity) {
-                stack.poll();
+        }
+        LOG.debug("flushed " + count + " values");
+    }
+
+    /**
+     * Stops the background flushes and writes what is left in the buffer.
+     */
+    @Override
+    public void close() {
+        if(flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            flush();
+        }
+    }
+
+    @Override
+    public void add(String key, String value) {
+        if(flusher != null) {
+            buffer(key, value);
         } else {
-            try(Jedis jedis = jedisPool.getResource()) {
+            try(Jedis jedis = shards.pool(key).getResource()) {
                 Transaction transaction = jedis.multi();
                 transaction.lpush(key, value);
-                transaction.ltrim(key, 0, capacity); // right away trim to capacity so that we can pretend it is a circular list
+                transaction.ltrim(key, 0, capacity - 1); // right away trim to capacity so that we can pretend it is a circular list
                 transaction.expire(key, expireInSeconds); // don't keep the data forever
                 transaction.exec();
             } catch (JedisException e) {
@@ -68,25 +224,25 @@ public class RedisBackedCircularStack {
      * @param key key of the list
      * @return list of ids in reverse order of addition (latest first).
      */
+    @Override
     public List<String> list(String key) {
-        if(fake) {
-            ConcurrentLinkedQueue<String> stack = circularStackMap.get(key);
-            if(stack==null) {
-                List<String> result = Collections.unmodifiableList(Lists.reverse(Lists.newArrayList()));
-                return result;
-            }
-            else {
-                // we have to reverse because ConcurrentLinkedQueue appends at end of list and has no equivalent of lpush
-                List<String> result = Collections.unmodifiableList(Lists.newArrayList(stack));
-                return result;
+        // values that were not written yet are the most recent ones, newest batch first
+        LinkedHashSet<String> pending = new LinkedHashSet<>();
+        synchronized(this) {
+            addReversed(pending, buffer.get(key));
+            for(int i = inFlight.size() - 1; i >= 0; i--) {
+                addReversed(pending, inFlight.get(i).get(key));
             }
         }
-        ArrayList<String> modified = new ArrayList<>();
-        try(Jedis jedis = jedisPool.getResource()) {
-            List<String> lrange = jedis.lrange(key, 0, capacity);
+        ArrayList<String> modified = new ArrayList<>(pending);
+        try(Jedis jedis = shards.pool(key).getResource()) {
+            List<String> lrange = jedis.lrange(key, 0, capacity - 1);
             if(lrange != null) {
                 for(String e: lrange) {
-                    modified.add(e);
+                    // pending values are already listed at their most recent position
+                    if(!pending.contains(e)) {
+                        modified.add(e);
+                    }
                 }
             }
         } catch (JedisException e) {
@@ -95,4 +251,19 @@ public class RedisBackedCircularStack {
         }
         return Collections.unmodifiableList(modified);
     }
+
+    private static void addReversed(LinkedHashSet<String> result, LinkedHashSet<String> values) {
+        if(values != null) {
+            result.addAll(Lists.reverse(new ArrayList<>(values)));
+        }
+    }
+
+    /**
+     * The lists don't keep track of when values were added, so this returns the same as {@link #list(String)}. Use
+     * {@link RedisSortedSetModifiedTracker} if you need this.
+     */
+    @Override
+    public List<String> listSince(String key, long sinceMillis) {
+        return list(key);
+    }
 }
@@ -11,39 +11,75 @@ import com.codahale.metrics.Timer.Context;
 import com.github.jsonj.JsonArray;
 import com.github.jsonj.JsonObject;
 import com.github.jsonj.tools.JsonParser;
-import io.inbot.utils.CompressionUtils;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
 
 /**
- * Simple json object cache that uses Redis.
+ * Simple json object cache that uses Redis. If redis can't be reached, lookups are treated as misses and writes are
+ * skipped so that callers fall back to the source of the objects. Deletes that fail are retried with later calls and
+ * until then the ids are treated as misses here. Combine with an {@link InbotJedisPool} to fail fast while redis is
+ * down.
  */
 public class RedisCache implements MetricSet {
-    private final JedisPool jedisPool;
+    private static final Logger LOG = LoggerFactory.getLogger(RedisCache.class);
+    private static final int PIPELINE_BATCH_SIZE = 500;
+    // codecs never produce empty values so this can't be confused with an object
+    private static final byte[] ABSENT_MARKER = new byte[0];
+    private static final byte[] NX = SafeEncoder.encode("NX");
+    private static final byte[] EX = SafeEncoder.encode("EX");
+    // beyond this, ids whose delete failed are only logged and may be served stale until they expire
+    private static final int MAX_FAILED_INVALIDATIONS = 100000;
+
+    private final ShardedJedisPools shards;
     private final String keyPrefix;
     private final int expirationInSeconds;
-    private final JsonParser parser;
+    private final int absentExpirationInSeconds;
+    private final RedisValueCodec codec;
     private final Meter notFoundMeter;
+    private final Meter absentMeter;
+    private final Meter unavailableMeter = new Meter();
+    private final Meter invalidationFailedMeter = new Meter();
+    private final Set<String> failedInvalidations = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean retryingInvalidations = new AtomicBoolean();
     private final Timer mgetTimer;
     private final Timer getTimer;
     private final Timer putTimer;
     private final Timer delTimer;
+    private final Timer putAllTimer;
+    private final Timer putAbsentTimer;
+    private final Timer delAllTimer;
+    private final Timer clearTimer;
     private final int version;
+    private final SingleFlight<String, Optional<JsonObject>> loads = new SingleFlight<>(o -> o.map(JsonObject::deepClone));
 
     /**
      * Object cache that uses redis.
      *
-     * Important: bulkindexing bypasses the cache and all keys will be stale after bulkindexing. Using clearAll may be
-     * expensive.
+     * Important: bulkindexing bypasses the cache and all keys will be stale after bulkindexing. Using clearAll walks all
+     * keys in redis in batches and may take a while.
      *
      * @param jedisPool
      *            the jedis pool
@@ -58,11 +94,72 @@ public class RedisCache implements MetricSet {
      *            keep this low to ensure any cache coherence issues go away in a reasonable time.
      */
     public RedisCache(JedisPool jedisPool, JsonParser parser, String keyPrefix, int version, int expirationInSeconds) {
-        this.jedisPool = jedisPool;
-        this.parser = parser;
+        this(jedisPool, new CompressedJsonCodec(parser), keyPrefix, version, expirationInSeconds);
+    }
+
+    /**
+     * Object cache that uses redis and the specified codec for the values.
+     *
+     * @param jedisPool
+     *            the jedis pool
+     * @param codec
+     *            encoding of the values; its name is part of the keys
+     * @param keyPrefix
+     *            key prefix
+     * @param version
+     *            version of the index
+     * @param expirationInSeconds
+     *            keep this low to ensure any cache coherence issues go away in a reasonable time.
+     */
+    public RedisCache(JedisPool jedisPool, RedisValueCodec codec, String keyPrefix, int version, int expirationInSeconds) {
+        this(jedisPool, codec, keyPrefix, version, expirationInSeconds, 0);
+    }
+
+    /**
+     * Object cache that uses redis and also remembers which objects don't exist.
+     *
+     * @param jedisPool
+     *            the jedis pool
+     * @param codec
+     *            encoding of the values; its name is part of the keys
+     * @param keyPrefix
+     *            key prefix
+     * @param version
+     *            version of the index
+     * @param expirationInSeconds
+     *            keep this low to ensure any cache coherence issues go away in a reasonable time.
+     * @param absentExpirationInSeconds
+     *            ttl of the markers for objects that were not found; 0 disables negative caching. Keep this shorter
+     *            than expirationInSeconds since objects created by others only become visible after the marker expires.
+     */
+    public RedisCache(JedisPool jedisPool, RedisValueCodec codec, String keyPrefix, int version, int expirationInSeconds, int absentExpirationInSeconds) {
+        this(ShardedJedisPools.single(jedisPool), codec, keyPrefix, version, expirationInSeconds, absentExpirationInSeconds);
+    }
+
+    /**
+     * Object cache that spreads its keys over several redis servers.
+     *
+     * @param shards
+     *            the redis servers
+     * @param codec
+     *            encoding of the values; its name is part of the keys
+     * @param keyPrefix
+     *            key prefix
+     * @param version
+     *            version of the index
+     * @param expirationInSeconds
+     *            keep this low to ensure any cache coherence issues go away in a reasonable time.
+     * @param absentExpirationInSeconds
+     *            ttl of the markers for objects that were not found; 0 disables negative caching.
+     */
+    public RedisCache(ShardedJedisPools shards, RedisValueCodec codec, String keyPrefix, int version, int expirationInSeconds, int absentExpirationInSeconds) {
+        this.shards = shards;
+        this.codec = codec;
         this.keyPrefix = keyPrefix;
         this.version = version;
         this.expirationInSeconds = expirationInSeconds;
+        this.absentExpirationInSeconds = absentExpirationInSeconds;
+        absentMeter = new Meter();
         missMeter = new Meter();
         hitMeter = new Meter();
         notFoundMeter = new Meter();
@@ -70,6 +167,10 @@ public class RedisCache implements MetricSet {
         getTimer = new Timer();
         putTimer = new Timer();
         delTimer = new Timer();
+        putAllTimer = new Timer();
+        putAbsentTimer = new Timer();
+        delAllTimer = new Timer();
+        clearTimer = new Timer();
     }
 
     @Override
@@ -81,9 +182,18 @@ public class RedisCache implements MetricSet {
         metrics.put(prefix+".mget", mgetTimer);
         metrics.put(prefix+".put", putTimer);
         metrics.put(prefix+".del", delTimer);
+        metrics.put(prefix+".putall", putAllTimer);
+        metrics.put(prefix+".putabsent", putAbsentTimer);
+        metrics.put(prefix+".delall", delAllTimer);
+        metrics.put(prefix+".clear", clearTimer);
         metrics.put(prefix+".miss", missMeter);
         metrics.put(prefix+".hit", hitMeter);
         metrics.put(prefix+".notfound", notFoundMeter);
+        metrics.put(prefix+".absent", absentMeter);
+        metrics.put(prefix+".unavailable", unavailableMeter);
+        metrics.put(prefix+".invalidationfailed", invalidationFailedMeter);
+        metrics.put(prefix+".pendinginvalidations", (Gauge<Integer>) failedInvalidations::size);
+        metrics.put(prefix+".collapsed", loads.collapsedMeter());
         Gauge<Double> hitRatioGauge = new Gauge<Double>() {
 
             @Override
@@ -98,8 +208,52 @@ public class RedisCache implements MetricSet {
         return metrics;
     }
 
+    /**
+     * Redis being unavailable should degrade us, not stop us: reads become misses and writes are skipped.
+     */
+    private void unavailable(JedisException e) {
+        unavailableMeter.mark();
+        LOG.debug("redis unavailable: " + e.getMessage());
+    }
+
+    /**
+     * Unlike a skipped write, a failed delete leaves a stale object that every server keeps serving until it expires.
+     * The ids are remembered, treated as misses here and deleted again with the next call that uses redis.
+     */
+    private void invalidationFailed(Collection<String> keys, JedisException e) {
+        unavailableMeter.mark();
+        invalidationFailedMeter.mark(keys.size());
+        LOG.warn("could not delete " + keys.size() + " objects from redis, will retry: " + StringUtils.abbreviate(keys.toString(), 1000) + " "
+                + e.getMessage());
+        for(String key: keys) {
+            if(failedInvalidations.size() >= MAX_FAILED_INVALIDATIONS) {
+                LOG.error("too many failed redis deletes; objects may be served stale until they expire");
+                return;
+            }
+            failedInvalidations.add(key);
+        }
+    }
+
+    private void retryFailedInvalidations() {
+        if(failedInvalidations.isEmpty() || !retryingInvalidations.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<String> keys = new ArrayList<>(failedInvalidations);
+            List<String> failed = deleteKeys(keys, true);
+            keys.removeAll(failed);
+            failedInvalidations.removeAll(keys);
+        } finally {
+            retryingInvalidations.set(false);
+        }
+    }
+
     private byte[] key(String key) {
-        return (keyPrefix + "/" + version + "/" + key).getBytes(utf8);
+        if(codec.name().isEmpty()) {
+            return (keyPrefix + "/" + version + "/" + key).getBytes(utf8);
+        } else {
+            return (keyPrefix + "/" + version + "/" + codec.name() + "/" + key).getBytes(utf8);
+        }
     }
 
     Charset utf8 = Charset.forName("UTF-8");
@@ -107,98 +261,305 @@ public class RedisCache implements MetricSet {
     private final Meter hitMeter;
 
     public void put(JsonObject value) {
+        retryFailedInvalidations();
         try(Context context = putTimer.time()) {
             String id = value.getString("id");
             Validate.notEmpty(id);
-            try(Jedis resource = jedisPool.getResource()) {
-                resource.setex(key(id), expirationInSeconds, CompressionUtils.compress(value.toString().getBytes(utf8)));
+            try(Jedis resource = shards.pool(id).getResource()) {
+                resource.setex(key(id), expirationInSeconds, codec.encode(value));
             } catch (JedisException e) {
-                // make sure we can find back jedis related stuff in kibana
-                throw new IllegalStateException("problem connecting to jedis", e);
+                unavailable(e);
             }
         }
     }
 
+    /**
+     * Put several objects with pipelined SETEX commands using a single connection per redis server.
+     *
+     * @param values
+     *            objects with an id
+     */
+    public void putAll(Iterable<JsonObject> values) {
+        List<JsonObject> objects = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for(JsonObject value: values) {
+            String id = value.getString("id");
+            Validate.notEmpty(id);
+            objects.add(value);
+            ids.add(id);
+        }
+        if(objects.isEmpty()) {
+            return;
+        }
+        retryFailedInvalidations();
+        try(Context context = putAllTimer.time()) {
+            shards.forEachShard(ids, (pool, positions) -> {
+                try(Jedis resource = pool.getResource()) {
+                    Pipeline pipeline = resource.pipelined();
+                    int queued = 0;
+                    for(int position: positions) {
+                        pipeline.setex(key(ids.get(position)), expirationInSeconds, codec.encode(objects.get(position)));
+                        if(++queued % PIPELINE_BATCH_SIZE == 0) {
+                            pipeline.sync();
+                        }
+                    }
+                    pipeline.sync();
+                } catch (JedisException e) {
+                    unavailable(e);
+                }
+            });
+        }
+    }
+
     public Optional<JsonObject> get(String key) {
+        return Optional.ofNullable(lookup(key).value());
+    }
+
+    /**
+     * @param key
+     *            key
+     * @return the object, a miss, or absent if the object is known not to exist
+     */
+    public CachedValue lookup(String key) {
+        retryFailedInvalidations();
         try(Context context = getTimer.time()) {
-            try(Jedis resource = jedisPool.getResource()) {
+            if(failedInvalidations.contains(key)) {
+                notFoundMeter.mark();
+                return CachedValue.MISS;
+            }
+            try(Jedis resource = shards.pool(key).getResource()) {
                 byte[] value = resource.get(key(key));
                 if(value != null) {
-                    try {
-                        hitMeter.mark();
-                        return Optional.of(parser.parseObject(new String(CompressionUtils.decompress(value), utf8)));
-                    } catch (IllegalArgumentException e) {
-                        throw new IllegalStateException("invalid json returned from redis");
-                    }
+                    return decode(value);
                 }
             } catch (JedisException e) {
-                // make sure we can find back jedis related stuff in kibana
-                throw new IllegalStateException("problem connecting to jedis", e);
+                unavailable(e);
             }
             notFoundMeter.mark();
-            return Optional.empty();
+            return CachedValue.MISS;
         }
     }
 
+    private CachedValue decode(byte[] value) {
+        if(value.length == 0) {
+            absentMeter.mark();
+            return CachedValue.ABSENT;
+        }
+        hitMeter.mark();
+        return CachedValue.hit(codec.decode(value));
+    }
+
+    /**
+     * Get the value from redis or use the producer to create it and put it in redis. Concurrent calls for the same key
+     * share a single redis lookup and producer call. If negative caching is enabled, the producer is not called for
+     * objects that it recently did not find.
+     *
+     * @param key
+     *            key
+     * @param producer
+     *            called with the key if it is not in redis; may return null
+     * @return the value or empty if the producer returned null
+     */
     public Optional<JsonObject> get(String key, Function<String, JsonObject> producer) {
-        Optional<JsonObject> optional = get(key);
-        if(optional.isPresent()) {
-            return optional;
-        } else {
-            JsonObject value = producer.apply(key);
-            if(value == null) {
-                notFoundMeter.mark();
-                return Optional.empty();
+        return loads.execute(key, () -> {
+            CachedValue cached = lookup(key);
+            if(!cached.isMiss()) {
+                return Optional.ofNullable(cached.value());
             } else {
-                put(value);
-                return Optional.of(value);
+                JsonObject value = producer.apply(key);
+                if(value == null) {
+                    notFoundMeter.mark();
+                    putAbsent(Collections.singletonList(key));
+                    return Optional.empty();
+                } else {
+                    put(value);
+                    return Optional.of(value);
+                }
             }
+        });
+    }
+
+    /**
+     * Remember that objects do not exist. Does nothing if negative caching is disabled. Putting an object with the
+     * same key replaces the marker, but a marker never replaces an object that is already cached.
+     *
+     * @param keys
+     *            keys of objects that were not found
+     */
+    public void putAbsent(Collection<String> keys) {
+        if(absentExpirationInSeconds <= 0 || keys.isEmpty()) {
+            return;
+        }
+        List<String> keyList = new ArrayList<>(keys);
+        try(Context context = putAbsentTimer.time()) {
+            shards.forEachShard(keyList, (pool, positions) -> {
+                try(Jedis resource = pool.getResource()) {
+                    Pipeline pipeline = resource.pipelined();
+                    for(int position: positions) {
+                        // SET NX so that a value put after the object was looked up is not replaced by the marker
+                        pipeline.set(key(keyList.get(position)), ABSENT_MARKER, NX, EX, absentExpirationInSeconds);
+                    }
+                    pipeline.sync();
+                } catch (JedisException e) {
+                    unavailable(e);
+                }
+            });
         }
     }
 
-    public JsonArray mget(String...keys) {
+    /**
+     * @param keys
+     *            keys
+     * @return one result per key, in the same order as the keys
+     */
+    public List<CachedValue> lookupAll(String... keys) {
+        retryFailedInvalidations();
         try(Context context = mgetTimer.time()) {
-            JsonArray results=array();
-            try(Jedis resource = jedisPool.getResource()) {
-                byte[][] byteKeys = Arrays.stream(keys).map(key -> key(key)).toArray(size -> new byte[size][]);
-                List<byte[]> redisResults = resource.mget(byteKeys);
-                if(redisResults!=null) {
-                    for(byte[] blob:redisResults) {
-                        if(blob != null) {
-                            // some results will be null
-                            results.add(parser.parseObject(new String(CompressionUtils.decompress(blob), utf8)));
+            CachedValue[] results = new CachedValue[keys.length];
+            Arrays.fill(results, CachedValue.MISS);
+            shards.forEachShard(Arrays.asList(keys), (pool, positions) -> {
+                try(Jedis resource = pool.getResource()) {
+                    byte[][] byteKeys = positions.stream().map(position -> key(keys[position])).toArray(size -> new byte[size][]);
+                    List<byte[]> redisResults = resource.mget(byteKeys);
+                    for(int i = 0; i < byteKeys.length; i++) {
+                        byte[] blob = redisResults == null ? null : redisResults.get(i);
+                        if(blob == null) {
+                            missMeter.mark();
+                        } else {
+                            results[positions.get(i)] = decode(blob);
                         }
                     }
+                } catch (JedisException e) {
+                    unavailable(e);
+                }
+            });
+            if(!failedInvalidations.isEmpty()) {
+                for(int i = 0; i < keys.length; i++) {
+                    if(failedInvalidations.contains(keys[i])) {
+                        results[i] = CachedValue.MISS;
+                    }
                 }
-            } catch (JedisException e) {
-                // make sure we can find back jedis related stuff in kibana
-                throw new IllegalStateException("problem connecting to jedis", e);
             }
-            notFoundMeter.mark();
-            return results;
+            return Arrays.asList(results);
         }
     }
 
+    public JsonArray mget(String...keys) {
+        JsonArray results=array();
+        for(CachedValue cachedValue: lookupAll(keys)) {
+            // skip misses and absent markers
+            if(cachedValue.isHit()) {
+                results.add(cachedValue.value());
+            }
+        }
+        return results;
+    }
+
     public void delete(String key) {
+        retryFailedInvalidations();
         try(Context context = delTimer.time()) {
-            try(Jedis resource = jedisPool.getResource()) {
+            try(Jedis resource = shards.pool(key).getResource()) {
                 resource.del(key(key));
             } catch (JedisException e) {
-                // make sure we can find back jedis related stuff in kibana
-                throw new IllegalStateException("problem connecting to jedis", e);
+                invalidationFailed(Collections.singletonList(key), e);
             }
         }
     }
 
     /**
-     * Note, this can be slooooow if you have many keys.
+     * Delete several keys using a single connection per redis server. Keys are deleted in batches with one DEL command
+     * per batch.
+     *
+     * @param keys
+     *            keys
+     */
+    public void deleteAll(Collection<String> keys) {
+        if(keys.isEmpty()) {
+            return;
+        }
+        retryFailedInvalidations();
+        try(Context context = delAllTimer.time()) {
+            deleteKeys(new ArrayList<>(keys), false);
+        }
+    }
+
+    /**
+     * @param retry
+     *            true if the keys are already remembered for a retry
+     * @return the keys that could not be deleted
+     */
+    private List<String> deleteKeys(List<String> keyList, boolean retry) {
+        List<String> failed = Collections.synchronizedList(new ArrayList<>());
+        shards.forEachShard(keyList, (pool, positions) -> {
+            try(Jedis resource = pool.getResource()) {
+                Pipeline pipeline = resource.pipelined();
+                List<byte[]> batch = new ArrayList<>(PIPELINE_BATCH_SIZE);
+                for(int position: positions) {
+                    batch.add(key(keyList.get(position)));
+                    if(batch.size() == PIPELINE_BATCH_SIZE) {
+                        pipeline.del(batch.toArray(new byte[batch.size()][]));
+                        batch.clear();
+                    }
+                }
+                if(!batch.isEmpty()) {
+                    pipeline.del(batch.toArray(new byte[batch.size()][]));
+                }
+                pipeline.sync();
+            } catch (JedisException e) {
+                List<String> shardKeys = new ArrayList<>(positions.size());
+                for(int position: positions) {
+                    shardKeys.add(keyList.get(position));
+                }
+                if(retry) {
+                    unavailable(e);
+                } else {
+                    invalidationFailed(shardKeys, e);
+                }
+                failed.addAll(shardKeys);
+            }
+        });
+        return failed;
+    }
+
+    /**
+     * Delete all keys with the key prefix. Keys are found with SCAN and deleted in batches, so redis keeps serving
+     * other clients while this runs. Keys written while this runs may survive.
      */
     public void clearAll() {
-        try(Jedis resource = jedisPool.getResource()) {
-            resource.eval("for i, name in ipairs(redis.call('KEYS', '"+keyPrefix+"/*')) do redis.call('DEL', name); end");
-        } catch (JedisException e) {
-            // make sure we can find back jedis related stuff in kibana
-            throw new IllegalStateException("problem connecting to jedis", e);
+        clearAll(deleted -> {});
+    }
+
+    /**
+     * Delete all keys with the key prefix on all redis servers. Keys are found with SCAN and deleted in batches, so
+     * redis keeps serving other clients while this runs. Keys written while this runs may survive.
+     *
+     * @param progress
+     *            called after each batch with the number of keys deleted so far
+     * @return the number of deleted keys
+     */
+    public long clearAll(LongConsumer progress) {
+        try(Context context = clearTimer.time()) {
+            long deleted = 0;
+            for(JedisPool pool: shards.pools()) {
+                try(Jedis resource = pool.getResource()) {
+                    ScanParams params = new ScanParams().match(keyPrefix + "/*").count(PIPELINE_BATCH_SIZE);
+                    String cursor = ScanParams.SCAN_POINTER_START;
+                    do {
+                        ScanResult<String> scanResult = resource.scan(cursor, params);
+                        List<String> keys = scanResult.getResult();
+                        if(!keys.isEmpty()) {
+                            Long count = resource.del(keys.toArray(new String[keys.size()]));
+                            deleted += count == null ? 0 : count;
+                            progress.accept(deleted);
+                        }
+                        cursor = scanResult.getStringCursor();
+                    } while(!ScanParams.SCAN_POINTER_START.equals(cursor));
+                } catch (JedisException e) {
+                    // make sure we can find back jedis related stuff in kibana
+                    throw new IllegalStateException("problem connecting to jedis", e);
+                }
+            }
+            return deleted;
         }
     }
 }
@@ -0,0 +1,73 @@
+package io.inbot.redis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * Keeps recently modified ids in a redis sorted set with the modification time as the score. Modifying an object again
+ * only moves it to the front, so ids are never duplicated, and clients can ask for the ids modified since the last
+ * time they looked. Use a {@link FakeJedisPool} for tests.
+ */
+public class RedisSortedSetModifiedTracker implements ModifiedIdsTracker {
+    // a different key than the lists of RedisBackedCircularStack so both can be used during a rollout
+    private static final String KEY_SUFFIX = "/modified";
+
+    private final ShardedJedisPools shards;
+    private final int capacity;
+    private final int expireInSeconds;
+
+    public RedisSortedSetModifiedTracker(JedisPool jedisPool, int capacity, int expireInSeconds) {
+        this(ShardedJedisPools.single(jedisPool), capacity, expireInSeconds);
+    }
+
+    /**
+     * @param shards
+     *            redis servers; each set lives on the server that its key belongs to
+     * @param capacity
+     *            maximum number of ids per key; the least recently modified ids are removed first
+     * @param expireInSeconds
+     *            ttl of the sets
+     */
+    public RedisSortedSetModifiedTracker(ShardedJedisPools shards, int capacity, int expireInSeconds) {
+        this.shards = shards;
+        this.capacity = capacity;
+        this.expireInSeconds = expireInSeconds;
+    }
+
+    @Override
+    public void add(String key, String value) {
+        String zkey = key + KEY_SUFFIX;
+        try(Jedis jedis = shards.pool(key).getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.zadd(zkey, System.currentTimeMillis(), value);
+            // ranks are ascending by score so this removes the oldest entries beyond the capacity
+            pipeline.zremrangeByRank(zkey, 0, -capacity - 1);
+            pipeline.expire(zkey, expireInSeconds);
+            pipeline.sync();
+        } catch (JedisException e) {
+            // make sure we can find back jedis related stuff in kibana
+            throw new IllegalStateException("problem connecting to jedis", e);
+        }
+    }
+
+    @Override
+    public List<String> list(String key) {
+        return listSince(key, Long.MIN_VALUE);
+    }
+
+    @Override
+    public List<String> listSince(String key, long sinceMillis) {
+        try(Jedis jedis = shards.pool(key).getResource()) {
+            String min = sinceMillis == Long.MIN_VALUE ? "-inf" : Long.toString(sinceMillis);
+            return Collections.unmodifiableList(new ArrayList<>(jedis.zrevrangeByScore(key + KEY_SUFFIX, "+inf", min)));
+        } catch (JedisException e) {
+            // make sure we can find back jedis related stuff in kibana
+            throw new IllegalStateException("problem connecting to jedis", e);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package io.inbot.redis;
+
+import com.github.jsonj.JsonObject;
+
+/**
+ * Turns cached objects into bytes and back. The name of the codec is part of the redis key, so objects written with
+ * different codecs can coexist while a new codec is rolled out.
+ */
+public interface RedisValueCodec {
+    /**
+     * @return short name that is used in the keys; the empty string means no extra key segment
+     */
+    String name();
+
+    byte[] encode(JsonObject value);
+
+    JsonObject decode(byte[] bytes);
+}
@@ -0,0 +1,211 @@
+package io.inbot.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * The subset of lua that {@link InMemoryRedis} can run: a sequence of redis.call and redis.pcall statements, optionally
+ * prefixed with return, with string and number literals, KEYS[n] and ARGV[n] as arguments. Statements are separated
+ * by newlines or semicolons and -- starts a comment.
+ */
+final class Script {
+    final String sha;
+    final List<Call> calls;
+
+    private Script(String sha, List<Call> calls) {
+        this.sha = sha;
+        this.calls = Collections.unmodifiableList(calls);
+    }
+
+    static final class Call {
+        final Command command;
+        final boolean protectedCall;
+        final boolean returns;
+        // byte[] for literals, Integer for KEYS (1 based, positive) and ARGV (negative)
+        private final List<Object> args;
+
+        private Call(Command command, boolean protectedCall, boolean returns, List<Object> args) {
+            this.command = command;
+            this.protectedCall = protectedCall;
+            this.returns = returns;
+            this.args = args;
+        }
+
+        byte[][] args(byte[][] keys, byte[][] argv) {
+            byte[][] result = new byte[args.size()][];
+            for(int i = 0; i < result.length; i++) {
+                Object arg = args.get(i);
+                if(arg instanceof byte[]) {
+                    result[i] = (byte[]) arg;
+                } else {
+                    int index = (Integer) arg;
+                    byte[][] source = index > 0 ? keys : argv;
+                    int position = Math.abs(index) - 1;
+                    if(position >= source.length) {
+                        throw new JedisDataException("ERR Error running script: Lua redis() command arguments must be strings or integers");
+                    }
+                    result[i] = source[position];
+                }
+            }
+            return result;
+        }
+    }
+
+    static Script parse(String sha, String source) {
+        return new Script(sha, new Parser(source).parse());
+    }
+
+    private static class Parser {
+        private final String source;
+        private int pos = 0;
+
+        Parser(String source) {
+            this.source = source;
+        }
+
+        List<Call> parse() {
+            List<Call> calls = new ArrayList<>();
+            skipSeparators();
+            while(pos < source.length()) {
+                boolean returns = accept("return");
+                skipWhitespace();
+                boolean protectedCall;
+                if(accept("redis.call")) {
+                    protectedCall = false;
+                } else if(accept("redis.pcall")) {
+                    protectedCall = true;
+                } else {
+                    throw unsupported();
+                }
+                skipWhitespace();
+                expect('(');
+                List<Object> args = new ArrayList<>();
+                do {
+                    skipWhitespace();
+                    args.add(argument());
+                    skipWhitespace();
+                } while(accept(","));
+                expect(')');
+                if(!(args.get(0) instanceof byte[])) {
+                    throw unsupported();
+                }
+                String name = new String((byte[]) args.remove(0), StandardCharsets.UTF_8).toUpperCase(Locale.ROOT);
+                Command command;
+                try {
+                    command = Command.valueOf(name);
+                } catch (IllegalArgumentException e) {
+                    throw new JedisDataException("ERR Error compiling script: unknown redis command called from lua script: " + name);
+                }
+                calls.add(new Call(command, protectedCall, returns, args));
+                skipSeparators();
+            }
+            return calls;
+        }
+
+        private Object argument() {
+            if(accept("KEYS[")) {
+                int index = number();
+                expect(']');
+                return index;
+            } else if(accept("ARGV[")) {
+                int index = number();
+                expect(']');
+                return -index;
+            } else if(pos < source.length() && (source.charAt(pos) == '\'' || source.charAt(pos) == '"')) {
+                return quoted();
+            } else {
+                int start = pos;
+                while(pos < source.length() && (Character.isDigit(source.charAt(pos)) || "-+.eE".indexOf(source.charAt(pos)) >= 0)) {
+                    pos++;
+                }
+                if(start == pos) {
+                    throw unsupported();
+                }
+                return source.substring(start, pos).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        private byte[] quoted() {
+            char quote = source.charAt(pos++);
+            StringBuilder buf = new StringBuilder();
+            while(pos < source.length() && source.charAt(pos) != quote) {
+                char c = source.charAt(pos++);
+                if(c == '\\' && pos < source.length()) {
+                    char escaped = source.charAt(pos++);
+                    switch(escaped) {
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    default:
+                        c = escaped;
+                    }
+                }
+                buf.append(c);
+            }
+            expect(quote);
+            return buf.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private int number() {
+            int start = pos;
+            while(pos < source.length() && Character.isDigit(source.charAt(pos))) {
+                pos++;
+            }
+            if(start == pos) {
+                throw unsupported();
+            }
+            return Integer.parseInt(source.substring(start, pos));
+        }
+
+        private boolean accept(String token) {
+            if(source.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if(pos >= source.length() || source.charAt(pos) != c) {
+                throw unsupported();
+            }
+            pos++;
+        }
+
+        private void skipWhitespace() {
+            while(pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private void skipSeparators() {
+            while(pos < source.length()) {
+                char c = source.charAt(pos);
+                if(Character.isWhitespace(c) || c == ';') {
+                    pos++;
+                } else if(source.startsWith("--", pos)) {
+                    while(pos < source.length() && source.charAt(pos) != '\n') {
+                        pos++;
+                    }
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private JedisDataException unsupported() {
+            return new JedisDataException("ERR Error compiling script: only redis.call and redis.pcall statements are supported, at position " + pos);
+        }
+    }
+}
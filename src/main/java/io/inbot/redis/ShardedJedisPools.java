@@ -0,0 +1,132 @@
+package io.inbot.redis;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import org.apache.commons.lang3.Validate;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Spreads keys over several redis servers with consistent hashing, so that adding a server only moves a small part of
+ * the keys. Each server gets a number of points on a hash ring and a key goes to the server that owns the first point
+ * at or after the hash of the key.
+ *
+ * Operations on multiple keys are split per server and the parts run in parallel.
+ */
+public class ShardedJedisPools {
+    private static final int POINTS_PER_SHARD = 160;
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final List<JedisPool> pools;
+    private final TreeMap<Long, JedisPool> ring = new TreeMap<>();
+    private final ExecutorService executor;
+
+    /**
+     * @param pools
+     *            one pool per redis server, keyed on a stable name for the server such as its host:port; the names
+     *            determine the placement of keys, so the order of the map does not matter but renaming a server moves
+     *            its keys
+     * @param executor
+     *            runs the per server parts of multi key operations; may only be null if there is just one pool
+     */
+    public ShardedJedisPools(Map<String, JedisPool> pools, ExecutorService executor) {
+        Validate.notEmpty(pools);
+        Validate.isTrue(pools.size() == 1 || executor != null, "an executor is needed for more than one pool");
+        this.pools = Collections.unmodifiableList(new ArrayList<>(pools.values()));
+        this.executor = executor;
+        for(Entry<String, JedisPool> entry: pools.entrySet()) {
+            for(int point = 0; point < POINTS_PER_SHARD; point++) {
+                ring.put(hash(entry.getKey() + "-" + point), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param pools
+     *            one pool per redis server, keyed on a stable name for the server such as its host:port
+     */
+    public ShardedJedisPools(Map<String, JedisPool> pools) {
+        this(pools, pools.size() > 1 ? Executors.newFixedThreadPool(4 * pools.size(), r -> {
+            Thread thread = new Thread(r, "redis-shards");
+            thread.setDaemon(true);
+            return thread;
+        }) : null);
+    }
+
+    /**
+     * @param pool
+     *            the only redis server
+     * @return pools with a single shard
+     */
+    public static ShardedJedisPools single(JedisPool pool) {
+        return new ShardedJedisPools(Collections.singletonMap("single", pool), null);
+    }
+
+    public List<JedisPool> pools() {
+        return pools;
+    }
+
+    /**
+     * @param key
+     *            key
+     * @return the pool of the server that the key belongs to
+     */
+    public JedisPool pool(String key) {
+        if(pools.size() == 1) {
+            return pools.get(0);
+        }
+        Entry<Long, JedisPool> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Group the keys per server and call the action for each server in parallel. Returns when all actions are done.
+     *
+     * @param keys
+     *            keys
+     * @param action
+     *            called with a pool and the positions of the keys in the list that belong to it
+     */
+    public void forEachShard(List<String> keys, BiConsumer<JedisPool, List<Integer>> action) {
+        if(keys.isEmpty()) {
+            return;
+        }
+        Map<JedisPool, List<Integer>> positions = new IdentityHashMap<>();
+        for(int i = 0; i < keys.size(); i++) {
+            positions.computeIfAbsent(pool(keys.get(i)), p -> new ArrayList<>()).add(i);
+        }
+        if(positions.size() == 1) {
+            Entry<JedisPool, List<Integer>> only = positions.entrySet().iterator().next();
+            action.accept(only.getKey(), only.getValue());
+            return;
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for(Entry<JedisPool, List<Integer>> entry: positions.entrySet()) {
+            futures.add(CompletableFuture.runAsync(() -> action.accept(entry.getKey(), entry.getValue()), executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static long hash(String key) {
+        return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+}
@@ -0,0 +1,80 @@
+package io.inbot.redis;
+
+import com.codahale.metrics.Meter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Collapses concurrent calls for the same key into a single call. The first caller for a key does the actual work;
+ * callers that arrive while that is in progress wait for it and get (a copy of) the same result. Nothing is remembered
+ * once the call completes, so this is not a cache.
+ *
+ * Use this in front of expensive loads that happen on a cache miss so that a hot key expiring does not result in a
+ * burst of identical requests to the backend.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final UnaryOperator<V> copier;
+    private final Meter collapsedMeter = new Meter();
+
+    /**
+     * @param copier
+     *            used to give each caller its own copy of the result; use UnaryOperator.identity() for immutable
+     *            values
+     */
+    public SingleFlight(UnaryOperator<V> copier) {
+        this.copier = copier;
+    }
+
+    /**
+     * @param key
+     *            key
+     * @param call
+     *            does the actual work; only called if no call for the same key is in progress
+     * @return the result of the call
+     */
+    public V execute(K key, Supplier<V> call) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if(existing != null) {
+            collapsedMeter.mark();
+            return copier.apply(await(existing));
+        }
+        try {
+            V value = call.get();
+            // waiters copy from a snapshot that nobody gets to mutate; the caller keeps the original
+            future.complete(copier.apply(value));
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * @return meter that is marked for every call that was collapsed into a call that was already in progress
+     */
+    public Meter collapsedMeter() {
+        return collapsedMeter;
+    }
+
+    private V await(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("unexpected error: " + cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package io.inbot.redis;
+
+import static com.github.jsonj.tools.JsonBuilder.nullValue;
+import static com.github.jsonj.tools.JsonBuilder.primitive;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonParser.NumberType;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonElement;
+import com.github.jsonj.JsonObject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map.Entry;
+
+/**
+ * Binary json (Smile) that is written from and read into jsonj objects directly, without going through json text.
+ * Repeated field names and short string values are back referenced, which makes documents with arrays of similar
+ * objects smaller without the cost of compression.
+ */
+public class SmileCodec implements RedisValueCodec {
+    private static final SmileFactory SMILE_FACTORY = new SmileFactory().enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+
+    @Override
+    public String name() {
+        return "s";
+    }
+
+    @Override
+    public byte[] encode(JsonObject value) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try(JsonGenerator generator = SMILE_FACTORY.createGenerator(bos)) {
+            write(generator, value);
+        } catch (IOException e) {
+            throw new IllegalStateException("could not encode object", e);
+        }
+        return bos.toByteArray();
+    }
+
+    @Override
+    public JsonObject decode(byte[] bytes) {
+        try(JsonParser parser = SMILE_FACTORY.createParser(bytes)) {
+            JsonElement element = read(parser, parser.nextToken());
+            if(element == null || !element.isObject()) {
+                throw new IllegalStateException("invalid smile returned from redis");
+            }
+            return element.asObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("invalid smile returned from redis", e);
+        }
+    }
+
+    private static void write(JsonGenerator generator, JsonElement element) throws IOException {
+        if(element == null || element.isNull()) {
+            generator.writeNull();
+        } else if(element.isObject()) {
+            generator.writeStartObject();
+            for(Entry<String, JsonElement> entry: element.asObject().entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                write(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if(element.isArray()) {
+            generator.writeStartArray();
+            for(JsonElement e: element.asArray()) {
+                write(generator, e);
+            }
+            generator.writeEndArray();
+        } else if(element.isBoolean()) {
+            generator.writeBoolean(element.asBoolean());
+        } else if(element.isNumber()) {
+            Object value = element.asPrimitive().value();
+            if(value instanceof BigDecimal) {
+                generator.writeNumber((BigDecimal) value);
+            } else if(value instanceof BigInteger) {
+                generator.writeNumber((BigInteger) value);
+            } else if(value instanceof Double || value instanceof Float) {
+                generator.writeNumber(element.asDouble());
+            } else {
+                generator.writeNumber(element.asLong());
+            }
+        } else {
+            generator.writeString(element.asString());
+        }
+    }
+
+    private static JsonElement read(JsonParser parser, JsonToken token) throws IOException {
+        if(token == null) {
+            return null;
+        }
+        switch(token) {
+        case START_OBJECT:
+            JsonObject object = new JsonObject();
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                object.put(name, read(parser, parser.nextToken()));
+            }
+            return object;
+        case START_ARRAY:
+            JsonArray array = new JsonArray();
+            JsonToken next;
+            while((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                array.add(read(parser, next));
+            }
+            return array;
+        case VALUE_STRING:
+            return primitive(parser.getText());
+        case VALUE_NUMBER_INT:
+            if(parser.getNumberType() == NumberType.BIG_INTEGER) {
+                return primitive(parser.getBigIntegerValue());
+            }
+            return primitive(parser.getLongValue());
+        case VALUE_NUMBER_FLOAT:
+            if(parser.getNumberType() == NumberType.BIG_DECIMAL) {
+                return primitive(parser.getDecimalValue());
+            }
+            return primitive(parser.getDoubleValue());
+        case VALUE_TRUE:
+            return primitive(true);
+        case VALUE_FALSE:
+            return primitive(false);
+        case VALUE_NULL:
+            return nullValue();
+        default:
+            throw new IllegalStateException("unexpected token " + token);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package io.inbot.elasticsearch.client;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.object;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.Test;
+
+@Test
+public class EsSearchResponseTest {
+
+    public void shouldNotCopyTheReadOnlyViewOnEveryIteration() {
+        EsSearchResponse response = new EsSearchResponse(esResponse(3), 10, 0);
+
+        List<JsonObject> first = new ArrayList<>();
+        response.readOnlyView().forEach(first::add);
+        List<JsonObject> second = new ArrayList<>();
+        response.readOnlyView().forEach(second::add);
+
+        assertThat(first).hasSize(3);
+        for(int i = 0; i < first.size(); i++) {
+            assertThat(second.get(i)).isSameAs(first.get(i));
+            assertThat(first.get(i).getString("id")).isEqualTo("" + i);
+            assertThat(first.get(i).getString("_version")).isEqualTo("" + (i + 1));
+        }
+    }
+
+    public void shouldHandOutCopiesWhenIterating() {
+        EsSearchResponse response = new EsSearchResponse(esResponse(2), 10, 0);
+        JsonObject view = response.readOnlyView().iterator().next();
+
+        JsonObject copy = response.iterator().next();
+        assertThat(copy).isNotSameAs(view);
+        copy.put("id", "modified");
+
+        assertThat(view.getString("id")).isEqualTo("0");
+        assertThat(response.iterator().next().getString("id")).isEqualTo("0");
+        assertThat(response.get(0)).isNotSameAs(view);
+    }
+
+    static JsonObject esResponse(int count) {
+        JsonArray hits = array();
+        for(int i = 0; i < count; i++) {
+            hits.add(object(field("_id", "" + i), field("_version", i + 1), field("_source", object(field("id", "" + i)))));
+        }
+        return object(field("hits", object(field("total", count), field("hits", hits))));
+    }
+}
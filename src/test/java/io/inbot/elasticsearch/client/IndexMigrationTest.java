@@ -4,11 +4,23 @@ import static com.github.jsonj.tools.JsonBuilder.field;
 import static com.github.jsonj.tools.JsonBuilder.object;
 import static org.assertj.core.api.StrictAssertions.assertThat;
 
+import com.github.jsonj.JsonObject;
+import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
 import io.inbot.elasticsearch.crud.CrudOperations;
 import io.inbot.elasticsearch.crud.CrudOpererationsFactory;
+import io.inbot.elasticsearch.crud.EsCrudDao;
 import io.inbot.elasticsearch.testutil.DiyTestContext;
 import io.inbot.elasticsearch.testutil.EsTestLauncher;
 import io.inbot.elasticsearch.testutil.RandomHelper;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -54,4 +66,169 @@ public class IndexMigrationTest {
         assertThat(dao.pagedSearch(QueryBuilder.query(QueryBuilder.matchAll()), 100, 0).size()).isEqualTo(10);
     }
 
+    public void shouldKeepWritesDuringDualWriteMigration() {
+        String indexName = RandomHelper.randomIndexName();
+        ElasticSearchIndex index = ElasticSearchIndex.createWithWriteAlias(indexName, 1, "mapping-v1.json");
+        ElasticSearchIndex index2 = ElasticSearchIndex.createWithWriteAlias(indexName, 2, "mapping-v1.json");
+        client.migrateIndex(index);
+        assertThat(client.indicesFor(index.writeAlias()).first().asString()).isEqualTo(index.indexName());
+        CrudOperations dao = crudOperationsFactory.builder(ElasticSearchType.create(index, "test")).dao();
+        for(int i=0;i<10;i++) {
+            dao.create(object(field("id","obj_"+i)), true);
+        }
+        EsAPIClient migratingClient = clientThatWritesDuringTheCopy(index.indexName(), c -> {
+            // the write alias keeps pointing to the old index only, so bulk indexing keeps working
+            assertThat(client.indicesFor(index.writeAlias()).size()).isEqualTo(1);
+            CrudOperations writingDao = new EsCrudDao(ElasticSearchType.create(index, "test"), c, DiyTestContext.instance.modifiedIdsTracker, 2);
+            writingDao.update("obj_1", true, o -> {
+                o.put("name", "updated");
+                return o;
+            });
+            writingDao.delete("obj_2");
+            writingDao.create(object(field("id","obj_10")), true);
+            try(BulkIndexingOperations bulkIndexer = writingDao.bulkIndexer()) {
+                bulkIndexer.index(object(field("id","obj_11")));
+                bulkIndexer.delete("obj_3");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            JsonObject copied = client.getObject(index2.indexName(), "test", "obj_1");
+            assertThat(copied.getString("_source", "name")).isEqualTo("updated");
+            assertThat(copied.getInt("_version")).isEqualTo(2);
+            assertThat(client.getObject(index2.indexName(), "test", "obj_11")).isNotNull();
+        });
+
+        // the copy must not overwrite the writes above with older versions
+        migratingClient.migrateIndex(index2);
+        client.refresh();
+        assertThat(client.indexExists(index.indexName())).isFalse();
+        assertThat(client.indicesFor(index2.readAlias()).first().asString()).isEqualTo(index2.indexName());
+        assertThat(client.indicesFor(index2.writeAlias()).size()).isEqualTo(1);
+        assertThat(client.indicesFor(index2.writeAlias()).first().asString()).isEqualTo(index2.indexName());
+        assertThat(dao.get("obj_1").getString("name")).isEqualTo("updated");
+        assertThat(dao.get("obj_2")).isNull();
+        assertThat(dao.get("obj_3")).isNull();
+        assertThat(dao.get("obj_10")).isNotNull();
+        assertThat(dao.get("obj_11")).isNotNull();
+        assertThat(dao.pagedSearch(QueryBuilder.query(QueryBuilder.matchAll()), 100, 0).size()).isEqualTo(10);
+    }
+
+    public void shouldLeaveTheAliasesAloneWhenTheCopyFails() {
+        String indexName = RandomHelper.randomIndexName();
+        ElasticSearchIndex index = ElasticSearchIndex.createWithWriteAlias(indexName, 1, "mapping-v1.json");
+        ElasticSearchIndex index2 = ElasticSearchIndex.createWithWriteAlias(indexName, 2, "mapping-v1.json");
+        client.migrateIndex(index);
+        CrudOperations dao = crudOperationsFactory.builder(ElasticSearchType.create(index, "test")).dao();
+        dao.create(object(field("id","obj_1")), true);
+
+        EsAPIClient failingClient = clientThatWritesDuringTheCopy(index.indexName(), c -> {
+            throw new IllegalStateException("copy failed");
+        });
+        try {
+            failingClient.migrateIndex(index2);
+            throw new AssertionError("expected the copy to fail");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("copy failed");
+        }
+        assertThat(client.indexExists(index2.indexName())).isFalse();
+        assertThat(client.indicesFor(index.readAlias()).first().asString()).isEqualTo(index.indexName());
+        assertThat(client.indicesFor(index.writeAlias()).size()).isEqualTo(1);
+        assertThat(client.indicesFor(index.writeAlias()).first().asString()).isEqualTo(index.indexName());
+
+        try(BulkIndexingOperations bulkIndexer = new EsCrudDao(ElasticSearchType.create(index, "test"), failingClient, DiyTestContext.instance.modifiedIdsTracker, 2).bulkIndexer()) {
+            bulkIndexer.index(object(field("id","obj_2")));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        client.migrateIndex(index2);
+        client.refresh();
+        assertThat(dao.get("obj_1")).isNotNull();
+        assertThat(dao.get("obj_2")).isNotNull();
+    }
+
+    public void shouldNotSwitchTheAliasesWhileAWriteIsInProgress() throws Exception {
+        String indexName = RandomHelper.randomIndexName();
+        ElasticSearchIndex index = ElasticSearchIndex.createWithWriteAlias(indexName, 1, "mapping-v1.json");
+        ElasticSearchIndex index2 = ElasticSearchIndex.createWithWriteAlias(indexName, 2, "mapping-v1.json");
+        client.migrateIndex(index);
+        CrudOperations dao = crudOperationsFactory.builder(ElasticSearchType.create(index, "test")).dao();
+        dao.create(object(field("id","obj")), true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch writingToTheNewIndex = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            AtomicReference<Future<JsonObject>> update = new AtomicReference<>();
+            AtomicBoolean copyStarted = new AtomicBoolean();
+            EsAPIClient migratingClient = new HttpEsAPIClient(DiyTestContext.instance.simpleClient, DiyTestContext.instance.parser, 10000) {
+                @Override
+                public IterableSearchResponse iterableSearch(String idx, String type, JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
+                    if(index.indexName().equals(idx) && copyStarted.compareAndSet(false, true)) {
+                        CrudOperations writingDao = new EsCrudDao(ElasticSearchType.create(index, "test"), this, DiyTestContext.instance.modifiedIdsTracker, 2);
+                        update.set(executor.submit(() -> writingDao.update("obj", true, o -> {
+                            o.put("a", "a");
+                            return o;
+                        })));
+                        await(writingToTheNewIndex);
+                    }
+                    return super.iterableSearch(idx, type, q, pageSize, ttlMinutes, rawResults);
+                }
+
+                @Override
+                public JsonObject indexObjectWithExternalVersion(String idx, String type, String id, String parentId, long version, JsonObject object) {
+                    if(index2.indexName().equals(idx) && writingToTheNewIndex.getCount() > 0) {
+                        // the update reached the old index but not yet the new one
+                        writingToTheNewIndex.countDown();
+                        await(release);
+                    }
+                    return super.indexObjectWithExternalVersion(idx, type, id, parentId, version, object);
+                }
+            };
+            Future<?> migration = executor.submit(() -> migratingClient.migrateIndex(index2));
+            await(writingToTheNewIndex);
+            Thread.sleep(500);
+            // the copy is done by now but the switch waits for the update
+            assertThat(client.indicesFor(index.readAlias()).first().asString()).isEqualTo(index.indexName());
+
+            release.countDown();
+            migration.get(10, TimeUnit.SECONDS);
+            assertThat(update.get().get(10, TimeUnit.SECONDS).getString("a")).isEqualTo("a");
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+        assertThat(client.indicesFor(index2.readAlias()).first().asString()).isEqualTo(index2.indexName());
+        assertThat(client.getObject(index2.indexName(), "test", "obj").getString("_source", "a")).isEqualTo("a");
+        dao.update("obj", true, o -> {
+            o.put("b", "b");
+            return o;
+        });
+        JsonObject result = dao.get("obj");
+        assertThat(result.getString("a")).isEqualTo("a");
+        assertThat(result.getString("b")).isEqualTo("b");
+    }
+
+    /**
+     * @return a client that makes the given writes with itself when it starts copying the old index during a migration
+     */
+    private EsAPIClient clientThatWritesDuringTheCopy(String oldIndex, Consumer<EsAPIClient> writes) {
+        AtomicBoolean copyStarted = new AtomicBoolean();
+        return new HttpEsAPIClient(DiyTestContext.instance.simpleClient, DiyTestContext.instance.parser, 10000) {
+            @Override
+            public IterableSearchResponse iterableSearch(String index, String type, JsonObject q, int pageSize, int ttlMinutes, boolean rawResults) {
+                if(oldIndex.equals(index) && copyStarted.compareAndSet(false, true)) {
+                    writes.accept(this);
+                }
+                return super.iterableSearch(index, type, q, pageSize, ttlMinutes, rawResults);
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package io.inbot.elasticsearch.client;
+
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.object;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.jsonj.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class ProcessingSearchResponseTest {
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void before() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterMethod
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    public void shouldKeepTheOrderOfTheResults() {
+        EsSearchResponse response = new EsSearchResponse(EsSearchResponseTest.esResponse(50), 50, 0);
+        // earlier results take longer so that later ones finish first
+        ProcessingSearchResponse processed = response.parallelMap(hit -> {
+            sleep(50 - Integer.parseInt(hit.getString("id")));
+            return object(field("id", hit.getString("id")), field("processed", true));
+        }, executor, 10);
+
+        List<String> ids = new ArrayList<>();
+        for(JsonObject hit: processed) {
+            assertThat(hit.getBoolean("processed")).isTrue();
+            ids.add(hit.getString("id"));
+        }
+        assertThat(ids).hasSize(50);
+        for(int i = 0; i < 50; i++) {
+            assertThat(ids.get(i)).isEqualTo("" + i);
+        }
+    }
+
+    public void shouldLeaveOutResultsThatAreMappedToNull() {
+        EsSearchResponse response = new EsSearchResponse(EsSearchResponseTest.esResponse(10), 10, 0);
+        List<String> ids = new ArrayList<>();
+        for(JsonObject hit: response.parallelMap(hit -> Integer.parseInt(hit.getString("id")) % 2 == 0 ? hit : null, executor, 3)) {
+            ids.add(hit.getString("id"));
+        }
+        assertThat(ids).containsExactly("0", "2", "4", "6", "8");
+    }
+
+    public void shouldNotProcessMoreThanLookaheadResultsAhead() {
+        EsSearchResponse response = new EsSearchResponse(EsSearchResponseTest.esResponse(20), 20, 0);
+        AtomicInteger started = new AtomicInteger();
+        int consumed = 0;
+        for(JsonObject hit: response.parallelMap(hit -> {
+            started.incrementAndGet();
+            return hit;
+        }, executor, 4)) {
+            assertThat(hit).isNotNull();
+            consumed++;
+            assertThat(started.get() - consumed).isLessThanOrEqualTo(3);
+        }
+        assertThat(consumed).isEqualTo(20);
+    }
+
+    public void shouldPropagateProcessingFailures() {
+        EsSearchResponse response = new EsSearchResponse(EsSearchResponseTest.esResponse(10), 10, 0);
+        List<String> ids = new ArrayList<>();
+        try {
+            for(JsonObject hit: response.parallelMap(hit -> {
+                if("5".equals(hit.getString("id"))) {
+                    throw new IllegalArgumentException("cannot process 5");
+                }
+                return hit;
+            }, executor, 3)) {
+                ids.add(hit.getString("id"));
+            }
+            throw new AssertionError("expected the processing failure");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).isEqualTo("cannot process 5");
+        }
+        // everything before the failing result was returned
+        assertThat(ids).containsExactly("0", "1", "2", "3", "4");
+    }
+
+    private static void sleep(int millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package io.inbot.elasticsearch.client;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.object;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.jsonj.JsonObject;
+import org.testng.annotations.Test;
+
+@Test
+public class SourceFilterTest {
+    private final JsonObject object = object(
+            field("id", "1"),
+            field("_version", "3"),
+            field("name", "foo"),
+            field("tags", array("a", "b")),
+            field("user", object(field("name", "bar"), field("email", "bar@example.com"), field("address", object(field("city", "Berlin"))))));
+
+    public void shouldKeepIncludedFields() {
+        JsonObject filtered = SourceFilter.include("name", "user.address").filter(object);
+
+        assertThat(filtered).isEqualTo(object(
+                field("name", "foo"),
+                field("user", object(field("address", object(field("city", "Berlin"))))),
+                field("id", "1"),
+                field("_version", "3")));
+    }
+
+    public void shouldLeaveOutExcludedFields() {
+        JsonObject filtered = SourceFilter.exclude("tags", "user.*").filter(object);
+
+        assertThat(filtered).isEqualTo(object(field("id", "1"), field("_version", "3"), field("name", "foo"), field("user", object())));
+    }
+
+    public void shouldMatchWildcards() {
+        JsonObject filtered = SourceFilter.include("user.*").andExclude("*.email").filter(object);
+
+        assertThat(filtered.getObject("user").keySet()).containsOnly("name", "address");
+        assertThat(filtered.containsKey("name")).isFalse();
+        assertThat(filtered.containsKey("tags")).isFalse();
+    }
+
+    public void shouldNotModifyTheObject() {
+        JsonObject copy = object.deepClone();
+        SourceFilter.include("user.name").filter(object).getObject("user").put("name", "changed");
+
+        assertThat(object).isEqualTo(copy);
+    }
+}
@@ -12,15 +12,22 @@ import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
 import io.inbot.elasticsearch.client.ElasticSearchIndex;
 import io.inbot.elasticsearch.client.ElasticSearchType;
 import io.inbot.elasticsearch.client.EsAPIClient;
+import io.inbot.elasticsearch.client.PagedSearchResponse;
+import io.inbot.elasticsearch.client.QueryBuilder;
+import io.inbot.elasticsearch.client.SourceFilter;
 import io.inbot.elasticsearch.exceptions.EsVersionConflictException;
 import io.inbot.elasticsearch.testutil.DiyTestContext;
 import io.inbot.elasticsearch.testutil.EsTestLauncher;
 import io.inbot.elasticsearch.testutil.RandomHelper;
 import io.inbot.utils.HashUtils;
+import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import org.testng.annotations.BeforeMethod;
@@ -85,6 +92,8 @@ public class CrudOperationsIntegrationTest {
         CrudOperations dao = crudOperationsFactory.builder(type).enableInMemoryCache(10000, 10).dao();
 
         GuavaCachingCrudDao cachingCrud = new GuavaCachingCrudDao(dao, 20, 20);
+        // without a metrics prefix it doesn't add metrics that could clash with those of other daos
+        assertThat(cachingCrud.getMetrics().keySet()).isEqualTo(dao.getMetrics().keySet());
         String id = HashUtils.createId();
         JsonObject created = cachingCrud.create(object(field("id", id)), false);
         String createdVersion = created.getString("_version");
@@ -206,6 +215,198 @@ public class CrudOperationsIntegrationTest {
         assertThat(retrieved.size()).isEqualTo(10);
     }
 
+    public void shouldCoalesceConcurrentGets() throws InterruptedException {
+        ElasticSearchIndex index = ElasticSearchIndex.create(RandomHelper.randomIndexName(), 1, "mapping-v1.json");
+        ElasticSearchType type = ElasticSearchType.create(index, "test");
+
+        CrudOperations dao = crudOperationsFactory.builder(type).enableGetCoalescing(10, 20).dao();
+
+        String[] ids = new String[20];
+        for(int i=0; i<ids.length; i++) {
+            ids[i] = dao.create(object(field("id", HashUtils.createId())), false).getString("id");
+        }
+        AtomicInteger found = new AtomicInteger();
+        ExecutorService threadPool = Executors.newFixedThreadPool(10);
+        for(int i=0;i<ids.length*2;i++) {
+            // every id is requested twice; the last couple of gets are for objects that don't exist
+            String id = i < ids.length * 2 - 4 ? ids[i % ids.length] : "doesnotexist_" + i;
+            threadPool.execute(() -> {
+                JsonObject object = dao.get(id);
+                if(object != null && id.equals(object.getString("id"))) {
+                    found.incrementAndGet();
+                }
+            });
+        }
+        threadPool.shutdown();
+        threadPool.awaitTermination(20, TimeUnit.SECONDS);
+        assertThat(found.get()).isEqualTo(ids.length * 2 - 4);
+    }
+
+    public void shouldNotCacheOffHeapLoadsThatRaceWithWrites() throws Exception {
+        ElasticSearchIndex index = ElasticSearchIndex.create(RandomHelper.randomIndexName(), 1, "mapping-v1.json");
+        ElasticSearchType type = ElasticSearchType.create(index, "test");
+        CountDownLatch loaded = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean blockNextGet = new AtomicBoolean();
+        EsCrudDao esDao = new EsCrudDao(type, client, DiyTestContext.instance.modifiedIdsTracker, 2) {
+            @Override
+            public JsonObject get(String id) {
+                JsonObject object = super.get(id);
+                if(blockNextGet.compareAndSet(true, false)) {
+                    // the load read the object before the update below
+                    loaded.countDown();
+                    await(release);
+                }
+                return object;
+            }
+        };
+        OffHeapCachingCrudDao dao = new OffHeapCachingCrudDao(esDao, DiyTestContext.instance.parser, "test", 1024 * 1024, 60, false);
+        String id = dao.create(object(field("id", HashUtils.createId()), field("value", 1)), false).getString("id");
+        dao.clear();
+
+        ExecutorService threadPool = Executors.newSingleThreadExecutor();
+        try {
+            blockNextGet.set(true);
+            Future<JsonObject> racingGet = threadPool.submit(() -> dao.get(id));
+            await(loaded);
+            dao.update(id, true, o -> {
+                o.put("value", 2);
+                return o;
+            });
+            release.countDown();
+            assertThat(racingGet.get(10, TimeUnit.SECONDS).getInt("value")).isEqualTo(1);
+        } finally {
+            release.countDown();
+            threadPool.shutdownNow();
+        }
+        assertThat(dao.get(id).getInt("value")).isEqualTo(2);
+    }
+
+    public void shouldInvalidateOffHeapCacheAfterBulkIndexing() throws IOException {
+        ElasticSearchIndex index = ElasticSearchIndex.create(RandomHelper.randomIndexName(), 1, "mapping-v1.json");
+        ElasticSearchType type = ElasticSearchType.create(index, "test");
+        CrudOperations dao = crudOperationsFactory.builder(type).enableOffHeapCache(1024 * 1024, 60, true).dao();
+        String id = dao.create(object(field("id", HashUtils.createId()), field("value", 1)), false).getString("id");
+
+        try(BulkIndexingOperations bulkIndexer = dao.bulkIndexer()) {
+            bulkIndexer.index(object(field("id", id), field("value", 2)));
+            // loads the object that is still in es before the bulk request is sent
+            assertThat(dao.get(id).getInt("value")).isEqualTo(1);
+        }
+        assertThat(dao.get(id).getInt("value")).isEqualTo(2);
+    }
+
+    public void shouldInvalidateRedisAfterBulkIndexing() throws IOException {
+        ElasticSearchIndex index = ElasticSearchIndex.create(RandomHelper.randomIndexName(), 1, "mapping-v1.json");
+        ElasticSearchType type = ElasticSearchType.create(index, "test");
+        CrudOperations dao = crudOperationsFactory.builder(type).enableRedisCache(true, 60, RandomHelper.randomId()).dao();
+        String id = dao.create(object(field("id", HashUtils.createId()), field("value", 1)), false).getString("id");
+
+        try(BulkIndexingOperations bulkIndexer = dao.bulkIndexer()) {
+            bulkIndexer.index(object(field("id", id), field("value", 2)));
+            // puts the object that is still in es back in redis
+            assertThat(dao.get(id).getInt("value")).isEqualTo(1);
+        }
+        assertThat(dao.get(id).getInt("value")).isEqualTo(2);
+    }
+
+    public void shouldInvalidateCachedObjectsOnDeleteByQuery() {
+        ElasticSearchIndex index = ElasticSearchIndex.create(RandomHelper.randomIndexName(), 1, "mapping-v1.json");
+        ElasticSearchType type = ElasticSearchType.create(index, "test");
+        String prefix = RandomHelper.randomId();
+        CrudOperations redisDao = crudOperationsFactory.builder(type).enableRedisCache(true, 60, prefix).dao();
+        CrudOperations tieredDao = crudOperationsFactory.builder(type).enableRedisCache(true, 60, prefix).enableInMemoryCache(100, 60).dao();
+
+        for(CrudOperations dao: new CrudOperations[] {redisDao, tieredDao}) {
+            String deleted = dao.create(object(field("id", HashUtils.createId()), field("message", "delete")), false).getString("id");
+            String kept = dao.create(object(field("id", HashUtils.createId()), field("message", "keep")), false).getString("id");
+            assertThat(dao.get(deleted)).isNotNull();
+            assertThat(dao.get(kept)).isNotNull();
+            client.refresh();
+
+            dao.deleteByQuery(QueryBuilder.query(object(field("term", object(field("message", "delete"))))));
+            assertThat(dao.get(deleted)).isNull();
+            assertThat(dao.get(kept)).isNotNull();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void shouldNotWaitForOtherGetsWhenUncontended() {
+        ElasticSearchIndex index = ElasticSearchIndex.create(RandomHelper.randomIndexName(), 1, "mapping-v1.json");
+        ElasticSearchType type = ElasticSearchType.create(index, "test");
+
+        CrudOperations dao = crudOperationsFactory.builder(type).enableGetCoalescing(10, 5000).dao();
+        String id = dao.create(object(field("id", HashUtils.createId())), false).getString("id");
+
+        long start = System.currentTimeMillis();
+        assertThat(dao.get(id)).isNotNull();
+        assertThat(dao.get("doesnotexist")).isNull();
+        assertThat(System.currentTimeMillis() - start).isLessThan(2500);
+    }
+
+    public void shouldFailCoalescedGetsOnErrors() {
+        ElasticSearchIndex index = ElasticSearchIndex.create(RandomHelper.randomIndexName(), 1, "mapping-v1.json");
+        ElasticSearchType type = ElasticSearchType.create(index, "test");
+        EsCrudDao failingDao = new EsCrudDao(type, client, DiyTestContext.instance.modifiedIdsTracker, 2) {
+            @Override
+            public JsonObject get(String id) {
+                throw new StackOverflowError("not a runtime exception");
+            }
+        };
+        CrudOperations dao = new CoalescingCrudDao(failingDao, "test", 10, 20);
+        try {
+            dao.get("whatever");
+            throw new AssertionError("expected the error");
+        } catch (StackOverflowError e) {
+            assertThat(e.getMessage()).isEqualTo("not a runtime exception");
+        }
+    }
+
+    public void shouldOnlyFetchFilteredSource() {
+        ElasticSearchIndex index = ElasticSearchIndex.create(RandomHelper.randomIndexName(), 1, "mapping-v1.json");
+        ElasticSearchType type = ElasticSearchType.create(index, "test");
+
+        CrudOperations dao = crudOperationsFactory.builder(type).enableInMemoryCache(10000, 10).dao();
+        String id = dao.create(object(field("id", HashUtils.createId()), field("title", "foo"), field("body", "bar")), false).getString("id");
+
+        JsonObject partial = dao.get(id, SourceFilter.include("title"));
+        assertThat(partial.getString("id")).isEqualTo(id);
+        assertThat(partial.getString("title")).isEqualTo("foo");
+        assertThat(partial.get("body")).isNull();
+        // partial objects don't end up in the cache
+        assertThat(dao.get(id).getString("body")).isEqualTo("bar");
+
+        JsonArray objects = dao.mget(SourceFilter.exclude("body"), id);
+        assertThat(objects.size()).isEqualTo(1);
+        assertThat(objects.get(0).asObject().get("body")).isNull();
+    }
+
+    public void shouldCacheSearchesUntilSomethingIsWritten() {
+        ElasticSearchIndex index = ElasticSearchIndex.create(RandomHelper.randomIndexName(), 1, "mapping-v1.json");
+        ElasticSearchType type = ElasticSearchType.create(index, "test");
+
+        CrudOperations dao = crudOperationsFactory.builder(type).enableSearchCache(100, 60).dao();
+        dao.create(randomObject(), false);
+        client.refresh();
+
+        PagedSearchResponse first = dao.pagedSearch(object(field("query", object(field("match_all", new JsonObject()))), field("version", true)), 10, 0);
+        assertThat(first.size()).isEqualTo(1);
+        // key order in the query should not matter
+        JsonObject sameQuery = object(field("version", true), field("query", object(field("match_all", new JsonObject()))));
+        assertThat(dao.pagedSearch(sameQuery, 10, 0)).isSameAs(first);
+
+        dao.create(randomObject(), false);
+        client.refresh();
+        assertThat(dao.pagedSearch(sameQuery, 10, 0).size()).isEqualTo(2);
+    }
+
     public void shouldKeepTrackOfModifiedIds() {
         ElasticSearchIndex index = ElasticSearchIndex.create(RandomHelper.randomIndexName(), 1, "mapping-v1.json");
         ElasticSearchType type = ElasticSearchType.create(index, "test");
@@ -232,5 +433,15 @@ public class CrudOperationsIntegrationTest {
         Set<String> recentlyModifiedIds = dao.recentlyModifiedIds();
         // we just modified some objects so should be same size
         assertThat(recentlyModifiedIds.size()).isEqualTo(5);
+
+        long beforeSecondUpdate = System.currentTimeMillis();
+        dao.update(ids.get(0).asString(), true, object -> {
+            object.put("message", "baz");
+            return object;
+        });
+        // modifying again does not add a duplicate
+        assertThat(dao.recentlyModifiedIds().size()).isEqualTo(5);
+        assertThat(dao.recentlyModifiedIds(beforeSecondUpdate)).contains(ids.get(0).asString());
+        assertThat(dao.recentlyModifiedIds(System.currentTimeMillis() + 60000)).isEmpty();
     }
 }
@@ -0,0 +1,126 @@
+package io.inbot.elasticsearch.crud;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.testng.annotations.Test;
+
+@Test
+public class OffHeapObjectStoreTest {
+    private static final int MB = 1024 * 1024;
+
+    public void shouldPutGetAndRemove() {
+        OffHeapObjectStore store = new OffHeapObjectStore(4 * MB, 4);
+        assertThat(store.put("key", bytes("value"), 60000)).isTrue();
+        assertThat(new String(store.get("key"), StandardCharsets.UTF_8)).isEqualTo("value");
+        assertThat(store.put("key", bytes("another value"), 60000)).isTrue();
+        assertThat(new String(store.get("key"), StandardCharsets.UTF_8)).isEqualTo("another value");
+        assertThat(store.size()).isEqualTo(1L);
+        store.remove("key");
+        assertThat(store.get("key")).isNull();
+        assertThat(store.size()).isEqualTo(0L);
+        assertThat(store.usedBytes()).isEqualTo(0L);
+    }
+
+    public void shouldFindEverythingAfterRemovalsAndResizes() {
+        // a single segment with enough entries to resize its index several times and plenty of probe collisions
+        OffHeapObjectStore store = new OffHeapObjectStore(4 * MB, 1);
+        int count = 20000;
+        for(int i = 0; i < count; i++) {
+            assertThat(store.put("key-" + i, bytes("value-" + i), 60000)).isTrue();
+        }
+        for(int i = 0; i < count; i += 3) {
+            store.remove("key-" + i);
+        }
+        for(int i = 0; i < count; i++) {
+            byte[] value = store.get("key-" + i);
+            if(i % 3 == 0) {
+                assertThat(value).isNull();
+            } else {
+                assertThat(new String(value, StandardCharsets.UTF_8)).isEqualTo("value-" + i);
+            }
+        }
+        assertThat(store.size()).isEqualTo((long) (count - (count + 2) / 3));
+        assertThat(store.evictions()).isEqualTo(0L);
+    }
+
+    public void shouldExpireEntries() throws InterruptedException {
+        OffHeapObjectStore store = new OffHeapObjectStore(4 * MB, 1);
+        store.put("short", bytes("value"), 1);
+        store.put("long", bytes("value"), 60000);
+        Thread.sleep(10);
+        assertThat(store.get("short")).isNull();
+        assertThat(store.get("long")).isNotNull();
+        assertThat(store.size()).isEqualTo(1L);
+    }
+
+    public void shouldEvictEntriesThatWereNotReadFirst() {
+        // one segment with four 1MB slabs of 128 byte slots
+        OffHeapObjectStore store = new OffHeapObjectStore(4 * MB, 1);
+        byte[] value = new byte[100];
+        int capacity = 4 * MB / 128;
+        for(int i = 0; i < capacity; i++) {
+            assertThat(store.put("key-" + i, value, 60000)).isTrue();
+        }
+        assertThat(store.evictions()).isEqualTo(0L);
+        for(int i = 0; i < 100; i++) {
+            assertThat(store.get("key-" + i)).isNotNull();
+        }
+        for(int i = capacity; i < capacity + 1000; i++) {
+            assertThat(store.put("key-" + i, value, 60000)).isTrue();
+        }
+        assertThat(store.evictions()).isEqualTo(1000L);
+        for(int i = 0; i < 100; i++) {
+            assertThat(store.get("key-" + i)).isNotNull();
+        }
+        assertThat(store.get("key-100")).isNull();
+        assertThat(store.allocatedBytes()).isEqualTo((long) 4 * MB);
+    }
+
+    public void shouldMoveSlabsToSlotSizesThatArriveLater() {
+        OffHeapObjectStore store = new OffHeapObjectStore(4 * MB, 1);
+        byte[] small = new byte[100];
+        for(int i = 0; i < 4 * MB / 128; i++) {
+            store.put("small-" + i, small, 60000);
+        }
+        // all slabs are in use for small entries; a larger entry needs one of them
+        byte[] large = new byte[3000];
+        Arrays.fill(large, (byte) 42);
+        assertThat(store.put("large", large, 60000)).isTrue();
+        assertThat(store.get("large")).isEqualTo(large);
+        assertThat(store.slabMoves()).isEqualTo(1L);
+        assertThat(store.rejections()).isEqualTo(0L);
+        assertThat(store.allocatedBytes()).isEqualTo((long) 4 * MB);
+        // the small entries in the moved slab were evicted, the others are still there
+        assertThat(store.evictions()).isEqualTo((long) MB / 128);
+        assertThat(store.get("small-0")).isNotNull();
+        assertThat(store.size()).isEqualTo(3L * MB / 128 + 1);
+    }
+
+    public void shouldMoveSlabsBackWhenTheWorkloadChanges() {
+        OffHeapObjectStore store = new OffHeapObjectStore(4 * MB, 1);
+        byte[] small = new byte[100];
+        byte[] large = new byte[3000];
+        for(int i = 0; i < 4 * MB / 128; i++) {
+            store.put("small-" + i, small, 60000);
+        }
+        // only large entries from now on; they should end up with most of the memory
+        for(int i = 0; i < 4 * MB / 4096; i++) {
+            assertThat(store.put("large-" + i, large, 60000)).isTrue();
+        }
+        assertThat(store.slabMoves()).isGreaterThan(1L);
+        assertThat(store.rejections()).isEqualTo(0L);
+        int found = 0;
+        for(int i = 0; i < 4 * MB / 4096; i++) {
+            if(store.get("large-" + i) != null) {
+                found++;
+            }
+        }
+        assertThat(found).isGreaterThan(MB / 4096);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
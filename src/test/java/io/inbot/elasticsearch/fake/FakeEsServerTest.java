@@ -0,0 +1,105 @@
+package io.inbot.elasticsearch.fake;
+
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.object;
+import static org.assertj.core.api.StrictAssertions.assertThat;
+
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+import io.inbot.elasticsearch.bulkindexing.BulkIndexingOperations;
+import io.inbot.elasticsearch.client.ElasticSearchIndex;
+import io.inbot.elasticsearch.client.HttpEsAPIClient;
+import io.inbot.elasticsearch.client.QueryBuilder;
+import io.inbot.elasticsearch.exceptions.EsConnectionException;
+import io.inbot.elasticsearch.exceptions.EsNotFoundException;
+import io.inbot.elasticsearch.exceptions.EsVersionConflictException;
+import io.inbot.elasticsearch.jsonclient.JsonJRestClient;
+import java.io.IOException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class FakeEsServerTest {
+    private FakeEsServer es;
+    private HttpEsAPIClient client;
+
+    @BeforeClass
+    public void beforeClass() {
+        es = FakeEsServer.start();
+        client = new HttpEsAPIClient(JsonJRestClient.simpleClient(es.url()), new JsonParser(), 10000);
+    }
+
+    @AfterClass
+    public void afterClass() {
+        es.close();
+    }
+
+    @BeforeMethod
+    public void before() {
+        es.reset();
+    }
+
+    public void shouldCheckVersions() {
+        JsonObject created = client.createObject("test", "t", "1", null, object(field("name", "first")), false);
+        assertThat(created.getInt("_version")).isEqualTo(1);
+        try {
+            client.createObject("test", "t", "1", null, object(field("name", "again")), false);
+            throw new AssertionError("expected a conflict");
+        } catch (EsVersionConflictException e) {
+            // expected
+        }
+        assertThat(client.updateObject("test", "t", "1", "1", object(field("name", "second"))).getInt("_version")).isEqualTo(2);
+        try {
+            client.updateObject("test", "t", "1", "1", object(field("name", "stale")));
+            throw new AssertionError("expected a conflict");
+        } catch (EsVersionConflictException e) {
+            assertThat(e.getMessage()).contains("current [2], provided [1]");
+        }
+        assertThat(client.getObject("test", "t", "1").getString("_source", "name")).isEqualTo("second");
+    }
+
+    public void shouldBulkIndexAndScroll() throws IOException {
+        try(BulkIndexingOperations bulkIndexer = client.bulkIndexer("test", "t", 10, 2)) {
+            for(int i = 0; i < 95; i++) {
+                bulkIndexer.index(object(field("id", "" + i), field("n", i), field("name", i % 2 == 0 ? "even" : "odd")));
+            }
+        }
+        assertThat(client.iterableSearch("test", "t", QueryBuilder.query(QueryBuilder.matchAll()), 10, 1, false).size()).isEqualTo(95);
+        int count = 0;
+        for(@SuppressWarnings("unused") JsonObject o: client.iterableSearch("test", "t", QueryBuilder.query(QueryBuilder.term("name", "even")), 7, 1, false)) {
+            count++;
+        }
+        assertThat(count).isEqualTo(48);
+        assertThat(client.getObjects("test", "t", "1", "2", "missing").getArray("docs").size()).isEqualTo(3);
+    }
+
+    public void shouldMigrateIndex() {
+        client.migrateIndex(ElasticSearchIndex.create("test", 1, "mapping-v1.json"));
+        client.createObject("test", "t", "1", null, object(field("id", "1"), field("name", "first")), false);
+        client.migrateIndex(ElasticSearchIndex.create("test", 2, "mapping-v1.json"));
+        assertThat(client.indicesFor("test").first().asString()).isEqualTo("test_v2");
+        assertThat(client.indexExists("test_v1")).isFalse();
+        assertThat(client.getObject("test", "t", "1").getString("_source", "name")).isEqualTo("first");
+    }
+
+    @Test(expectedExceptions = EsNotFoundException.class)
+    public void shouldReturnNotFoundForDeletedObjects() {
+        client.createObject("test", "t", "1", null, object(field("name", "first")), false);
+        client.deleteObject("test", "t", "1");
+        client.getObject("test", "t", "1");
+    }
+
+    public void shouldInjectFailures() {
+        client.createObject("test", "t", "1", null, object(field("name", "first")), false);
+        es.failNext(1, 503);
+        try {
+            client.getObject("test", "t", "1");
+            throw new AssertionError("expected a failure");
+        } catch (EsConnectionException e) {
+            // expected
+        }
+        assertThat(client.getObject("test", "t", "1").getString("_source", "name")).isEqualTo("first");
+    }
+}
@@ -6,7 +6,8 @@ import io.inbot.elasticsearch.client.HttpEsAPIClient;
 import io.inbot.elasticsearch.crud.CrudOpererationsFactory;
 import io.inbot.elasticsearch.jsonclient.JsonJRestClient;
 import io.inbot.redis.FakeJedisPool;
-import io.inbot.redis.RedisBackedCircularStack;
+import io.inbot.redis.ModifiedIdsTracker;
+import io.inbot.redis.RedisSortedSetModifiedTracker;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,7 +30,7 @@ public class DiyTestContext {
     public final EsAPIClient client = new HttpEsAPIClient(simpleClient, parser, 10000);
 
     public final JedisPool jedisPool;
-    public final RedisBackedCircularStack redisBackedCircularStack;
+    public final ModifiedIdsTracker modifiedIdsTracker;
     public final CrudOpererationsFactory crudOperationsFactory;
 
     private DiyTestContext() {
@@ -41,7 +42,7 @@ public class DiyTestContext {
             LOG.info("using fake jedis");
             jedisPool = new FakeJedisPool();
         }
-        redisBackedCircularStack = new RedisBackedCircularStack(jedisPool, 10, 60);
-        crudOperationsFactory = new CrudOpererationsFactory(client, parser, jedisPool, redisBackedCircularStack);
+        modifiedIdsTracker = new RedisSortedSetModifiedTracker(jedisPool, 10, 60);
+        crudOperationsFactory = new CrudOpererationsFactory(client, parser, jedisPool, modifiedIdsTracker);
     }
 }
@@ -1,23 +1,37 @@
 package io.inbot.elasticsearch.testutil;
 
+import io.inbot.elasticsearch.fake.FakeEsServer;
 import io.inbot.elasticsearch.launcher.ElasticSearchNodeHolder;
 import org.apache.commons.lang3.RandomUtils;
 
 public class EsTestLauncher {
     public static final String ES_URL="http://localhost:9222";
 
+    // run with -Des.fake=true to test against the in process stand in instead of a real node
+    private static final boolean FAKE = Boolean.getBoolean("es.fake");
+
     private static InitializingAtomicReference<ElasticSearchNodeHolder> ref = new InitializingAtomicReference<>(() -> {
         ElasticSearchNodeHolder nodeholder = ElasticSearchNodeHolder.createWithDefaults("target/index_"+RandomUtils.nextInt(0, Integer.MAX_VALUE), 9222, false);
         nodeholder.start();
         return nodeholder;
     });
 
+    private static InitializingAtomicReference<FakeEsServer> fakeRef = new InitializingAtomicReference<>(() -> FakeEsServer.start(9222, 16));
+
     public static void destroy() {
-        ref.get().close();
+        if(FAKE) {
+            fakeRef.get().close();
+        } else {
+            ref.get().close();
+        }
     }
 
 
     public static void ensureEsIsUp() {
-        ref.get();
+        if(FAKE) {
+            fakeRef.get();
+        } else {
+            ref.get();
+        }
     }
 }
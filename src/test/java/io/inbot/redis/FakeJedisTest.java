@@ -0,0 +1,105 @@
+package io.inbot.redis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+@Test
+public class FakeJedisTest {
+    private FakeJedisPool pool;
+
+    @BeforeMethod
+    public void before() {
+        pool = new FakeJedisPool();
+    }
+
+    public void shouldExpireStrings() throws InterruptedException {
+        try(Jedis jedis = pool.getResource()) {
+            jedis.psetex("key", 50L, "value");
+            assertThat(jedis.get("key")).isEqualTo("value");
+            Thread.sleep(100);
+            assertThat(jedis.get("key")).isNull();
+            assertThat(jedis.ttl("key")).isEqualTo(-2L);
+        }
+    }
+
+    public void shouldRejectCommandsOnTheWrongType() {
+        try(Jedis jedis = pool.getResource()) {
+            jedis.set("key", "value");
+            try {
+                jedis.lpush("key", "value");
+                throw new AssertionError("expected an error");
+            } catch (JedisDataException e) {
+                assertThat(e.getMessage()).startsWith("WRONGTYPE");
+            }
+        }
+    }
+
+    public void shouldKeepListsAndSortedSetsInOrder() {
+        try(Jedis jedis = pool.getResource()) {
+            jedis.lpush("list", "1", "2", "3");
+            jedis.ltrim("list", 0, 1);
+            assertThat(jedis.lrange("list", 0, -1)).containsExactly("3", "2");
+
+            jedis.zadd("zset", 2, "b");
+            jedis.zadd("zset", 1, "a");
+            jedis.zadd("zset", 3, "c");
+            assertThat(jedis.zrevrangeByScore("zset", "+inf", "(1")).containsExactly("c", "b");
+            jedis.zremrangeByRank("zset", 0, -3);
+            assertThat(jedis.zrange("zset", 0, -1)).containsExactly("b", "c");
+        }
+    }
+
+    public void shouldSupportPipelinesAndTransactions() {
+        try(Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            Response<String> set = pipeline.set("key", "value");
+            Response<List<String>> mget = pipeline.mget("key", "missing");
+            pipeline.sync();
+            assertThat(set.get()).isEqualTo("OK");
+            assertThat(mget.get()).containsExactly("value", null);
+
+            Transaction transaction = jedis.multi();
+            Response<Long> first = transaction.incr("counter");
+            transaction.incr("counter");
+            transaction.exec();
+            assertThat(first.get()).isEqualTo(1L);
+            assertThat(jedis.get("counter")).isEqualTo("2");
+        }
+    }
+
+    public void shouldEvalScripts() {
+        try(Jedis jedis = pool.getResource()) {
+            String sha = jedis.scriptLoad("redis.call('SET', KEYS[1], ARGV[1])\nreturn redis.call('INCRBY', KEYS[1], 5)");
+            assertThat(jedis.evalsha(sha, 1, "key", "10")).isEqualTo(15L);
+        }
+    }
+
+    public void shouldScanAllKeys() {
+        try(Jedis jedis = pool.getResource()) {
+            for(int i = 0; i < 1000; i++) {
+                jedis.set("prefix/" + i, "value");
+            }
+            jedis.set("other", "value");
+            Set<String> keys = new HashSet<>();
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> result = jedis.scan(cursor, new ScanParams().match("prefix/*").count(100));
+                keys.addAll(result.getResult());
+                cursor = result.getStringCursor();
+            } while(!ScanParams.SCAN_POINTER_START.equals(cursor));
+            assertThat(keys).hasSize(1000);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.inbot.redis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Map;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.testng.annotations.Test;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+@Test
+public class InbotJedisPoolTest {
+
+    public void shouldKeepTheMetricNames() {
+        InbotJedisPool pool = new InbotJedisPool(new GenericObjectPoolConfig(), "localhost", 6379, 2000, 2000, null, 0, null);
+        try {
+            assertThat(pool.getMetrics().keySet()).contains("session_timer", "pool_retry_success", "pool_retry_fail", "rpush", "lrange", "zadd",
+                    "zremrangeByScore", "zscore", "get", "del", "lpush", "brpoplpush", "lrem", "llen", "setex", "set");
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    public void shouldCountFailuresAfterTheRetry() throws IOException {
+        int port;
+        try(ServerSocket serverSocket = new ServerSocket(0)) {
+            // nothing listens on this port after the socket is closed
+            port = serverSocket.getLocalPort();
+        }
+        InbotJedisPool pool = new InbotJedisPool(new GenericObjectPoolConfig(), "localhost", port, 2000, 2000, null, 0, null);
+        try {
+            try {
+                pool.getResource();
+                throw new AssertionError("expected a connection failure");
+            } catch (JedisConnectionException e) {
+                // expected
+            }
+            Map<String, Metric> metrics = pool.getMetrics();
+            assertThat(((Counter) metrics.get("pool_retry_fail")).getCount()).isEqualTo(1L);
+            assertThat(((Counter) metrics.get("pool_retry_success")).getCount()).isEqualTo(0L);
+        } finally {
+            pool.destroy();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.inbot.redis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.Timer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+@Test
+public class InstrumentedJedisTest {
+
+    public void shouldKeepTimingCommandsAfterAnErrorReply() throws IOException {
+        try(ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread(() -> serve(serverSocket));
+            server.setDaemon(true);
+            server.start();
+            Map<Command, Timer> commandTimers = new EnumMap<>(Command.class);
+            for(Command command : Command.values()) {
+                commandTimers.put(command, new Timer());
+            }
+            Timer pipelineTimer = new Timer();
+            InstrumentedJedis jedis = new InstrumentedJedis("localhost", serverSocket.getLocalPort(), 2000, 2000, commandTimers, pipelineTimer,
+                    new Timer());
+            try {
+                try {
+                    jedis.lpush("key", "value");
+                    throw new AssertionError("expected an error reply");
+                } catch (JedisDataException e) {
+                    assertThat(e.getMessage()).startsWith("WRONGTYPE");
+                }
+                assertThat(jedis.get("key")).isEqualTo("value");
+
+                assertThat(commandTimers.get(Command.LPUSH).getCount()).isEqualTo(1L);
+                assertThat(commandTimers.get(Command.GET).getCount()).isEqualTo(1L);
+                assertThat(pipelineTimer.getCount()).isEqualTo(0L);
+            } finally {
+                jedis.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Just enough of the redis protocol for the test: LPUSH fails with WRONGTYPE and GET returns "value".
+     */
+    private static void serve(ServerSocket serverSocket) {
+        try(Socket socket = serverSocket.accept()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+            String line;
+            while((line = in.readLine()) != null) {
+                int arguments = Integer.parseInt(line.substring(1));
+                String command = null;
+                for(int i = 0; i < arguments; i++) {
+                    in.readLine(); // $length
+                    String argument = in.readLine();
+                    if(command == null) {
+                        command = argument.toUpperCase(Locale.ROOT);
+                    }
+                }
+                String reply;
+                if("LPUSH".equals(command)) {
+                    reply = "-WRONGTYPE Operation against a key holding the wrong kind of value\r\n";
+                } else if("GET".equals(command)) {
+                    reply = "$5\r\nvalue\r\n";
+                } else {
+                    reply = "+OK\r\n";
+                }
+                out.write(reply.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client disconnected
+        }
+    }
+}
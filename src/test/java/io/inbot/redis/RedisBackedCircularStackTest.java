@@ -0,0 +1,137 @@
+package io.inbot.redis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.Meter;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+
+@Test
+public class RedisBackedCircularStackTest {
+
+    public void shouldKeepCapacityValues() {
+        FakeJedisPool pool = new FakeJedisPool();
+        RedisBackedCircularStack stack = new RedisBackedCircularStack(pool, 3, 60);
+        for(int i = 1; i <= 5; i++) {
+            stack.add("key", "" + i);
+        }
+        assertThat(stack.list("key")).containsExactly("5", "4", "3");
+        assertThat(redisList(pool, "key")).containsExactly("5", "4", "3");
+    }
+
+    public void shouldKeepCapacityValuesWhenWritingBehind() {
+        FakeJedisPool pool = new FakeJedisPool();
+        try(RedisBackedCircularStack stack = new RedisBackedCircularStack(ShardedJedisPools.single(pool), 3, 60, 100, 3600000)) {
+            for(int i = 1; i <= 5; i++) {
+                stack.add("key", "" + i);
+            }
+            stack.flush();
+            assertThat(stack.list("key")).containsExactly("5", "4", "3");
+            assertThat(redisList(pool, "key")).containsExactly("5", "4", "3");
+        }
+    }
+
+    public void shouldListBufferedValuesBeforeTheyAreWritten() {
+        FakeJedisPool pool = new FakeJedisPool();
+        // flush interval is long enough that only the explicit flushes in this test write anything
+        try(RedisBackedCircularStack stack = new RedisBackedCircularStack(ShardedJedisPools.single(pool), 10, 60, 100, 3600000)) {
+            stack.add("key", "1");
+            stack.add("key", "2");
+            assertThat(stack.list("key")).containsExactly("2", "1");
+            assertThat(redisList(pool, "key")).isEmpty();
+
+            stack.flush();
+            assertThat(redisList(pool, "key")).containsExactly("2", "1");
+            stack.add("key", "3");
+            assertThat(stack.list("key")).containsExactly("3", "2", "1");
+        }
+    }
+
+    public void shouldCoalesceRepeatedAddsAndListThemOnce() {
+        FakeJedisPool pool = new FakeJedisPool();
+        try(RedisBackedCircularStack stack = new RedisBackedCircularStack(ShardedJedisPools.single(pool), 10, 60, 100, 3600000)) {
+            stack.add("key", "1");
+            stack.flush();
+            stack.add("key", "1");
+            stack.add("key", "2");
+            stack.add("key", "1");
+            assertThat(stack.list("key")).containsExactly("1", "2");
+            assertThat(((Meter) stack.getMetrics().get("circularstack.coalesced")).getCount()).isEqualTo(1L);
+
+            stack.flush();
+            assertThat(redisList(pool, "key")).containsExactly("1", "2", "1");
+        }
+    }
+
+    public void shouldDropAddsWhenTheBufferIsFull() {
+        FakeJedisPool pool = new FakeJedisPool();
+        try(RedisBackedCircularStack stack = new RedisBackedCircularStack(ShardedJedisPools.single(pool), 10, 60, 2, 3600000)) {
+            stack.add("key", "1");
+            stack.add("key", "2");
+            stack.add("key", "3");
+            assertThat(stack.list("key")).containsExactly("2", "1");
+            assertThat(((Meter) stack.getMetrics().get("circularstack.dropped")).getCount()).isEqualTo(1L);
+        }
+    }
+
+    public void shouldWriteTheBufferOnClose() {
+        FakeJedisPool pool = new FakeJedisPool();
+        RedisBackedCircularStack stack = new RedisBackedCircularStack(ShardedJedisPools.single(pool), 10, 60, 100, 3600000);
+        stack.add("key", "1");
+        stack.close();
+        assertThat(redisList(pool, "key")).containsExactly("1");
+    }
+
+    public void shouldListValuesThatAreBeingWritten() throws InterruptedException {
+        BlockingPool pool = new BlockingPool();
+        try(RedisBackedCircularStack stack = new RedisBackedCircularStack(ShardedJedisPools.single(pool), 10, 60, 100, 3600000)) {
+            stack.add("key", "1");
+            stack.flush();
+            stack.add("key", "2");
+            pool.blockNext.set(true);
+            Thread flusher = new Thread(stack::flush);
+            flusher.start();
+            assertThat(pool.blocked.await(10, TimeUnit.SECONDS)).isTrue();
+            // the batch with "2" left the buffer but is not in redis yet
+            assertThat(redisList(pool, "key")).containsExactly("1");
+            assertThat(stack.list("key")).containsExactly("2", "1");
+
+            pool.release.countDown();
+            flusher.join(10000);
+            assertThat(redisList(pool, "key")).containsExactly("2", "1");
+            assertThat(stack.list("key")).containsExactly("2", "1");
+        }
+    }
+
+    private static List<String> redisList(FakeJedisPool pool, String key) {
+        try(Jedis jedis = pool.getResource()) {
+            return jedis.lrange(key, 0, -1);
+        }
+    }
+
+    /**
+     * Holds up the next getResource until released, so that a flush can be caught while it is writing.
+     */
+    private static class BlockingPool extends FakeJedisPool {
+        final AtomicBoolean blockNext = new AtomicBoolean();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public Jedis getResource() {
+            if(blockNext.compareAndSet(true, false)) {
+                blocked.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getResource();
+        }
+    }
+}
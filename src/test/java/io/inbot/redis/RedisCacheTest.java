@@ -0,0 +1,39 @@
+package io.inbot.redis;
+
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.object;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.jsonj.tools.JsonParser;
+import java.util.Arrays;
+import java.util.Collections;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class RedisCacheTest {
+    private RedisCache cache;
+
+    @BeforeMethod
+    public void before() {
+        cache = new RedisCache(new FakeJedisPool(), new CompressedJsonCodec(new JsonParser()), "test", 1, 60, 60);
+    }
+
+    public void shouldNotReplaceCachedObjectsWithAbsentMarkers() {
+        cache.put(object(field("id", "1"), field("name", "one")));
+        cache.putAbsent(Arrays.asList("1", "2"));
+
+        CachedValue one = cache.lookup("1");
+        assertThat(one.isHit()).isTrue();
+        assertThat(one.value().getString("name")).isEqualTo("one");
+        assertThat(cache.lookup("2").isAbsent()).isTrue();
+    }
+
+    public void shouldReplaceAbsentMarkersWithObjects() {
+        cache.putAbsent(Collections.singletonList("1"));
+        assertThat(cache.lookup("1").isAbsent()).isTrue();
+
+        cache.put(object(field("id", "1"), field("name", "one")));
+        assertThat(cache.lookup("1").value().getString("name")).isEqualTo("one");
+    }
+}
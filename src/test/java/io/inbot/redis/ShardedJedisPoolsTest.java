@@ -0,0 +1,137 @@
+package io.inbot.redis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import redis.clients.jedis.JedisPool;
+
+@Test
+public class ShardedJedisPoolsTest {
+    private final JedisPool a = new JedisPool("redis-a", 6379);
+    private final JedisPool b = new JedisPool("redis-b", 6379);
+    private final JedisPool c = new JedisPool("redis-c", 6379);
+    private final JedisPool d = new JedisPool("redis-d", 6379);
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void before() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterMethod
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    public void shouldPlaceKeysOnTheServerNameNotTheOrder() {
+        ShardedJedisPools shards = new ShardedJedisPools(pools("redis-a:6379", a, "redis-b:6379", b, "redis-c:6379", c), executor);
+        ShardedJedisPools reordered = new ShardedJedisPools(pools("redis-c:6379", c, "redis-a:6379", a, "redis-b:6379", b), executor);
+        for(int i = 0; i < 1000; i++) {
+            assertThat(reordered.pool("key-" + i)).isSameAs(shards.pool("key-" + i));
+        }
+    }
+
+    public void shouldSpreadKeysOverAllServers() {
+        ShardedJedisPools shards = new ShardedJedisPools(pools("redis-a:6379", a, "redis-b:6379", b, "redis-c:6379", c), executor);
+        Map<JedisPool, Integer> counts = new IdentityHashMap<>();
+        for(int i = 0; i < 3000; i++) {
+            counts.merge(shards.pool("key-" + i), 1, Integer::sum);
+        }
+        assertThat(counts).hasSize(3);
+        for(int count: counts.values()) {
+            assertThat(count).isGreaterThan(600);
+        }
+    }
+
+    public void shouldOnlyMoveKeysToAnAddedServer() {
+        ShardedJedisPools shards = new ShardedJedisPools(pools("redis-a:6379", a, "redis-b:6379", b, "redis-c:6379", c), executor);
+        ShardedJedisPools grown = new ShardedJedisPools(pools("redis-a:6379", a, "redis-b:6379", b, "redis-c:6379", c, "redis-d:6379", d), executor);
+        int moved = 0;
+        for(int i = 0; i < 3000; i++) {
+            JedisPool after = grown.pool("key-" + i);
+            if(after != shards.pool("key-" + i)) {
+                assertThat(after).isSameAs(d);
+                moved++;
+            }
+        }
+        assertThat(moved).isGreaterThan(300);
+        assertThat(moved).isLessThan(1200);
+    }
+
+    public void shouldSplitKeysPerServer() {
+        ShardedJedisPools shards = new ShardedJedisPools(pools("redis-a:6379", a, "redis-b:6379", b, "redis-c:6379", c), executor);
+        List<String> keys = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            keys.add("key-" + i);
+        }
+        Map<JedisPool, List<Integer>> calls = Collections.synchronizedMap(new IdentityHashMap<>());
+        shards.forEachShard(keys, (pool, positions) -> {
+            assertThat(calls.put(pool, positions)).isNull();
+        });
+        assertThat(calls).hasSize(3);
+        List<Integer> all = new ArrayList<>();
+        for(Map.Entry<JedisPool, List<Integer>> entry: calls.entrySet()) {
+            for(int position: entry.getValue()) {
+                assertThat(shards.pool(keys.get(position))).isSameAs(entry.getKey());
+                all.add(position);
+            }
+        }
+        Collections.sort(all);
+        assertThat(all).hasSize(100);
+        for(int i = 0; i < 100; i++) {
+            assertThat(all.get(i)).isEqualTo(i);
+        }
+    }
+
+    public void shouldPropagateFailuresOfAShard() {
+        ShardedJedisPools shards = new ShardedJedisPools(pools("redis-a:6379", a, "redis-b:6379", b), executor);
+        List<String> keys = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            keys.add("key-" + i);
+        }
+        try {
+            shards.forEachShard(keys, (pool, positions) -> {
+                if(pool == b) {
+                    throw new IllegalStateException("redis-b is down");
+                }
+            });
+            throw new AssertionError("expected the failure of redis-b");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("redis-b is down");
+        }
+    }
+
+    public void shouldNotNeedAnExecutorForASingleServer() {
+        ShardedJedisPools shards = ShardedJedisPools.single(a);
+        List<Integer> positions = new ArrayList<>();
+        shards.forEachShard(Collections.nCopies(3, "key"), (pool, p) -> {
+            assertThat(pool).isSameAs(a);
+            positions.addAll(p);
+        });
+        assertThat(positions).hasSize(3);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRequireAnExecutorForMoreThanOneServer() {
+        new ShardedJedisPools(pools("redis-a:6379", a, "redis-b:6379", b), null);
+    }
+
+    private static Map<String, JedisPool> pools(Object... namesAndPools) {
+        Map<String, JedisPool> pools = new LinkedHashMap<>();
+        for(int i = 0; i < namesAndPools.length; i += 2) {
+            pools.put((String) namesAndPools[i], (JedisPool) namesAndPools[i + 1]);
+        }
+        return pools;
+    }
+}
@@ -0,0 +1,57 @@
+package io.inbot.redis;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+import static com.github.jsonj.tools.JsonBuilder.field;
+import static com.github.jsonj.tools.JsonBuilder.nullValue;
+import static com.github.jsonj.tools.JsonBuilder.object;
+import static com.github.jsonj.tools.JsonBuilder.primitive;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.jsonj.JsonObject;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import org.testng.annotations.Test;
+
+@Test
+public class SmileCodecTest {
+    private final SmileCodec codec = new SmileCodec();
+
+    public void shouldRoundTripObjects() {
+        JsonObject original = object(
+                field("id", "1"),
+                field("count", 42),
+                field("long", Long.MAX_VALUE),
+                field("ratio", 0.25),
+                field("active", true),
+                field("deleted", false),
+                field("missing", nullValue()),
+                field("tags", array("a", "b", "a")),
+                field("nested", object(field("name", "nested"), field("items", array(object(field("x", 1)), object(field("x", 2)))))));
+
+        JsonObject decoded = codec.decode(codec.encode(original));
+
+        assertThat(decoded.getString("id")).isEqualTo("1");
+        assertThat(decoded.getLong("count")).isEqualTo(42L);
+        assertThat(decoded.getLong("long")).isEqualTo(Long.MAX_VALUE);
+        assertThat(decoded.getDouble("ratio")).isEqualTo(0.25);
+        assertThat(decoded.getBoolean("active")).isTrue();
+        assertThat(decoded.getBoolean("deleted")).isFalse();
+        assertThat(decoded.containsKey("missing")).isTrue();
+        assertThat(decoded.get("missing").isNull()).isTrue();
+        assertThat(decoded.getArray("tags").size()).isEqualTo(3);
+        assertThat(decoded.getArray("tags").get(2).asString()).isEqualTo("a");
+        assertThat(decoded.getObject("nested").getString("name")).isEqualTo("nested");
+        assertThat(decoded.getObject("nested").getArray("items").get(1).asObject().getLong("x")).isEqualTo(2L);
+    }
+
+    public void shouldNotTruncateBigNumbers() {
+        BigInteger bigInteger = BigInteger.valueOf(Long.MAX_VALUE).multiply(BigInteger.valueOf(1000));
+        BigDecimal bigDecimal = new BigDecimal("3.14159265358979323846264338327950288");
+        JsonObject original = object(field("id", "1"), field("bigInteger", primitive(bigInteger)), field("bigDecimal", primitive(bigDecimal)));
+
+        JsonObject decoded = codec.decode(codec.encode(original));
+
+        assertThat(decoded.get("bigInteger").asPrimitive().value()).isEqualTo(bigInteger);
+        assertThat(decoded.get("bigDecimal").asPrimitive().value()).isEqualTo(bigDecimal);
+    }
+}